@@ -11,6 +11,7 @@ import org.jetbrains.bio.browser.model.LocationReference
 import org.jetbrains.bio.browser.model.MultipleLocationsBrowserModel
 import org.jetbrains.bio.browser.tasks.CancellableState
 import org.jetbrains.bio.browser.tracks.TrackView
+import org.jetbrains.bio.browser.util.TileCache
 import org.jetbrains.bio.browser.util.TrackUIUtil
 import org.jetbrains.bio.browser.util.TrackViewRenderer
 import org.jetbrains.bio.ext.awaitAll
@@ -37,7 +38,7 @@ class HeadlessGenomeBrowser(override var model: BrowserModel,
     override val locationsMap = locationsMap.mapKeys { it.key.toLowerCase() }
 
     @Throws(CancellationException::class)
-    fun paint(width: Int) = paint(model, trackViews, width)
+    fun paint(width: Int) = paint(model, trackViews, width, TILES)
 
     override fun execute(command: Command?) {
         // Web browser client maintains its own history, so the server
@@ -52,15 +53,22 @@ class HeadlessGenomeBrowser(override var model: BrowserModel,
         @JvmField val SCREENSHOT_WIDTH = 1600
         @JvmField val SCREENSHOT_HEIGHT = 1200
 
+        /** Shared by all the browsers, so that memory is bounded per process. */
+        @JvmField val TILES = TileCache()
+
         /**
          * Renders a list of track views to an image.
          *
+         * If [tileCache] is given, single location models are composed of
+         * cached tiles, see [TileCache].
+         *
          * @returns the resulting image or `null` if a [CancellationException]
          *          occurred during rendering.
          */
         @Throws(CancellationException::class)
+        @JvmOverloads
         @JvmStatic fun paint(browserModel: BrowserModel, trackViews: List<TrackView>,
-                             width: Int): BufferedImage? {
+                             width: Int, tileCache: TileCache? = null): BufferedImage? {
             val stopwatch = Stopwatch.createStarted()
 
             val headerView = GenomeBrowser.createHeaderView(browserModel)
@@ -103,7 +111,7 @@ class HeadlessGenomeBrowser(override var model: BrowserModel,
                     LOG.time(message = "Paint tracks: ${trackView.title}") {
                         TrackViewRenderer.paintHeadless(browserModel, trackGraphics, trackView,
                                                         width, trackHeight,
-                                                        cancellableState)
+                                                        cancellableState, tileCache)
                     }
                 })
             }
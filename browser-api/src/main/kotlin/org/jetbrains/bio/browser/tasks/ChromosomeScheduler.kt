@@ -0,0 +1,135 @@
+package org.jetbrains.bio.browser.tasks
+
+import org.jetbrains.bio.ext.SharedPool
+import org.jetbrains.bio.genome.Chromosome
+import java.util.*
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.ForkJoinPool
+import java.util.concurrent.atomic.AtomicReference
+
+/**
+ * A process-wide scheduler for per-chromosome computations, e.g.
+ * binning of genome browser tracks.
+ *
+ * All the computations share [SharedPool], so preprocessing several
+ * tracks at once doesn't oversubscribe the CPU. The chromosomes are
+ * processed largest first, which keeps a single huge chromosome from
+ * being the last one to finish. At most [maxResident] chromosomes are
+ * processed at any time across all the callers, bounding the memory
+ * taken by intermediate per-chromosome data.
+ *
+ * Chromosomes waiting for admission are queued rather than blocking
+ * pool threads: a thread finishing a chromosome picks the next queued
+ * one, and the caller of [map] helps until the queue is drained.
+ *
+ * A [map] called from within [f] already holds a slot, waiting for
+ * another one could deadlock once all the slots are taken by the outer
+ * calls, thus nested calls process the chromosomes inline instead.
+ *
+ * The default limit is one chromosome per 512 MiB of the maximum heap
+ * size, but no more than [SharedPool.parallelism]. It can be changed
+ * with the `chromosomes.max.resident` system property.
+ */
+object ChromosomeScheduler {
+    val maxResident: Int = Integer.getInteger(
+            "chromosomes.max.resident",
+            Math.min(SharedPool.parallelism,
+                     Math.max(1L, Runtime.getRuntime().maxMemory() / (512L shl 20)).toInt()))
+
+    /** Admitted chromosomes are removed from the queue. */
+    private val QUEUE = ArrayDeque<Runnable>()
+    private var resident = 0  // guarded by QUEUE.
+
+    /** Set while the current thread processes an admitted chromosome. */
+    private val ADMITTED = ThreadLocal<Boolean>()
+
+    /**
+     * Applies [f] to each of the [chromosomes] in parallel and returns
+     * the results in the order of [chromosomes].
+     *
+     * The [cancellableState], by default the one of the calling thread,
+     * is checked before processing each chromosome, so a cancelled call
+     * stops after the chromosomes currently being processed.
+     */
+    fun <T> map(chromosomes: List<Chromosome>,
+                cancellableState: CancellableState = CancellableState.current(),
+                f: (Chromosome) -> T): List<T> {
+        if (ADMITTED.get() == true) {
+            return chromosomes.map {
+                cancellableState.checkCanceled()
+                f(it)
+            }
+        }
+
+        val results = arrayOfNulls<Any?>(chromosomes.size)
+        val error = AtomicReference<Throwable>()
+        val latch = CountDownLatch(chromosomes.size)
+        val tasks = chromosomes.indices.sortedByDescending { chromosomes[it].length }.map { i ->
+            Runnable {
+                try {
+                    if (error.get() == null) {
+                        cancellableState.checkCanceled()
+                        results[i] = f(chromosomes[i])
+                    }
+                } catch (e: Throwable) {
+                    error.compareAndSet(null, e)
+                } finally {
+                    latch.countDown()
+                }
+            }
+        }
+
+        synchronized(QUEUE) { QUEUE.addAll(tasks) }
+
+        // The caller is a worker as well.
+        for (i in 1..Math.min(tasks.size, maxResident) - 1) {
+            SharedPool.pool.execute(Runnable { drain() })
+        }
+
+        drain()
+
+        // The caller might be a pool worker itself, e.g. a track being
+        // preprocessed in parallel, let the pool compensate for it.
+        ForkJoinPool.managedBlock(object : ForkJoinPool.ManagedBlocker {
+            override fun block(): Boolean {
+                latch.await()
+                return true
+            }
+
+            override fun isReleasable() = latch.count == 0L
+        })
+
+        val e = error.get()
+        if (e != null) {
+            throw e
+        }
+
+        @Suppress("unchecked_cast")
+        return results.asList() as List<T>
+    }
+
+    /**
+     * Processes queued chromosomes while there are free slots. Never
+     * blocks, a slot released by a busy thread is reused by that thread.
+     */
+    private fun drain() {
+        while (true) {
+            val task = synchronized(QUEUE) {
+                if (resident < maxResident && QUEUE.isNotEmpty()) {
+                    resident++
+                    QUEUE.poll()
+                } else {
+                    null
+                }
+            } ?: return
+
+            ADMITTED.set(true)
+            try {
+                task.run()
+            } finally {
+                ADMITTED.remove()
+                synchronized(QUEUE) { resident-- }
+            }
+        }
+    }
+}
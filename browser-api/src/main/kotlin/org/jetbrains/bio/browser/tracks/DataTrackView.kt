@@ -0,0 +1,65 @@
+package org.jetbrains.bio.browser.tracks
+
+import org.jetbrains.bio.browser.model.SingleLocationBrowserModel
+import org.jetbrains.bio.browser.util.Key
+import org.jetbrains.bio.browser.util.Storage
+import org.jetbrains.bio.genome.ChromosomeRange
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * A track view, which fetches its data once per render.
+ *
+ * The data is fetched in [initConfig] and stored in the render config,
+ * so that [computeScales] and [paintTrack] share a single object for a
+ * given (model range, width) pair instead of reading the file twice.
+ */
+abstract class DataTrackView<T : Any>(title: String) : TrackView(title) {
+    private data class RenderData<T>(val range: ChromosomeRange, val width: Int, val data: T)
+
+    /** Configs are copied by composite views, thus the key is unique per view. */
+    private val dataKey = Key<RenderData<T>>("DATA${KEYS.incrementAndGet()}")
+
+    /**
+     * Fetches the data to be shown for a given model and config. Called
+     * at most once per render.
+     */
+    protected abstract fun fetchData(model: SingleLocationBrowserModel, conf: Storage): T
+
+    override fun initConfig(model: SingleLocationBrowserModel, conf: Storage) {
+        getData(model, conf)
+    }
+
+    /**
+     * Returns the data fetched for the current render, fetching it in
+     * case [initConfig] wasn't called.
+     */
+    fun getData(model: SingleLocationBrowserModel, conf: Storage): T {
+        val range = model.chromosomeRange
+        val width = conf[TrackView.WIDTH]
+        if (dataKey in conf) {
+            val cached = conf[dataKey]
+            if (cached.range == range && cached.width == width) {
+                HITS.incrementAndGet()
+                return cached.data
+            }
+        }
+
+        MISSES.incrementAndGet()
+        val data = fetchData(model, conf)
+        conf[dataKey] = RenderData(range, width, data)
+        return data
+    }
+
+    companion object {
+        private val KEYS = AtomicInteger()
+        private val HITS = AtomicLong()
+        private val MISSES = AtomicLong()
+
+        /** Number of times the data was reused within a render. */
+        fun hits() = HITS.get()
+
+        /** Number of times the data was fetched. */
+        fun misses() = MISSES.get()
+    }
+}
@@ -139,6 +139,16 @@ interface TrackViewWithControls {
     fun initTrackControlsPane() = createTrackControlsPane()?.first
 }
 
+/**
+ * Marker interface of [TrackView] showing a fixed number of bins
+ * regardless of the range and width painted.
+ *
+ * A tile of such a view would have bins of a different size than the
+ * whole frame, thus these views are never composed from tiles, see
+ * [org.jetbrains.bio.browser.util.TileCache].
+ */
+interface FixedBinsTrackView
+
 interface TrackViewListener {
     fun repaintRequired()
     fun relayoutRequired()
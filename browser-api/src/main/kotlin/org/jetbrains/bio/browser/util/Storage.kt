@@ -52,6 +52,18 @@ class Storage {
         }
     }
 
+    /**
+     * Returns a snapshot of the stored values, ignoring the given keys.
+     */
+    fun content(vararg ignored: Key<*>): Map<String, Any> {
+        val content = HashMap<String, Any>(map)
+        for (key in ignored) {
+            content.remove(key.id)
+        }
+
+        return content
+    }
+
     fun copy(): Storage {
         val copy = Storage()
         copy.map.putAll(map)
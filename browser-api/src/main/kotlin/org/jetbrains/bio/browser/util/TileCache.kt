@@ -0,0 +1,261 @@
+package org.jetbrains.bio.browser.util
+
+import com.google.common.cache.Cache
+import com.google.common.cache.CacheBuilder
+import com.google.common.cache.CacheStats
+import com.google.common.cache.Weigher
+import org.jetbrains.bio.browser.createAAGraphics
+import org.jetbrains.bio.browser.model.SingleLocationBrowserModel
+import org.jetbrains.bio.browser.tasks.CancellableState
+import org.jetbrains.bio.browser.tracks.TrackView
+import org.jetbrains.bio.browser.tracks.TrackViewListener
+import org.jetbrains.bio.genome.Chromosome
+import org.jetbrains.bio.genome.Range
+import java.awt.AlphaComposite
+import java.awt.image.BufferedImage
+import java.util.*
+import java.util.concurrent.CancellationException
+
+/**
+ * Memory-bounded cache of rendered track tiles.
+ *
+ * A track is rendered in genome-aligned tiles of [TILE_WIDTH] pixels,
+ * keyed by (track, chromosome, zoom level, tile index, config). The zoom
+ * level is the number of base pairs covered by a single tile, which is
+ * preserved by scrolling, so panning only renders the newly exposed tiles.
+ *
+ * The scales are shared by all the tiles of a zoom level, otherwise the
+ * tiles of a single frame would be painted with different scales. They
+ * are computed by the first frame rendered at that level and widened,
+ * dropping the tiles of the level, once a newly rendered tile doesn't
+ * fit them, e.g. when panning to higher values. Each tile is tagged
+ * with the scales it was painted with, so that a tile painted
+ * concurrently with the widening is never mixed with the tiles painted
+ * at the new scales. Each tile is painted with a margin of half a tile
+ * on both sides, so that features and labels crossing the tile
+ * boundaries aren't clipped. The tiles of a track are dropped once the
+ * track requests a repaint.
+ */
+class TileCache(maxBytes: Long = DEFAULT_MAX_BYTES) {
+    data class Level(val trackView: TrackView,
+                     val chromosome: Chromosome,
+                     val tileLength: Int,
+                     val height: Int,
+                     val config: Map<String, Any>)
+
+    data class Key(val level: Level, val index: Int)
+
+    /** A rendered tile tagged with the level scales it was painted with. */
+    private class Tile(val image: BufferedImage, val scales: List<TrackView.Scale>)
+
+    private val cache: Cache<Key, Tile> = CacheBuilder.newBuilder()
+            .maximumWeight(maxBytes)
+            .weigher(Weigher<Key, Tile> { key, tile -> 4 * tile.image.width * tile.image.height })
+            .recordStats()
+            .build<Key, Tile>()
+
+    private val scales: Cache<Level, List<TrackView.Scale>> = CacheBuilder.newBuilder()
+            .maximumSize(1024)
+            .build<Level, List<TrackView.Scale>>()
+
+    private val tracked = Collections.newSetFromMap(WeakHashMap<TrackView, Boolean>())
+
+    /**
+     * Renders a given track to an image, reusing the cached tiles.
+     *
+     * Unlike [TrackViewRenderer.paintToImage] only single location
+     * models are supported.
+     */
+    @Throws(CancellationException::class)
+    fun paintToImage(bufferedImage: BufferedImage,
+                     model: SingleLocationBrowserModel,
+                     width: Int, height: Int,
+                     trackView: TrackView,
+                     cancellableState: CancellableState,
+                     uiModel: Storage) {
+        track(trackView)
+
+        val modelCopy = model.copy()
+        val range = modelCopy.range
+        val pxPerBp = width.toDouble() / range.length()
+        val tileLength = Math.max(1, Math.round(TILE_WIDTH / pxPerBp).toInt())
+        val level = Level(trackView, modelCopy.chromosome, tileLength, height,
+                          uiModel.content(TrackView.WIDTH, TrackView.HEIGHT, TrackView.SCALES))
+
+        val config = uiModel.copy()
+        config[TrackView.WIDTH] = width
+        config[TrackView.HEIGHT] = height
+        val firstTile = range.startOffset / tileLength
+        val lastTile = (range.endOffset - 1) / tileLength
+        val tiles = ArrayList<BufferedImage>()
+        var levelScales = getScales(level, modelCopy, config)
+        while (tiles.size < lastTile - firstTile + 1) {
+            cancellableState.checkCanceled()
+            val tile = getTile(Key(level, firstTile + tiles.size), modelCopy, levelScales,
+                               cancellableState, uiModel)
+            if (tile == null) {
+                // The scales were widened, the tiles have to be repainted.
+                tiles.clear()
+                levelScales = getScales(level, modelCopy, config)
+            } else {
+                tiles.add(tile)
+            }
+        }
+
+        config[TrackView.SCALES] = levelScales
+        val g2d = bufferedImage.createAAGraphics()
+        try {
+            for ((j, tile) in tiles.withIndex()) {
+                val i = firstTile + j
+                val tileStart = i * tileLength
+                val tileEnd = Math.min(tileStart + tileLength, modelCopy.chromosome.length)
+                val x = Math.round((tileStart - range.startOffset) * pxPerBp).toInt()
+                val endX = Math.round((tileEnd - range.startOffset) * pxPerBp).toInt()
+                g2d.drawImage(tile, x, 0, endX - x, height, null)
+            }
+
+            if (config[TrackView.SHOW_AXIS]) {
+                g2d.composite = AlphaComposite.SrcOver
+                trackView.drawAxis(g2d, config, width, height, false)
+            }
+
+            if (config[TrackView.SHOW_LEGEND]) {
+                g2d.composite = AlphaComposite.SrcOver
+                trackView.drawLegend(g2d, width, height, false)
+            }
+        } finally {
+            g2d.dispose()
+        }
+    }
+
+    private fun getScales(level: Level, model: SingleLocationBrowserModel,
+                          config: Storage): List<TrackView.Scale> {
+        val cached = scales.getIfPresent(level)
+        if (cached != null) {
+            return cached
+        }
+
+        // The only whole frame fetch, subsequent frames at this zoom
+        // level fetch the data of the missing tiles only.
+        level.trackView.initConfig(model, config)
+        val levelScales = TrackViewRenderer.computeScale(level.trackView, listOf(model to config))
+        scales.put(level, levelScales)
+        return levelScales
+    }
+
+    /**
+     * Returns the tile for a given key or `null` if the tile doesn't fit
+     * the scales of its level. The scales are then widened and the tiles
+     * of the level are dropped.
+     */
+    private fun getTile(key: Key, model: SingleLocationBrowserModel,
+                        levelScales: List<TrackView.Scale>,
+                        cancellableState: CancellableState,
+                        uiModel: Storage): BufferedImage? {
+        val cached = cache.getIfPresent(key)
+        if (cached != null && cached.scales == levelScales) {
+            return cached.image
+        }
+
+        // Not using [Cache.get], because it would wrap cancellation
+        // into an unchecked exception.
+        val tileLength = key.level.tileLength
+        val chromosomeLength = model.chromosome.length
+        val tileStart = key.index * tileLength
+        val tileEnd = Math.min(tileStart + tileLength, chromosomeLength)
+        val paintStart = Math.max(0, tileStart - tileLength / 2)
+        val paintEnd = Math.min(chromosomeLength, tileEnd + tileLength / 2)
+
+        val pxPerBp = TILE_WIDTH.toDouble() / tileLength
+        val left = Math.round((tileStart - paintStart) * pxPerBp).toInt()
+        val tileWidth = Math.max(1, Math.round((tileEnd - tileStart) * pxPerBp).toInt())
+        val paintWidth = Math.max(left + tileWidth,
+                                  Math.round((paintEnd - paintStart) * pxPerBp).toInt())
+        val height = key.level.height
+        val paintModel = SingleLocationBrowserModel(model.genomeQuery, model.chromosome,
+                                                    Range(paintStart, paintEnd))
+
+        val config = uiModel.copy()
+        config[TrackView.WIDTH] = paintWidth
+        config[TrackView.HEIGHT] = height
+        config[TrackView.SHOW_AXIS] = false
+        config[TrackView.SHOW_LEGEND] = false
+        key.level.trackView.initConfig(paintModel, config)
+        val levelScale = levelScales.fold(TrackView.Scale.undefined(), TrackView.Scale::union)
+        val tileScale = key.level.trackView.computeScales(paintModel, config)
+                .fold(levelScale, TrackView.Scale::union)
+        if (tileScale != levelScale) {
+            // Merging rather than replacing, so that concurrent widenings
+            // of the same level don't undo each other.
+            scales.asMap().merge(key.level, listOf(tileScale)) { old, new ->
+                listOf((old + new).fold(TrackView.Scale.undefined(), TrackView.Scale::union))
+            }
+            cache.asMap().keys.removeAll { it.level == key.level }
+            return null
+        }
+
+        config[TrackView.SCALES] = levelScales
+
+        val canvas = BufferedImage(paintWidth, height, BufferedImage.TYPE_INT_ARGB)
+        var g2d = canvas.createAAGraphics()
+        try {
+            key.level.trackView.paintTrack(g2d, paintModel, config)
+        } finally {
+            g2d.dispose()
+        }
+
+        cancellableState.checkCanceled()
+        val tile = BufferedImage(tileWidth, height, BufferedImage.TYPE_INT_ARGB)
+        g2d = tile.createAAGraphics()
+        try {
+            g2d.composite = AlphaComposite.Src
+            g2d.drawImage(canvas, -left, 0, null)
+        } finally {
+            g2d.dispose()
+        }
+
+        // The level might have been widened while painting, such a tile
+        // is still fine for the current frame, but not for the others.
+        if (scales.getIfPresent(key.level) == levelScales) {
+            cache.put(key, Tile(tile, levelScales))
+        }
+
+        return tile
+    }
+
+    private fun track(trackView: TrackView) {
+        synchronized(tracked) {
+            if (!tracked.add(trackView)) {
+                return
+            }
+        }
+
+        trackView.addListener(object : TrackViewListener {
+            override fun repaintRequired() = invalidate(trackView)
+
+            override fun relayoutRequired() = invalidate(trackView)
+        })
+    }
+
+    /**
+     * Drops all the tiles of a given track.
+     */
+    fun invalidate(trackView: TrackView) {
+        cache.asMap().keys.removeAll { it.level.trackView === trackView }
+        scales.asMap().keys.removeAll { it.trackView === trackView }
+    }
+
+    fun invalidateAll() {
+        cache.invalidateAll()
+        scales.invalidateAll()
+    }
+
+    fun size() = cache.size()
+
+    fun stats(): CacheStats = cache.stats()
+
+    companion object {
+        const val TILE_WIDTH = 256
+        const val DEFAULT_MAX_BYTES = 128L shl 20
+    }
+}
@@ -6,6 +6,7 @@ import org.jetbrains.bio.browser.model.LocationReference
 import org.jetbrains.bio.browser.model.MultipleLocationsBrowserModel
 import org.jetbrains.bio.browser.model.SingleLocationBrowserModel
 import org.jetbrains.bio.browser.tasks.CancellableState
+import org.jetbrains.bio.browser.tracks.FixedBinsTrackView
 import org.jetbrains.bio.browser.tracks.TrackView
 import org.jetbrains.bio.genome.query.GenomeQuery
 import java.awt.AlphaComposite
@@ -24,12 +25,19 @@ import java.util.concurrent.CancellationException
 object TrackViewRenderer {
     @JvmField val TITLE_HEIGHT = TrackUIUtil.DEFAULT_FONT_HEIGHT + 10
 
+    /**
+     * Paints a track with its title. Single location models are painted
+     * from [tileCache] tiles, if given, unless the track shows a fixed
+     * number of bins, see [FixedBinsTrackView].
+     */
     @Throws(CancellationException::class)
+    @JvmOverloads
     @JvmStatic fun paintHeadless(model: BrowserModel,
                                  g: Graphics,
                                  trackView: TrackView,
                                  width: Int, height: Int,
-                                 cancellableState: CancellableState) {
+                                 cancellableState: CancellableState,
+                                 tileCache: TileCache? = null) {
         (g as Graphics2D).background = Color.WHITE
         g.clearRect(0, 0, width, TITLE_HEIGHT)
         if (trackView.title.isNotBlank()) {
@@ -43,7 +51,13 @@ object TrackViewRenderer {
         val plotHeight = height - TITLE_HEIGHT
         if (plotHeight > 0) {
             val bufferedPlot = BufferedImage(width, plotHeight, BufferedImage.TYPE_INT_ARGB)
-            paintToImage(bufferedPlot, model, width, plotHeight, trackView, cancellableState, uiModel)
+            if (tileCache != null && model is SingleLocationBrowserModel &&
+                trackView !is FixedBinsTrackView) {
+                tileCache.paintToImage(bufferedPlot, model, width, plotHeight, trackView,
+                                       cancellableState, uiModel)
+            } else {
+                paintToImage(bufferedPlot, model, width, plotHeight, trackView, cancellableState, uiModel)
+            }
 
             g.drawImage(bufferedPlot, 0, TITLE_HEIGHT + 1, null)
             // Component separator
@@ -154,7 +168,7 @@ object TrackViewRenderer {
      * Compute scales for all the models, i.e. difference locations and summarize them
      * using [TrackView.Scale.union].
      */
-    private fun computeScale(trackView: TrackView,
+    internal fun computeScale(trackView: TrackView,
                              modelsAndConfigs: List<Pair<SingleLocationBrowserModel, Storage>>): List<TrackView.Scale> {
         val commonScales = modelsAndConfigs.map { m2Config ->
             trackView.computeScales(m2Config.first, m2Config.second)
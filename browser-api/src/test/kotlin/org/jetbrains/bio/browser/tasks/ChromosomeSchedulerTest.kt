@@ -0,0 +1,74 @@
+package org.jetbrains.bio.browser.tasks
+
+import org.jetbrains.bio.ext.SharedPool
+import org.jetbrains.bio.genome.query.GenomeQuery
+import org.junit.Test
+import java.util.concurrent.Callable
+import java.util.concurrent.CancellationException
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+import kotlin.test.assertEquals
+import kotlin.test.assertTrue
+
+class ChromosomeSchedulerTest {
+    private val chromosomes = GenomeQuery("to1").get()
+
+    @Test fun testMap() {
+        assertEquals(chromosomes.map { it.name },
+                     ChromosomeScheduler.map(chromosomes) { it.name })
+    }
+
+    @Test fun testResident() {
+        val resident = AtomicInteger()
+        val maxResident = AtomicInteger()
+        ChromosomeScheduler.map(chromosomes) {
+            val current = resident.incrementAndGet()
+            maxResident.accumulateAndGet(current) { a, b -> Math.max(a, b) }
+            Thread.sleep(10)
+            resident.decrementAndGet()
+        }
+
+        assertTrue(maxResident.get() <= ChromosomeScheduler.maxResident)
+    }
+
+    @Test fun testConcurrentMapsDontSpawnThreads() {
+        val maxPoolSize = AtomicInteger()
+        val executor = Executors.newFixedThreadPool(8)
+        try {
+            val futures = (0..7).map {
+                executor.submit(Callable {
+                    ChromosomeScheduler.map(chromosomes) {
+                        maxPoolSize.accumulateAndGet(SharedPool.pool.poolSize) { a, b -> Math.max(a, b) }
+                        Thread.sleep(10)
+                    }
+                })
+            }
+
+            futures.forEach { it.get(1, TimeUnit.MINUTES) }
+        } finally {
+            executor.shutdown()
+        }
+
+        assertTrue(maxPoolSize.get() <= SharedPool.parallelism)
+    }
+
+    @Test fun testNestedMap() {
+        val names = ChromosomeScheduler.map(chromosomes) { outer ->
+            ChromosomeScheduler.map(chromosomes) { "${outer.name}:${it.name}" }
+        }
+
+        assertEquals(chromosomes.map { outer -> chromosomes.map { "${outer.name}:${it.name}" } },
+                     names)
+    }
+
+    @Test(expected = CancellationException::class) fun testCancel() {
+        val cancellableState = CancellableState.current()
+        cancellableState.cancel()
+        try {
+            ChromosomeScheduler.map(chromosomes) { error("cancelled") }
+        } finally {
+            cancellableState.reset()
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package org.jetbrains.bio.browser.tracks
+
+import org.jetbrains.bio.browser.model.SingleLocationBrowserModel
+import org.jetbrains.bio.browser.tasks.CancellableState
+import org.jetbrains.bio.browser.util.Storage
+import org.jetbrains.bio.browser.util.TrackViewRenderer
+import org.jetbrains.bio.genome.Range
+import org.jetbrains.bio.genome.query.GenomeQuery
+import org.junit.Test
+import java.awt.Graphics
+import java.awt.image.BufferedImage
+import kotlin.test.assertEquals
+
+class DataTrackViewTest {
+    private val model = SingleLocationBrowserModel(GenomeQuery("to1"))
+
+    private class CountingTrackView : DataTrackView<Range>("counting") {
+        var fetches = 0
+
+        override fun fetchData(model: SingleLocationBrowserModel, conf: Storage): Range {
+            fetches++
+            return model.range
+        }
+
+        override fun computeScales(model: SingleLocationBrowserModel, conf: Storage): List<Scale> {
+            val range = getData(model, conf)
+            return listOf(Scale(0.0, range.length().toDouble()))
+        }
+
+        override fun paintTrack(g: Graphics, model: SingleLocationBrowserModel, conf: Storage) {
+            assertEquals(model.range, getData(model, conf))
+        }
+    }
+
+    @Test fun fetchOncePerRender() {
+        val trackView = CountingTrackView()
+        paint(trackView, 1000)
+        assertEquals(1, trackView.fetches)
+
+        paint(trackView, 1000)
+        assertEquals(2, trackView.fetches)
+    }
+
+    @Test fun fetchOnRangeChange() {
+        val trackView = CountingTrackView()
+        val conf = Storage()
+        conf[TrackView.WIDTH] = 100
+        trackView.initConfig(model, conf)
+        trackView.getData(model, conf)
+        assertEquals(1, trackView.fetches)
+
+        model.range = Range(0, model.range.length() / 2)
+        assertEquals(model.range, trackView.getData(model, conf))
+        assertEquals(2, trackView.fetches)
+    }
+
+    private fun paint(trackView: TrackView, width: Int) {
+        val img = BufferedImage(width, 50, BufferedImage.TYPE_INT_RGB)
+        val uiModel = Storage()
+        uiModel[TrackView.SHOW_AXIS] = false
+        uiModel[TrackView.SHOW_LEGEND] = false
+        TrackViewRenderer.paintToImage(img, model, img.width, img.height, trackView,
+                                       CancellableState.current(),
+                                       uiModel)
+    }
+}
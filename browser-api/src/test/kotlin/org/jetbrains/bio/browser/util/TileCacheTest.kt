@@ -0,0 +1,164 @@
+package org.jetbrains.bio.browser.util
+
+import org.jetbrains.bio.browser.model.SingleLocationBrowserModel
+import org.jetbrains.bio.browser.tasks.CancellableState
+import org.jetbrains.bio.browser.tracks.TrackView
+import org.jetbrains.bio.genome.Range
+import org.jetbrains.bio.genome.query.GenomeQuery
+import org.junit.Test
+import java.awt.Color
+import java.awt.Graphics
+import java.awt.image.BufferedImage
+import java.util.*
+import kotlin.test.assertEquals
+import kotlin.test.assertTrue
+
+class TileCacheTest {
+    private val model = SingleLocationBrowserModel(GenomeQuery("to1"))
+
+    /** Paints a black pixel every 100 bp. */
+    private class TicksTrackView : TrackView("ticks") {
+        val painted = ArrayList<Range>()
+
+        override fun paintTrack(g: Graphics, model: SingleLocationBrowserModel, conf: Storage) {
+            synchronized(painted) { painted.add(model.range) }
+            val width = conf[TrackView.WIDTH]
+            val range = model.range
+            g.color = Color.BLACK
+            for (offset in (range.startOffset + 99) / 100 * 100..range.endOffset - 1 step 100) {
+                val x = ((offset - range.startOffset).toLong() * width / range.length()).toInt()
+                g.fillRect(x, 0, 1, conf[TrackView.HEIGHT])
+            }
+        }
+    }
+
+    /** Paints a 30 px wide box starting every 1000 bp. */
+    private class BoxesTrackView : TrackView("boxes") {
+        override fun paintTrack(g: Graphics, model: SingleLocationBrowserModel, conf: Storage) {
+            val width = conf[TrackView.WIDTH]
+            val range = model.range
+            g.color = Color.BLACK
+            for (offset in range.startOffset / 1000 * 1000..range.endOffset - 1 step 1000) {
+                val x = ((offset - range.startOffset).toLong() * width / range.length()).toInt()
+                g.fillRect(x, 0, 30, conf[TrackView.HEIGHT])
+            }
+        }
+    }
+
+    /** Values are 10 before 8192 bp and 100 after it. */
+    private class ScaledTrackView : TrackView("scaled") {
+        val painted = ArrayList<Pair<Range, Double>>()
+
+        override fun computeScales(model: SingleLocationBrowserModel, conf: Storage): List<Scale> {
+            return listOf(Scale(0.0, if (model.range.endOffset > 8192) 100.0 else 10.0))
+        }
+
+        override fun paintTrack(g: Graphics, model: SingleLocationBrowserModel, conf: Storage) {
+            synchronized(painted) { painted.add(model.range to conf[TrackView.SCALES].single().max) }
+        }
+    }
+
+    @Test fun testPanningReusesTiles() {
+        val tileCache = TileCache()
+        val trackView = TicksTrackView()
+        model.range = Range(0, 1024 * 4)
+        paint(tileCache, trackView)
+        assertEquals(4, trackView.painted.size)
+
+        // Shift by two tiles, only these have to be rendered, each with
+        // a margin of half a tile.
+        model.range = Range(1024 * 2, 1024 * 6)
+        paint(tileCache, trackView)
+        assertEquals(6, trackView.painted.size)
+        assertEquals(listOf(Range(1024 * 4 - 512, 1024 * 5 + 512), Range(1024 * 5 - 512, 1024 * 6 + 512)),
+                     trackView.painted.subList(4, 6).sortedBy { it.startOffset })
+    }
+
+    @Test fun testPanningKeepsScales() {
+        val tileCache = TileCache()
+        val trackView = ScaledTrackView()
+        model.range = Range(0, 1024 * 4)
+        paint(tileCache, trackView)
+        assertEquals((0..3).map { 10.0 }, trackView.painted.map { it.second })
+
+        // Panning within the scales renders the new tile only.
+        model.range = Range(1024, 1024 * 5)
+        paint(tileCache, trackView)
+        assertEquals((0..4).map { 10.0 }, trackView.painted.map { it.second })
+
+        model.range = Range(0, 1024 * 4)
+        paint(tileCache, trackView)
+        assertEquals(5, trackView.painted.size)
+    }
+
+    @Test fun testPanningWidensScales() {
+        val tileCache = TileCache()
+        val trackView = ScaledTrackView()
+        model.range = Range(0, 1024 * 4)
+        paint(tileCache, trackView)
+
+        // Tile 7 with the margin goes past 8192, thus the whole frame
+        // is repainted with the wider scales.
+        model.range = Range(1024 * 6, 1024 * 10)
+        paint(tileCache, trackView)
+        assertEquals((6..9).map { Range(1024 * it - 512, 1024 * (it + 1) + 512) },
+                     trackView.painted.filter { it.second == 100.0 }
+                             .map { it.first }.sortedBy { it.startOffset })
+
+        // The tiles painted with the old scales were dropped.
+        val painted = trackView.painted.size
+        model.range = Range(0, 1024 * 4)
+        paint(tileCache, trackView)
+        assertEquals(painted + 4, trackView.painted.size)
+        assertTrue(trackView.painted.drop(painted).all { it.second == 100.0 })
+    }
+
+    @Test fun testFeaturesCrossingTiles() {
+        val trackView = BoxesTrackView()
+        model.range = Range(2048, 2048 + 4096)
+        val tiled = paint(TileCache(), trackView)
+        val full = BufferedImage(tiled.width, tiled.height, BufferedImage.TYPE_INT_ARGB)
+        TrackViewRenderer.paintToImage(full, model, full.width, full.height, trackView,
+                                       CancellableState.current(), uiModel())
+        for (x in 0..full.width - 1) {
+            assertEquals(full.getRGB(x, 0), tiled.getRGB(x, 0), "x = $x")
+        }
+    }
+
+    @Test fun testSameAsFullFrame() {
+        val trackView = TicksTrackView()
+        model.range = Range(2048, 2048 + 4096)
+        val tiled = paint(TileCache(), trackView)
+        val full = BufferedImage(tiled.width, tiled.height, BufferedImage.TYPE_INT_ARGB)
+        TrackViewRenderer.paintToImage(full, model, full.width, full.height, trackView,
+                                       CancellableState.current(), uiModel())
+        for (x in 0..full.width - 1) {
+            assertEquals(full.getRGB(x, 0), tiled.getRGB(x, 0), "x = $x")
+        }
+    }
+
+    @Test fun testInvalidateOnRepaint() {
+        val tileCache = TileCache()
+        val trackView = TicksTrackView()
+        model.range = Range(0, 1024)
+        paint(tileCache, trackView)
+        assertTrue(tileCache.size() > 0)
+
+        trackView.fireRepaintRequired()
+        assertEquals(0, tileCache.size())
+    }
+
+    private fun paint(tileCache: TileCache, trackView: TrackView): BufferedImage {
+        val image = BufferedImage(1024, 20, BufferedImage.TYPE_INT_ARGB)
+        tileCache.paintToImage(image, model, image.width, image.height, trackView,
+                               CancellableState.current(), uiModel())
+        return image
+    }
+
+    private fun uiModel(): Storage {
+        val uiModel = Storage()
+        uiModel[TrackView.SHOW_AXIS] = false
+        uiModel[TrackView.SHOW_LEGEND] = false
+        return uiModel
+    }
+}
@@ -6,6 +6,8 @@ import org.jetbrains.bio.big.FixedStepSection
 import org.jetbrains.bio.big.VariableStepSection
 import org.jetbrains.bio.big.WigSection
 import org.jetbrains.bio.browser.model.SingleLocationBrowserModel
+import org.jetbrains.bio.browser.tasks.CancellableState
+import org.jetbrains.bio.browser.tasks.ChromosomeScheduler
 import org.jetbrains.bio.browser.util.Storage
 import org.jetbrains.bio.ext.*
 import org.jetbrains.bio.genome.Chromosome
@@ -17,8 +19,6 @@ import java.awt.Dimension
 import java.nio.file.Path
 import java.util.*
 import java.util.concurrent.Callable
-import java.util.concurrent.Executors
-import java.util.stream.Collectors
 import javax.swing.JComboBox
 import javax.swing.JComponent
 import javax.swing.JOptionPane
@@ -56,8 +56,10 @@ abstract class AbstractBinnedDataTrackView @JvmOverloads constructor(
     ////////////////////////////////////////////////////////////////////////////////////////////////
     override fun preprocess(genomeQuery: GenomeQuery) {
         LOG.time(message = "Browser preprocess data for: $title") {
-            val executor = Executors.newWorkStealingPool(Runtime.getRuntime().availableProcessors())
-            val tasks = ArrayList<Callable<*>>()
+            // The tasks run in the shared pool, so the state has to be
+            // captured here.
+            val cancellableState = CancellableState.current()
+            val tasks = ArrayList<Callable<Unit>>()
             binSizes.forEach { binSize ->
                 (0 until layersNumber).forEach { layer ->
                     val strands = if (strandedData) Strand.values() else arrayOf(Strand.PLUS)
@@ -65,9 +67,9 @@ abstract class AbstractBinnedDataTrackView @JvmOverloads constructor(
                         tasks.add(Callable {
                             val dataPath = getDataPath(layer, strand, binSize, genomeQuery)
                             dataPath.checkOrRecalculate(this.javaClass.simpleName) { output ->
-                                val genomeWigData = genomeQuery.get().stream().parallel().map { chr ->
+                                val genomeWigData = ChromosomeScheduler.map(genomeQuery.get(), cancellableState) { chr ->
                                     calcWigSection(layer, binSize, chr, strand)
-                                }.collectHack(Collectors.toList())
+                                }
 
                                 output.let { path ->
                                     BigWigFile.write(genomeWigData,
@@ -75,13 +77,16 @@ abstract class AbstractBinnedDataTrackView @JvmOverloads constructor(
                                             path)
                                 }
                             }
+
+                            Unit
                         })
                     }
                 }
             }
 
-            executor.awaitAll(tasks)
-            check(executor.shutdownNow().isEmpty())
+            // Per-chromosome work is bounded by the scheduler, so the
+            // tasks themselves can all go at once.
+            tasks.await(parallel = true)
         }
     }
 
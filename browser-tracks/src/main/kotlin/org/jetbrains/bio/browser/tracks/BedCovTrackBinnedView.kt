@@ -45,9 +45,8 @@ class BedCovTrackBinnedView @JvmOverloads constructor(
     override fun preprocess(layer: Int, binSize: Int, chr: Chromosome, strand: Strand): FloatArray {
         val coverage = GenomeCoverageQuery.of(query, uniqueTagsOnly).get()
 
-        return chr.range.slice(binSize).mapToDouble {
-            coverage.getBothStrandCoverage(it.on(chr)).toDouble()
-        }.toArray().map { it.toFloat() }.toFloatArray()
+        val counts = coverage.aggregateBothStrands(chr, binSize)
+        return FloatArray(counts.size) { counts[it].toFloat() }
     }
 
     override fun computeScales(model: SingleLocationBrowserModel, conf: Storage): List<Scale> {
@@ -0,0 +1,113 @@
+package org.jetbrains.bio.browser.tracks
+
+import gnu.trove.list.array.TIntArrayList
+import org.jetbrains.bio.browser.model.SingleLocationBrowserModel
+import org.jetbrains.bio.browser.util.Storage
+import org.jetbrains.bio.browser.util.TrackUIUtil
+import org.jetbrains.bio.ext.name
+import org.jetbrains.bio.genome.ChromosomeRange
+import org.jetbrains.bio.histones.BedTrackQuery
+import org.jetbrains.bio.histones.GenomeCoverageQuery
+import org.jetbrains.bio.io.BedIndex
+import java.awt.Color
+import java.awt.Graphics
+
+/**
+ * A tag coverage track view for sorted uncompressed BED files.
+ *
+ * Shows the same per-bin tag (5' end) counts as [BedCovTrackBinnedView].
+ * Narrow ranges are counted from the records found with the [index],
+ * so zooming in never reads the whole file. Ranges spanning more than
+ * [MAX_INDEXED_BINS] index bins use the cached genome-wide coverage.
+ */
+class BedTrackView @JvmOverloads constructor(
+        private val query: BedTrackQuery,
+        val index: BedIndex,
+        val numBins: Int,
+        private val uniqueTagsOnly: Boolean = true)
+:
+        DataTrackView<IntArray>(query.path.name), FixedBinsTrackView {
+
+    private val coverage = GenomeCoverageQuery.of(query, uniqueTagsOnly)
+
+    override fun fetchData(model: SingleLocationBrowserModel, conf: Storage): IntArray {
+        val range = model.chromosomeRange
+        return if (range.length() <= MAX_INDEXED_BINS * BedIndex.BIN_SIZE) {
+            countIndexed(range)
+        } else {
+            countCached(range)
+        }
+    }
+
+    private fun countIndexed(range: ChromosomeRange): IntArray {
+        val tags = arrayOf(TIntArrayList(), TIntArrayList())
+        index.query(range) { start, end, strand, _score ->
+            val offset = if (end == 0 || strand.isPlus()) start else end - 1
+            if (offset >= range.startOffset && offset < range.endOffset) {
+                tags[strand.ordinal].add(offset)
+            }
+        }
+
+        val counts = IntArray(numBins)
+        for (strandTags in tags) {
+            strandTags.sort()
+            for (i in 0..strandTags.size() - 1) {
+                val offset = strandTags[i]
+                if (!uniqueTagsOnly || i == 0 || strandTags[i - 1] != offset) {
+                    counts[((offset - range.startOffset).toLong() * numBins / range.length()).toInt()]++
+                }
+            }
+        }
+
+        return counts
+    }
+
+    private fun countCached(range: ChromosomeRange): IntArray {
+        // The first offset of each bin, consistent with [countIndexed].
+        val bounds = IntArray(numBins + 1) {
+            range.startOffset +
+            ((it.toLong() * range.length() + numBins - 1) / numBins).toInt()
+        }
+
+        val genomeCoverage = coverage.get()
+        return IntArray(numBins) {
+            genomeCoverage.getBothStrandCoverage(
+                    ChromosomeRange(bounds[it], bounds[it + 1], range.chromosome))
+        }
+    }
+
+    override fun paintTrack(g: Graphics, model: SingleLocationBrowserModel, conf: Storage) {
+        val width = conf[TrackView.WIDTH]
+        val height = conf[TrackView.HEIGHT]
+        val (_min, max) = conf[TrackView.SCALES].first()
+        val step = width / numBins
+        getData(model, conf).forEachIndexed { i, value ->
+            val h = (value / max * height).toInt()
+            g.color = Color.BLUE
+            g.fillRect(i * step, height - h, step, h)
+        }
+    }
+
+    override fun drawLegend(g: Graphics, width: Int, height: Int, drawInBG: Boolean) {
+        TrackUIUtil.drawBoxedLegend(g, width, height, drawInBG,
+                                    Color.BLUE to "tags count")
+    }
+
+    override fun drawAxis(g: Graphics, conf: Storage,
+                          width: Int, height: Int,
+                          drawInBG: Boolean) {
+        TrackUIUtil.drawVerticalAxis(g, "tags count in range (bin)", conf[SCALES].single(),
+                                     drawInBG, width, height)
+    }
+
+    override fun computeScales(model: SingleLocationBrowserModel,
+                               conf: Storage): List<Scale> {
+        val max = getData(model, conf).max() ?: 0
+        return listOf(Scale(0.0, Math.max(1, max).toDouble()))
+    }
+
+    companion object {
+        /** Ranges up to this many index bins long are counted from the file. */
+        const val MAX_INDEXED_BINS = 64
+    }
+}
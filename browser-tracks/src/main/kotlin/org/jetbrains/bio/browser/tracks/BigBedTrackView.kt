@@ -1,6 +1,5 @@
 package org.jetbrains.bio.browser.tracks
 
-import org.jetbrains.bio.big.BigBedFile
 import org.jetbrains.bio.big.BigFile
 import org.jetbrains.bio.big.BigSummary
 import org.jetbrains.bio.browser.model.SingleLocationBrowserModel
@@ -8,6 +7,7 @@ import org.jetbrains.bio.browser.util.Storage
 import org.jetbrains.bio.browser.util.TrackUIUtil
 import org.jetbrains.bio.ext.name
 import org.jetbrains.bio.genome.ChromosomeRange
+import org.jetbrains.bio.io.BigFilePool
 import java.awt.Color
 import java.awt.Graphics
 import java.nio.file.Path
@@ -18,15 +18,17 @@ import java.nio.file.Path
  * @author Sergei Lebedev
  * @since 24/07/15
  */
-class BigBedTrackView(path: Path, val numBins: Int) : TrackView(path.name) {
-    val bbf = BigBedFile.read(path)
+class BigBedTrackView(val path: Path, val numBins: Int) : DataTrackView<List<BigSummary>>(path.name), FixedBinsTrackView {
+    override fun fetchData(model: SingleLocationBrowserModel, conf: Storage): List<BigSummary> {
+        return BigFilePool.withBigBed(path) { it.summarize(model.chromosomeRange, numBins) }
+    }
 
     override fun paintTrack(g: Graphics, model: SingleLocationBrowserModel, conf: Storage) {
         val width = conf[TrackView.WIDTH]
         val height = conf[TrackView.HEIGHT]
         val (_min, max) = conf[TrackView.SCALES].first()
         val step = width / numBins
-        bbf.summarize(model.chromosomeRange, numBins).forEachIndexed { i, summary ->
+        getData(model, conf).forEachIndexed { i, summary ->
             val h = (summary.sum / max * height).toInt()
             g.color = Color.BLACK
             g.fillRect(i * step, height - h, step, h)
@@ -48,7 +50,7 @@ class BigBedTrackView(path: Path, val numBins: Int) : TrackView(path.name) {
 
     override fun computeScales(model: SingleLocationBrowserModel,
                                conf: Storage): List<Scale> {
-        val summaries = bbf.summarize(model.chromosomeRange, numBins)
+        val summaries = getData(model, conf)
         val max = Math.ceil(summaries.map { it.sum }.max()!!)
         return listOf(Scale(0.0, max))
     }
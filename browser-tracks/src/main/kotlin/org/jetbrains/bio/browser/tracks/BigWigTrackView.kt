@@ -14,6 +14,7 @@ import org.jetbrains.bio.ext.*
 import org.jetbrains.bio.genome.ChromosomeRange
 import org.jetbrains.bio.genome.Strand
 import org.jetbrains.bio.genome.query.GenomeQuery
+import org.jetbrains.bio.io.BigFilePool
 import org.jetbrains.bio.util.Colors
 import org.jetbrains.bio.util.Configuration
 import java.awt.*
@@ -98,8 +99,7 @@ abstract class BigWigTrackView(lineType: LineType = LineType.HIST_LIKE,
 
         val binnedSummaryData: List<BigSummary>
         try {
-            //TODO: try to reuse file instance
-            binnedSummaryData = BigWigFile.read(path).use { bwFile ->
+            binnedSummaryData = BigFilePool.withBigWig(path) { bwFile ->
                 bwFile.summarize(range.chromosome.name,
                                  range.startOffset,
                                  range.endOffset,
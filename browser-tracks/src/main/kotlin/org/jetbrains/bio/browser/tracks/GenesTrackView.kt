@@ -28,7 +28,7 @@ class GenesTrackView : TrackView(GeneClass.ALL.description) {
         title = "${GeneClass.ALL.description} ($url)"
 
         for (chromosome in genomeQuery.get()) {
-            chromosome.genes
+            chromosome.geneIndex
         }
     }
 
@@ -47,11 +47,8 @@ class GenesTrackView : TrackView(GeneClass.ALL.description) {
         }
 
         // Genes to show
-        val genes = model.chromosome.genes
-                .filter { it.location.toRange() intersects model.range }
-                // for better layout so genes as ranges, i.e ignoring strand
-                .sortedWith(Comparator.comparing<Gene, Range> { it.location.toRange() })
-                .toList()
+        // Sorted as ranges, i.e. ignoring strand, for better layout.
+        val genes = model.chromosome.geneIndex.query(model.range)
 
         val metaInf = model.rangeMetaInf
         val selectedGene = if (metaInf is GeneLocRef) metaInf.gene else null
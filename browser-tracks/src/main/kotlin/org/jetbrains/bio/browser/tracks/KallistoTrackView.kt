@@ -10,6 +10,7 @@ import org.jetbrains.bio.browser.util.TrackUIUtil
 import org.jetbrains.bio.genome.Chromosome
 import org.jetbrains.bio.genome.Gene
 import org.jetbrains.bio.genome.Range
+import org.jetbrains.bio.genome.containers.IntervalIndex
 import org.jetbrains.bio.genome.query.InputQuery
 import org.jetbrains.bio.transcriptome.TranscriptAbundance
 import java.awt.Color
@@ -22,7 +23,8 @@ import java.awt.Graphics
 class KallistoTrackView(private val inputQuery: InputQuery<List<TranscriptAbundance>>) :
         TrackView(inputQuery.id) {
 
-    private val ABUNDANCES = CacheBuilder.newBuilder().weakKeys().build<Chromosome, List<TranscriptAbundance>>()
+    private val ABUNDANCES = CacheBuilder.newBuilder().weakKeys()
+            .build<Chromosome, IntervalIndex<TranscriptAbundance>>()
 
     override fun paintTrack(g: Graphics, model: SingleLocationBrowserModel, conf: Storage) {
         val trackWidth = conf[TrackView.WIDTH]
@@ -33,33 +35,36 @@ class KallistoTrackView(private val inputQuery: InputQuery<List<TranscriptAbunda
         val locTranscript: Gene? = if (locRef is GeneLocRef) locRef.gene else null
 
         val levels = ArrayListMultimap.create<Int, Range>()
-        for ((transcript, tpm) in ABUNDANCES[chromosome,
-                {inputQuery.get().filter { it.transcript.chromosome == chromosome }}]) {
+        val abundances = ABUNDANCES[chromosome, {
+            IntervalIndex.of(inputQuery.get().filter { it.transcript.chromosome == chromosome }) {
+                it.transcript.location.toRange()
+            }
+        }]
+
+        for ((transcript, tpm) in abundances.query(range)) {
             val location = transcript.location.toRange()
-            if (location intersects range) {
-                // XXX: if locTranscript is known perhaps do not paint other isoforms
-                var i = 0
-                while (i < levels.size()) {
-                    if (levels[i].none { location intersects it }) {
-                        break
-                    }
-                    i++
+            // XXX: if locTranscript is known perhaps do not paint other isoforms
+            var i = 0
+            while (i < levels.size()) {
+                if (levels[i].none { location intersects it }) {
+                    break
                 }
+                i++
+            }
 
-                levels.put(i, location)
-
-                val start = genomeToScreen(location.startOffset, trackWidth, range)
-                val end = genomeToScreen(location.endOffset, trackWidth, range)
+            levels.put(i, location)
 
-                g.color = if (locTranscript != null && locTranscript != transcript) {
-                    Color.LIGHT_GRAY
-                } else {
-                    Color((Math.min(tpm / 10, 1.0) * 255).toInt(), 0, 0)
-                }
-                val vOffset = i * 7
+            val start = genomeToScreen(location.startOffset, trackWidth, range)
+            val end = genomeToScreen(location.endOffset, trackWidth, range)
 
-                g.fillRect(start, vOffset + 2, Math.max(1, end - start), 2)
+            g.color = if (locTranscript != null && locTranscript != transcript) {
+                Color.LIGHT_GRAY
+            } else {
+                Color((Math.min(tpm / 10, 1.0) * 255).toInt(), 0, 0)
             }
+            val vOffset = i * 7
+
+            g.fillRect(start, vOffset + 2, Math.max(1, end - start), 2)
         }
     }
 
@@ -5,7 +5,7 @@ import org.jetbrains.bio.browser.model.SingleLocationBrowserModel
 import org.jetbrains.bio.browser.util.Storage
 import org.jetbrains.bio.browser.util.TrackUIUtil
 import org.jetbrains.bio.genome.Chromosome
-import org.jetbrains.bio.genome.Location
+import org.jetbrains.bio.genome.Range
 import org.jetbrains.bio.genome.Strand
 import org.jetbrains.bio.genome.query.GenomeQuery
 import org.jetbrains.bio.methylome.CytosineContext
@@ -143,10 +143,7 @@ fun <D : McStatStrategy.Data> calcBinnedData(strategy: McStatStrategy<out D>,
     val s: McStatStrategy<D> = strategy as McStatStrategy<D>
     val chr = samplesData.chromosome
     val binsCount = chr.range.endOffset / binSize
-
-    return (0 until binsCount).map { binIndex ->
-        s.test(sampleId, samplesData,
-                Location(binIndex * binSize, (binIndex + 1) * binSize, chr, strand)
-        ).toFloat()
-    }.toFloatArray()
+    val bins = Array(binsCount) { Range(it * binSize, (it + 1) * binSize) }
+    val values = s.testAll(sampleId, samplesData, strand, bins)
+    return FloatArray(binsCount) { values[it].toFloat() }
 }
@@ -31,11 +31,12 @@ class RepeatsTrackView() : TrackView("Repeats") {
     }
 
     override fun paintTrack(g: Graphics, model: SingleLocationBrowserModel, conf: Storage) {
-        val repeats = model.chromosome.repeats.asSequence()
+        val repeatIndex = model.chromosome.repeatIndex
+        val repeats = repeatIndex.query(model.range)
                 .groupBy { it.repeatClass }
                 .mapValues { it.value.asSequence().map { it.location.toRange() }.toRangeList() }
 
-        if (repeats.isEmpty()) {
+        if (repeatIndex.size == 0) {
             TrackUIUtil.drawErrorMessage(g, "Data not available.")
             return
         } else if (!validateAndFixTrackHeight(repeatColors.size)) {
@@ -78,7 +79,6 @@ class RepeatsTrackView() : TrackView("Repeats") {
                                      model: SingleLocationBrowserModel, trackWidth: Int) {
         g.color = color
 
-        // TODO: binary search optimization (?)
         for (repeat in repeats) {
             val (startOffset, endOffset) = repeat intersection model.range
             if (endOffset == startOffset) {
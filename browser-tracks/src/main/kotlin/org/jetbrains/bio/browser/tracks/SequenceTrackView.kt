@@ -38,9 +38,10 @@ class SequenceTrack : TrackView("Chromosome sequence") {
 
         if (nucleotidesInRegion <= trackWidth) {
             val drawSequence = trackWidth / currRegion.length() > maxCharWidth
-            val sequence = model.chromosome.sequence
+            val bytes = ByteArray(currRegion.length())
+            model.chromosome.sequence.getBytes(currRegion.startOffset, currRegion.endOffset, bytes)
             for (i in currRegion.startOffset until currRegion.endOffset - 1) {
-                val b = sequence.byteAt(i)
+                val b = bytes[i - currRegion.startOffset]
                 g.color = COLORS[if (b < 0) 4 else b.toInt()]
 
                 val thisStartX = genomeToScreen(i, trackWidth, model.range)
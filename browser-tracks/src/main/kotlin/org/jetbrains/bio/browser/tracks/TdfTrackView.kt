@@ -11,7 +11,7 @@ import java.awt.Color
 import java.awt.Graphics
 import java.nio.file.Path
 
-class TdfTrackView(val path: Path, val trackNumber: Int = 0) : TrackView(path.name) {
+class TdfTrackView(val path: Path, val trackNumber: Int = 0) : DataTrackView<List<ScoredInterval>>(path.name) {
 
     private val tdf : TdfFile by lazy(LazyThreadSafetyMode.NONE) { TdfFile.read(path) }
 
@@ -19,10 +19,14 @@ class TdfTrackView(val path: Path, val trackNumber: Int = 0) : TrackView(path.na
         preferredHeight = 30
     }
 
+    override fun fetchData(model: SingleLocationBrowserModel, conf: Storage): List<ScoredInterval> {
+        return tdf.summarize(model, trackNumber)
+    }
+
     override fun paintTrack(g: Graphics, model: SingleLocationBrowserModel, conf: Storage) {
         val width = conf[TrackView.WIDTH]
         val height = conf[TrackView.HEIGHT]
-        val scores = tdf.summarize(model, trackNumber)
+        val scores = getData(model, conf)
 
         // No visible tiles
         if (scores.isEmpty()) {
@@ -45,7 +49,7 @@ class TdfTrackView(val path: Path, val trackNumber: Int = 0) : TrackView(path.na
     }
 
     override fun computeScales(model: SingleLocationBrowserModel, conf: Storage): List<Scale> {
-        val scores = tdf.summarize(model, trackNumber)
+        val scores = getData(model, conf)
         return if (scores.isEmpty()) {
             listOf(Scale.undefined())
         } else {
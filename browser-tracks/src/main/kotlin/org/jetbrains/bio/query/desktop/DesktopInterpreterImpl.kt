@@ -26,7 +26,8 @@ import java.util.stream.Stream
  * Queries interpreter. It is `Desktop` specific because there are queries,
  * whose evaluation affects the view.
  */
-class DesktopInterpreterImpl(trackViews: List<TrackView>): DesktopInterpreter {
+class DesktopInterpreterImpl(trackViews: List<TrackView>,
+                             val mode: EvaluationMode = EvaluationMode.INTERPRETED): DesktopInterpreter {
     private val LOG = Logger.getLogger(DesktopInterpreterImpl::class.java)
 
     private val newTrackListeners = ArrayList<NewTrackViewListener>()
@@ -38,12 +39,15 @@ class DesktopInterpreterImpl(trackViews: List<TrackView>): DesktopInterpreter {
     private val predicateTracks = HashMap<String, PredicateTrack>()
     private val trackStatements = HashMap<String, String>()
 
+    // shared subexpressions are evaluated once per (range, bins)
+    private val planner = QueryPlanner(TrackResultCache())
+
     init {
         // Working only with BigBedTrackView for now
         trackViews.filter { !it.alias.isEmpty() }.forEach { view ->
             when {
                 (view is BigBedTrackView) ->  {
-                    arithmeticTracks[view.alias] = BigBedFileTrack(view.alias, view.bbf)
+                    arithmeticTracks[view.alias] = BigBedFileTrack(view.alias, view.path)
                 }
                 (view is LocationsTrackView) -> {
                     predicateTracks[view.alias] = throw IllegalArgumentException("=(")
@@ -67,10 +71,17 @@ class DesktopInterpreterImpl(trackViews: List<TrackView>): DesktopInterpreter {
         when {
             (st is AssignStatement) -> {
                 LOG.info("Assign statement parsed. Creating new track with name [${st.id}]")
-                val track = st.track
-                if (st.id in arithmeticTracks || st.id in predicateTracks) {
+                val isRedefined = st.id in trackStatements
+                if (!isRedefined && (st.id in arithmeticTracks || st.id in predicateTracks)) {
                     return "Track with id [${st.id}] already exists!";
                 }
+
+                val track = (planner.plan(st) as AssignStatement).track
+                if (isRedefined) {
+                    arithmeticTracks.remove(st.id)
+                    predicateTracks.remove(st.id)
+                    planner.cache.invalidate(st.id)
+                }
                 when {
                     (track is ArithmeticTrack) -> {
                         arithmeticTracks.put(st.id, track)
@@ -83,7 +94,9 @@ class DesktopInterpreterImpl(trackViews: List<TrackView>): DesktopInterpreter {
                     else -> throw IllegalStateException("Interpreter exception")
                 }
                 trackStatements.put(st.id, query);
-                newTrackNameListeners.forEach { it.addTrackName(st.id) }
+                if (!isRedefined) {
+                    newTrackNameListeners.forEach { it.addTrackName(st.id) }
+                }
             }
             (st is ShowTrackStatement) -> {
                 LOG.info("Show statement parsed.")
@@ -92,11 +105,15 @@ class DesktopInterpreterImpl(trackViews: List<TrackView>): DesktopInterpreter {
                 val newTrackView = when {
                     (track is NamedArithmeticTrack) -> {
                         id = track.id
-                        FixBinnedArithmeticTrackView(trackStatements[id]!!, track.ref, 50)
+                        FixBinnedArithmeticTrackView(trackStatements[id]!!,
+                                TrackCompiler.compile(planner.plan(track) as ArithmeticTrack, mode) as ArithmeticTrack,
+                                50)
                     }
                     (track is NamedPredicateTrack) -> {
                         id = track.id
-                        PredicateTrackView(trackStatements[id]!!, track.ref, 50)
+                        PredicateTrackView(trackStatements[id]!!,
+                                TrackCompiler.compile(planner.plan(track) as PredicateTrack, mode) as PredicateTrack,
+                                50)
                     }
                     else -> {
                         throw IllegalStateException("Interpreter exception!")
@@ -1,6 +1,8 @@
 package org.jetbrains.bio.query.tracks
 
 import org.jetbrains.bio.browser.model.SingleLocationBrowserModel
+import org.jetbrains.bio.browser.tracks.DataTrackView
+import org.jetbrains.bio.browser.tracks.FixedBinsTrackView
 import org.jetbrains.bio.browser.tracks.TrackView
 import org.jetbrains.bio.browser.util.Storage
 import org.jetbrains.bio.browser.util.TrackUIUtil
@@ -14,9 +16,10 @@ import java.util.*
  * @since 01.05.16
  */
 
-class FixBinnedArithmeticTrackView(name: String, val track: ArithmeticTrack, val binsNum: Int = 50): TrackView(name) {
-    private fun getData(model: SingleLocationBrowserModel): List<Double> {
-        return track.eval(model.chromosomeRange, binsNum);
+class FixBinnedArithmeticTrackView(name: String, val track: ArithmeticTrack, val binsNum: Int = 50):
+        DataTrackView<DoubleArray>(name), FixedBinsTrackView {
+    override fun fetchData(model: SingleLocationBrowserModel, conf: Storage): DoubleArray {
+        return track.evalArray(model.chromosomeRange, binsNum)
     }
 
     override fun paintTrack(g: Graphics, model: SingleLocationBrowserModel, conf: Storage) {
@@ -26,7 +29,7 @@ class FixBinnedArithmeticTrackView(name: String, val track: ArithmeticTrack, val
         val (_ignored, max) = conf[TrackView.SCALES].first()
         val step = width / binsNum
 
-        getData(model).forEachIndexed { i, s ->
+        getData(model, conf).forEachIndexed { i, s ->
             val h = (s / max * height).toInt()
             g.color = Color.CYAN
             g.fillRect(i * step, height - h, step, h)
@@ -35,7 +38,7 @@ class FixBinnedArithmeticTrackView(name: String, val track: ArithmeticTrack, val
 
     override fun computeScales(model: SingleLocationBrowserModel,
                                conf: Storage): List<Scale> {
-        val max = Math.ceil(getData(model).max()!!)
+        val max = Math.ceil(getData(model, conf).max()!!)
         return listOf(Scale(0.0, max))
     }
 
@@ -0,0 +1,60 @@
+package org.jetbrains.bio.browser.tracks
+
+import org.jetbrains.bio.browser.model.SingleLocationBrowserModel
+import org.jetbrains.bio.browser.util.Storage
+import org.jetbrains.bio.ext.withTempDirectory
+import org.jetbrains.bio.ext.write
+import org.jetbrains.bio.genome.Range
+import org.jetbrains.bio.genome.query.GenomeQuery
+import org.jetbrains.bio.histones.BedTrackQuery
+import org.jetbrains.bio.io.BedFormat
+import org.jetbrains.bio.io.BedIndex
+import org.junit.Test
+import kotlin.test.assertEquals
+
+class BedTrackViewTest {
+    private val genomeQuery = GenomeQuery("to1")
+    private val chromosome = genomeQuery.get().first()
+
+    @Test fun testNarrowRange() {
+        withTrackView("bed_track_view_narrow",
+                      "${chromosome.name}\t50\t150\t+\n" +
+                      "${chromosome.name}\t50\t150\t+\n" +   // Not unique.
+                      "${chromosome.name}\t60\t250\t-\n" +   // Counted at 249.
+                      "${chromosome.name}\t120\t130\t-\n" +
+                      "${chromosome.name}\t990\t2000\t+\n" +
+                      "${chromosome.name}\t1500\t2000\t+\n") { trackView ->
+            assertEquals(listOf(1, 1, 1, 0, 0, 0, 0, 0, 0, 1),
+                         trackView.counts(Range(0, 1000)))
+        }
+    }
+
+    @Test fun testWideRange() {
+        val length = BedIndex.BIN_SIZE * (BedTrackView.MAX_INDEXED_BINS + 1)
+        val offsets = (0..99).map { (it.toLong() * length / 100).toInt() + 7 }
+        val contents = offsets.map { "${chromosome.name}\t$it\t${it + 10}\t+\n" }.joinToString("")
+        withTrackView("bed_track_view_wide", contents) { trackView ->
+            assertEquals((0..9).map { 10 }, trackView.counts(Range(0, length)))
+        }
+    }
+
+    /**
+     * The cached coverage is keyed by the file name, thus the names
+     * have to be unique.
+     */
+    private fun withTrackView(name: String, contents: String, block: (BedTrackView) -> Unit) {
+        withTempDirectory("bed") { dir ->
+            val path = dir.resolve("$name.bed")
+            path.write(contents)
+            val query = BedTrackQuery(genomeQuery, path, BedFormat.SIMPLE)
+            block(BedTrackView(query, BedIndex.load(path, genomeQuery, BedFormat.SIMPLE), 10))
+        }
+    }
+
+    private fun BedTrackView.counts(range: Range): List<Int> {
+        val model = SingleLocationBrowserModel(genomeQuery, chromosome, range)
+        val conf = Storage()
+        conf[TrackView.WIDTH] = 100
+        return getData(model, conf).toList()
+    }
+}
@@ -0,0 +1,47 @@
+package org.jetbrains.bio.query.desktop
+
+import org.jetbrains.bio.browser.query.desktop.NewTrackViewListener
+import org.jetbrains.bio.browser.tracks.TrackView
+import org.jetbrains.bio.query.parse.CompiledArithmeticTrack
+import org.jetbrains.bio.query.parse.CompiledPredicateTrack
+import org.jetbrains.bio.query.parse.EvaluationMode
+import org.jetbrains.bio.query.parse.TrackCompiler
+import org.jetbrains.bio.query.tracks.FixBinnedArithmeticTrackView
+import org.jetbrains.bio.query.tracks.PredicateTrackView
+import org.junit.Test
+import java.util.*
+import kotlin.test.assertEquals
+import kotlin.test.assertFalse
+import kotlin.test.assertTrue
+
+class DesktopInterpreterImplTest {
+    private fun show(mode: EvaluationMode, vararg queries: String): List<TrackView> {
+        val views = ArrayList<TrackView>()
+        val interpreter = DesktopInterpreterImpl(emptyList(), mode)
+        interpreter.addNewTrackViewListener(object : NewTrackViewListener {
+            override fun addNewTrackView(trackView: TrackView) {
+                views.add(trackView)
+            }
+        })
+
+        queries.forEach { interpreter.interpret(it) }
+        return views
+    }
+
+    @Test fun testCompiledArithmetic() {
+        val views = show(EvaluationMode.COMPILED, "x := 1 + 2 * 3", "show x")
+        assertEquals(1, views.size)
+        assertTrue(TrackCompiler.unwrap((views.single() as FixBinnedArithmeticTrackView).track) is CompiledArithmeticTrack)
+    }
+
+    @Test fun testCompiledPredicate() {
+        val views = show(EvaluationMode.COMPILED, "x := 1 + 2", "y := x > 2", "show y")
+        assertEquals(1, views.size)
+        assertTrue(TrackCompiler.unwrap((views.single() as PredicateTrackView).track) is CompiledPredicateTrack)
+    }
+
+    @Test fun testInterpreted() {
+        val views = show(EvaluationMode.INTERPRETED, "x := 1 + 2 * 3", "show x")
+        assertFalse(TrackCompiler.unwrap((views.single() as FixBinnedArithmeticTrackView).track) is CompiledArithmeticTrack)
+    }
+}
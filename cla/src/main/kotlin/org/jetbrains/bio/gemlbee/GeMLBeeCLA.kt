@@ -28,10 +28,12 @@ import org.jetbrains.bio.genome.query.GenomeQuery
 import org.jetbrains.bio.histones.BedTrackQuery
 import org.jetbrains.bio.io.BedEntry
 import org.jetbrains.bio.io.BedFormat
+import org.jetbrains.bio.io.BedIndex
 import org.jetbrains.bio.io.LiftOverRemapper
 import org.jetbrains.bio.methylome.CytosineContext
 import org.jetbrains.bio.methylome.MethylomeQuery
 import org.jetbrains.bio.query.desktop.DesktopInterpreterImpl
+import org.jetbrains.bio.query.parse.EvaluationMode
 import org.jetbrains.bio.query.parse.NumericTrack
 import org.jetbrains.bio.query.parse.TruePredicateTrack
 import org.jetbrains.bio.query.tracks.FixBinnedArithmeticTrackView
@@ -40,6 +42,7 @@ import org.jetbrains.bio.transcriptome.KallistoQuery
 import org.jetbrains.bio.transcriptome.fastqReads
 import org.jetbrains.bio.util.Configuration
 import org.jetbrains.bio.util.Logs
+import java.io.IOException
 import java.nio.file.Path
 import java.util.*
 import java.util.concurrent.Callable
@@ -89,6 +92,8 @@ chr4    55538009    55547347    KLF4    -
                         .withValuesConvertedBy(PathConverter.exists())
 
 
+                accepts("compile-queries", "evaluate track queries with fused per-bin kernels")
+
                 // Logging level:
                 acceptsAll(listOf("d", "debug"), "print all the debug info")
 
@@ -138,8 +143,13 @@ chr4    55538009    55547347    KLF4    -
 
                     @Suppress("UNCHECKED_CAST")
                     val lociPaths = options.valuesOf("loci") as List<Path>
+                    val queryMode = if ("compile-queries" in options) {
+                        EvaluationMode.COMPILED
+                    } else {
+                        EvaluationMode.INTERPRETED
+                    }
                     try {
-                        GeMLBeeCLA().launch(loadConfigs(input), lociPaths, serverMode, port)
+                        GeMLBeeCLA().launch(loadConfigs(input), lociPaths, serverMode, port, queryMode)
                     } catch (t: Throwable) {
                         fail(t.message!!)
                     }
@@ -226,7 +236,12 @@ chr4    55538009    55547347    KLF4    -
                     bigBedTrackView(path)
                 }
 
-                name.endsWith(".bed") || name.endsWith(".bed.zip") || name.endsWith(".bed.gz") -> {
+                name.endsWith(".bed") -> {
+                    LOG.debug("Created indexed Bed track view for $path")
+                    bedTrackView(genomeQuery, path)
+                }
+
+                name.endsWith(".bed.zip") || name.endsWith(".bed.gz") -> {
                     LOG.debug("Created Bed track view for $path")
                     chIPSeqTrackView(genomeQuery, path)
                 }
@@ -290,9 +305,28 @@ chr4    55538009    55547347    KLF4    -
         }
 
         private fun bigBedTrackView(file: Path) = BigBedTrackView(file, 50)
+
+        /**
+         * Counts tags of narrow ranges of sorted BED files through a
+         * [BedIndex]. Unsorted files and files whose index can't be
+         * written, e.g. in a read-only directory, are shown as genome-wide
+         * coverage only.
+         */
+        private fun bedTrackView(gq: GenomeQuery, path: Path): TrackView {
+            return try {
+                BedTrackView(BedTrackQuery(gq, path), BedIndex.load(path, gq), 50)
+            } catch (e: IllegalArgumentException) {
+                LOG.warn("Failed to index $path, falling back to coverage: ${e.message}")
+                chIPSeqTrackView(gq, path)
+            } catch (e: IOException) {
+                LOG.warn("Failed to index $path, falling back to coverage: ${e.message}")
+                chIPSeqTrackView(gq, path)
+            }
+        }
     }
 
-    private fun launch(configs: List<Config>, lociPaths: List<Path>, serverMode: Boolean, port: Int) {
+    private fun launch(configs: List<Config>, lociPaths: List<Path>, serverMode: Boolean, port: Int,
+                       queryMode: EvaluationMode) {
         val master = configs.first().genomeQuery
 
         LOG.info("Processing genomic markup tracks")
@@ -315,7 +349,7 @@ chr4    55538009    55547347    KLF4    -
         configureTracks(configs, master, tracks)
 
         LOG.info("Setting up query interpreter")
-        val interpreter = DesktopInterpreterImpl(tracks)
+        val interpreter = DesktopInterpreterImpl(tracks, queryMode)
 
         LOG.info("Starting browser..")
         if (serverMode) {
@@ -3,7 +3,6 @@ package org.jetbrains.bio.genome;
 import com.google.common.base.Preconditions;
 import org.jetbrains.bio.genome.sequence.Nucleotide;
 import org.jetbrains.bio.genome.sequence.NucleotideSequence;
-import org.jetbrains.bio.genome.sequence.NucleotideSequenceKt;
 
 /**
  * Originally is used in the article "Genome-wide maps of chromatin state in pluripotent and lineage-committed cells"
@@ -20,6 +19,8 @@ public enum CpGContent {
   public static final byte CYTOSINE = Nucleotide.C.getByte();
   public static final byte GUANINE = Nucleotide.G.getByte();
   public static final int MIN_LENGTH = 500;
+  /** Number of nucleotides decoded at once by {@link #classify}. */
+  public static final int CHUNK_SIZE = 1 << 16;
 
   static class Counters {
     public int cg;
@@ -32,32 +33,50 @@ public enum CpGContent {
   }
 
   public static CpGContent classify(final Location location) throws IllegalArgumentException {
-    final String s = location.getSequence();
-    return classify(NucleotideSequenceKt.asNucleotideSequence(s), MIN_LENGTH);
+    // Both the counters are the same for the reverse complement, thus
+    // the location is classified on the plus strand.
+    return classify(location.getChromosome().getSequence(),
+                    location.getStartOffset(), location.getEndOffset(), MIN_LENGTH);
   }
 
   public static CpGContent classify(final NucleotideSequence sequence, final int l) {
-    Preconditions.checkState(sequence.length() >= l, "Cannot classify sequences < %s", l);
+    return classify(sequence, 0, sequence.length(), l);
+  }
 
-    final byte[] buffer = new byte[l];
-    for (int i = 0; i < buffer.length; i++) {
-      buffer[i] = sequence.byteAt(i);
-    }
+  /**
+   * Classifies the nucleotides in [from, to) of a given sequence.
+   * <p>
+   * The sequence is decoded a chunk at a time, so that only the last
+   * window and at most {@link #CHUNK_SIZE} nucleotides past it are kept.
+   */
+  public static CpGContent classify(final NucleotideSequence sequence,
+                                    final int from, final int to, final int l) {
+    Preconditions.checkState(to - from >= l, "Cannot classify sequences < %s", l);
+
+    final byte[] bytes = new byte[Math.min(to - from, l + CHUNK_SIZE)];
+    final byte[] chunk = new byte[bytes.length - l];
+    // Sequence offset of bytes[0].
+    int base = from;
+    int filled = bytes.length;
+    sequence.getBytes(from, from + filled, bytes);
 
     // We are going to update these values incrementally
     double maxOE = Double.MIN_VALUE;
-    Counters cgcpg = null;
-    // We use shift at first so that we start with previous byte, location.startOffset = 0 is quite impossible
-    for (int i = l - 1; i < sequence.length(); i++) {
-      if (cgcpg == null) {
-        cgcpg = new Counters(computeCG(buffer), computeCpG(buffer));
-      } else {
-        final byte byteOut = buffer[0];
-        // Shift i -> i - 1
-        System.arraycopy(buffer, 1, buffer, 0, buffer.length - 1);
-        final byte byteIn = buffer[buffer.length - 1] = sequence.byteAt(i);
-        // Update cg and cpg numbers
-        update(buffer, cgcpg, byteOut, byteIn);
+    final Counters cgcpg = new Counters(computeCG(bytes, 0, l), computeCpG(bytes, 0, l));
+    // Window [i - l + 1, i + 1) ends at i.
+    for (int i = from + l - 1; i < to; i++) {
+      if (i - base >= filled) {
+        // Keep the previous window, since the update needs the
+        // nucleotide leaving it.
+        System.arraycopy(bytes, i - l - base, bytes, 0, l);
+        base = i - l;
+        filled = Math.min(bytes.length, to - base);
+        sequence.getBytes(base + l, base + filled, chunk);
+        System.arraycopy(chunk, 0, bytes, l, filled - l);
+      }
+
+      if (i >= from + l) {
+        update(bytes, i - l + 1 - base, i + 1 - base, cgcpg);
       }
 
       final double observedToExpectedCpG = observedToExpected(cgcpg.cg, cgcpg.cpg);
@@ -81,35 +100,40 @@ public enum CpGContent {
     return cg != 0 ? (2. * cpg / cg) : 0;
   }
 
-  protected static void update(final byte[] buffer,
-                               final Counters cgcpg,
-                               final byte byteOut,
-                               final byte byteIn) {
+  /**
+   * Updates counters of window [from - 1, to - 1) to window [from, to).
+   */
+  protected static void update(final byte[] bytes,
+                               final int from,
+                               final int to,
+                               final Counters cgcpg) {
+    final byte byteOut = bytes[from - 1];
+    final byte byteIn = bytes[to - 1];
     int cg = cgcpg.cg;
     int cpg = cgcpg.cpg;
     // Out update
     if (byteOut == CYTOSINE) {
       cg--;
-      if (GUANINE == buffer[0]) {
+      if (GUANINE == bytes[from]) {
         cpg--;
       }
     }
     if (byteOut == GUANINE) {
       cg--;
-      if (CYTOSINE == buffer[0]) {
+      if (CYTOSINE == bytes[from]) {
         cpg--;
       }
     }
     // In update
     if (byteIn == CYTOSINE) {
       cg++;
-      if (GUANINE == buffer[buffer.length - 2]) {
+      if (GUANINE == bytes[to - 2]) {
         cpg++;
       }
     }
     if (byteIn == GUANINE) {
       cg++;
-      if (CYTOSINE == buffer[buffer.length - 2]) {
+      if (CYTOSINE == bytes[to - 2]) {
         cpg++;
       }
     }
@@ -118,8 +142,15 @@ public enum CpGContent {
   }
 
   protected static int computeCpG(final byte[] buffer) {
+    return computeCpG(buffer, 0, buffer.length);
+  }
+
+  /**
+   * Counts both CpG and GpC dinucleotides within [from, to).
+   */
+  private static int computeCpG(final byte[] buffer, final int from, final int to) {
     int cpg = 0;
-    for (int i = 0; i < buffer.length - 1; i++) {
+    for (int i = from; i < to - 1; i++) {
       final byte b = buffer[i];
       final byte nextB = buffer[i + 1];
       if (CYTOSINE == b && GUANINE == nextB ||
@@ -131,8 +162,13 @@ public enum CpGContent {
   }
 
   protected static int computeCG(final byte[] buffer) {
+    return computeCG(buffer, 0, buffer.length);
+  }
+
+  private static int computeCG(final byte[] buffer, final int from, final int to) {
     int cg = 0;
-    for (final byte nByte : buffer) {
+    for (int i = from; i < to; i++) {
+      final byte nByte = buffer[i];
       if (CYTOSINE == nByte || GUANINE == nByte) {
         cg++;
       }
@@ -12,7 +12,7 @@ import org.jetbrains.bio.genome.Range;
 import org.jetbrains.bio.genome.Strand;
 import org.jetbrains.bio.genome.sequence.Nucleotide;
 import org.jetbrains.bio.genome.sequence.NucleotideSequence;
-import org.jetbrains.bio.genome.sequence.NucleotideSequenceKt;
+import org.jetbrains.bio.genome.sequence.ReferenceWindow;
 
 import java.util.Arrays;
 import java.util.stream.IntStream;
@@ -28,8 +28,7 @@ public class MethylomeStats {
 
   public static DataFrame cytosinesDf(final Chromosome chr, final Strand strand,
                                       @Nullable final CytosineContext patternFilter) {
-    return cytosinesDf(NucleotideSequenceKt.asNucleotideSequence(chr.getSequence().toString()),
-                       strand, patternFilter);
+    return CytosineIndex.of(chr, strand).peel(patternFilter);
   }
 
   /**
@@ -62,23 +61,24 @@ public class MethylomeStats {
    * - offset : int[] offset in chr
    * - tag : byte[] - Methylation pattern tag (0 - CG, 1 - CHH, 2 - CHG). If unknown => cytosine ignored
    *
-   * @param wrappedSeq    Wrapped sequence with fast charAt() access
+   * @param sequence      Sequence, scanned through a {@link ReferenceWindow}
    * @param strand        Strand
    * @param patternFilter Optional tag (methylation pattern) filter
    * @return data frame
    */
-  public static DataFrame cytosinesDf(final NucleotideSequence wrappedSeq, final Strand strand,
+  public static DataFrame cytosinesDf(final NucleotideSequence sequence, final Strand strand,
                                       @Nullable final CytosineContext patternFilter) {
     final TIntList offsets = new TIntArrayList();
     final TByteList tags = new TByteArrayList();
 
-    final char cChar = strand.isPlus() ? Nucleotide.C.getChar()
-                                       : Nucleotide.G.getChar();
+    final byte cByte = strand.isPlus() ? Nucleotide.C.getByte()
+                                       : Nucleotide.G.getByte();
 
-    final int chrLength = wrappedSeq.length();
+    final ReferenceWindow window = new ReferenceWindow(sequence);
+    final int chrLength = window.length();
     for (int offset = 0; offset < chrLength; offset++) {
-      if (wrappedSeq.charAt(offset) == cChar) {
-        final CytosineContext pattern = CytosineContext.determine(wrappedSeq, offset, strand);
+      if (window.byteAt(offset) == cByte) {
+        final CytosineContext pattern = CytosineContext.determine(window, offset, strand);
         //NOTE: skip undefined patterns, it is smth near NNN
         if (pattern != null && (patternFilter == null || pattern == patternFilter)) {
           offsets.add(offset);
@@ -111,6 +111,29 @@ public class MethylomeStats {
   }
 
 
+  /**
+   * Same as below, but uses {@link CytosineIndex} instead of scanning
+   * the sequence, thus the cost doesn't depend on the range length.
+   *
+   * @param startOffset start offset inclusive
+   * @param endOffset   end offset exclusive
+   * @param chromosome  Chromosome
+   * @param strand      Strand
+   * @param pattern     Cytosine context or null if any
+   * @return cytosines count of given context
+   */
+  public static int countCytosines(final int startOffset, final int endOffset,
+                                   final Chromosome chromosome,
+                                   final Strand strand,
+                                   @Nullable final CytosineContext pattern) {
+    if (pattern == CytosineContext.ANY) {
+      // Any cytosine, including the ones with undefined context.
+      return countCytosines(startOffset, endOffset, chromosome.getSequence(), strand, pattern);
+    }
+
+    return CytosineIndex.of(chromosome, strand).count(startOffset, endOffset, pattern);
+  }
+
   /**
    * @param startOffset start offset inclusive
    * @param endOffset   end offset exclusive
@@ -123,19 +146,17 @@ public class MethylomeStats {
                                    final NucleotideSequence sequence,
                                    final Strand strand,
                                    @Nullable final CytosineContext pattern) {
-    final byte cytosine = Nucleotide.C.getByte();
+    if (pattern == CytosineContext.ANY) {
+      // Cytosines on the minus strand are guanines on the plus strand.
+      final Nucleotide cytosine = strand.isPlus() ? Nucleotide.C : Nucleotide.G;
+      return sequence.composition(startOffset, endOffset)[cytosine.getByte()];
+    }
 
     int cCount = 0;
     for (int pos = startOffset; pos < endOffset; pos++) {
-      if (pattern != CytosineContext.ANY) {
-        final CytosineContext actualPattern = CytosineContext.determine(sequence, pos, strand);
-        if (actualPattern == pattern) {
-          cCount++;
-        }
-      } else {
-        if (sequence.byteAt(pos, strand) == cytosine) {
-          cCount++;
-        }
+      final CytosineContext actualPattern = CytosineContext.determine(sequence, pos, strand);
+      if (actualPattern == pattern) {
+        cCount++;
       }
     }
     return cCount;
@@ -15,15 +15,47 @@ class BitterSet(private val universe: Int) : BitSet() {
 
     fun toBooleanArray() = BooleanArray(universe) { get(it) }
 
-    operator fun plus(other: BitterSet): BitterSet {
-        val acc = peel()
-        var ptr = other.nextSetBit(0)
-        while (ptr >= 0) {
-            acc.set(universe + ptr)
-            ptr = other.nextSetBit(ptr + 1)
+    operator fun plus(other: BitterSet) = concatenate(listOf(this, other))
+
+    /**
+     * Sets the bits of `other` shifted by `offset` in place, i.e.
+     * bit `i` of `other` is or-ed into bit `offset + i`.
+     *
+     * The bits are set a run of ones at a time with [BitSet.set], which
+     * masks whole words, so only the words of the shifted range are
+     * touched. Use [concatenate] to join several sets at once.
+     */
+    fun or(other: BitSet, offset: Int) {
+        require(offset >= 0) { "negative offset: $offset" }
+        if (offset == 0) {
+            or(other)
+            return
         }
 
-        return of(universe + other.universe, acc)
+        var from = other.nextSetBit(0)
+        while (from >= 0) {
+            val to = other.nextClearBit(from)
+            set(offset + from, offset + to)
+            from = other.nextSetBit(to)
+        }
+    }
+
+    /** Returns the indices of the set bits in ascending order. */
+    fun indices(): IntArray = indices(this)
+
+    /**
+     * Calls [block] for every set bit in ascending order. Unlike
+     * [nextSetBit] each word is fetched once.
+     */
+    inline fun forEachSetBit(block: (Int) -> Unit) {
+        val words = toLongArray()
+        for (w in words.indices) {
+            var word = words[w]
+            while (word != 0L) {
+                block((w shl 6) + java.lang.Long.numberOfTrailingZeros(word))
+                word = word and (word - 1)
+            }
+        }
     }
 
     /**
@@ -51,6 +83,87 @@ class BitterSet(private val universe: Int) : BitSet() {
     override fun hashCode() = Objects.hash(super.hashCode(), universe)
 
     companion object {
+        /**
+         * Concatenates bit sets, so that bit `i` of the `k`-th set goes
+         * to bit `i` plus the total universe of the preceding sets.
+         *
+         * The words of the result are built once, each set is shifted
+         * into them a word at a time, see [orShifted].
+         */
+        @JvmStatic fun concatenate(sets: List<BitterSet>): BitterSet {
+            var universe = 0
+            for (bs in sets) {
+                universe += bs.universe
+            }
+
+            val words = LongArray((universe + 63) ushr 6)
+            var offset = 0
+            for (bs in sets) {
+                orShifted(words, bs.toLongArray(), offset)
+                offset += bs.universe
+            }
+
+            return valueOf(universe, words)
+        }
+
+        /**
+         * Or-s the bits of [words] shifted by [offset] into [dst], i.e.
+         * bit `i` of [words] goes to bit `offset + i` of [dst]. The bits
+         * shifted past the end of [dst] are dropped.
+         */
+        @JvmStatic fun orShifted(dst: LongArray, words: LongArray, offset: Int) {
+            require(offset >= 0) { "negative offset: $offset" }
+            val base = offset ushr 6
+            val shift = offset and 63
+            for (w in words.indices) {
+                val at = base + w
+                if (at >= dst.size) {
+                    break
+                }
+
+                val word = words[w]
+                dst[at] = dst[at] or (word shl shift)
+                if (shift != 0 && at + 1 < dst.size) {
+                    dst[at + 1] = dst[at + 1] or (word ushr (64 - shift))
+                }
+            }
+        }
+
+        /**
+         * Returns the indices of the set bits of a given bit set in
+         * ascending order, extracted a word at a time.
+         */
+        @JvmStatic fun indices(bits: BitSet): IntArray {
+            val words = bits.toLongArray()
+            var cardinality = 0
+            for (word in words) {
+                cardinality += java.lang.Long.bitCount(word)
+            }
+
+            val indices = IntArray(cardinality)
+            var i = 0
+            for (w in words.indices) {
+                var word = words[w]
+                while (word != 0L) {
+                    indices[i++] = (w shl 6) + java.lang.Long.numberOfTrailingZeros(word)
+                    word = word and (word - 1)
+                }
+            }
+
+            return indices
+        }
+
+        /**
+         * Wraps the words of a bit set, as in [BitSet.valueOf]. The bits
+         * past the universe must be zero.
+         */
+        @JvmStatic fun valueOf(universe: Int, words: LongArray): BitterSet {
+            val bs = BitterSet(universe)
+            bs.or(BitSet.valueOf(words))
+            require(bs.length() <= universe) { "bits set past the universe" }
+            return bs
+        }
+
         @JvmStatic fun of(universe: Int, wrapped: BitSet): BitterSet {
             require(wrapped.cardinality() <= universe)
             val bs = BitterSet(universe)
@@ -53,11 +53,6 @@ abstract class ObjColumn<T: Any> protected constructor(
 
     override fun resize(newSize: Int) = wrap(Arrays.copyOf(data, newSize))
 
-    override fun intersect(c: Column<*>): ObjIntPredicate<Array<T>> {
-        val seen = data.intersect((c as ObjColumn<T>).data.asList())
-        return ObjIntPredicate { data, i -> data[i] in seen }
-    }
-
     override fun size() = data.size
 
     override fun typeName() = boxedType.name
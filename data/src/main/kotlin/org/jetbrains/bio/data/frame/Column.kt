@@ -55,16 +55,6 @@ abstract class Column<T> protected constructor(
      */
     abstract fun filter(mask: BitSet): Column<T>
 
-    /**
-     * Intersects a column with another column.
-     *
-     * @param c column.
-     * @return a predicate which for a given array and index outputs
-     *         `true` if an element belongs to the intersection
-     *         and `false` otherwise.
-     */
-    internal abstract fun intersect(c: Column<*>): ObjIntPredicate<T>
-
     /**
      * Returns a sorted permutation of indices for a given column.
      */
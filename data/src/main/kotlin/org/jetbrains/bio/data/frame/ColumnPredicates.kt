@@ -0,0 +1,222 @@
+package org.jetbrains.bio.data.frame
+
+import org.jetbrains.bio.data.BitterSet
+import java.util.function.IntPredicate
+
+/**
+ * A row predicate evaluated a column at a time.
+ *
+ * Unlike a generic [RowPredicateFactory], which is called once per
+ * row, a column predicate runs a tight loop over the primitive array
+ * of a column and packs the results into 64-bit words directly.
+ * Predicates are combined with [and], [or] and [not] word-wise, so
+ * the cost of a filter is bounded by memory bandwidth rather than by
+ * per-row dispatch.
+ */
+abstract class ColumnPredicate : RowPredicateFactory {
+    /**
+     * Evaluates the predicate on rows `[startRow, endRow)`. Bit `i`
+     * of the result corresponds to row `startRow + i`, the bits past
+     * the last row are zero.
+     */
+    abstract fun words(df: DataFrame, startRow: Int, endRow: Int): LongArray
+
+    override fun invoke(df: DataFrame): IntPredicate {
+        val words = words(df, 0, df.rowsNumber)
+        return IntPredicate { row -> words[row ushr 6] and (1L shl row) != 0L }
+    }
+
+    infix fun and(other: ColumnPredicate): ColumnPredicate {
+        return combine(this, other) { a, b -> a and b }
+    }
+
+    infix fun or(other: ColumnPredicate): ColumnPredicate {
+        return combine(this, other) { a, b -> a or b }
+    }
+
+    operator fun not(): ColumnPredicate {
+        val self = this
+        return object : ColumnPredicate() {
+            override fun words(df: DataFrame, startRow: Int, endRow: Int): LongArray {
+                val words = self.words(df, startRow, endRow)
+                for (w in words.indices) {
+                    words[w] = words[w].inv()
+                }
+
+                val tail = (endRow - startRow) and 63
+                if (tail != 0) {
+                    words[words.size - 1] = words[words.size - 1] and ((1L shl tail) - 1)
+                }
+
+                return words
+            }
+        }
+    }
+
+    /** Returns a mask for rows `[startRow, endRow)`. */
+    fun test(df: DataFrame, startRow: Int = 0, endRow: Int = df.rowsNumber): BitterSet {
+        return BitterSet.valueOf(endRow - startRow, words(df, startRow, endRow))
+    }
+
+    /** Counts the rows in `[startRow, endRow)` matching the predicate. */
+    fun count(df: DataFrame, startRow: Int = 0, endRow: Int = df.rowsNumber): Int {
+        var acc = 0
+        for (word in words(df, startRow, endRow)) {
+            acc += java.lang.Long.bitCount(word)
+        }
+
+        return acc
+    }
+
+    companion object {
+        /**
+         * Compares the values of an integral column with a given value.
+         */
+        fun compare(label: String, comparison: Comparison, value: Long): ColumnPredicate {
+            return when (comparison) {
+                Comparison.LT -> integral(label) { x -> if (x < value) 1L else 0L }
+                Comparison.LE -> integral(label) { x -> if (x <= value) 1L else 0L }
+                Comparison.GT -> integral(label) { x -> if (x > value) 1L else 0L }
+                Comparison.GE -> integral(label) { x -> if (x >= value) 1L else 0L }
+                Comparison.EQ -> integral(label) { x -> if (x == value) 1L else 0L }
+                Comparison.NE -> integral(label) { x -> if (x != value) 1L else 0L }
+            }
+        }
+
+        /**
+         * Compares the values of a numeric column with a given value. As
+         * for primitive doubles, any comparison with NaN except for
+         * [Comparison.NE] is false.
+         */
+        fun compare(label: String, comparison: Comparison, value: Double): ColumnPredicate {
+            return when (comparison) {
+                Comparison.LT -> numeric(label) { x -> if (x < value) 1L else 0L }
+                Comparison.LE -> numeric(label) { x -> if (x <= value) 1L else 0L }
+                Comparison.GT -> numeric(label) { x -> if (x > value) 1L else 0L }
+                Comparison.GE -> numeric(label) { x -> if (x >= value) 1L else 0L }
+                Comparison.EQ -> numeric(label) { x -> if (x == value) 1L else 0L }
+                Comparison.NE -> numeric(label) { x -> if (x != value) 1L else 0L }
+            }
+        }
+
+        /** Tests if the values of an integral column are in `[from, to)`. */
+        fun between(label: String, from: Long, to: Long): ColumnPredicate = integral(label) { x ->
+            if (x >= from && x < to) 1L else 0L
+        }
+
+        /** Tests if the values of a numeric column are in `[from, to)`. */
+        fun between(label: String, from: Double, to: Double): ColumnPredicate = numeric(label) { x ->
+            if (x >= from && x < to) 1L else 0L
+        }
+
+        /** A predicate which is either true or false for every row. */
+        fun constant(value: Boolean): ColumnPredicate = object : ColumnPredicate() {
+            override fun words(df: DataFrame, startRow: Int, endRow: Int): LongArray {
+                val bit = if (value) 1L else 0L
+                return pack(startRow, endRow) { bit }
+            }
+        }
+
+        /** Tests if the values of a floating point column are NaN. */
+        fun isNaN(label: String): ColumnPredicate = object : ColumnPredicate() {
+            override fun words(df: DataFrame, startRow: Int, endRow: Int): LongArray {
+                val data = df[label].data
+                return when (data) {
+                    is DoubleArray -> pack(startRow, endRow) { if (data[it].isNaN()) 1L else 0L }
+                    is FloatArray -> pack(startRow, endRow) { if (data[it].isNaN()) 1L else 0L }
+                    else -> throw IllegalArgumentException("column $label is not floating point")
+                }
+            }
+        }
+
+        /** Tests if the values of an object column are `null`. */
+        fun isNull(label: String): ColumnPredicate = object : ColumnPredicate() {
+            override fun words(df: DataFrame, startRow: Int, endRow: Int): LongArray {
+                val data = df[label].data as? Array<*>
+                           ?: throw IllegalArgumentException("column $label is not an object column")
+                return pack(startRow, endRow) { if (data[it] == null) 1L else 0L }
+            }
+        }
+
+        /** Tests the values of a boolean column, the words are copied as is. */
+        fun isTrue(label: String): ColumnPredicate = object : ColumnPredicate() {
+            override fun words(df: DataFrame, startRow: Int, endRow: Int): LongArray {
+                val data = df.sliceAsBool(label)
+                val words = data.get(startRow, endRow).toLongArray()
+                return if (words.size == (endRow - startRow + 63) ushr 6) {
+                    words
+                } else {
+                    words.copyOf((endRow - startRow + 63) ushr 6)
+                }
+            }
+        }
+
+        private inline fun combine(a: ColumnPredicate, b: ColumnPredicate,
+                                   crossinline op: (Long, Long) -> Long): ColumnPredicate {
+            return object : ColumnPredicate() {
+                override fun words(df: DataFrame, startRow: Int, endRow: Int): LongArray {
+                    val words = a.words(df, startRow, endRow)
+                    val other = b.words(df, startRow, endRow)
+                    for (w in words.indices) {
+                        words[w] = op(words[w], other[w])
+                    }
+
+                    return words
+                }
+            }
+        }
+    }
+}
+
+enum class Comparison { LT, LE, GT, GE, EQ, NE }
+
+/**
+ * Packs the results of [bit], which must be either 0 or 1, for rows
+ * `[from, to)` into words.
+ */
+private inline fun pack(from: Int, to: Int, bit: (Int) -> Long): LongArray {
+    val n = to - from
+    val words = LongArray((n + 63) ushr 6)
+    for (w in words.indices) {
+        val offset = from + (w shl 6)
+        val end = Math.min(64, n - (w shl 6))
+        var word = 0L
+        for (j in 0..end - 1) {
+            word = word or (bit(offset + j) shl j)
+        }
+
+        words[w] = word
+    }
+
+    return words
+}
+
+private inline fun integral(label: String,
+                            crossinline bit: (Long) -> Long): ColumnPredicate = object : ColumnPredicate() {
+    override fun words(df: DataFrame, startRow: Int, endRow: Int): LongArray {
+        val data = df[label].data
+        return when (data) {
+            is IntArray -> pack(startRow, endRow) { bit(data[it].toLong()) }
+            is ShortArray -> pack(startRow, endRow) { bit(data[it].toLong()) }
+            is ByteArray -> pack(startRow, endRow) { bit(data[it].toLong()) }
+            is LongArray -> pack(startRow, endRow) { bit(data[it]) }
+            else -> throw IllegalArgumentException("column $label is not integral")
+        }
+    }
+}
+
+private inline fun numeric(label: String,
+                           crossinline bit: (Double) -> Long): ColumnPredicate = object : ColumnPredicate() {
+    override fun words(df: DataFrame, startRow: Int, endRow: Int): LongArray {
+        val data = df[label].data
+        return when (data) {
+            is DoubleArray -> pack(startRow, endRow) { bit(data[it]) }
+            is FloatArray -> pack(startRow, endRow) { bit(data[it].toDouble()) }
+            is IntArray -> pack(startRow, endRow) { bit(data[it].toDouble()) }
+            is ShortArray -> pack(startRow, endRow) { bit(data[it].toDouble()) }
+            is ByteArray -> pack(startRow, endRow) { bit(data[it].toDouble()) }
+            is LongArray -> pack(startRow, endRow) { bit(data[it].toDouble()) }
+            else -> throw IllegalArgumentException("column $label is not numeric")
+        }
+    }
+}
@@ -0,0 +1,514 @@
+package org.jetbrains.bio.data.frame
+
+import com.google.common.collect.ObjectArrays
+import org.jetbrains.bio.data.BitterSet
+import java.io.*
+import java.nio.ByteBuffer
+import java.nio.ByteOrder
+import java.nio.channels.FileChannel
+import java.nio.file.Path
+import java.nio.file.StandardOpenOption
+import java.util.*
+import java.util.concurrent.ConcurrentHashMap
+import java.util.zip.Deflater
+import java.util.zip.Inflater
+
+/**
+ * A native columnar file format for [DataFrame].
+ *
+ * The file is a sequence of column blocks followed by a footer. Each
+ * column is split into blocks of [blockSize] rows, primitive values
+ * are stored in little-endian order and every block starts at an
+ * [ALIGNMENT]-byte boundary, so an uncompressed block can be copied
+ * straight from the mapped file. The footer lists the columns, their
+ * types and, for every block, its location in the file and the
+ * minimum and maximum value of a numeric column.
+ *
+ *     block*  footer  footerOffset: Int64  MAGIC
+ *
+ * Unlike CSV and NPZ the file is never read as a whole: columns are
+ * decoded from the memory-mapped file on first access, and [filter]
+ * skips the blocks whose min/max statistics can't match. A decoded
+ * column is a regular on-heap [Column].
+ *
+ * The file can be shared between threads.
+ */
+class ColumnarFile private constructor(
+        private val path: Path,
+        private val channel: FileChannel,
+        val rowsNumber: Int,
+        val blockSize: Int,
+        private val compression: Compression,
+        private val columns: List<ColumnMeta>) : Closeable {
+
+    enum class Compression { NONE, DEFLATE }
+
+    internal class BlockMeta(val offset: Long, val length: Int, val rawLength: Int,
+                             val min: Double, val max: Double)
+
+    internal class ColumnMeta(val template: Column<*>, val blocks: List<BlockMeta>)
+
+    /** The file is mapped once if it fits into a single buffer. */
+    private val mapped = if (channel.size() <= Int.MAX_VALUE) {
+        channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size())
+    } else {
+        null
+    }
+
+    private val decoded = ConcurrentHashMap<String, Column<*>>()
+
+    val labels: List<String> get() = columns.map { it.template.label }
+
+    /** Returns the type names of the columns, as in the CSV header. */
+    val typeNames: List<String> get() = columns.map { it.template.typeName() }
+
+    /**
+     * Returns the column with a given label. The column is decoded
+     * on first access and cached afterwards.
+     */
+    operator fun get(label: String): Column<*> {
+        return decoded.computeIfAbsent(label) {
+            val meta = meta(label)
+            if (meta.template.data is BitterSet) {
+                decodeBits(meta.template, meta.blocks, rowsNumber)
+            } else {
+                val column = allocate(meta.template, rowsNumber)
+                for ((b, block) in meta.blocks.withIndex()) {
+                    decode(column, read(block), b * blockSize, rows(b))
+                }
+
+                column
+            }
+        }
+    }
+
+    /** Returns a data frame with the given columns or all of them. */
+    fun peel(vararg labels: String): DataFrame {
+        val selected = if (labels.isEmpty()) this.labels else labels.asList()
+        return DataFrame(rowsNumber, selected.map { get(it) })
+    }
+
+    /**
+     * Returns the rows with the value of a numeric column in `[from, to]`.
+     *
+     * The blocks whose statistics don't intersect the range are
+     * never read. For the rest only the matching rows are kept,
+     * so the whole file is never decoded at once.
+     */
+    fun filter(label: String, from: Double, to: Double, vararg labels: String): DataFrame {
+        val meta = meta(label)
+        val selected = if (labels.isEmpty()) this.labels else labels.asList()
+        require(meta.template.data !is Array<*>) { "column $label is not numeric" }
+
+        val chunks = ArrayList<DataFrame>()
+        for ((b, block) in meta.blocks.withIndex()) {
+            if (block.max < from || block.min > to) {
+                continue
+            }
+
+            val rows = rows(b)
+            val values = decodeBlock(meta.template, block, rows)
+            val mask = BitSet(rows)
+            for (row in 0..rows - 1) {
+                val value = values.getAsDouble(row)
+                if (value >= from && value <= to) {
+                    mask.set(row)
+                }
+            }
+
+            if (mask.isEmpty) {
+                continue
+            }
+
+            val filtered = selected.map { other ->
+                val column = if (other == label) {
+                    values
+                } else {
+                    val otherMeta = meta(other)
+                    decodeBlock(otherMeta.template, otherMeta.blocks[b], rows)
+                }
+
+                column.filter(mask)
+            }
+
+            chunks.add(DataFrame(mask.cardinality(), filtered))
+        }
+
+        return if (chunks.isEmpty()) {
+            DataFrame(0, selected.map { allocate(meta(it).template, 0) })
+        } else {
+            DataFrame.rowBind(*chunks.toTypedArray())
+        }
+    }
+
+    override fun close() {
+        decoded.clear()
+        channel.close()
+    }
+
+    private fun meta(label: String): ColumnMeta {
+        return columns.firstOrNull { it.template.label == label }
+               ?: throw NoSuchElementException("no such column $label in $path")
+    }
+
+    /** Decodes a single block into a column of a given number of rows. */
+    private fun decodeBlock(template: Column<*>, block: BlockMeta, rows: Int): Column<*> {
+        return if (template.data is BitterSet) {
+            decodeBits(template, listOf(block), rows)
+        } else {
+            val column = allocate(template, rows)
+            decode(column, read(block), 0, rows)
+            column
+        }
+    }
+
+    /**
+     * Decodes consecutive blocks of a boolean column. Blocks are stored
+     * as whole words and all but the last one span a multiple of 64 rows,
+     * thus the words are copied as is into a single array.
+     */
+    @Suppress("unchecked_cast")
+    private fun decodeBits(template: Column<*>, blocks: List<BlockMeta>, rows: Int): Column<*> {
+        val words = LongArray((rows + 63) ushr 6)
+        var at = 0
+        for (block in blocks) {
+            val buffer = read(block).asLongBuffer()
+            val length = Math.min(buffer.remaining(), words.size - at)
+            buffer.get(words, at, length)
+            at += length
+        }
+
+        return (template as Column<BitterSet>).wrap(BitterSet.valueOf(rows, words))
+    }
+
+    private fun rows(block: Int) = Math.min(blockSize, rowsNumber - block * blockSize)
+
+    private fun read(block: BlockMeta): ByteBuffer {
+        val buffer = if (mapped != null) {
+            val copy = mapped.duplicate()
+            copy.position(block.offset.toInt())
+            copy.limit(block.offset.toInt() + block.length)
+            copy.slice()
+        } else {
+            channel.map(FileChannel.MapMode.READ_ONLY, block.offset, block.length.toLong())
+        }
+
+        return when (compression) {
+            Compression.NONE -> buffer
+            Compression.DEFLATE -> {
+                val input = ByteArray(block.length)
+                buffer.get(input)
+                val inflater = Inflater()
+                try {
+                    inflater.setInput(input)
+                    val output = ByteArray(block.rawLength)
+                    var length = 0
+                    while (length < output.size) {
+                        val read = inflater.inflate(output, length, output.size - length)
+                        check(read > 0 || !inflater.needsInput()) { "truncated block in $path" }
+                        length += read
+                    }
+
+                    ByteBuffer.wrap(output)
+                } finally {
+                    inflater.end()
+                }
+            }
+        }.order(ByteOrder.LITTLE_ENDIAN)
+    }
+
+    companion object {
+        const val DEFAULT_BLOCK_SIZE = 1 shl 16
+
+        /** Block offsets are aligned to a cache line. */
+        const val ALIGNMENT = 64
+
+        private const val MAGIC = 0x44464331  // DFC1
+        private const val VERSION = 1
+
+        /** Opens an existing file. Don't forget to close it. */
+        @Throws(IOException::class)
+        @JvmStatic fun open(path: Path): ColumnarFile {
+            val channel = FileChannel.open(path, StandardOpenOption.READ)
+            try {
+                val size = channel.size()
+                check(size >= 12) { "$path is not a columnar file" }
+                val tail = ByteBuffer.allocate(12)
+                channel.read(tail, size - 12)
+                tail.flip()
+                val footerOffset = tail.long
+                check(tail.int == MAGIC) { "$path is not a columnar file" }
+
+                val footer = ByteBuffer.allocate((size - 12 - footerOffset).toInt())
+                channel.read(footer, footerOffset)
+                val input = DataInputStream(ByteArrayInputStream(footer.array()))
+                val version = input.readInt()
+                check(version == VERSION) {
+                    "$path version $version, expected $VERSION"
+                }
+
+                val rowsNumber = input.readInt()
+                val blockSize = input.readInt()
+                val compression = Compression.values()[input.readByte().toInt()]
+                val columnsNumber = input.readInt()
+                val names = ArrayList<String>(columnsNumber)
+                val types = ArrayList<String>(columnsNumber)
+                val blocks = ArrayList<List<BlockMeta>>(columnsNumber)
+                for (c in 0..columnsNumber - 1) {
+                    names.add(input.readUTF())
+                    types.add(input.readUTF())
+                    blocks.add((0..input.readInt() - 1).map {
+                        BlockMeta(input.readLong(), input.readInt(), input.readInt(),
+                                  input.readDouble(), input.readDouble())
+                    })
+                }
+
+                val spec = DataFrameSpec.fromNamesAndTypes(names, types, path)
+                val columns = spec.columns.zip(blocks).map { ColumnMeta(it.first, it.second) }
+                return ColumnarFile(path, channel, rowsNumber, blockSize, compression, columns)
+            } catch (e: Exception) {
+                channel.close()
+                throw e
+            }
+        }
+
+        /** Writes a data frame to a given path. */
+        @Throws(IOException::class)
+        @JvmOverloads
+        @JvmStatic fun write(path: Path, df: DataFrame,
+                             compression: Compression = Compression.NONE,
+                             blockSize: Int = DEFAULT_BLOCK_SIZE) {
+            // Boolean blocks are stored as whole 64-bit words.
+            require(blockSize > 0 && blockSize % 64 == 0) {
+                "block size must be a positive multiple of 64"
+            }
+
+            // Checked before truncating the file, rather than failing
+            // half way through writing it.
+            for (column in df.columns) {
+                require(column.data !is Array<*> ||
+                        column is StringColumn || column is EnumColumn<*>) {
+                    "unsupported column ${column.label}: ${column.typeName()}, " +
+                    "only primitive, string and enum columns can be written"
+                }
+            }
+
+            FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                             StandardOpenOption.TRUNCATE_EXISTING).use { channel ->
+                val footer = ByteArrayOutputStream()
+                val output = DataOutputStream(footer)
+                output.writeInt(VERSION)
+                output.writeInt(df.rowsNumber)
+                output.writeInt(blockSize)
+                output.writeByte(compression.ordinal)
+                output.writeInt(df.columnsNumber)
+
+                val blocksNumber = (df.rowsNumber + blockSize - 1) / blockSize
+                val padding = ByteBuffer.allocate(ALIGNMENT)
+                for (column in df.columns) {
+                    output.writeUTF(column.label)
+                    output.writeUTF(column.typeName())
+                    output.writeInt(blocksNumber)
+                    for (b in 0..blocksNumber - 1) {
+                        val from = b * blockSize
+                        val to = Math.min(from + blockSize, df.rowsNumber)
+                        val raw = encode(column, from, to)
+                        val rawLength = raw.remaining()
+                        val data = when (compression) {
+                            Compression.NONE -> raw
+                            Compression.DEFLATE -> deflate(raw)
+                        }
+
+                        val position = channel.position()
+                        if (position % ALIGNMENT != 0L) {
+                            padding.clear()
+                            padding.limit((ALIGNMENT - position % ALIGNMENT).toInt())
+                            channel.write(padding)
+                        }
+
+                        output.writeLong(channel.position())
+                        output.writeInt(data.remaining())
+                        output.writeInt(rawLength)
+                        if (column.data is Array<*>) {
+                            output.writeDouble(Double.NaN)
+                            output.writeDouble(Double.NaN)
+                        } else {
+                            var min = Double.POSITIVE_INFINITY
+                            var max = Double.NEGATIVE_INFINITY
+                            for (row in from..to - 1) {
+                                val value = column.getAsDouble(row)
+                                min = Math.min(min, value)
+                                max = Math.max(max, value)
+                            }
+
+                            output.writeDouble(min)
+                            output.writeDouble(max)
+                        }
+
+                        while (data.hasRemaining()) {
+                            channel.write(data)
+                        }
+                    }
+                }
+
+                val footerOffset = channel.position()
+                output.flush()
+                channel.write(ByteBuffer.wrap(footer.toByteArray()))
+                val tail = ByteBuffer.allocate(12)
+                tail.putLong(footerOffset)
+                tail.putInt(MAGIC)
+                tail.flip()
+                channel.write(tail)
+            }
+        }
+
+        private fun deflate(raw: ByteBuffer): ByteBuffer {
+            val input = ByteArray(raw.remaining())
+            raw.get(input)
+            val deflater = Deflater(Deflater.BEST_SPEED)
+            try {
+                deflater.setInput(input)
+                deflater.finish()
+                val output = ByteArrayOutputStream(input.size / 2 + 16)
+                val chunk = ByteArray(8192)
+                while (!deflater.finished()) {
+                    output.write(chunk, 0, deflater.deflate(chunk))
+                }
+
+                return ByteBuffer.wrap(output.toByteArray())
+            } finally {
+                deflater.end()
+            }
+        }
+
+        /** Encodes rows `[from, to)` of a column into a little-endian buffer. */
+        @Suppress("unchecked_cast")
+        private fun encode(column: Column<*>, from: Int, to: Int): ByteBuffer {
+            val data = column.data
+            val rows = to - from
+            return when (data) {
+                is ByteArray -> ByteBuffer.wrap(data, from, rows).slice()
+                is ShortArray -> {
+                    val buffer = allocateLE(rows * 2)
+                    buffer.asShortBuffer().put(data, from, rows)
+                    buffer
+                }
+                is IntArray -> {
+                    val buffer = allocateLE(rows * 4)
+                    buffer.asIntBuffer().put(data, from, rows)
+                    buffer
+                }
+                is LongArray -> {
+                    val buffer = allocateLE(rows * 8)
+                    buffer.asLongBuffer().put(data, from, rows)
+                    buffer
+                }
+                is FloatArray -> {
+                    val buffer = allocateLE(rows * 4)
+                    buffer.asFloatBuffer().put(data, from, rows)
+                    buffer
+                }
+                is DoubleArray -> {
+                    val buffer = allocateLE(rows * 8)
+                    buffer.asDoubleBuffer().put(data, from, rows)
+                    buffer
+                }
+                is BitterSet -> {
+                    // 'from' is a multiple of 64, so are the words.
+                    val words = data.get(from, to).toLongArray()
+                    val buffer = allocateLE((rows + 63) / 64 * 8)
+                    buffer.asLongBuffer().put(words)
+                    buffer
+                }
+                is Array<*> -> if (column is EnumColumn<*>) {
+                    val buffer = allocateLE(rows * 4)
+                    for (row in from..to - 1) {
+                        buffer.putInt((data[row] as Enum<*>?)?.ordinal ?: -1)
+                    }
+
+                    buffer.flip()
+                    buffer
+                } else {
+                    val bytes = ByteArrayOutputStream()
+                    val output = DataOutputStream(bytes)
+                    for (row in from..to - 1) {
+                        val value = data[row] as String?
+                        if (value == null) {
+                            output.writeInt(-1)
+                        } else {
+                            val encoded = value.toByteArray(Charsets.UTF_8)
+                            output.writeInt(encoded.size)
+                            output.write(encoded)
+                        }
+                    }
+
+                    output.flush()
+                    ByteBuffer.wrap(bytes.toByteArray())
+                }
+                else -> throw IllegalArgumentException(
+                        "unsupported column ${column.label}: ${column.typeName()}")
+            }
+        }
+
+        private fun allocateLE(size: Int) = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN)
+
+        /**
+         * Decodes a block into rows `[at, at + rows)` of a column. Boolean
+         * columns are decoded a word at a time by [decodeBits].
+         */
+        @Suppress("unchecked_cast")
+        private fun decode(column: Column<*>, buffer: ByteBuffer, at: Int, rows: Int) {
+            val data = column.data
+            when (data) {
+                is ByteArray -> buffer.get(data, at, rows)
+                is ShortArray -> buffer.asShortBuffer().get(data, at, rows)
+                is IntArray -> buffer.asIntBuffer().get(data, at, rows)
+                is LongArray -> buffer.asLongBuffer().get(data, at, rows)
+                is FloatArray -> buffer.asFloatBuffer().get(data, at, rows)
+                is DoubleArray -> buffer.asDoubleBuffer().get(data, at, rows)
+                is Array<*> -> {
+                    val values = data as Array<Any?>
+                    if (column is EnumColumn<*>) {
+                        val constants = column.enumType.enumConstants
+                        for (row in at..at + rows - 1) {
+                            val ordinal = buffer.int
+                            values[row] = if (ordinal < 0) null else constants[ordinal]
+                        }
+                    } else {
+                        for (row in at..at + rows - 1) {
+                            val length = buffer.int
+                            values[row] = if (length < 0) {
+                                null
+                            } else {
+                                val bytes = ByteArray(length)
+                                buffer.get(bytes)
+                                String(bytes, Charsets.UTF_8)
+                            }
+                        }
+                    }
+                }
+                else -> throw IllegalArgumentException(
+                        "unsupported column ${column.label}: ${column.typeName()}")
+            }
+        }
+
+        /** Returns a zero-filled column of a given size and the same type. */
+        @Suppress("unchecked_cast")
+        private fun allocate(template: Column<*>, size: Int): Column<*> {
+            val data = template.data
+            return when (data) {
+                is ByteArray -> (template as Column<ByteArray>).wrap(ByteArray(size))
+                is ShortArray -> (template as Column<ShortArray>).wrap(ShortArray(size))
+                is IntArray -> (template as Column<IntArray>).wrap(IntArray(size))
+                is LongArray -> (template as Column<LongArray>).wrap(LongArray(size))
+                is FloatArray -> (template as Column<FloatArray>).wrap(FloatArray(size))
+                is DoubleArray -> (template as Column<DoubleArray>).wrap(DoubleArray(size))
+                is BitterSet -> (template as Column<BitterSet>).wrap(BitterSet(size))
+                is Array<*> -> (template as Column<Array<Any?>>).wrap(
+                        ObjectArrays.newArray(template.boxedType as Class<Any?>, size))
+                else -> throw IllegalArgumentException(
+                        "unsupported column ${template.label}: ${template.typeName()}")
+            }
+        }
+    }
+}
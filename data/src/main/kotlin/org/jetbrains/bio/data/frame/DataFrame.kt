@@ -52,6 +52,10 @@ class DataFrame @JvmOverloads constructor(
              endRow: Int = rowsNumber): BitterSet {
 
         checkPositionIndexes(startRow, endRow, rowsNumber)
+        if (pf is ColumnPredicate) {
+            return pf.test(this, startRow, endRow)
+        }
+
         val rowPredicate = pf(this)
 
         val mask = BitterSet.of(endRow - startRow) { i ->
@@ -66,6 +70,10 @@ class DataFrame @JvmOverloads constructor(
                             endRow: Int = rowsNumber): Int {
 
         checkPositionIndexes(startRow, endRow, rowsNumber)
+        if (pf is ColumnPredicate) {
+            return pf.count(this, startRow, endRow)
+        }
+
         val rowPredicate = pf(this)
 
         var count = 0
@@ -79,8 +87,30 @@ class DataFrame @JvmOverloads constructor(
 
     fun filter(pf: RowPredicateFactory) = filter(test(pf))
 
-    fun filter(mask: BitSet)
-            = DataFrame(mask.cardinality(), columns.map { it.filter(mask) })
+    /**
+     * Joins this data frame with another one.
+     *
+     * The result holds the key columns followed by the rest of the
+     * columns of both data frames, suffixed as in [columnBind] if the
+     * labels collide. Semi and anti joins only keep the columns of
+     * this data frame. Missing values are defaults, e.g. zero.
+     *
+     * @param on labels of the key columns, present in both data frames.
+     * @param type join variant.
+     * @param strategy join algorithm, see [JoinStrategy].
+     */
+    @JvmOverloads fun join(other: DataFrame, on: List<String>,
+                           type: JoinType = JoinType.INNER,
+                           strategy: JoinStrategy = JoinStrategy.AUTO): DataFrame {
+        return Joins.join(this, other, on, type, strategy)
+    }
+
+    fun filter(mask: BitSet): DataFrame {
+        // Extract the selected rows once instead of testing every bit
+        // of the mask for every column.
+        val indices = BitterSet.indices(mask)
+        return DataFrame(indices.size, columns.map { it.gather(indices) })
+    }
 
     /**
      * Returns a data frame with a given subset of columns.
@@ -290,63 +320,82 @@ class DataFrame @JvmOverloads constructor(
          * Performs an inner join of a list of data frames.
          *
          * @param on column to join on, should be present in all data
-         *           frames; duplicate values aren't allowed.
+         *           frames.
          * @param dfs data frames.
          * @return new data frame with join result sorted wrt to the
          *         join column.
          */
-        @Suppress("unchecked_cast")
         @JvmStatic fun mergeInner(on: String, vararg dfs: DataFrame): DataFrame {
             require(dfs.size >= 2) { "expected at least two data frames" }
-
-            var predicate: ObjIntPredicate<*> = ObjIntPredicate<Any> { data, i -> true }
-            for (i in 1 until dfs.size) {
-                val l = dfs[i - 1][on]
-                val r = dfs[i][on]
-                // The '#and' call should be safe, because if 'l' is of different
-                // type than 'r' we'll get an exception during the intersection.
-                val copy = predicate as ObjIntPredicate<Any>
-                predicate = (l.intersect(r) as ObjIntPredicate<Any>) and
-                        ObjIntPredicate { data, i -> copy.test(data, i) }
-            }
-
-            val combinedPredicate = predicate
-            val filtered = dfs.map { df ->
-                val mask = df[on].test(combinedPredicate)
-                df.filter(mask).reorder(on)
-            }.toTypedArray()
-
-            val first = filtered.first()
-            return columnBind(setOf(on), *filtered)
-                    .with(first.rowsNumber, first[on])
+            return merge(on, dfs, JoinType.INNER)
         }
 
-
         /**
          * Performs an outer join of a list of data frames.
          *
          * @param on column to join on, should be present in all data
-         *           frames; duplicate values aren't allowed.
+         *           frames.
          * @param dfs data frames.
          * @return new data frame with join result sorted wrt to the
          *         join column.
          */
         @JvmStatic fun mergeOuter(on: String, vararg dfs: DataFrame): DataFrame {
             require(dfs.size >= 2) { "expected at least two data frames" }
+            return merge(on, dfs, JoinType.OUTER)
+        }
+
+        private fun merge(on: String, dfs: Array<out DataFrame>, type: JoinType): DataFrame {
+            // Joins the combined key column with each of the data frames,
+            // keeping track of the matching rows in all of them.
+            var combinedColumn: Column<*> = dfs[0][on]
+            val rows = arrayOfNulls<IntArray>(dfs.size)
+            val identity = IntArray(combinedColumn.size())
+            for (i in identity.indices) {
+                identity[i] = i
+            }
 
-            val combinedColumn = dfs.asSequence().map { it[on] }
-                    .reduce { a, b -> a.merge(b) }
-                    .let { it.reorder(it.sorted(SortOrder.ASC)) }
+            rows[0] = identity
+            for (k in 1..dfs.size - 1) {
+                val column = dfs[k][on]
+                val (l, r) = Joins.joinIndices(
+                        listOf(combinedColumn), combinedColumn.size(),
+                        listOf(column), column.size(), type, JoinStrategy.AUTO)
+                for (j in 0..k - 1) {
+                    rows[j] = rows[j]!!.gather(l)
+                }
+
+                rows[k] = r
+                combinedColumn = if (type == JoinType.OUTER) {
+                    val indices = IntArray(l.size)
+                    for (i in l.indices) {
+                        indices[i] = if (l[i] < 0) combinedColumn.size() + r[i] else l[i]
+                    }
 
-            val rowsNumber = combinedColumn.size()
-            val resized = dfs.map { df ->
-                df.omit(on).resize(rowsNumber)
-                        .with(rowsNumber, df[on].merge(combinedColumn))
-                        .reorder(on)
+                    (combinedColumn + column).gather(indices)
+                } else {
+                    combinedColumn.gather(l)
+                }
+            }
+
+            val order = combinedColumn.sorted(SortOrder.ASC)
+            val rowsNumber = order.size
+            val resized = dfs.mapIndexed { k, df ->
+                val indices = rows[k]!!.gather(order)
+                DataFrame(rowsNumber, df.columns.filter { it.label != on }
+                        .map { it.gather(indices) })
             }.toTypedArray()
 
-            return columnBind(setOf(on), *resized)
-                    .with(rowsNumber, combinedColumn)
+            return columnBind(*resized).with(rowsNumber, combinedColumn.reorder(order))
+        }
+
+        /** Returns `this[indices[i]]` or -1 if `indices[i]` is negative. */
+        private fun IntArray.gather(indices: IntArray): IntArray {
+            val result = IntArray(indices.size)
+            for (i in indices.indices) {
+                result[i] = if (indices[i] < 0) -1 else this[indices[i]]
+            }
+
+            return result
         }
 
         /**
@@ -402,29 +451,24 @@ class DataFrame @JvmOverloads constructor(
 
         /**
          * Combines data frames with the same set of columns by rows.
+         *
+         * Each column of the result is allocated once, so binding
+         * many frames is linear in the total number of rows.
          */
-        @JvmStatic fun rowBind(df1: DataFrame, df2: DataFrame): DataFrame {
-            val labels = df1.labels
-            if (!Arrays.equals(labels, df2.labels)) {
-                val chunks = arrayOf("columns do not match: ",
-                                     Arrays.toString(labels), " ",
-                                     Arrays.toString(df2.labels))
-                throw IllegalArgumentException(chunks.joinToString("\n"))
-            }
-
-            return when {
-                df1.rowsNumber == 0 -> df2
-                df2.rowsNumber == 0 -> df1
-                else -> {
-                    val columns = labels.map { df1[it] + df2[it] }
-                    DataFrame(df1.rowsNumber + df2.rowsNumber, columns)
-                }
-            }
+        @JvmStatic fun rowBind(vararg dfs: DataFrame): DataFrame {
+            return Binds.rowBind(dfs.asList())
         }
 
-        @JvmStatic fun rowBind(dfs: Array<DataFrame>): DataFrame {
-            require(dfs.size >= 1) { "expected at least one data frame" }
-            return dfs.reduce { a, b -> rowBind(a, b) }
+        /**
+         * Combines data frames with the same set of columns, each sorted
+         * on a given column, into a single frame sorted on that column.
+         *
+         * Unlike [rowBind] followed by [reorder] the frames are merged
+         * in `O(n log k)` time and the merge is stable, i.e. the rows
+         * with equal keys appear in the order of `dfs`.
+         */
+        @JvmStatic fun mergeSorted(on: String, vararg dfs: DataFrame): DataFrame {
+            return Binds.mergeSorted(on, dfs.asList())
         }
     }
 }
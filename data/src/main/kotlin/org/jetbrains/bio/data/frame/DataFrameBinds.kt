@@ -0,0 +1,225 @@
+package org.jetbrains.bio.data.frame
+
+import com.google.common.collect.ObjectArrays
+import org.jetbrains.bio.data.BitterSet
+import java.util.*
+
+/**
+ * K-way row binding for [DataFrame].
+ *
+ * Every output column is allocated once and each input row is copied
+ * exactly once, so binding `k` frames with `n` rows in total is `O(n)`
+ * for concatenation and `O(n log k)` for the sorted merge.
+ */
+internal object Binds {
+    fun rowBind(dfs: List<DataFrame>): DataFrame {
+        require(dfs.isNotEmpty()) { "expected at least one data frame" }
+        val labels = checkLabels(dfs)
+        val nonEmpty = dfs.filter { it.rowsNumber > 0 }
+        return when (nonEmpty.size) {
+            0 -> dfs.first()
+            1 -> nonEmpty.first()
+            else -> {
+                val rowsNumber = nonEmpty.sumBy { it.rowsNumber }
+                DataFrame(rowsNumber, labels.map { label ->
+                    concatenate(nonEmpty.map { it[label] }, rowsNumber, null)
+                })
+            }
+        }
+    }
+
+    /**
+     * Merges data frames, each sorted on the column [on], into a single
+     * sorted data frame. Ties are resolved in favour of the frame which
+     * goes first, i.e. the merge is stable.
+     */
+    fun mergeSorted(on: String, dfs: List<DataFrame>): DataFrame {
+        require(dfs.isNotEmpty()) { "expected at least one data frame" }
+        val labels = checkLabels(dfs)
+        val nonEmpty = dfs.filter { it.rowsNumber > 0 }
+        if (nonEmpty.size <= 1) {
+            return nonEmpty.firstOrNull() ?: dfs.first()
+        }
+
+        val keys = nonEmpty.map { JoinKey.of(it[on]) }
+        for ((df, key) in nonEmpty.zip(keys)) {
+            for (row in 1..df.rowsNumber - 1) {
+                require(key.compare(row - 1, key, row) <= 0) {
+                    "data frame is not sorted on $on"
+                }
+            }
+        }
+
+        val k = nonEmpty.size
+        val positions = Array(k) { IntArray(nonEmpty[it].rowsNumber) }
+        val cursors = IntArray(k)
+        // A binary heap of frame indices ordered by the key of the
+        // current row and then by the frame index.
+        val heap = IntArray(k)
+        var heapSize = 0
+        val less = { a: Int, b: Int ->
+            val c = keys[a].compare(cursors[a], keys[b], cursors[b])
+            c < 0 || (c == 0 && a < b)
+        }
+
+        for (i in 0..k - 1) {
+            var child = heapSize++
+            heap[child] = i
+            while (child > 0) {
+                val parent = (child - 1) / 2
+                if (!less(heap[child], heap[parent])) {
+                    break
+                }
+
+                swap(heap, child, parent)
+                child = parent
+            }
+        }
+
+        var position = 0
+        while (heapSize > 0) {
+            val i = heap[0]
+            positions[i][cursors[i]] = position++
+            if (++cursors[i] == positions[i].size) {
+                heap[0] = heap[--heapSize]
+            }
+
+            var parent = 0
+            while (true) {
+                val left = 2 * parent + 1
+                if (left >= heapSize) {
+                    break
+                }
+
+                val right = left + 1
+                val child = if (right < heapSize && less(heap[right], heap[left])) right else left
+                if (!less(heap[child], heap[parent])) {
+                    break
+                }
+
+                swap(heap, child, parent)
+                parent = child
+            }
+        }
+
+        return DataFrame(position, labels.map { label ->
+            concatenate(nonEmpty.map { it[label] }, position, positions)
+        })
+    }
+
+    private fun checkLabels(dfs: List<DataFrame>): Array<String> {
+        val labels = dfs.first().labels
+        for (df in dfs) {
+            if (!Arrays.equals(labels, df.labels)) {
+                val chunks = arrayOf("columns do not match: ",
+                                     Arrays.toString(labels), " ",
+                                     Arrays.toString(df.labels))
+                throw IllegalArgumentException(chunks.joinToString("\n"))
+            }
+        }
+
+        return labels
+    }
+
+    private fun swap(heap: IntArray, i: Int, j: Int) {
+        val tmp = heap[i]
+        heap[i] = heap[j]
+        heap[j] = tmp
+    }
+
+    /**
+     * Copies the rows of [columns] into a single column of a given size.
+     * The rows are either placed one after another or, if [positions]
+     * are given, row `j` of column `i` goes to `positions[i][j]`.
+     */
+    @Suppress("unchecked_cast")
+    private fun concatenate(columns: List<Column<*>>, size: Int,
+                            positions: Array<IntArray>?): Column<*> {
+        val first = columns.first()
+        for (column in columns) {
+            require(column.data!!.javaClass == first.data!!.javaClass &&
+                    column.boxedType == first.boxedType) {
+                "column ${first.label} types differ: " +
+                "${first.typeName()} and ${column.typeName()}"
+            }
+        }
+
+        val data = first.data
+        return when (data) {
+            is IntArray -> {
+                val copy = IntArray(size)
+                scatter(columns, positions) { src, row, dst -> copy[dst] = (src as IntArray)[row] }
+                (first as Column<IntArray>).wrap(copy)
+            }
+            is LongArray -> {
+                val copy = LongArray(size)
+                scatter(columns, positions) { src, row, dst -> copy[dst] = (src as LongArray)[row] }
+                (first as Column<LongArray>).wrap(copy)
+            }
+            is ShortArray -> {
+                val copy = ShortArray(size)
+                scatter(columns, positions) { src, row, dst -> copy[dst] = (src as ShortArray)[row] }
+                (first as Column<ShortArray>).wrap(copy)
+            }
+            is ByteArray -> {
+                val copy = ByteArray(size)
+                scatter(columns, positions) { src, row, dst -> copy[dst] = (src as ByteArray)[row] }
+                (first as Column<ByteArray>).wrap(copy)
+            }
+            is DoubleArray -> {
+                val copy = DoubleArray(size)
+                scatter(columns, positions) { src, row, dst -> copy[dst] = (src as DoubleArray)[row] }
+                (first as Column<DoubleArray>).wrap(copy)
+            }
+            is FloatArray -> {
+                val copy = FloatArray(size)
+                scatter(columns, positions) { src, row, dst -> copy[dst] = (src as FloatArray)[row] }
+                (first as Column<FloatArray>).wrap(copy)
+            }
+            is BitterSet -> {
+                val copy = if (positions == null) {
+                    // Concatenation is a word-wise shift.
+                    BitterSet.concatenate(columns.map { it.data as BitterSet })
+                } else {
+                    val copy = BitterSet(size)
+                    for ((i, column) in columns.withIndex()) {
+                        val dst = positions[i]
+                        (column.data as BitterSet).forEachSetBit { copy.set(dst[it]) }
+                    }
+
+                    copy
+                }
+
+                (first as Column<BitterSet>).wrap(copy)
+            }
+            is Array<*> -> {
+                val copy = ObjectArrays.newArray(first.boxedType as Class<Any?>, size)
+                scatter(columns, positions) { src, row, dst -> copy[dst] = (src as Array<*>)[row] }
+                (first as Column<Array<Any?>>).wrap(copy)
+            }
+            else -> throw IllegalArgumentException(
+                    "unsupported column ${first.label}: ${first.typeName()}")
+        }
+    }
+
+    private inline fun scatter(columns: List<Column<*>>, positions: Array<IntArray>?,
+                               copy: (Any, Int, Int) -> Unit) {
+        var offset = 0
+        for ((i, column) in columns.withIndex()) {
+            val src = column.data!!
+            val size = column.size()
+            if (positions == null) {
+                for (row in 0..size - 1) {
+                    copy(src, row, offset + row)
+                }
+            } else {
+                val dst = positions[i]
+                for (row in 0..size - 1) {
+                    copy(src, row, dst[row])
+                }
+            }
+
+            offset += size
+        }
+    }
+}
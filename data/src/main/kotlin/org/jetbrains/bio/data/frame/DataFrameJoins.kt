@@ -0,0 +1,527 @@
+package org.jetbrains.bio.data.frame
+
+import com.google.common.collect.ObjectArrays
+import gnu.trove.list.array.TIntArrayList
+import org.jetbrains.bio.data.BitterSet
+import java.util.*
+
+enum class JoinType {
+    /** Rows with a matching key on both sides. */
+    INNER,
+    /** All rows of the left side, missing right values are defaults. */
+    LEFT,
+    /** All rows of both sides, missing values are defaults. */
+    OUTER,
+    /** Rows of the left side having a match, left columns only. */
+    SEMI,
+    /** Rows of the left side having no match, left columns only. */
+    ANTI
+}
+
+enum class JoinStrategy {
+    /** Merge join if both sides are sorted on the keys, hash join otherwise. */
+    AUTO,
+    /** Builds a hash table on the right side and probes it with the left one. */
+    HASH,
+    /** Scans both sides sorted on the keys, sorting them if necessary. */
+    MERGE
+}
+
+/**
+ * Join engines for [DataFrame].
+ *
+ * Both engines output a pair of row index arrays, one per side, with
+ * -1 standing for a missing row. The hash join preserves the order
+ * of the left side, unmatched right rows of an outer join go last.
+ * The merge join outputs rows in key order.
+ *
+ * Neither of the engines boxes the keys: the hash join uses an open
+ * addressing table of row indices with rows having the same key
+ * chained together, the merge join compares rows in place.
+ */
+internal object Joins {
+    fun join(left: DataFrame, right: DataFrame, on: List<String>,
+             type: JoinType, strategy: JoinStrategy): DataFrame {
+        require(on.isNotEmpty()) { "no columns to join on" }
+        val (leftRows, rightRows) = joinIndices(
+                on.map { left[it] }, left.rowsNumber,
+                on.map { right[it] }, right.rowsNumber, type, strategy)
+
+        if (type == JoinType.SEMI || type == JoinType.ANTI) {
+            return DataFrame(leftRows.size, left.columns.map { it.gather(leftRows) })
+        }
+
+        val rowsNumber = leftRows.size
+        val keys = on.map { label ->
+            if (type == JoinType.OUTER) {
+                // Right-only rows take the keys from the right side.
+                val indices = IntArray(rowsNumber)
+                for (i in 0..rowsNumber - 1) {
+                    indices[i] = if (leftRows[i] < 0) {
+                        left.rowsNumber + rightRows[i]
+                    } else {
+                        leftRows[i]
+                    }
+                }
+
+                (left[label] + right[label]).gather(indices)
+            } else {
+                left[label].gather(leftRows)
+            }
+        }
+
+        val values = DataFrame.columnBind(
+                DataFrame(rowsNumber, left.columns.filter { it.label !in on }
+                        .map { it.gather(leftRows) }),
+                DataFrame(rowsNumber, right.columns.filter { it.label !in on }
+                        .map { it.gather(rightRows) }))
+        return DataFrame(rowsNumber, keys + values.columns)
+    }
+
+    fun joinIndices(left: List<Column<*>>, leftSize: Int,
+                    right: List<Column<*>>, rightSize: Int,
+                    type: JoinType, strategy: JoinStrategy): Pair<IntArray, IntArray> {
+        require(left.size == right.size) { "different number of key columns" }
+        val leftKeys = Array(left.size) { JoinKey.of(left[it]) }
+        val rightKeys = Array(right.size) { JoinKey.of(right[it]) }
+        for (k in leftKeys.indices) {
+            require(left[k].boxedType == right[k].boxedType) {
+                "key column ${left[k].label} types differ: " +
+                "${left[k].typeName()} and ${right[k].typeName()}"
+            }
+        }
+
+        val output = Output()
+        val leftSorted = lazy(LazyThreadSafetyMode.NONE) { isSorted(leftKeys, leftSize) }
+        val rightSorted = lazy(LazyThreadSafetyMode.NONE) { isSorted(rightKeys, rightSize) }
+        val actualStrategy = if (strategy == JoinStrategy.AUTO) {
+            // Merging presorted inputs is a sequential scan without
+            // any extra memory, sorting is more expensive than hashing.
+            if (leftSorted.value && rightSorted.value) {
+                JoinStrategy.MERGE
+            } else {
+                JoinStrategy.HASH
+            }
+        } else {
+            strategy
+        }
+
+        if (actualStrategy == JoinStrategy.MERGE) {
+            mergeJoin(leftKeys, sortedOrder(leftKeys, leftSize, leftSorted.value),
+                      rightKeys, sortedOrder(rightKeys, rightSize, rightSorted.value),
+                      type, output)
+        } else {
+            hashJoin(leftKeys, leftSize, rightKeys, rightSize, type, output)
+        }
+
+        return output.left.toArray() to output.right.toArray()
+    }
+
+    private class Output {
+        val left = TIntArrayList()
+        val right = TIntArrayList()
+
+        fun add(l: Int, r: Int) {
+            left.add(l)
+            right.add(r)
+        }
+    }
+
+    private fun hashJoin(leftKeys: Array<JoinKey>, leftSize: Int,
+                         rightKeys: Array<JoinKey>, rightSize: Int,
+                         type: JoinType, output: Output) {
+        var capacity = 16
+        while (capacity < rightSize * 2) {
+            capacity = capacity shl 1
+        }
+
+        val mask = capacity - 1
+        // Each slot holds the first row of a chain of rows with equal keys.
+        val heads = IntArray(capacity)
+        Arrays.fill(heads, -1)
+        val next = IntArray(rightSize)
+        for (r in rightSize - 1 downTo 0) {
+            var slot = hash(rightKeys, r) and mask
+            while (true) {
+                val head = heads[slot]
+                if (head < 0) {
+                    next[r] = -1
+                    heads[slot] = r
+                    break
+                } else if (equal(rightKeys, head, rightKeys, r)) {
+                    next[r] = head
+                    heads[slot] = r
+                    break
+                }
+
+                slot = (slot + 1) and mask
+            }
+        }
+
+        val matched = if (type == JoinType.OUTER) BitSet(rightSize) else null
+        for (l in 0..leftSize - 1) {
+            var slot = hash(leftKeys, l) and mask
+            var r = -1
+            while (heads[slot] >= 0) {
+                if (equal(leftKeys, l, rightKeys, heads[slot])) {
+                    r = heads[slot]
+                    break
+                }
+
+                slot = (slot + 1) and mask
+            }
+
+            when (type) {
+                JoinType.SEMI -> if (r >= 0) output.add(l, -1)
+                JoinType.ANTI -> if (r < 0) output.add(l, -1)
+                else -> {
+                    if (r < 0 && type != JoinType.INNER) {
+                        output.add(l, -1)
+                    }
+
+                    while (r >= 0) {
+                        matched?.set(r)
+                        output.add(l, r)
+                        r = next[r]
+                    }
+                }
+            }
+        }
+
+        if (matched != null) {
+            for (r in 0..rightSize - 1) {
+                if (!matched[r]) {
+                    output.add(-1, r)
+                }
+            }
+        }
+    }
+
+    private fun mergeJoin(leftKeys: Array<JoinKey>, leftOrder: IntArray,
+                          rightKeys: Array<JoinKey>, rightOrder: IntArray,
+                          type: JoinType, output: Output) {
+        val keepLeft = type == JoinType.LEFT || type == JoinType.OUTER || type == JoinType.ANTI
+        val keepRight = type == JoinType.OUTER
+        var i = 0
+        var j = 0
+        while (i < leftOrder.size && j < rightOrder.size) {
+            val l = leftOrder[i]
+            val r = rightOrder[j]
+            val c = compare(leftKeys, l, rightKeys, r)
+            if (c < 0) {
+                if (keepLeft) output.add(l, -1)
+                i++
+            } else if (c > 0) {
+                if (keepRight) output.add(-1, r)
+                j++
+            } else {
+                var iEnd = i + 1
+                while (iEnd < leftOrder.size &&
+                       compare(leftKeys, leftOrder[iEnd], rightKeys, r) == 0) {
+                    iEnd++
+                }
+
+                var jEnd = j + 1
+                while (jEnd < rightOrder.size &&
+                       compare(leftKeys, l, rightKeys, rightOrder[jEnd]) == 0) {
+                    jEnd++
+                }
+
+                when (type) {
+                    JoinType.SEMI -> for (ii in i..iEnd - 1) output.add(leftOrder[ii], -1)
+                    JoinType.ANTI -> {}
+                    else -> for (ii in i..iEnd - 1) {
+                        for (jj in j..jEnd - 1) {
+                            output.add(leftOrder[ii], rightOrder[jj])
+                        }
+                    }
+                }
+
+                i = iEnd
+                j = jEnd
+            }
+        }
+
+        if (keepLeft) {
+            while (i < leftOrder.size) output.add(leftOrder[i++], -1)
+        }
+
+        if (keepRight) {
+            while (j < rightOrder.size) output.add(-1, rightOrder[j++])
+        }
+    }
+
+    private fun isSorted(keys: Array<JoinKey>, size: Int): Boolean {
+        for (row in 1..size - 1) {
+            if (compare(keys, row - 1, keys, row) > 0) {
+                return false
+            }
+        }
+
+        return true
+    }
+
+    private fun sortedOrder(keys: Array<JoinKey>, size: Int, isSorted: Boolean): IntArray {
+        val order = IntArray(size)
+        for (row in 0..size - 1) {
+            order[row] = row
+        }
+
+        return if (isSorted) order else mergeSort(keys, order)
+    }
+
+    /**
+     * Sorts row indices by keys with a bottom-up merge sort. Unlike
+     * sorting via a [Comparator] it doesn't box the indices and,
+     * like it, it is stable.
+     */
+    private fun mergeSort(keys: Array<JoinKey>, order: IntArray): IntArray {
+        val size = order.size
+        var src = order
+        var dst = IntArray(size)
+        var width = 1
+        while (width < size) {
+            var lo = 0
+            while (lo < size) {
+                val mid = Math.min(lo + width, size)
+                val hi = Math.min(lo + 2 * width, size)
+                var i = lo
+                var j = mid
+                var k = lo
+                while (i < mid && j < hi) {
+                    dst[k++] = if (compare(keys, src[j], keys, src[i]) < 0) src[j++] else src[i++]
+                }
+
+                while (i < mid) dst[k++] = src[i++]
+                while (j < hi) dst[k++] = src[j++]
+                lo += 2 * width
+            }
+
+            val tmp = src
+            src = dst
+            dst = tmp
+            width *= 2
+        }
+
+        return src
+    }
+
+    private fun hash(keys: Array<JoinKey>, row: Int): Int {
+        var acc = 0
+        for (key in keys) {
+            acc = 31 * acc + key.hash(row)
+        }
+
+        // Murmur3 finalizer, offsets tend to share the lower bits.
+        acc = acc xor (acc ushr 16)
+        acc *= -0x7a143595
+        acc = acc xor (acc ushr 13)
+        acc *= -0x3d4d51cb
+        return acc xor (acc ushr 16)
+    }
+
+    private fun equal(leftKeys: Array<JoinKey>, l: Int,
+                      rightKeys: Array<JoinKey>, r: Int): Boolean {
+        for (k in leftKeys.indices) {
+            if (!leftKeys[k].equal(l, rightKeys[k], r)) {
+                return false
+            }
+        }
+
+        return true
+    }
+
+    private fun compare(leftKeys: Array<JoinKey>, l: Int,
+                        rightKeys: Array<JoinKey>, r: Int): Int {
+        for (k in leftKeys.indices) {
+            val c = leftKeys[k].compare(l, rightKeys[k], r)
+            if (c != 0) {
+                return c
+            }
+        }
+
+        return 0
+    }
+}
+
+/**
+ * Typed access to a key column, so that the join engines don't box.
+ */
+internal abstract class JoinKey {
+    abstract fun hash(row: Int): Int
+
+    abstract fun equal(row: Int, other: JoinKey, otherRow: Int): Boolean
+
+    abstract fun compare(row: Int, other: JoinKey, otherRow: Int): Int
+
+    private class IntKey(val data: IntArray) : JoinKey() {
+        override fun hash(row: Int) = data[row]
+
+        override fun equal(row: Int, other: JoinKey, otherRow: Int): Boolean {
+            return data[row] == (other as IntKey).data[otherRow]
+        }
+
+        override fun compare(row: Int, other: JoinKey, otherRow: Int): Int {
+            return Integer.compare(data[row], (other as IntKey).data[otherRow])
+        }
+    }
+
+    private class LongKey(val data: LongArray) : JoinKey() {
+        override fun hash(row: Int) = java.lang.Long.hashCode(data[row])
+
+        override fun equal(row: Int, other: JoinKey, otherRow: Int): Boolean {
+            return data[row] == (other as LongKey).data[otherRow]
+        }
+
+        override fun compare(row: Int, other: JoinKey, otherRow: Int): Int {
+            return java.lang.Long.compare(data[row], (other as LongKey).data[otherRow])
+        }
+    }
+
+    private class ShortKey(val data: ShortArray) : JoinKey() {
+        override fun hash(row: Int) = data[row].toInt()
+
+        override fun equal(row: Int, other: JoinKey, otherRow: Int): Boolean {
+            return data[row] == (other as ShortKey).data[otherRow]
+        }
+
+        override fun compare(row: Int, other: JoinKey, otherRow: Int): Int {
+            return data[row] - (other as ShortKey).data[otherRow]
+        }
+    }
+
+    private class ByteKey(val data: ByteArray) : JoinKey() {
+        override fun hash(row: Int) = data[row].toInt()
+
+        override fun equal(row: Int, other: JoinKey, otherRow: Int): Boolean {
+            return data[row] == (other as ByteKey).data[otherRow]
+        }
+
+        override fun compare(row: Int, other: JoinKey, otherRow: Int): Int {
+            return data[row] - (other as ByteKey).data[otherRow]
+        }
+    }
+
+    private class DoubleKey(val data: DoubleArray) : JoinKey() {
+        override fun hash(row: Int) = java.lang.Double.hashCode(data[row])
+
+        override fun equal(row: Int, other: JoinKey, otherRow: Int) = compare(row, other, otherRow) == 0
+
+        override fun compare(row: Int, other: JoinKey, otherRow: Int): Int {
+            return java.lang.Double.compare(data[row], (other as DoubleKey).data[otherRow])
+        }
+    }
+
+    private class FloatKey(val data: FloatArray) : JoinKey() {
+        override fun hash(row: Int) = java.lang.Float.hashCode(data[row])
+
+        override fun equal(row: Int, other: JoinKey, otherRow: Int) = compare(row, other, otherRow) == 0
+
+        override fun compare(row: Int, other: JoinKey, otherRow: Int): Int {
+            return java.lang.Float.compare(data[row], (other as FloatKey).data[otherRow])
+        }
+    }
+
+    private class BooleanKey(val data: BitterSet) : JoinKey() {
+        override fun hash(row: Int) = if (data[row]) 1 else 0
+
+        override fun equal(row: Int, other: JoinKey, otherRow: Int): Boolean {
+            return data[row] == (other as BooleanKey).data[otherRow]
+        }
+
+        override fun compare(row: Int, other: JoinKey, otherRow: Int): Int {
+            return hash(row) - other.hash(otherRow)
+        }
+    }
+
+    @Suppress("unchecked_cast")
+    private class ObjKey(val data: Array<*>) : JoinKey() {
+        override fun hash(row: Int) = data[row]?.hashCode() ?: 0
+
+        override fun equal(row: Int, other: JoinKey, otherRow: Int): Boolean {
+            return data[row] == (other as ObjKey).data[otherRow]
+        }
+
+        override fun compare(row: Int, other: JoinKey, otherRow: Int): Int {
+            val a = data[row] as Comparable<Any>?
+            val b = (other as ObjKey).data[otherRow]
+            return when {
+                a === b -> 0
+                a == null -> -1
+                b == null -> 1
+                else -> a.compareTo(b)
+            }
+        }
+    }
+
+    companion object {
+        fun of(column: Column<*>): JoinKey {
+            val data = column.data
+            return when (data) {
+                is IntArray -> IntKey(data)
+                is LongArray -> LongKey(data)
+                is ShortArray -> ShortKey(data)
+                is ByteArray -> ByteKey(data)
+                is DoubleArray -> DoubleKey(data)
+                is FloatArray -> FloatKey(data)
+                is BitterSet -> BooleanKey(data)
+                is Array<*> -> ObjKey(data)
+                else -> throw IllegalArgumentException(
+                        "unsupported key column ${column.label}: ${column.typeName()}")
+            }
+        }
+    }
+}
+
+/**
+ * Returns a column with the rows at given indices, -1 stands for
+ * a default value, i.e. zero, `false` or `null`.
+ */
+@Suppress("unchecked_cast")
+internal fun Column<*>.gather(indices: IntArray): Column<*> {
+    val data = data
+    val size = indices.size
+    return when (data) {
+        is IntArray -> {
+            val copy = IntArray(size)
+            for (i in 0..size - 1) if (indices[i] >= 0) copy[i] = data[indices[i]]
+            (this as Column<IntArray>).wrap(copy)
+        }
+        is LongArray -> {
+            val copy = LongArray(size)
+            for (i in 0..size - 1) if (indices[i] >= 0) copy[i] = data[indices[i]]
+            (this as Column<LongArray>).wrap(copy)
+        }
+        is ShortArray -> {
+            val copy = ShortArray(size)
+            for (i in 0..size - 1) if (indices[i] >= 0) copy[i] = data[indices[i]]
+            (this as Column<ShortArray>).wrap(copy)
+        }
+        is ByteArray -> {
+            val copy = ByteArray(size)
+            for (i in 0..size - 1) if (indices[i] >= 0) copy[i] = data[indices[i]]
+            (this as Column<ByteArray>).wrap(copy)
+        }
+        is DoubleArray -> {
+            val copy = DoubleArray(size)
+            for (i in 0..size - 1) if (indices[i] >= 0) copy[i] = data[indices[i]]
+            (this as Column<DoubleArray>).wrap(copy)
+        }
+        is FloatArray -> {
+            val copy = FloatArray(size)
+            for (i in 0..size - 1) if (indices[i] >= 0) copy[i] = data[indices[i]]
+            (this as Column<FloatArray>).wrap(copy)
+        }
+        is BitterSet -> {
+            val copy = BitterSet(size)
+            for (i in 0..size - 1) if (indices[i] >= 0 && data[indices[i]]) copy.set(i)
+            (this as Column<BitterSet>).wrap(copy)
+        }
+        is Array<*> -> {
+            val copy = ObjectArrays.newArray(boxedType as Class<Any?>, size)
+            for (i in 0..size - 1) if (indices[i] >= 0) copy[i] = data[indices[i]]
+            (this as Column<Array<Any?>>).wrap(copy)
+        }
+        else -> throw IllegalArgumentException("unsupported column $label: ${typeName()}")
+    }
+}
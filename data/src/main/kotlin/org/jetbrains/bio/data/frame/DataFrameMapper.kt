@@ -72,6 +72,23 @@ sealed class DataFrameMapper {
         override fun load(path: Path, spec: DataFrameSpec) = load(path, spec, true)
 
         fun load(path: Path, spec: DataFrameSpec, header: Boolean): DataFrame {
+            if (path.extension != "gz" && path.extension != "zip") {
+                val df = ParallelCsvLoader.load(path, spec, header)
+                if (df != null) {
+                    if (df.rowsNumber == 0) {
+                        LOG.warn("Empty data frame: " + path.toAbsolutePath())
+                    }
+
+                    return df
+                }
+
+                LOG.debug("Quoted values in ${path.toAbsolutePath()}, parsing sequentially")
+            }
+
+            return loadSequentially(path, spec, header)
+        }
+
+        private fun loadSequentially(path: Path, spec: DataFrameSpec, header: Boolean): DataFrame {
             val linesNumber = path.bufferedReader().use {
                 it.lines().mapToInt { line -> if (line[0] != FORMAT.commentMarker) 1 else 0 }.sum()
             }
@@ -179,10 +196,28 @@ sealed class DataFrameMapper {
         }
     }
 
+    /**
+     * Native columnar format, see [ColumnarFile] for details.
+     */
+    object COLUMNAR : DataFrameMapper() {
+        override fun guess(path: Path) = ColumnarFile.open(path).use { file ->
+            DataFrameSpec.fromNamesAndTypes(file.labels, file.typeNames, path)
+        }
+
+        override fun load(path: Path, spec: DataFrameSpec): DataFrame {
+            return ColumnarFile.open(path).use { file ->
+                file.peel(*spec.columns.map { it.label }.toTypedArray())
+            }
+        }
+
+        override fun save(path: Path, df: DataFrame) = ColumnarFile.write(path, df)
+    }
+
     companion object {
         /** Determines the appropriate mapper from file extension. */
         internal fun forPath(path: Path) = when (path.extension) {
             "npz" -> NPZ
+            "dfc" -> COLUMNAR
             else  -> CSV
         }
     }
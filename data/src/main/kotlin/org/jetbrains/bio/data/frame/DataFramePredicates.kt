@@ -63,6 +63,8 @@ fun all(vararg pfs: RowPredicateFactory): RowPredicateFactory {
 
     if (size == 1) {
         return pfs[0]
+    } else if (pfs.all { it is ColumnPredicate }) {
+        return pfs.map { it as ColumnPredicate }.reduce { a, b -> a and b }
     } else if (size < 6) {
         val p0 = pfs[0]
         val p1 = if (size > 1) pfs[1] else null
@@ -0,0 +1,400 @@
+package org.jetbrains.bio.data.frame
+
+import org.jetbrains.bio.data.BitterSet
+import org.jetbrains.bio.ext.forking
+import java.nio.ByteBuffer
+import java.nio.channels.FileChannel
+import java.nio.file.Path
+import java.nio.file.StandardOpenOption
+import java.util.concurrent.atomic.AtomicBoolean
+
+/**
+ * A parallel loader for uncompressed tab-separated data frames.
+ *
+ * The file is split into newline-aligned chunks, which are mapped and
+ * parsed independently into per-chunk columns. Numeric values are
+ * parsed straight from bytes, without creating a string per cell. The
+ * chunks are then concatenated with [DataFrame.rowBind], so each value
+ * is copied once.
+ *
+ * The loader doesn't implement quoting: if the file contains a quote
+ * character, [load] gives up and returns `null`, leaving the file to
+ * commons-csv.
+ */
+internal object ParallelCsvLoader {
+    /** Files smaller than that are parsed as a single chunk. */
+    private const val MIN_CHUNK_SIZE = 4L shl 20
+
+    /** Chunks are mapped separately, so they must fit into a buffer. */
+    private const val MAX_CHUNK_SIZE = 256L shl 20
+
+    private const val TAB = '\t'.toByte()
+    private const val LF = '\n'.toByte()
+    private const val CR = '\r'.toByte()
+    private const val SPACE = ' '.toByte()
+    private const val QUOTE = '"'.toByte()
+    private const val COMMENT = '#'.toByte()
+
+    /** Exact powers of ten, see Clinger's fast path. */
+    private val POWERS_OF_TEN = DoubleArray(23)
+    private val FLOAT_POWERS_OF_TEN = FloatArray(11)
+
+    init {
+        var power = 1.0
+        for (i in POWERS_OF_TEN.indices) {
+            POWERS_OF_TEN[i] = power
+            power *= 10.0
+        }
+
+        for (i in FLOAT_POWERS_OF_TEN.indices) {
+            FLOAT_POWERS_OF_TEN[i] = POWERS_OF_TEN[i].toFloat()
+        }
+    }
+
+    fun load(path: Path, spec: DataFrameSpec, header: Boolean): DataFrame? {
+        return FileChannel.open(path, StandardOpenOption.READ).use { channel ->
+            val size = channel.size()
+            val dataStart = skipHeader(channel, header)
+            val boundaries = split(channel, dataStart, size)
+            val chunks = arrayOfNulls<DataFrame>(boundaries.size - 1)
+            val quoted = AtomicBoolean()
+            (0..chunks.size - 1).forking { i ->
+                val from = boundaries[i]
+                val buffer = channel.map(FileChannel.MapMode.READ_ONLY,
+                                         from, boundaries[i + 1] - from)
+                chunks[i] = parse(buffer, spec, quoted)
+            }
+
+            if (quoted.get()) {
+                null
+            } else {
+                DataFrame.rowBind(*chunks.requireNoNulls())
+            }
+        }
+    }
+
+    /**
+     * Returns the offset of the first data line, skipping leading
+     * comments and, optionally, the header line.
+     */
+    private fun skipHeader(channel: FileChannel, header: Boolean): Long {
+        val buffer = ByteBuffer.allocate(8192)
+        var position = 0L
+        var atLineStart = true
+        var inComment = false
+        while (true) {
+            buffer.clear()
+            val read = channel.read(buffer, position)
+            if (read <= 0) {
+                return position
+            }
+
+            for (i in 0..read - 1) {
+                val b = buffer.get(i)
+                if (atLineStart) {
+                    if (b == LF || b == CR) {
+                        continue  // Empty line, possibly ending with CRLF.
+                    }
+
+                    inComment = b == COMMENT
+                    if (!inComment && !header) {
+                        return position + i
+                    }
+                }
+
+                atLineStart = b == LF
+                if (atLineStart && !inComment) {
+                    return position + i + 1  // The header line is over.
+                }
+            }
+
+            position += read
+        }
+    }
+
+    /** Splits `[from, to)` into chunks ending right after a newline. */
+    private fun split(channel: FileChannel, from: Long, to: Long): LongArray {
+        val processors = Runtime.getRuntime().availableProcessors()
+        val chunkSize = Math.min(MAX_CHUNK_SIZE, Math.max(MIN_CHUNK_SIZE, (to - from) / (processors * 4)))
+        val boundaries = arrayListOf(from)
+        val buffer = ByteBuffer.allocate(8192)
+        var position = from + chunkSize
+        while (position < to) {
+            // Move forward to the next newline.
+            var found = false
+            while (!found && position < to) {
+                buffer.clear()
+                val read = channel.read(buffer, position)
+                if (read <= 0) {
+                    break
+                }
+
+                for (i in 0..read - 1) {
+                    if (buffer.get(i) == LF) {
+                        position += i + 1
+                        found = true
+                        break
+                    }
+                }
+
+                if (!found) {
+                    position += read
+                }
+            }
+
+            if (position >= to) {
+                break
+            }
+
+            check(position - boundaries.last() <= Int.MAX_VALUE) { "line too long" }
+            boundaries.add(position)
+            position += chunkSize
+        }
+
+        boundaries.add(to)
+        return boundaries.toLongArray()
+    }
+
+    private fun parse(buffer: ByteBuffer, spec: DataFrameSpec, quoted: AtomicBoolean): DataFrame {
+        val limit = buffer.limit()
+        var rowsNumber = 0
+        var atLineStart = true
+        for (i in 0..limit - 1) {
+            val b = buffer.get(i)
+            if (b == QUOTE) {
+                quoted.set(true)
+                return DataFrame()
+            }
+
+            if (atLineStart && b != LF && b != CR && b != COMMENT) {
+                rowsNumber++
+            }
+
+            atLineStart = b == LF
+        }
+
+        val columns = spec.columns.map { allocate(it, rowsNumber) }
+        val columnsNumber = columns.size
+        var row = 0
+        var lineStart = 0
+        while (lineStart < limit) {
+            var lineEnd = lineStart
+            while (lineEnd < limit && buffer.get(lineEnd) != LF) {
+                lineEnd++
+            }
+
+            var end = lineEnd
+            if (end > lineStart && buffer.get(end - 1) == CR) {
+                end--
+            }
+
+            if (end > lineStart && buffer.get(lineStart) != COMMENT &&
+                buffer.get(lineStart) != CR) {
+                var fieldStart = lineStart
+                for (col in 0..columnsNumber - 1) {
+                    check(fieldStart <= end) {
+                        "inconsistent record: expected $columnsNumber fields, " +
+                        "got $col at row $row"
+                    }
+
+                    var fieldEnd = fieldStart
+                    while (fieldEnd < end && buffer.get(fieldEnd) != TAB) {
+                        fieldEnd++
+                    }
+
+                    // XXX we allow row to contain more columns because it's often
+                    // the case for UCSC annotations :(
+                    load(columns[col], row, buffer, fieldStart, fieldEnd)
+                    fieldStart = fieldEnd + 1
+                }
+
+                row++
+            }
+
+            lineStart = lineEnd + 1
+        }
+
+        return DataFrame(rowsNumber, columns)
+    }
+
+    private fun load(column: Column<*>, row: Int, buffer: ByteBuffer, from: Int, to: Int) {
+        var start = from
+        var end = to
+        while (start < end && buffer.get(start) == SPACE) start++
+        while (end > start && buffer.get(end - 1) == SPACE) end--
+
+        val data = column.data
+        when (data) {
+            is IntArray -> {
+                val value = parseLong(buffer, start, end)
+                if (value < Int.MIN_VALUE || value > Int.MAX_VALUE) {
+                    column.load(row, string(buffer, start, end))  // Out of range, throws.
+                } else {
+                    data[row] = value.toInt()
+                }
+            }
+            is LongArray -> data[row] = parseLong(buffer, start, end)
+            is ShortArray -> {
+                val value = parseLong(buffer, start, end)
+                if (value < Short.MIN_VALUE || value > Short.MAX_VALUE) {
+                    column.load(row, string(buffer, start, end))
+                } else {
+                    data[row] = value.toShort()
+                }
+            }
+            is ByteArray -> {
+                val value = parseLong(buffer, start, end)
+                if (value < Byte.MIN_VALUE || value > Byte.MAX_VALUE) {
+                    column.load(row, string(buffer, start, end))
+                } else {
+                    data[row] = value.toByte()
+                }
+            }
+            is DoubleArray -> data[row] = parseDouble(buffer, start, end, false)
+            is FloatArray -> data[row] = parseDouble(buffer, start, end, true).toFloat()
+            else -> column.load(row, string(buffer, start, end))
+        }
+    }
+
+    private fun parseLong(buffer: ByteBuffer, from: Int, to: Int): Long {
+        var i = from
+        val negative = i < to && buffer.get(i) == '-'.toByte()
+        if (negative || (i < to && buffer.get(i) == '+'.toByte())) {
+            i++
+        }
+
+        if (i == to || to - i > 18) {
+            return java.lang.Long.parseLong(string(buffer, from, to))
+        }
+
+        var acc = 0L
+        while (i < to) {
+            val digit = buffer.get(i) - '0'.toByte()
+            if (digit < 0 || digit > 9) {
+                // Let the JDK produce a proper error message.
+                return java.lang.Long.parseLong(string(buffer, from, to))
+            }
+
+            acc = acc * 10 + digit
+            i++
+        }
+
+        return if (negative) -acc else acc
+    }
+
+    /**
+     * Parses a decimal number with at most 15 significant digits and
+     * a small exponent exactly, everything else goes to the JDK.
+     *
+     * If [single] is true, the result is a correctly rounded float,
+     * so the limits are 7 digits and the exponent of 10.
+     */
+    private fun parseDouble(buffer: ByteBuffer, from: Int, to: Int, single: Boolean): Double {
+        val maxDigits = if (single) 7 else 15
+        val maxExponent = if (single) 10 else 22
+        var i = from
+        val negative = i < to && buffer.get(i) == '-'.toByte()
+        if (negative || (i < to && buffer.get(i) == '+'.toByte())) {
+            i++
+        }
+
+        var mantissa = 0L
+        var digits = 0
+        var exponent = 0
+        var seenDigit = false
+        var seenPoint = false
+        while (i < to) {
+            val b = buffer.get(i)
+            if (b >= '0'.toByte() && b <= '9'.toByte()) {
+                seenDigit = true
+                if (mantissa != 0L || b != '0'.toByte()) {
+                    digits++
+                }
+
+                mantissa = mantissa * 10 + (b - '0'.toByte())
+                if (seenPoint) {
+                    exponent--
+                }
+            } else if (b == '.'.toByte() && !seenPoint) {
+                seenPoint = true
+            } else {
+                break
+            }
+
+            if (digits > maxDigits) {
+                return slowParseDouble(buffer, from, to, single)
+            }
+
+            i++
+        }
+
+        if (i < to && (buffer.get(i) == 'e'.toByte() || buffer.get(i) == 'E'.toByte())) {
+            i++
+            val exponentNegative = i < to && buffer.get(i) == '-'.toByte()
+            if (exponentNegative || (i < to && buffer.get(i) == '+'.toByte())) {
+                i++
+            }
+
+            var value = 0
+            val exponentStart = i
+            while (i < to && buffer.get(i) >= '0'.toByte() && buffer.get(i) <= '9'.toByte()
+                   && value < 1000) {
+                value = value * 10 + (buffer.get(i) - '0'.toByte())
+                i++
+            }
+
+            if (i == exponentStart) {
+                return slowParseDouble(buffer, from, to, single)
+            }
+
+            exponent += if (exponentNegative) -value else value
+        }
+
+        if (!seenDigit || i != to || exponent < -maxExponent || exponent > maxExponent) {
+            // NaN, Infinity, garbage or a value outside of the fast path.
+            return slowParseDouble(buffer, from, to, single)
+        }
+
+        val value = if (single) {
+            (if (exponent < 0) {
+                mantissa.toFloat() / FLOAT_POWERS_OF_TEN[-exponent]
+            } else {
+                mantissa.toFloat() * FLOAT_POWERS_OF_TEN[exponent]
+            }).toDouble()
+        } else if (exponent < 0) {
+            mantissa.toDouble() / POWERS_OF_TEN[-exponent]
+        } else {
+            mantissa.toDouble() * POWERS_OF_TEN[exponent]
+        }
+
+        return if (negative) -value else value
+    }
+
+    private fun slowParseDouble(buffer: ByteBuffer, from: Int, to: Int, single: Boolean): Double {
+        val value = string(buffer, from, to)
+        return if (single) {
+            java.lang.Float.parseFloat(value).toDouble()
+        } else {
+            java.lang.Double.parseDouble(value)
+        }
+    }
+
+    private fun string(buffer: ByteBuffer, from: Int, to: Int): String {
+        val bytes = ByteArray(to - from)
+        for (i in bytes.indices) {
+            bytes[i] = buffer.get(from + i)
+        }
+
+        return String(bytes, Charsets.UTF_8)
+    }
+
+    @Suppress("unchecked_cast")
+    private fun allocate(template: Column<*>, size: Int): Column<*> {
+        val data = template.data
+        return when (data) {
+            // Resizing a boolean column doesn't preserve its size.
+            is BitterSet -> (template as Column<BitterSet>).wrap(BitterSet(size))
+            else -> template.resize(size)
+        }
+    }
+}
@@ -51,13 +51,6 @@ import java.util.*
         return wrap(copy)
     }
 
-    override fun intersect(c: Column<*>): ObjIntPredicate<ByteArray> {
-        val other = c as ByteColumn
-        val seen = TByteHashSet(data)
-        seen.retainAll(other.data.clone())
-        return ObjIntPredicate { data, i -> data[i] in seen }
-    }
-
     override fun sorted(order: SortOrder): IntArray = data.sortedOrder(order)
 
     override fun reorder(indices: IntArray): Column<ByteArray> {
@@ -152,13 +145,6 @@ import java.util.*
 
     override fun resize(newSize: Int): Column<ShortArray> = wrap(data.copyOf(newSize))
 
-    override fun intersect(c: Column<*>): ObjIntPredicate<ShortArray> {
-        val other = c as ShortColumn
-        val seen = TShortHashSet(data)
-        seen.retainAll(other.data)
-        return ObjIntPredicate { data, i -> data[i] in seen }
-    }
-
     override fun size(): Int = data.size
 
     override fun load(row: Int, value: String) {
@@ -242,13 +228,6 @@ import java.util.*
         return wrap(Arrays.copyOf(data, newSize))
     }
 
-    override fun intersect(c: Column<*>): ObjIntPredicate<IntArray> {
-        val other = c as IntColumn
-        val seen = TIntHashSet(data)
-        seen.retainAll(other.data.clone())
-        return ObjIntPredicate { data, i -> data[i] in seen }
-    }
-
     override fun size() = data.size
 
     override fun load(row: Int, value: String) {
@@ -311,12 +290,6 @@ import java.util.*
         return wrap(copy)
     }
 
-    @Deprecated("")
-    override fun intersect(c: Column<*>): ObjIntPredicate<LongArray> {
-        // BitSet doesn't allow long indices.
-        throw UnsupportedOperationException()
-    }
-
     override fun sorted(order: SortOrder) = data.sortedOrder(order)
 
     override fun reorder(indices: IntArray): Column<LongArray> {
@@ -411,13 +384,6 @@ import java.util.*
 
     override fun resize(newSize: Int) = wrap(Arrays.copyOf(data, newSize))
 
-    override fun intersect(c: Column<*>): ObjIntPredicate<DoubleArray> {
-        val other = c as DoubleColumn
-        val seen = TDoubleHashSet(data)
-        seen.retainAll(other.data.clone())
-        return ObjIntPredicate { data, i -> data[i] in seen }
-    }
-
     override fun size(): Int = data.size
 
     override fun load(row: Int, value: String) {
@@ -496,13 +462,6 @@ import java.util.*
 
     override fun resize(newSize: Int): Column<FloatArray> = wrap(Arrays.copyOf(data, newSize))
 
-    override fun intersect(c: Column<*>): ObjIntPredicate<FloatArray> {
-        val other = c as FloatColumn
-        val seen = TFloatHashSet(data)
-        seen.retainAll(other.data.clone())
-        return ObjIntPredicate { data, i -> data[i] in seen }
-    }
-
     override fun size() = data.size
 
     override fun load(row: Int, value: String) {
@@ -606,11 +565,6 @@ import java.util.*
         return indices
     }
 
-    @Deprecated("")
-    override fun intersect(c: Column<*>): ObjIntPredicate<BitterSet> {
-        throw UnsupportedOperationException()
-    }
-
     override fun size() = data.size()
 
     override fun dump(row: Int): String = if (data[row]) "1" else "0"
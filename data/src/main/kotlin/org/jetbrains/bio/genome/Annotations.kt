@@ -7,6 +7,7 @@ import com.google.common.collect.ImmutableListMultimap
 import com.google.common.collect.ListMultimap
 import org.apache.commons.csv.CSVFormat
 import org.jetbrains.bio.ext.*
+import org.jetbrains.bio.genome.containers.IntervalIndex
 import java.nio.file.Path
 import java.nio.file.StandardOpenOption
 
@@ -32,6 +33,16 @@ internal fun <T> cache(): Cache<String, ListMultimap<Chromosome, T>> {
             .build<String, ListMultimap<Chromosome, T>>()
 }
 
+/**
+ * A shortcut for per-chromosome annotation indices, see [cache] for
+ * the soft-values caveat.
+ */
+internal fun <T> indexCache(): Cache<Chromosome, IntervalIndex<T>> {
+    return CacheBuilder.newBuilder()
+            .softValues()
+            .build<Chromosome, IntervalIndex<T>>()
+}
+
 /** UCSC annotations always use "chrN" format, so we don't need [ChromosomeNamesMap]. */
 internal fun chromosomeMap(build: String): Map<String, Chromosome> {
     return Genome(build).chromosomes.associateBy { it.name }
@@ -50,12 +61,17 @@ data class Repeat(val name: String,
  */
 object Repeats {
     private val CACHE = cache<Repeat>()
+    private val INDEX_CACHE = indexCache<Repeat>()
 
     /** Hopefully UCSC won't change the file name in the near future. */
     private const val REPEATS_FILE_NAME = "rmsk.txt.gz"
     /** Builds with per-chromosome repeat annotations. */
     private val LEGACY_FORMAT = setOf("mm9", "hg18")
 
+    internal fun index(chromosome: Chromosome): IntervalIndex<Repeat> {
+        return INDEX_CACHE.get(chromosome) { IntervalIndex.of(all(chromosome.genome)[chromosome]) }
+    }
+
     internal fun all(genome: Genome): ListMultimap<Chromosome, Repeat> {
         val build = genome.build
         return CACHE.get(build) {
@@ -121,12 +137,17 @@ data class CytoBand(val name: String,
  */
 object CytoBands {
     private val CACHE = cache<CytoBand>()
+    private val INDEX_CACHE = indexCache<CytoBand>()
 
     @JvmField val CYTOBANDS_FILE_NAME = "cytoBand.txt.gz"
 
     @JvmField val FORMAT = CSVFormat.TDF
             .withHeader("chrom", "start_offset", "end_offset", "name", "gie_stain")
 
+    internal fun index(chromosome: Chromosome): IntervalIndex<CytoBand> {
+        return INDEX_CACHE.get(chromosome) { IntervalIndex.of(all(chromosome.genome)[chromosome]) }
+    }
+
     internal fun all(genome: Genome): ListMultimap<Chromosome, CytoBand> {
         val build = genome.build
         return CACHE.get(build) {
@@ -185,6 +206,7 @@ class Gap(val name: String, override val location: Location) :
 
 object Gaps {
     private val CACHE = cache<Gap>()
+    private val INDEX_CACHE = indexCache<Gap>()
 
     const val GAPS_FILE_NAME = "gap.txt.gz"
 
@@ -199,6 +221,10 @@ object Gaps {
     /** Builds with separate centromere annotations. */
     private val SPLIT_FORMAT = setOf("hg38")
 
+    internal fun index(chromosome: Chromosome): IntervalIndex<Gap> {
+        return INDEX_CACHE.get(chromosome) { IntervalIndex.of(all(chromosome.genome)[chromosome]) }
+    }
+
     internal fun all(genome: Genome): ListMultimap<Chromosome, Gap> {
         val build = genome.build
         return CACHE.get(build) {
@@ -285,11 +311,16 @@ data class CpGIsland(
 
 object CpGIslands {
     private val CACHE = cache<CpGIsland>()
+    private val INDEX_CACHE = indexCache<CpGIsland>()
 
     private const val ISLANDS_FILE_NAME = "cpgIslandExt.txt.gz"
     /** Builds missing `bin` column in the annotations. */
     private val LEGACY_FORMAT = setOf("hg18")
 
+    internal fun index(chromosome: Chromosome): IntervalIndex<CpGIsland> {
+        return INDEX_CACHE.get(chromosome) { IntervalIndex.of(all(chromosome.genome)[chromosome]) }
+    }
+
     internal fun all(genome: Genome): ListMultimap<Chromosome, CpGIsland> {
         val build = genome.build
         return CACHE.get(build) {
@@ -8,6 +8,7 @@ import org.jetbrains.bio.ext.bufferedReader
 import org.jetbrains.bio.ext.bufferedWriter
 import org.jetbrains.bio.ext.checkOrRecalculate
 import org.jetbrains.bio.ext.div
+import org.jetbrains.bio.genome.containers.IntervalIndex
 import org.jetbrains.bio.genome.containers.minus
 import java.nio.file.Path
 import java.util.*
@@ -184,6 +185,11 @@ class Gene(
  */
 object Genes {
     private val CACHE = cache<Gene>()
+    private val INDEX_CACHE = indexCache<Gene>()
+
+    internal fun index(chromosome: Chromosome): IntervalIndex<Gene> {
+        return INDEX_CACHE.get(chromosome) { IntervalIndex.of(all(chromosome.genome)[chromosome]) }
+    }
 
     internal fun all(genome: Genome): ListMultimap<Chromosome, Gene> {
         return CACHE.get(genome.build) {
@@ -9,6 +9,7 @@ import org.jetbrains.bio.ext.checkOrRecalculate
 import org.jetbrains.bio.ext.div
 import org.jetbrains.bio.ext.name
 import org.jetbrains.bio.ext.toPath
+import org.jetbrains.bio.genome.containers.IntervalIndex
 import org.jetbrains.bio.genome.query.GenomeQuery
 import org.jetbrains.bio.genome.sequence.TwoBitReader
 import org.jetbrains.bio.genome.sequence.TwoBitSequence
@@ -178,6 +179,17 @@ data class Chromosome private constructor(
 
     val cpgIslands: List<CpGIsland> get() = CpGIslands.all(genome)[this]
 
+    /** [genes] indexed for overlap queries, ignoring strand. */
+    val geneIndex: IntervalIndex<Gene> get() = Genes.index(this)
+
+    val repeatIndex: IntervalIndex<Repeat> get() = Repeats.index(this)
+
+    val gapIndex: IntervalIndex<Gap> get() = Gaps.index(this)
+
+    val cytoBandIndex: IntervalIndex<CytoBand> get() = CytoBands.index(this)
+
+    val cpgIslandIndex: IntervalIndex<CpGIsland> get() = CpGIslands.index(this)
+
     override fun compareTo(other: Chromosome) = ComparisonChain.start()
             .compare(genome, other.genome)
             .compare(name, other.name)
@@ -0,0 +1,164 @@
+package org.jetbrains.bio.genome.containers
+
+import org.jetbrains.bio.genome.LocationAware
+import org.jetbrains.bio.genome.Range
+import java.util.*
+
+/**
+ * A static index for overlap queries on a set of intervals.
+ *
+ * The index is an implicit augmented interval tree over primitive
+ * arrays, see Heng Li's cgranges. Intervals are sorted by start
+ * offset and the sorted array itself is a binary search tree: the
+ * nodes at level `k` are the indices with the `k` lowest bits set.
+ * Each node additionally stores the maximum end offset in its
+ * subtree, which allows to prune subtrees during the query.
+ *
+ * Querying is `O(log n + k)`, where `k` is the number of overlaps.
+ */
+class IntervalIndex<out T> private constructor(
+        private val items: List<T>,
+        private val starts: IntArray,
+        private val ends: IntArray) {
+
+    private val maxEnds = IntArray(items.size)
+    private val rootLevel: Int
+
+    init {
+        rootLevel = buildMaxEnds()
+    }
+
+    val size: Int get() = items.size
+
+    /**
+     * Returns the intervals overlapping a given range ordered by
+     * start and end offsets.
+     */
+    fun query(range: Range): List<T> {
+        val result = ArrayList<T>()
+        query(range.startOffset, range.endOffset) { result.add(items[it]) }
+        return result
+    }
+
+    /** Returns the number of intervals overlapping a given range. */
+    fun count(range: Range): Int {
+        var acc = 0
+        query(range.startOffset, range.endOffset) { acc++ }
+        return acc
+    }
+
+    private inline fun query(from: Int, to: Int, consumer: (Int) -> Unit) {
+        if (rootLevel < 0) {
+            return
+        }
+
+        val n = items.size
+        // The tree height is at most 31, each level pushes at most two nodes.
+        val stackX = IntArray(64)
+        val stackK = IntArray(64)
+        val stackW = BooleanArray(64)
+        var top = 0
+        stackX[top] = (1 shl rootLevel) - 1
+        stackK[top] = rootLevel
+        stackW[top++] = false
+        while (top > 0) {
+            top--
+            val x = stackX[top]
+            val k = stackK[top]
+            if (k <= LINEAR_SCAN_LEVEL) {
+                // A small subtree, just scan it.
+                val i0 = x shr k shl k
+                val i1 = Math.min(i0 + (1 shl (k + 1)) - 1, n)
+                var i = i0
+                while (i < i1 && starts[i] < to) {
+                    if (from < ends[i]) {
+                        consumer(i)
+                    }
+
+                    i++
+                }
+            } else if (!stackW[top]) {
+                // Re-add the node, but mark the left child as processed.
+                stackW[top++] = true
+                val y = x - (1 shl (k - 1))
+                if (y >= n || maxEnds[y] > from) {
+                    stackX[top] = y
+                    stackK[top] = k - 1
+                    stackW[top++] = false
+                }
+            } else if (x < n && starts[x] < to) {
+                if (from < ends[x]) {
+                    consumer(x)
+                }
+
+                stackX[top] = x + (1 shl (k - 1))
+                stackK[top] = k - 1
+                stackW[top++] = false
+            }
+        }
+    }
+
+    /** Returns the level of the root node or -1 if the index is empty. */
+    private fun buildMaxEnds(): Int {
+        val n = items.size
+        if (n == 0) {
+            return -1
+        }
+
+        var lastI = 0
+        var last = 0
+        for (i in 0..n - 1 step 2) {
+            lastI = i
+            last = ends[i]
+            maxEnds[i] = last
+        }
+
+        var k = 1
+        while (1L shl k <= n) {
+            val x = 1 shl (k - 1)
+            for (i in (x shl 1) - 1..n - 1 step (x shl 2)) {
+                val leftEnd = maxEnds[i - x]
+                val rightEnd = if (i + x < n) maxEnds[i + x] else last
+                maxEnds[i] = Math.max(ends[i], Math.max(leftEnd, rightEnd))
+            }
+
+            lastI = if (((lastI shr k) and 1) != 0) lastI - x else lastI + x
+            if (lastI < n && maxEnds[lastI] > last) {
+                last = maxEnds[lastI]
+            }
+
+            k++
+        }
+
+        return k - 1
+    }
+
+    companion object {
+        private const val LINEAR_SCAN_LEVEL = 3
+
+        /**
+         * Builds an index from a given collection, the range of each
+         * item is determined by [toRange].
+         */
+        fun <T> of(items: Collection<T>, toRange: (T) -> Range): IntervalIndex<T> {
+            val ranges = items.map(toRange)
+            val order = items.indices.sortedWith(Comparator { i, j -> ranges[i].compareTo(ranges[j]) })
+            val sorted = ArrayList<T>(items.size)
+            val starts = IntArray(items.size)
+            val ends = IntArray(items.size)
+            val list = items.toList()
+            for ((i, j) in order.withIndex()) {
+                sorted.add(list[j])
+                starts[i] = ranges[j].startOffset
+                ends[i] = ranges[j].endOffset
+            }
+
+            return IntervalIndex(sorted, starts, ends)
+        }
+
+        /** Builds an index from location-aware items, ignoring strand. */
+        fun <T : LocationAware> of(items: Collection<T>): IntervalIndex<T> {
+            return of(items) { it.location.toRange() }
+        }
+    }
+}
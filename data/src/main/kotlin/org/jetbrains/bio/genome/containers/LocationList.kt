@@ -5,6 +5,7 @@ import com.google.common.collect.Lists
 import org.jetbrains.bio.genome.*
 import org.jetbrains.bio.genome.query.GenomeQuery
 import org.jetbrains.bio.io.BedFormat
+import org.jetbrains.bio.io.forEachRecord
 import java.io.IOException
 import java.nio.file.Path
 import java.util.*
@@ -127,18 +128,14 @@ class LocationList private constructor(
 
         @JvmStatic fun load(genomeQuery: GenomeQuery, path: Path,
                             format: BedFormat = BedFormat.auto(path)): LocationList {
-            val chromosomes = ChromosomeNamesMap.create(genomeQuery)
-            val locations = format.parse(path).map {
-                val chromosome = chromosomes[it.chromosome]
-                if (chromosome == null) {
-                    null
-                } else {
-                    Location(it.chromStart, it.chromEnd, chromosome,
-                             it.strand.toStrand())
+            val builder = Builder(genomeQuery)
+            format.scan(path, genomeQuery).use { scanner ->
+                scanner.forEachRecord { chromosome, start, end, strand, _score ->
+                    builder.add(Location(start, end, chromosome, strand))
                 }
-            }.filterNotNull()
+            }
 
-            return create(genomeQuery, locations)
+            return builder.build()
         }
     }
 }
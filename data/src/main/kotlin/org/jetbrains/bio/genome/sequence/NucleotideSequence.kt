@@ -47,6 +47,57 @@ interface NucleotideSequence {
         return String(acc)
     }
 
+    /**
+     * Decodes the nucleotides in [from, to) into [dst], which must
+     * be at least `to - from` bytes long.
+     */
+    fun getBytes(from: Int, to: Int, dst: ByteArray) {
+        checkPositionIndexes(from, to, length())
+        for (pos in from..to - 1) {
+            dst[pos - from] = byteAt(pos)
+        }
+    }
+
+    /**
+     * Returns the number of each nucleotide in [from, to), indexed by
+     * [Nucleotide.byte]. The last element is the number of Ns.
+     */
+    fun composition(from: Int, to: Int): IntArray {
+        checkPositionIndexes(from, to, length())
+        val counts = IntArray(5)
+        for (pos in from..to - 1) {
+            val b = byteAt(pos)
+            counts[if (b > 3) 4 else b.toInt()]++
+        }
+
+        return counts
+    }
+
+    /**
+     * Returns the number of CpG dinucleotides, i.e. C followed by G on
+     * the plus strand, lying within [from, to).
+     */
+    fun countCpG(from: Int, to: Int): Int {
+        checkPositionIndexes(from, to, length())
+        var acc = 0
+        for (pos in from..to - 2) {
+            if (byteAt(pos) == Nucleotide.C.byte && byteAt(pos + 1) == Nucleotide.G.byte) {
+                acc++
+            }
+        }
+
+        return acc
+    }
+
+    /**
+     * Returns the fraction of Cs and Gs in [from, to).
+     */
+    fun gcFraction(from: Int, to: Int): Double {
+        val counts = composition(from, to)
+        val gc = counts[Nucleotide.C.byte.toInt()] + counts[Nucleotide.G.byte.toInt()]
+        return gc.toDouble() / (to - from)
+    }
+
     fun length(): Int
 }
 
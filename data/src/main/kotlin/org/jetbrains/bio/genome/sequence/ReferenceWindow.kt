@@ -0,0 +1,49 @@
+package org.jetbrains.bio.genome.sequence
+
+import com.google.common.base.Preconditions.checkElementIndex
+
+/**
+ * A sliding window over a [NucleotideSequence].
+ *
+ * The window keeps [size] nucleotides decoded into a byte array and
+ * moves forward once a position outside of it is requested. This
+ * allows a sequential scan of a [TwoBitSequence] to touch each pack
+ * once without materializing the whole sequence as a string.
+ *
+ * The window is mutable and thus shouldn't be shared between threads.
+ */
+class ReferenceWindow @JvmOverloads constructor(
+        private val sequence: NucleotideSequence,
+        private val size: Int = 1 shl 16) : NucleotideSequence {
+    private val length = sequence.length()
+    private val bytes = ByteArray(size)
+    private var start = 0
+    private var end = 0
+
+    init {
+        require(size >= 2 * MARGIN) { "window size must be at least ${2 * MARGIN}" }
+    }
+
+    override fun byteAt(pos: Int): Byte {
+        if (pos < start || pos >= end) {
+            checkElementIndex(pos, length, "pos")
+            // Keep a few positions behind, so that minus strand lookups
+            // and slightly out of order accesses don't move the window.
+            start = Math.max(0, pos - MARGIN)
+            end = Math.min(length, start + size)
+            sequence.getBytes(start, end, bytes)
+        }
+
+        return bytes[pos - start]
+    }
+
+    override fun charAt(pos: Int) = Nucleotide.getChar(byteAt(pos))
+
+    override fun length() = length
+
+    override fun toString() = "ReferenceWindow[$start, $end)"
+
+    companion object {
+        private const val MARGIN = 1 shl 10
+    }
+}
@@ -4,6 +4,9 @@
 package org.jetbrains.bio.genome.sequence
 
 import com.google.common.base.Preconditions.checkElementIndex
+import com.google.common.base.Preconditions.checkPositionIndexes
+import com.google.common.cache.Cache
+import com.google.common.cache.CacheBuilder
 import com.google.common.collect.ImmutableList
 import com.google.common.collect.ImmutableSet
 import com.google.common.math.IntMath
@@ -11,7 +14,6 @@ import com.google.common.primitives.Ints
 import gnu.trove.list.array.TIntArrayList
 import gnu.trove.map.TObjectIntMap
 import gnu.trove.map.hash.TObjectIntHashMap
-import org.jetbrains.bio.ext.size
 import org.jetbrains.bio.io.FastaReader
 import org.jetbrains.bio.io.FastaRecord
 import org.jetbrains.bio.util.Progress
@@ -21,9 +23,12 @@ import java.io.RandomAccessFile
 import java.math.RoundingMode
 import java.nio.ByteBuffer
 import java.nio.ByteOrder
+import java.nio.IntBuffer
 import java.nio.channels.Channels
 import java.nio.channels.FileChannel
+import java.nio.file.Files
 import java.nio.file.Path
+import java.nio.file.attribute.FileTime
 import java.util.*
 import java.util.concurrent.TimeUnit
 
@@ -48,19 +53,37 @@ import java.util.concurrent.TimeUnit
  * @author Sergei Lebedev
  * @since 27/06/14
  */
-class TwoBitSequence(
+class TwoBitSequence internal constructor(
         /** Total length of the DNA sequence including Ns. */
         private val length: Int,
         /** N-block coordinates. */
         private val nBlockStarts: IntArray, private val nBlockSizes: IntArray,
-        /** 2-bit packed DNA sequence. */
-        private val packedDna: IntArray) : NucleotideSequence {
-
-    private val nBlockLut = BinaryLut.of(nBlockStarts, 8)
+        /**
+         * Complete 2-bit packs, possibly a view of a memory-mapped file.
+         * Only absolute reads are allowed, so that the buffer can be
+         * shared between threads.
+         */
+        private val packs: IntBuffer,
+        /** The trailing incomplete pack, if any. */
+        private val tailPack: Int) : NucleotideSequence {
+
+    constructor(length: Int, nBlockStarts: IntArray, nBlockSizes: IntArray,
+                /** 2-bit packed DNA sequence. */
+                packedDna: IntArray)
+    :
+            this(length, nBlockStarts, nBlockSizes,
+                 IntBuffer.wrap(packedDna, 0, length / NUCLEOTIDE_PER_INTEGER),
+                 if (length % NUCLEOTIDE_PER_INTEGER == 0) 0
+                 else packedDna[length / NUCLEOTIDE_PER_INTEGER])
+
+    private val nBlockLut by lazy(LazyThreadSafetyMode.PUBLICATION) {
+        BinaryLut.of(nBlockStarts, 8)
+    }
 
     init {
         require(length > 0) { "invalid length" }
         require(nBlockStarts.size == nBlockSizes.size) { "missing N blocks" }
+        require(packs.limit() == length / NUCLEOTIDE_PER_INTEGER) { "invalid packs" }
     }
 
     override fun byteAt(pos: Int): Byte {
@@ -78,13 +101,140 @@ class TwoBitSequence(
                index - nBlockStarts[block] < nBlockSizes[block]
     }
 
+    private fun getPack(i: Int) = if (i < packs.limit()) packs.get(i) else tailPack
+
     private fun getByte(index: Int): Byte {
         val i = index / NUCLEOTIDE_PER_INTEGER  // offset in packed DNA array.
         // Bits in a pack are ordered rtl, while DNA is packed ltr,
         // for example, "TCAG" is packed as "00011011". Thus we have to wrap
         // around the bit index.
         val j = NUCLEOTIDE_PER_INTEGER - 1 - index % NUCLEOTIDE_PER_INTEGER
-        return (packedDna[i] and NUCLEOTIDE_MASKS[j] ushr BITS_PER_NUCLEOTIDE * j).toByte()
+        return (getPack(i) and NUCLEOTIDE_MASKS[j] ushr BITS_PER_NUCLEOTIDE * j).toByte()
+    }
+
+    override fun getBytes(from: Int, to: Int, dst: ByteArray) {
+        checkPositionIndexes(from, to, length)
+        var pos = from
+        while (pos < to) {
+            val pack = getPack(pos / NUCLEOTIDE_PER_INTEGER)
+            val a = pos % NUCLEOTIDE_PER_INTEGER
+            val b = Math.min(NUCLEOTIDE_PER_INTEGER, a + to - pos)
+            for (j in a..b - 1) {
+                val shift = BITS_PER_NUCLEOTIDE * (NUCLEOTIDE_PER_INTEGER - 1 - j)
+                dst[pos - from + j - a] = ((pack ushr shift) and 3).toByte()
+            }
+
+            pos += b - a
+        }
+
+        forEachNBlock(from, to) { start, end ->
+            Arrays.fill(dst, Math.max(start, from) - from, Math.min(end, to) - from,
+                        Nucleotide.ANY_NUCLEOTIDE_BYTE)
+        }
+    }
+
+    override fun composition(from: Int, to: Int): IntArray {
+        checkPositionIndexes(from, to, length)
+        val counts = IntArray(5)
+        addPackedComposition(from, to, counts, 1)
+
+        // Nucleotides under N-blocks are masked by the preceding ones.
+        forEachNBlock(from, to) { start, end ->
+            val a = Math.max(start, from)
+            val b = Math.min(end, to)
+            addPackedComposition(a, b, counts, -1)
+            counts[4] += b - a
+        }
+
+        return counts
+    }
+
+    override fun countCpG(from: Int, to: Int): Int {
+        checkPositionIndexes(from, to, length)
+        var acc = countPackedCpG(from, to)
+
+        // Exclude the pairs touching an N-block. Pairs are identified by
+        // the position of C, and the ones before 'next' are already
+        // excluded.
+        var next = from
+        forEachNBlock(from, to) { start, end ->
+            val a = Math.max(Math.max(from, start - 1), next)
+            val b = Math.min(to - 1, end)
+            if (a < b) {
+                acc -= countPackedCpG(a, b + 1)
+                next = b
+            }
+        }
+
+        return acc
+    }
+
+    /**
+     * Adds `sign` times the counts of the packed nucleotides in [from, to)
+     * to [counts], ignoring the N-blocks. Counts 16 nucleotides at once.
+     */
+    private fun addPackedComposition(from: Int, to: Int, counts: IntArray, sign: Int) {
+        var pos = from
+        while (pos < to) {
+            val a = pos % NUCLEOTIDE_PER_INTEGER
+            val b = Math.min(NUCLEOTIDE_PER_INTEGER, a + to - pos)
+            val pack = getPack(pos / NUCLEOTIDE_PER_INTEGER)
+            val mask = slotMask(a, b)
+            val lo = pack and mask
+            val hi = (pack ushr 1) and mask
+            counts[0] += sign * (b - a - Integer.bitCount(hi or lo))        // T = 00
+            counts[1] += sign * Integer.bitCount(lo and hi.inv())           // C = 01
+            counts[2] += sign * Integer.bitCount(hi and lo.inv())           // A = 10
+            counts[3] += sign * Integer.bitCount(hi and lo)                 // G = 11
+            pos += b - a
+        }
+    }
+
+    /**
+     * Counts packed CpG pairs with C in [from, to - 1), ignoring
+     * the N-blocks.
+     */
+    private fun countPackedCpG(from: Int, to: Int): Int {
+        var acc = 0
+        var pos = from
+        while (pos < to - 1) {
+            val i = pos / NUCLEOTIDE_PER_INTEGER
+            val a = pos % NUCLEOTIDE_PER_INTEGER
+            val b = Math.min(NUCLEOTIDE_PER_INTEGER, a + to - 1 - pos)
+            val pack = getPack(i)
+            val lo = pack and LOW_BITS
+            val hi = (pack ushr 1) and LOW_BITS
+            val isC = lo and hi.inv()
+            val isG = lo and hi
+            // The nucleotide following slot 'j' is two bits to the right.
+            acc += Integer.bitCount(isC and (isG shl 2) and
+                                    slotMask(a, Math.min(b, NUCLEOTIDE_PER_INTEGER - 1)))
+            if (b == NUCLEOTIDE_PER_INTEGER &&
+                pack and 3 == Nucleotide.C.byte.toInt() &&
+                getPack(i + 1) ushr (Integer.SIZE - BITS_PER_NUCLEOTIDE) == Nucleotide.G.byte.toInt()) {
+                acc++
+            }
+
+            pos += b - a
+        }
+
+        return acc
+    }
+
+    /**
+     * Calls [block] with the bounds of each N-block intersecting [from, to).
+     */
+    private inline fun forEachNBlock(from: Int, to: Int, block: (Int, Int) -> Unit) {
+        var k = Math.max(0, getBlock(from))
+        while (k < nBlockStarts.size && nBlockStarts[k] < to) {
+            val start = nBlockStarts[k]
+            val end = start + nBlockSizes[k]
+            if (end > from) {
+                block(start, end)
+            }
+
+            k++
+        }
     }
 
     /**
@@ -115,8 +265,12 @@ class TwoBitSequence(
 
         writeInt(0)  // maskBlockCount.
         writeInt(0)  // reserved.
-        for (pack in packedDna) {
-            writeInt(pack)
+        for (i in 0..packs.limit() - 1) {
+            writeInt(packs.get(i))
+        }
+
+        if (length % NUCLEOTIDE_PER_INTEGER != 0) {
+            writeInt(tailPack)
         }
     }
 
@@ -128,12 +282,12 @@ class TwoBitSequence(
             length == tbs.length &&
             Arrays.equals(nBlockSizes, tbs.nBlockSizes) &&
             Arrays.equals(nBlockStarts, tbs.nBlockStarts) &&
-            Arrays.equals(packedDna, tbs.packedDna)
+            packs == tbs.packs && tailPack == tbs.tailPack
         }
     }
 
     override fun hashCode() = Arrays.deepHashCode(
-            arrayOf(length, nBlockStarts, nBlockSizes, packedDna))
+            arrayOf(length, nBlockStarts, nBlockSizes, packs, tailPack))
 
     override fun toString() = substring(0, length())
 
@@ -144,6 +298,23 @@ class TwoBitSequence(
         /** Nucleotides to be encoded per `int` value.  */
         val NUCLEOTIDE_PER_INTEGER = Integer.SIZE / BITS_PER_NUCLEOTIDE
 
+        /** The lower bit of each nucleotide in a pack. */
+        private const val LOW_BITS = 0x55555555
+
+        /**
+         * Returns the lower bits of the nucleotides [a, b) of a pack, where
+         * the leftmost nucleotide has index 0.
+         */
+        private fun slotMask(a: Int, b: Int): Int {
+            if (a >= b) {
+                return 0
+            }
+
+            val width = BITS_PER_NUCLEOTIDE * (b - a)
+            val bits = if (width == Integer.SIZE) -1 else (1 shl width) - 1
+            return (bits shl BITS_PER_NUCLEOTIDE * (NUCLEOTIDE_PER_INTEGER - b)) and LOW_BITS
+        }
+
         /**
          * An array of nucleotide masks.
          *
@@ -216,9 +387,69 @@ class TwoBitSequence(
     }
 }
 
+/**
+ * A memory-mapped 2bit file with a parsed sequence index.
+ *
+ * The mapping is read-only and shared by all the sequences read from the
+ * file, thus reading a sequence doesn't copy the packed DNA to heap.
+ */
+internal class TwoBitFile private constructor(
+        private val buf: ByteBuffer,
+        private val index: TObjectIntMap<String>,
+        private val lastModified: FileTime,
+        private val size: Long) {
+
+    val names: ImmutableSet<String> = ImmutableSet.copyOf(index.keySet())
+
+    fun length(name: String) = getBuffer(name).getInt()
+
+    fun read(name: String) = TwoBitReader.read(getBuffer(name))
+
+    fun isStale(path: Path): Boolean {
+        return Files.getLastModifiedTime(path) != lastModified || Files.size(path) != size
+    }
+
+    /** Returns a private buffer positioned at a given sequence record. */
+    private fun getBuffer(name: String): ByteBuffer {
+        require(index.containsKey(name)) { "unknown sequence: $name" }
+        val view = buf.duplicate().order(buf.order())
+        view.position(index[name])
+        return view
+    }
+
+    companion object {
+        @Throws(IOException::class)
+        fun open(path: Path): TwoBitFile {
+            val lastModified = Files.getLastModifiedTime(path)
+            val size = Files.size(path)
+            return FileChannel.open(path).use { fc ->
+                val buf = fc.map(FileChannel.MapMode.READ_ONLY, 0, size)
+                buf.order(ByteOrder.nativeOrder())
+                val nativeMagic = buf.getInt()
+                if (nativeMagic != TwoBitReader.MAGIC) {
+                    val reversedMagic = java.lang.Integer.reverseBytes(nativeMagic)
+                    check(reversedMagic == TwoBitReader.MAGIC) { "bad signature" }
+                    buf.order(buf.order().flip())
+                }
+
+                TwoBitFile(buf, TwoBitReader.getIndex(buf), lastModified, size)
+            }
+        }
+
+        private fun ByteOrder.flip() = when (this) {
+            ByteOrder.BIG_ENDIAN -> ByteOrder.LITTLE_ENDIAN
+            ByteOrder.LITTLE_ENDIAN -> ByteOrder.BIG_ENDIAN
+            else -> throw IllegalStateException()
+        }
+    }
+}
+
 /**
  * A reader for 2bit compressed sequence format.
  *
+ * Each file is mapped and indexed once, see [TwoBitFile]. The file is
+ * re-opened if it was modified since.
+ *
  * See http://genome.ucsc.edu/FAQ/FAQformat.html.format7
  *
  * @author Sergei Lebedev
@@ -228,6 +459,17 @@ object TwoBitReader {
     /** Magic number used for determining [ByteOrder].  */
     const val MAGIC = 0x1A412743
 
+    /**
+     * The channel is closed right after mapping, but the mapping itself
+     * lives as long as the file or the sequences read from it, thus the
+     * number of cached files is bounded by the `twobit.files.max.open`
+     * system property. Evicted mappings are released by GC once the
+     * sequences backed by them are unreachable.
+     */
+    private val FILES: Cache<Path, TwoBitFile> = CacheBuilder.newBuilder()
+            .maximumSize(Integer.getInteger("twobit.files.max.open", 16).toLong())
+            .build<Path, TwoBitFile>()
+
     /**
      * Extracts available sequence names from the 2bit file specified
      * by `path`.
@@ -236,11 +478,7 @@ object TwoBitReader {
      *         doesn't conform to 2bit format specification.
      */
     @Throws(IOException::class)
-    @JvmStatic fun names(path: Path): ImmutableSet<String> {
-        val buf = getBuffer(path)
-        val index = getIndex(buf)
-        return ImmutableSet.copyOf(index.keySet())
-    }
+    @JvmStatic fun names(path: Path): ImmutableSet<String> = getFile(path).names
 
     /**
      * Extracts length of the sequence corresponding to the given
@@ -252,30 +490,33 @@ object TwoBitReader {
      *         contain `name`.
      */
     @Throws(IOException::class)
-    @JvmStatic fun length(path: Path, name: String): Int {
-        val buf = getBuffer(path)
-        val index = getIndex(buf)
-        require(index.containsKey(name)) { "unknown sequence: $name" }
-        buf.position(index[name])
-        return buf.getInt()
-    }
+    @JvmStatic fun length(path: Path, name: String) = getFile(path).length(name)
 
     /**
      * Reads a sequence corresponding to the given `name` from
      * the 2bit file specified by `path`.
      *
+     * The returned sequence is backed by the mapped file, so this is
+     * O(number of N-blocks) rather than O(sequence length).
+     *
      * @throws IllegalStateException if the 2bit file at `path`
      *         doesn't conform to 2bit format specification.
      * @throws IllegalArgumentException if the 2bit index doesn't
      *         contain `name`.
      */
     @Throws(IOException::class)
-    @JvmStatic fun read(path: Path, name: String): TwoBitSequence {
-        val buf = getBuffer(path)
-        val index = getIndex(buf)
-        require(index.containsKey(name)) { "unknown sequence: $name" }
-        buf.position(index[name])
-        return read(buf)
+    @JvmStatic fun read(path: Path, name: String) = getFile(path).read(name)
+
+    private fun getFile(path: Path): TwoBitFile {
+        val key = path.toAbsolutePath().normalize()
+        val cached = FILES.getIfPresent(key)
+        if (cached != null && !cached.isStale(key)) {
+            return cached
+        }
+
+        val file = TwoBitFile.open(key)
+        FILES.put(key, file)
+        return file
     }
 
     /**
@@ -300,30 +541,12 @@ object TwoBitReader {
         return index
     }
 
-    private fun ByteOrder.flip() = when (this) {
-        ByteOrder.BIG_ENDIAN -> ByteOrder.LITTLE_ENDIAN
-        ByteOrder.LITTLE_ENDIAN -> ByteOrder.BIG_ENDIAN
-        else -> throw IllegalStateException()
-    }
-
     /**
-     * Determines the byte order in the 2bit file at `path`.
+     * Reads a sequence record at the current position of a given buffer.
+     *
+     * The packed DNA isn't copied, thus the buffer must not be modified
+     * afterwards.
      */
-    private fun getBuffer(path: Path): ByteBuffer {
-        return FileChannel.open(path).use { fc ->
-            val buf = fc.map(FileChannel.MapMode.READ_ONLY, 0, path.size.toBytes())
-            buf.order(ByteOrder.nativeOrder())
-            val nativeMagic = buf.getInt()
-            if (nativeMagic != MAGIC) {
-                val reversedMagic = java.lang.Integer.reverseBytes(nativeMagic)
-                check(reversedMagic == MAGIC) { "bad signature" }
-                buf.order(buf.order().flip())
-            }
-
-            buf
-        }
-    }
-
     fun read(buf: ByteBuffer): TwoBitSequence {
         val view = buf.asIntBuffer()
         val dnaSize = view.get()
@@ -343,25 +566,28 @@ object TwoBitReader {
 
         val packsCount = dnaSize / TwoBitSequence.NUCLEOTIDE_PER_INTEGER
 
+        // DNA is laid out independent of the byte order used.
+        val dnaStart = buf.position() + view.position() * Integer.BYTES
+        val dna = buf.duplicate()
+        dna.position(dnaStart)
+        dna.limit(dnaStart + packsCount * Integer.BYTES)
+        val packs = dna.slice().order(ByteOrder.BIG_ENDIAN).asIntBuffer()
+
         // 'dnaSize' might _not_ be a multiple of 'Integer.SIZE', so we
-        // have to make sure we read any leftover bases.
+        // have to make sure we read any leftover bases. These might be
+        // the last bytes of the file, thus can't be read as an int.
         val leftover = dnaSize % TwoBitSequence.NUCLEOTIDE_PER_INTEGER
-        val packedDna = IntArray(packsCount + (if (leftover > 0) 1 else 0))
-        // we're forced to use 'buf' here because DNA is laid out independent
-        // of the byte order used.
-        buf.position(buf.position() + view.position() * Integer.BYTES)
-        buf.order(ByteOrder.BIG_ENDIAN).asIntBuffer().get(packedDna, 0, packsCount)
-
+        var tailPack = 0
         if (leftover > 0) {
-            buf.position(buf.position() + packsCount * Integer.BYTES)
             val pack = ByteArray(Integer.BYTES)
-            buf.get(pack, 0, IntMath.divide(leftover * TwoBitSequence.BITS_PER_NUCLEOTIDE,
+            dna.limit(dna.capacity())
+            dna.position(dnaStart + packsCount * Integer.BYTES)
+            dna.get(pack, 0, IntMath.divide(leftover * TwoBitSequence.BITS_PER_NUCLEOTIDE,
                                             java.lang.Byte.SIZE, RoundingMode.CEILING))
-            packedDna[packsCount] = Ints.fromByteArray(pack)
+            tailPack = Ints.fromByteArray(pack)
         }
 
-        buf.clear()
-        return TwoBitSequence(dnaSize, nBlockStarts, nBlockSizes, packedDna)
+        return TwoBitSequence(dnaSize, nBlockStarts, nBlockSizes, packs, tailPack)
     }
 }
 
@@ -8,6 +8,7 @@ import org.jetbrains.bio.genome.query.InputQuery
 import org.jetbrains.bio.io.BedEntry
 import org.jetbrains.bio.io.BedFormat
 import org.jetbrains.bio.io.BedParser
+import org.jetbrains.bio.io.BedScanner
 import java.nio.file.Path
 
 class BedTrackQuery(val genomeQuery: GenomeQuery, val path: Path,
@@ -24,4 +25,12 @@ class BedTrackQuery(val genomeQuery: GenomeQuery, val path: Path,
         require(path.exists && path.isRegularFile) { "Bad file: $path" }
         return (format ?: BedFormat.auto(path)).parse(path)
     }
+
+    /**
+     * Scans positional columns only, see [BedScanner].
+     */
+    fun scan(genomeQuery: GenomeQuery = this.genomeQuery): BedScanner {
+        require(path.exists && path.isRegularFile) { "Bad file: $path" }
+        return (format ?: BedFormat.auto(path)).scan(path, genomeQuery)
+    }
 }
@@ -11,6 +11,8 @@ import org.jetbrains.bio.genome.containers.genomeStrandMap
 import org.jetbrains.bio.genome.query.GenomeQuery
 import org.jetbrains.bio.genome.query.InputQuery
 import org.jetbrains.bio.io.BedEntry
+import org.jetbrains.bio.io.BedScanner
+import org.jetbrains.bio.io.forEachRecord
 import org.jetbrains.bio.npy.NpzFile
 import java.io.IOException
 import java.nio.file.Path
@@ -30,12 +32,40 @@ class GenomeCoverage(val genomeQuery: GenomeQuery) {
      */
     val data = genomeStrandMap(genomeQuery) { _c, _s -> TIntArrayList() }
 
+    /**
+     * Per-chromosome and strand prefix sums of tag counts, see [TagIndex].
+     * Built lazily and rebuilt if the tags were replaced.
+     */
+    private val index = genomeStrandMap<TagIndex?>(genomeQuery) { _c, _s -> null }
+
     fun aggregateBothStrands(binSize: Int): GenomeMap<IntArray> {
-        return genomeMap(genomeQuery) { chromosome ->
-            chromosome.range.slice(binSize)
-                    .mapToInt { getBothStrandCoverage(it.on(chromosome)) }
-                    .toArray();
+        return genomeMap(genomeQuery) { aggregateBothStrands(it, binSize) }
+    }
+
+    /**
+     * Returns the number of tags on both strands in each of the
+     * [binSize] bins of a given [chromosome]. The last bin might be
+     * shorter than the others.
+     */
+    fun aggregateBothStrands(chromosome: Chromosome, binSize: Int): IntArray {
+        val length = chromosome.length
+        if (binSize > length) {
+            return IntArray(0)
+        }
+
+        val minus = getIndex(chromosome, Strand.MINUS)
+        val plus = getIndex(chromosome, Strand.PLUS)
+        val n = (length + binSize - 1) / binSize
+        val result = IntArray(n)
+        var prev = 0
+        for (i in 0..n - 1) {
+            val end = Math.min(length, (i + 1) * binSize)
+            val next = minus.count(end) + plus.count(end)
+            result[i] = next - prev
+            prev = next
         }
+
+        return result
     }
 
     /**
@@ -48,30 +78,30 @@ class GenomeCoverage(val genomeQuery: GenomeQuery) {
     /**
      * Returns the number of tags covered by a given [location].
      */
-    fun getCoverage(location: Location): Int = getTags(location).size
+    fun getCoverage(location: Location): Int {
+        val index = getIndex(location.chromosome, location.strand)
+        return index.count(location.endOffset) - index.count(location.startOffset)
+    }
 
     /**
      * Returns a sorted array of tags covered by a given [location].
      */
     fun getTags(location: Location): IntArray {
-        val data = data[location.chromosome, location.strand]
-        val index = getIndex(data, location.startOffset)
-        var size = 0
-        while (index + size < data.size() &&
-               data[index + size] < location.endOffset) {
-            size++
-        }
-
-        return data.toArray(index, size)
+        val index = getIndex(location.chromosome, location.strand)
+        val from = index.count(location.startOffset)
+        return index.tags.toArray(from, index.count(location.endOffset) - from)
     }
 
-    private fun getIndex(data: TIntList, value: Int): Int {
-        var index = data.binarySearch(value)
-        while (index > 0 && data[index - 1] == value) {
-            index--
+    private fun getIndex(chromosome: Chromosome, strand: Strand): TagIndex {
+        val tags = data[chromosome, strand]
+        val cached = index[chromosome, strand]
+        if (cached != null && cached.tags === tags && cached.size == tags.size()) {
+            return cached
         }
 
-        return if (index < 0) index.inv() else index
+        val built = TagIndex.build(tags, chromosome.length)
+        index[chromosome, strand] = built
+        return built
     }
 
     @Throws(IOException::class) fun save(outputPath: Path) {
@@ -82,6 +112,7 @@ class GenomeCoverage(val genomeQuery: GenomeQuery) {
                 for (strand in Strand.values()) {
                     val key = chromosome.name + '/' + strand
                     writer.write(key, data[chromosome, strand].toArray())
+                    writer.write("$key/index", getIndex(chromosome, strand).prefix)
                 }
             }
         }
@@ -97,8 +128,10 @@ class GenomeCoverage(val genomeQuery: GenomeQuery) {
             for (chromosome in genomeQuery.get()) {
                 for (strand in Strand.values()) {
                     val key = chromosome.name + '/' + strand
-                    data[chromosome, strand] =
-                            TIntArrayList.wrap(reader[key] as IntArray)
+                    val tags = TIntArrayList.wrap(reader[key] as IntArray)
+                    data[chromosome, strand] = tags
+                    index[chromosome, strand] =
+                            TagIndex(tags, reader["$key/index"] as IntArray)
                 }
             }
         }
@@ -106,6 +139,69 @@ class GenomeCoverage(val genomeQuery: GenomeQuery) {
         return this
     }
 
+    /**
+     * Prefix sums of a sorted list of tags, i.e. `prefix[j]` is the number
+     * of tags less than `j * INDEX_BIN_SIZE`.
+     *
+     * Any power-of-two level coarser than [INDEX_BIN_SIZE] is a strided
+     * view of the prefix sums, thus counts for aligned bins are O(1) and
+     * the levels don't have to be stored separately. Unaligned offsets
+     * resort to a binary search within a single base bin.
+     */
+    private class TagIndex(val tags: TIntList, val prefix: IntArray) {
+        val size = tags.size()
+
+        /** Returns the number of tags less than a given [offset]. */
+        fun count(offset: Int): Int {
+            val j = offset shr INDEX_SHIFT
+            if (j < 0) {
+                return 0
+            } else if (j >= prefix.size) {
+                return lowerBound(prefix.last(), size, offset)
+            }
+
+            val from = prefix[j]
+            if (offset and (INDEX_BIN_SIZE - 1) == 0) {
+                return from
+            }
+
+            val to = if (j + 1 < prefix.size) prefix[j + 1] else size
+            return lowerBound(from, to, offset)
+        }
+
+        private fun lowerBound(from: Int, to: Int, value: Int): Int {
+            var lo = from
+            var hi = to
+            while (lo < hi) {
+                val mid = (lo + hi) ushr 1
+                if (tags[mid] < value) {
+                    lo = mid + 1
+                } else {
+                    hi = mid
+                }
+            }
+
+            return lo
+        }
+
+        companion object {
+            fun build(tags: TIntList, length: Int): TagIndex {
+                val prefix = IntArray(((length + INDEX_BIN_SIZE - 1) shr INDEX_SHIFT) + 1)
+                var i = 0
+                for (j in prefix.indices) {
+                    val offset = j.toLong() shl INDEX_SHIFT
+                    while (i < tags.size() && tags[i] < offset) {
+                        i++
+                    }
+
+                    prefix[j] = i
+                }
+
+                return TagIndex(tags, prefix)
+            }
+        }
+    }
+
     class Builder(genomeQuery: GenomeQuery) {
         val coverage = GenomeCoverage(genomeQuery)
 
@@ -134,13 +230,21 @@ class GenomeCoverage(val genomeQuery: GenomeQuery) {
 
     companion object {
         /** Binary format version.  */
-        private val VERSION = 2
+        private val VERSION = 3
+
+        /** Base bin size of the tag index, must be a power of two. */
+        private const val INDEX_SHIFT = 10
+        private const val INDEX_BIN_SIZE = 1 shl INDEX_SHIFT
 
         fun builder(genomeQuery: GenomeQuery) = Builder(genomeQuery)
 
         @JvmStatic fun compute(genomeQuery: GenomeQuery,
                                bedQuery: InputQuery<Iterable<BedEntry>>,
                                unique: Boolean): GenomeCoverage {
+            if (bedQuery is BedTrackQuery) {
+                return bedQuery.scan(genomeQuery).use { compute(genomeQuery, it, unique) }
+            }
+
             val builder = Builder(genomeQuery)
             val chromosomes = ChromosomeNamesMap.create(genomeQuery)
             for (entry in bedQuery.get()) {
@@ -160,6 +264,17 @@ class GenomeCoverage(val genomeQuery: GenomeQuery) {
 
             return builder.build(unique)
         }
+
+        @JvmStatic fun compute(genomeQuery: GenomeQuery, scanner: BedScanner,
+                               unique: Boolean): GenomeCoverage {
+            val builder = Builder(genomeQuery)
+            scanner.forEachRecord { chromosome, start, end, strand, _score ->
+                val offset = if (end == 0 || strand.isPlus()) start else end - 1
+                builder.put(chromosome, strand, offset)
+            }
+
+            return builder.build(unique)
+        }
     }
 }
 
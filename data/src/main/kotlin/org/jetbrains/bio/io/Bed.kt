@@ -9,6 +9,9 @@ import com.google.common.primitives.Ints
 import org.apache.log4j.Logger
 import org.jetbrains.bio.ext.bufferedReader
 import org.jetbrains.bio.ext.bufferedWriter
+import org.jetbrains.bio.ext.inputStream
+import org.jetbrains.bio.genome.ChromosomeNamesMap
+import org.jetbrains.bio.genome.query.GenomeQuery
 import java.awt.Color
 import java.io.*
 import java.nio.file.Path
@@ -53,6 +56,15 @@ class BedFormat(vararg fields: BedEntry.Field) {
                          schema = schema, separator = separator)
     }
 
+    /**
+     * Returns a zero-allocation scanner for the positional columns.
+     *
+     * @see BedScanner
+     */
+    fun scan(path: Path, genomeQuery: GenomeQuery): BedScanner {
+        return BedScanner(path.inputStream(), this, ChromosomeNamesMap.create(genomeQuery))
+    }
+
     fun print(path: Path) = print(path.bufferedWriter())
 
     fun print(writer: Writer) = BedPrinter(writer.buffered(),
@@ -0,0 +1,226 @@
+package org.jetbrains.bio.io
+
+import gnu.trove.list.array.TLongArrayList
+import org.apache.log4j.Logger
+import org.jetbrains.bio.ext.checkOrRecalculate
+import org.jetbrains.bio.ext.deleteIfExists
+import org.jetbrains.bio.ext.exists
+import org.jetbrains.bio.ext.extension
+import org.jetbrains.bio.ext.name
+import org.jetbrains.bio.genome.Chromosome
+import org.jetbrains.bio.genome.ChromosomeNamesMap
+import org.jetbrains.bio.genome.ChromosomeRange
+import org.jetbrains.bio.genome.Strand
+import org.jetbrains.bio.genome.query.GenomeQuery
+import org.jetbrains.bio.npy.NpzFile
+import java.io.IOException
+import java.nio.channels.Channels
+import java.nio.channels.FileChannel
+import java.nio.file.Files
+import java.nio.file.Path
+import java.util.*
+
+/**
+ * A sidecar index for random access to sorted uncompressed BED files.
+ *
+ * The index is linear, much like the one used by tabix: for each
+ * [BIN_SIZE] bp bin of a chromosome it stores the byte offset of the
+ * first record overlapping the bin. A query thus seeks right to the
+ * first candidate record and reads until the records pass the end
+ * of the queried range.
+ *
+ * The index is built once and stored next to the BED file. It is
+ * rebuilt if the BED file is modified.
+ */
+class BedIndex private constructor(val path: Path,
+                                   private val format: BedFormat,
+                                   private val genomeQuery: GenomeQuery,
+                                   private val offsets: Map<String, LongArray>) {
+
+    private val chromosomes = ChromosomeNamesMap.create(genomeQuery)
+
+    /**
+     * Calls [block] for the records overlapping a given range, in file
+     * order. The records are read with a [BedScanner], so only the
+     * positional columns are available.
+     */
+    @Throws(IOException::class)
+    fun query(range: ChromosomeRange,
+              block: (start: Int, end: Int, strand: Strand, score: Int) -> Unit) {
+        val chromosomeOffsets = offsets[range.chromosome.name] ?: return
+        val bin = range.startOffset shr BIN_SHIFT
+        if (bin >= chromosomeOffsets.size || chromosomeOffsets[bin] < 0) {
+            return
+        }
+
+        FileChannel.open(path).use { channel ->
+            val startOffset = chromosomeOffsets[bin]
+            // The first record of the bin past the range is a good guess
+            // of where the scan stops, the scanner refills past it anyway.
+            val endBin = ((range.endOffset - 1) shr BIN_SHIFT) + 1
+            val endOffset = if (endBin < chromosomeOffsets.size && chromosomeOffsets[endBin] >= 0) {
+                chromosomeOffsets[endBin]
+            } else {
+                channel.size()
+            }
+
+            val bufferSize = Math.min(BedScanner.DEFAULT_BUFFER_SIZE.toLong(),
+                                      Math.max(MIN_BUFFER_SIZE, endOffset - startOffset + 1))
+            channel.position(startOffset)
+            BedScanner(Channels.newInputStream(channel), format, chromosomes,
+                       bufferSize.toInt()).use { scanner ->
+                val batch = BedBatch()
+                while (scanner.read(batch) > 0) {
+                    for (i in 0..batch.size - 1) {
+                        if (batch.chromosomes[i] != range.chromosome ||
+                            batch.starts[i] >= range.endOffset) {
+                            return
+                        }
+
+                        if (batch.ends[i] > range.startOffset) {
+                            block(batch.starts[i], batch.ends[i], batch.strands[i], batch.scores[i])
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    @Throws(IOException::class)
+    private fun save(outputPath: Path) {
+        NpzFile.write(outputPath).use { writer ->
+            writer.write("version", intArrayOf(VERSION))
+            writer.write("source", sourceStamp(path))
+            for (chromosome in genomeQuery.get()) {
+                writer.write(chromosome.name, offsets[chromosome.name] ?: LongArray(0))
+            }
+        }
+    }
+
+    companion object {
+        private val LOG = Logger.getLogger(BedIndex::class.java)
+
+        /** Binary format version. */
+        private const val VERSION = 1
+
+        private const val BIN_SHIFT = 14
+        const val BIN_SIZE = 1 shl BIN_SHIFT
+
+        /** Smallest scanner buffer used by [query], in bytes. */
+        private const val MIN_BUFFER_SIZE = 8192L
+
+        /**
+         * Loads the index for a given BED file, building it if necessary.
+         *
+         * @throws IllegalArgumentException if the file is compressed or
+         *                                  isn't sorted.
+         */
+        @Throws(IOException::class)
+        @JvmStatic @JvmOverloads fun load(path: Path, genomeQuery: GenomeQuery,
+                                          format: BedFormat = BedFormat.auto(path)): BedIndex {
+            require(path.extension.toLowerCase() !in setOf("gz", "zip")) {
+                "Only uncompressed BED files can be indexed: $path"
+            }
+
+            // Index all chromosomes, regardless of the query restriction.
+            val fullGenomeQuery = GenomeQuery(genomeQuery.build)
+            val indexPath = path.resolveSibling("${path.name}.${genomeQuery.build}.bedi.npz")
+            if (indexPath.exists && !isUpToDate(indexPath, path)) {
+                LOG.info("BED index is out of date: $indexPath")
+                indexPath.deleteIfExists()
+            }
+
+            indexPath.checkOrRecalculate("BED index for $path") { output ->
+                output.let { build(path, format, fullGenomeQuery).save(it) }
+            }
+
+            return read(indexPath, path, format, fullGenomeQuery)
+        }
+
+        private fun build(path: Path, format: BedFormat, genomeQuery: GenomeQuery): BedIndex {
+            val bins = HashMap<Chromosome, TLongArrayList>()
+            val finished = HashSet<Chromosome>()
+            var previous: Chromosome? = null
+            var previousStart = 0
+            format.scan(path, genomeQuery).use { scanner ->
+                val batch = BedBatch()
+                while (scanner.read(batch) > 0) {
+                    for (i in 0..batch.size - 1) {
+                        val chromosome = batch.chromosomes[i]!!
+                        val start = batch.starts[i]
+                        if (chromosome != previous) {
+                            require(chromosome !in finished) { "BED file isn't sorted: $path" }
+                            previous?.let { finished.add(it) }
+                            previous = chromosome
+                        } else {
+                            require(start >= previousStart) { "BED file isn't sorted: $path" }
+                        }
+
+                        previousStart = start
+                        val chromosomeBins = bins.getOrPut(chromosome) { TLongArrayList() }
+                        val lastBin = Math.max(start, batch.ends[i] - 1) shr BIN_SHIFT
+                        while (chromosomeBins.size() <= lastBin) {
+                            chromosomeBins.add(-1L)
+                        }
+
+                        // Records are visited in file order, thus the first
+                        // one to touch a bin has the smallest offset.
+                        for (bin in (start shr BIN_SHIFT)..lastBin) {
+                            if (chromosomeBins[bin] < 0) {
+                                chromosomeBins[bin] = batch.offsets[i]
+                            }
+                        }
+                    }
+                }
+            }
+
+            val offsets = HashMap<String, LongArray>()
+            for ((chromosome, chromosomeBins) in bins) {
+                // An empty bin starts the scan at the next non-empty one.
+                val values = chromosomeBins.toArray()
+                for (bin in values.size - 2 downTo 0) {
+                    if (values[bin] < 0) {
+                        values[bin] = values[bin + 1]
+                    }
+                }
+
+                offsets[chromosome.name] = values
+            }
+
+            return BedIndex(path, format, genomeQuery, offsets)
+        }
+
+        private fun read(indexPath: Path, path: Path, format: BedFormat,
+                         genomeQuery: GenomeQuery): BedIndex {
+            NpzFile.read(indexPath).use { reader ->
+                val version = (reader["version"] as IntArray).single()
+                check(version == VERSION) {
+                    "BED index version is $version instead of $VERSION"
+                }
+
+                val offsets = HashMap<String, LongArray>()
+                for (chromosome in genomeQuery.get()) {
+                    offsets[chromosome.name] = reader[chromosome.name] as LongArray
+                }
+
+                return BedIndex(path, format, genomeQuery, offsets)
+            }
+        }
+
+        private fun isUpToDate(indexPath: Path, path: Path): Boolean {
+            return try {
+                NpzFile.read(indexPath).use { reader ->
+                    val version = (reader["version"] as IntArray).single()
+                    version == VERSION &&
+                    Arrays.equals(reader["source"] as LongArray, sourceStamp(path))
+                }
+            } catch (e: Exception) {
+                false
+            }
+        }
+
+        private fun sourceStamp(path: Path): LongArray {
+            return longArrayOf(Files.size(path), Files.getLastModifiedTime(path).toMillis())
+        }
+    }
+}
@@ -0,0 +1,419 @@
+package org.jetbrains.bio.io
+
+import com.google.common.io.Closeables
+import org.apache.log4j.Logger
+import org.jetbrains.bio.genome.Chromosome
+import org.jetbrains.bio.genome.ChromosomeNamesMap
+import org.jetbrains.bio.genome.Strand
+import java.io.Closeable
+import java.io.IOException
+import java.io.InputStream
+import java.util.*
+
+/**
+ * A columnar batch of BED records produced by [BedScanner].
+ *
+ * The arrays are preallocated and reused between the reads, thus
+ * the batch is only valid until the next [BedScanner.read] call.
+ */
+class BedBatch(val capacity: Int = 4096) {
+    init {
+        require(capacity > 0) { "capacity must be positive, got $capacity" }
+    }
+
+    @JvmField val chromosomes = arrayOfNulls<Chromosome>(capacity)
+    @JvmField val starts = IntArray(capacity)
+    @JvmField val ends = IntArray(capacity)
+    @JvmField val strands = Array(capacity) { Strand.PLUS }
+    @JvmField val scores = IntArray(capacity)
+    /** Byte offsets of the records in the input. */
+    @JvmField val offsets = LongArray(capacity)
+
+    /** Number of records in the batch. */
+    var size = 0
+        internal set
+}
+
+/**
+ * A streaming BED reader for the positional columns only.
+ *
+ * Unlike [BedParser] the scanner never splits lines into strings:
+ * chromosome, start, end, strand and score are parsed directly from
+ * the input bytes into a [BedBatch]. Chromosome names are resolved
+ * once per distinct name, so a steady-state read allocates nothing.
+ *
+ * Columns are located using the [BedFormat] schema, e.g. the one
+ * detected by [BedFormat.auto]. Missing strand defaults to `+` and
+ * missing score to 0. Records on chromosomes outside of the genome
+ * query and malformed records are skipped and counted in [skipped].
+ */
+class BedScanner(private val input: InputStream,
+                 format: BedFormat,
+                 private val chromosomes: ChromosomeNamesMap,
+                 bufferSize: Int = DEFAULT_BUFFER_SIZE) : Closeable {
+
+    private val separator = format.separator.toByte()
+
+    private val chromosomeColumn = format.schema.indexOf(BedEntry.CHROMOSOME)
+    private val startColumn = format.schema.indexOf(BedEntry.START_POS)
+    private val endColumn = format.schema.indexOf(BedEntry.END_POS)
+    private val strandColumn = format.schema.indexOf(BedEntry.STRAND)
+    private val scoreColumn = format.schema.indexOf(BedEntry.SCORE)
+    private val lastColumn: Int
+
+    init {
+        require(chromosomeColumn >= 0 && startColumn >= 0 && endColumn >= 0) {
+            "BED format must include chromosome, start and end"
+        }
+
+        lastColumn = Math.max(Math.max(chromosomeColumn, startColumn),
+                              Math.max(endColumn, Math.max(strandColumn, scoreColumn)))
+    }
+
+    private var buffer = ByteArray(bufferSize)
+    private var position = 0
+    private var limit = 0
+    private var eof = false
+    /** Number of bytes shifted out of the buffer. */
+    private var consumed = 0L
+
+    private var lineStart = 0
+    private var lineEnd = 0
+
+    private val names = NameTable()
+
+    /** Number of records skipped so far. */
+    var skipped = 0L
+        private set
+
+    /**
+     * Reads at most [BedBatch.capacity] records into a given batch.
+     *
+     * @return number of records read, 0 if the input is exhausted.
+     */
+    @Throws(IOException::class)
+    fun read(batch: BedBatch): Int {
+        batch.size = 0
+        while (batch.size < batch.capacity && nextLine()) {
+            parseLine(batch)
+        }
+
+        return batch.size
+    }
+
+    private fun nextLine(): Boolean {
+        var i = position
+        while (true) {
+            while (i < limit) {
+                if (buffer[i] == NEWLINE) {
+                    lineStart = position
+                    lineEnd = i
+                    position = i + 1
+                    return true
+                }
+
+                i++
+            }
+
+            if (eof) {
+                if (position == limit) {
+                    return false
+                }
+
+                // The last line has no trailing newline.
+                lineStart = position
+                lineEnd = limit
+                position = limit
+                return true
+            }
+
+            i -= fill()
+        }
+    }
+
+    /** Reads more bytes, returns the offset lines were shifted by. */
+    private fun fill(): Int {
+        val shift = position
+        if (shift > 0) {
+            System.arraycopy(buffer, shift, buffer, 0, limit - shift)
+            limit -= shift
+            position = 0
+            consumed += shift
+        } else if (limit == buffer.size) {
+            // A line longer than the buffer.
+            buffer = Arrays.copyOf(buffer, buffer.size * 2)
+        }
+
+        val read = input.read(buffer, limit, buffer.size - limit)
+        if (read < 0) {
+            eof = true
+        } else {
+            limit += read
+        }
+
+        return shift
+    }
+
+    private fun parseLine(batch: BedBatch) {
+        var from = lineStart
+        var to = lineEnd
+        while (from < to && isBlank(buffer[from])) from++
+        while (to > from && isBlank(buffer[to - 1])) to--
+        if (from == to || isNonData(from, to)) {
+            return
+        }
+
+        val i = batch.size
+        var chromosomeSlot = -1
+        var strand = Strand.PLUS
+        var score = 0L
+        var column = 0
+        var start = from
+        while (start <= to && column <= lastColumn) {
+            var end = start
+            while (end < to && buffer[end] != separator) end++
+
+            // Trim the field and skip it if empty, much like the
+            // splitter used by [BedParser].
+            var fieldStart = start
+            var fieldEnd = end
+            while (fieldStart < fieldEnd && isBlank(buffer[fieldStart])) fieldStart++
+            while (fieldEnd > fieldStart && isBlank(buffer[fieldEnd - 1])) fieldEnd--
+            if (fieldStart < fieldEnd) {
+                when (column) {
+                    chromosomeColumn -> chromosomeSlot = names.resolve(buffer, fieldStart, fieldEnd)
+                    startColumn -> {
+                        val value = parseInt(fieldStart, fieldEnd)
+                        if (value == INVALID) return skip(from, to)
+                        batch.starts[i] = value.toInt()
+                    }
+                    endColumn -> {
+                        val value = parseInt(fieldStart, fieldEnd)
+                        if (value == INVALID) return skip(from, to)
+                        batch.ends[i] = value.toInt()
+                    }
+                    strandColumn -> {
+                        strand = parseStrand(fieldStart, fieldEnd) ?: return skip(from, to)
+                    }
+                    scoreColumn -> {
+                        score = parseInt(fieldStart, fieldEnd)
+                        if (score == INVALID) return skip(from, to)
+                    }
+                }
+
+                column++
+            }
+
+            start = end + 1
+        }
+
+        if (column < 3) {
+            throw IllegalArgumentException("invalid BED: '${String(buffer, from, to - from)}'")
+        } else if (chromosomeSlot < 0 || column <= Math.max(startColumn, endColumn)) {
+            return skip(from, to)
+        }
+
+        val chromosome = names[chromosomeSlot]
+        if (chromosome == null) {
+            skipped++
+            return
+        }
+
+        batch.chromosomes[i] = chromosome
+        batch.strands[i] = strand
+        batch.scores[i] = score.toInt()
+        batch.offsets[i] = consumed + lineStart
+        batch.size++
+    }
+
+    /** Returns [INVALID] if the bytes aren't an [Int]. */
+    private fun parseInt(from: Int, to: Int): Long {
+        var i = from
+        val negative = buffer[i] == MINUS
+        if (negative) {
+            i++
+        }
+
+        if (i == to) {
+            return INVALID
+        }
+
+        var acc = 0L
+        while (i < to) {
+            val digit = buffer[i] - ZERO
+            if (digit < 0 || digit > 9 || acc > Int.MAX_VALUE) {
+                return INVALID
+            }
+
+            acc = acc * 10 + digit
+            i++
+        }
+
+        return when {
+            acc > Int.MAX_VALUE -> INVALID
+            negative -> -acc
+            else -> acc
+        }
+    }
+
+    private fun parseStrand(from: Int, to: Int): Strand? {
+        if (to - from != 1) {
+            return null
+        }
+
+        return when (buffer[from]) {
+            PLUS -> Strand.PLUS
+            MINUS -> Strand.MINUS
+            else -> null
+        }
+    }
+
+    private fun isNonData(from: Int, to: Int): Boolean {
+        return buffer[from] == HASH || startsWith(from, to, TRACK) ||
+               startsWith(from, to, BROWSER)
+    }
+
+    private fun startsWith(from: Int, to: Int, prefix: ByteArray): Boolean {
+        if (to - from < prefix.size) {
+            return false
+        }
+
+        for (j in 0..prefix.size - 1) {
+            if (buffer[from + j] != prefix[j]) {
+                return false
+            }
+        }
+
+        return true
+    }
+
+    private fun skip(from: Int, to: Int) {
+        LOG.error("invalid BED: '${String(buffer, from, to - from)}'")
+        skipped++
+    }
+
+    override fun close() = Closeables.closeQuietly(input)
+
+    /**
+     * An open addressing table from raw chromosome names to chromosomes.
+     *
+     * Unknown names are stored as well, so that each distinct name is
+     * converted to a [String] and resolved at most once.
+     */
+    private inner class NameTable {
+        private var keys = arrayOfNulls<ByteArray>(64)
+        private var hashes = IntArray(64)
+        private var values = arrayOfNulls<Chromosome>(64)
+        private var size = 0
+        private var last = -1
+
+        operator fun get(slot: Int) = values[slot]
+
+        fun resolve(bytes: ByteArray, from: Int, to: Int): Int {
+            // Most of the BED files are sorted by chromosome.
+            if (last >= 0 && matches(keys[last]!!, bytes, from, to)) {
+                return last
+            }
+
+            var hash = 0
+            for (j in from..to - 1) {
+                hash = 31 * hash + bytes[j]
+            }
+
+            val mask = keys.size - 1
+            var slot = hash and mask
+            while (true) {
+                val key = keys[slot] ?: break
+                if (hashes[slot] == hash && matches(key, bytes, from, to)) {
+                    last = slot
+                    return slot
+                }
+
+                slot = (slot + 1) and mask
+            }
+
+            val name = String(bytes, from, to - from)
+            keys[slot] = Arrays.copyOfRange(bytes, from, to)
+            hashes[slot] = hash
+            values[slot] = chromosomes[name]
+            if (++size * 2 > keys.size) {
+                grow()
+                last = -1
+                return resolve(bytes, from, to)
+            }
+
+            last = slot
+            return slot
+        }
+
+        private fun matches(key: ByteArray, bytes: ByteArray, from: Int, to: Int): Boolean {
+            if (key.size != to - from) {
+                return false
+            }
+
+            for (j in 0..key.size - 1) {
+                if (key[j] != bytes[from + j]) {
+                    return false
+                }
+            }
+
+            return true
+        }
+
+        private fun grow() {
+            val oldKeys = keys
+            val oldHashes = hashes
+            val oldValues = values
+            keys = arrayOfNulls(oldKeys.size * 2)
+            hashes = IntArray(oldKeys.size * 2)
+            values = arrayOfNulls(oldKeys.size * 2)
+            val mask = keys.size - 1
+            for (j in 0..oldKeys.size - 1) {
+                val key = oldKeys[j] ?: continue
+                var slot = oldHashes[j] and mask
+                while (keys[slot] != null) {
+                    slot = (slot + 1) and mask
+                }
+
+                keys[slot] = key
+                hashes[slot] = oldHashes[j]
+                values[slot] = oldValues[j]
+            }
+        }
+    }
+
+    companion object {
+        private val LOG = Logger.getLogger(BedScanner::class.java)
+
+        const val DEFAULT_BUFFER_SIZE = 1 shl 20
+
+        private const val NEWLINE = '\n'.toByte()
+        private const val PLUS = '+'.toByte()
+        private const val MINUS = '-'.toByte()
+        private const val HASH = '#'.toByte()
+        private const val ZERO = '0'.toByte()
+
+        private const val INVALID = Long.MIN_VALUE
+
+        private val TRACK = "track".toByteArray()
+        private val BROWSER = "browser".toByteArray()
+
+        private fun isBlank(b: Byte) = b == ' '.toByte() || b == '\t'.toByte() || b == '\r'.toByte()
+    }
+}
+
+/**
+ * Calls a given function for each remaining record.
+ *
+ * The function is inlined, thus the positions aren't boxed.
+ */
+inline fun BedScanner.forEachRecord(
+        block: (chromosome: Chromosome, start: Int, end: Int, strand: Strand, score: Int) -> Unit) {
+    val batch = BedBatch()
+    while (read(batch) > 0) {
+        for (i in 0..batch.size - 1) {
+            block(batch.chromosomes[i]!!, batch.starts[i], batch.ends[i],
+                  batch.strands[i], batch.scores[i])
+        }
+    }
+}
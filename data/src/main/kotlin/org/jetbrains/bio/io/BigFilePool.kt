@@ -0,0 +1,169 @@
+package org.jetbrains.bio.io
+
+import org.apache.log4j.Logger
+import org.jetbrains.bio.big.BigBedFile
+import org.jetbrains.bio.big.BigFile
+import org.jetbrains.bio.big.BigWigFile
+import java.nio.file.Files
+import java.nio.file.Path
+import java.nio.file.attribute.FileTime
+import java.util.*
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * A process-wide pool of open BigWIG and BigBED files.
+ *
+ * Opening a big file means reading and parsing its header and R+ tree
+ * index, which is too expensive to do on every render. The pool keeps at
+ * most [maxOpenFiles] idle files open, evicting the least recently used
+ * ones. Files leased via [withBigWig] or [withBigBed] are reference
+ * counted and never closed while in use.
+ *
+ * A file is re-opened if its size or modification time changed since
+ * it was opened, the stale handle is closed once released.
+ *
+ * The limit defaults to the `big.files.max.open` system property.
+ */
+object BigFilePool {
+    private val LOG = Logger.getLogger(BigFilePool::class.java)
+
+    /** The same path might be opened both as a BigWIG and a BigBED file. */
+    private data class Key(val path: Path, val format: Class<out BigFile<*>>)
+
+    private class Handle(val file: BigFile<*>,
+                         val lastModified: FileTime,
+                         val size: Long) {
+        var references = 0
+        var evicted = false
+
+        fun isStale(lastModified: FileTime, size: Long): Boolean {
+            return lastModified != this.lastModified || size != this.size
+        }
+    }
+
+    /** Access-ordered, thus the eldest entry is the least recently used. */
+    private val handles = LinkedHashMap<Key, Handle>(16, 0.75f, true)
+
+    private val OPENS = AtomicLong()
+    private val HITS = AtomicLong()
+    private val EVICTIONS = AtomicLong()
+
+    @Volatile var maxOpenFiles: Int = Integer.getInteger("big.files.max.open", 64)
+        set(value) {
+            require(value > 0) { "maxOpenFiles must be positive, got $value" }
+            field = value
+            synchronized(handles) { evict() }
+        }
+
+    fun <T> withBigWig(path: Path, block: (BigWigFile) -> T): T {
+        return lease(Key(path, BigWigFile::class.java), { BigWigFile.read(it) }) { block(it as BigWigFile) }
+    }
+
+    fun <T> withBigBed(path: Path, block: (BigBedFile) -> T): T {
+        return lease(Key(path, BigBedFile::class.java), { BigBedFile.read(it) }) { block(it as BigBedFile) }
+    }
+
+    /**
+     * Closes all the idle files. Files in use are closed once released.
+     */
+    fun clear() = synchronized(handles) {
+        handles.values.forEach { it.evicted = true; closeIfUnused(it) }
+        handles.clear()
+    }
+
+    /** Number of files opened by the pool. */
+    fun opens() = OPENS.get()
+
+    /** Number of requests served by an already open file. */
+    fun hits() = HITS.get()
+
+    /** Number of files closed to stay within [maxOpenFiles]. */
+    fun evictions() = EVICTIONS.get()
+
+    private fun <T> lease(key: Key, open: (Path) -> BigFile<*>, block: (BigFile<*>) -> T): T {
+        val handle = acquire(key.copy(path = key.path.toAbsolutePath().normalize()), open)
+        try {
+            // The underlying seekable input isn't safe for concurrent reads.
+            return synchronized(handle.file) { block(handle.file) }
+        } finally {
+            release(handle)
+        }
+    }
+
+    private fun acquire(key: Key, open: (Path) -> BigFile<*>): Handle {
+        // File system calls might be slow, so the lock only guards the comparison.
+        val lastModified = Files.getLastModifiedTime(key.path)
+        val size = Files.size(key.path)
+        synchronized(handles) {
+            val handle = handles[key]
+            if (handle != null) {
+                if (!handle.isStale(lastModified, size)) {
+                    HITS.incrementAndGet()
+                    handle.references++
+                    return handle
+                }
+
+                handles.remove(key)
+                handle.evicted = true
+                closeIfUnused(handle)
+            }
+        }
+
+        // Opening is done outside of the lock, so that a slow file doesn't
+        // block the others. The loser of a race closes its copy.
+        val file = open(key.path)
+        OPENS.incrementAndGet()
+        synchronized(handles) {
+            var handle = handles[key]
+            if (handle == null || handle.isStale(lastModified, size)) {
+                if (handle != null) {
+                    handle.evicted = true
+                    closeIfUnused(handle)
+                }
+
+                handle = Handle(file, lastModified, size)
+                handles[key] = handle
+            } else {
+                file.close()
+            }
+
+            handle.references++
+            evict()
+            return handle
+        }
+    }
+
+    private fun release(handle: Handle) = synchronized(handles) {
+        handle.references--
+        closeIfUnused(handle)
+        evict()
+    }
+
+    /** Must be called with the [handles] lock held. */
+    private fun evict() {
+        if (handles.size <= maxOpenFiles) {
+            return
+        }
+
+        val it = handles.values.iterator()
+        while (handles.size > maxOpenFiles && it.hasNext()) {
+            val handle = it.next()
+            if (handle.references == 0) {
+                it.remove()
+                handle.evicted = true
+                closeIfUnused(handle)
+                EVICTIONS.incrementAndGet()
+            }
+        }
+    }
+
+    private fun closeIfUnused(handle: Handle) {
+        if (handle.evicted && handle.references == 0) {
+            try {
+                handle.file.close()
+            } catch (e: Exception) {
+                LOG.warn("Failed to close big file", e)
+            }
+        }
+    }
+}
@@ -1,13 +1,12 @@
 package org.jetbrains.bio.io
 
-import com.google.common.collect.Iterators
-import gnu.trove.list.array.TByteArrayList
 import htsjdk.samtools.CigarOperator
 import htsjdk.samtools.SAMFileHeader.SortOrder
 import htsjdk.samtools.SAMRecord
 import htsjdk.samtools.SamReader
 import htsjdk.samtools.SamReaderFactory
 import org.apache.log4j.Logger
+import org.jetbrains.bio.ext.SharedPool
 import org.jetbrains.bio.ext.awaitAll
 import org.jetbrains.bio.ext.name
 import org.jetbrains.bio.ext.parallelStream
@@ -16,17 +15,17 @@ import org.jetbrains.bio.genome.Strand
 import org.jetbrains.bio.genome.query.GenomeQuery
 import org.jetbrains.bio.genome.sequence.Nucleotide
 import org.jetbrains.bio.genome.sequence.NucleotideSequence
-import org.jetbrains.bio.genome.sequence.asNucleotideSequence
+import org.jetbrains.bio.genome.sequence.ReferenceWindow
 import org.jetbrains.bio.methylome.CytosineContext
 import org.jetbrains.bio.methylome.Methylome
 import org.jetbrains.bio.methylome.MethylomeBuilder
 import org.jetbrains.bio.util.Progress
-import java.io.Closeable
 import java.nio.file.Path
 import java.util.*
 import java.util.concurrent.Callable
 import java.util.concurrent.Executors
 import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
 
 /**
  * A parser for raw BS-seq alignments in BAM or CRAM formats.
@@ -46,18 +45,21 @@ import java.util.concurrent.TimeUnit
  * @since 29/04/14
  */
 object BisulfiteBamParser {
-    fun parse(path: Path, genomeQuery: GenomeQuery): Methylome {
+    private val LOG = Logger.getLogger(BisulfiteBamParser::class.java)
+
+    /**
+     * Chromosomes are split into shards of this size by default, so that
+     * large chromosomes are piled up by several threads.
+     */
+    const val SHARD_SIZE = 1 shl 23
+
+    fun parse(path: Path, genomeQuery: GenomeQuery, shardSize: Int = SHARD_SIZE): Methylome {
+        require(shardSize > 0) { "shardSize must be positive, got $shardSize" }
+
         // This is of course an upper bound, but it's better than nothing.
         var total = genomeQuery.get().parallelStream().mapToLong {
-            var acc = 0L
-            for (i in 0..it.length - 1) {
-                val b = it.sequence.byteAt(i)
-                if (b == Nucleotide.C.byte || b == Nucleotide.G.byte) {
-                    acc++
-                }
-            }
-
-            acc
+            val counts = it.sequence.composition(0, it.length)
+            (counts[Nucleotide.C.byte.toInt()] + counts[Nucleotide.G.byte.toInt()]).toLong()
         }.sum()
 
         val builder = Methylome.builder(genomeQuery)
@@ -66,124 +68,93 @@ object BisulfiteBamParser {
                 .period(10, TimeUnit.SECONDS)
                 .incremental(total)
 
-        val executor = Executors.newCachedThreadPool()
-        executor.awaitAll(genomeQuery.get().map {
-            Callable {
-                val sequence = it.sequence.toString().asNucleotideSequence()
-                parse(path, it, sequence, builder, progress)
+        openReader(path, null).use { checkHeader(it, genomeQuery.get()) }
+
+        val tasks = ArrayList<Callable<Unit>>()
+        for (chromosome in genomeQuery.get()) {
+            val shards = (chromosome.length + shardSize - 1) / shardSize
+            val reference = SharedReference(chromosome, shards)
+            for (from in 0..chromosome.length - 1 step shardSize) {
+                val to = Math.min(from + shardSize, chromosome.length)
+                tasks.add(Callable {
+                    try {
+                        parse(path, chromosome, chromosome.sequence, from, to,
+                              reference.source, builder, progress)
+                    } finally {
+                        reference.release()
+                    }
+                })
             }
-        })
-        check(executor.shutdownNow().isEmpty())
+        }
+
+        // The shards block on BAM I/O, thus they run on a bounded pool of
+        // their own rather than on the ForkJoin [SharedPool].
+        val executor = Executors.newFixedThreadPool(SharedPool.parallelism)
+        try {
+            executor.awaitAll(tasks)
+        } finally {
+            executor.shutdownNow()
+        }
 
         return builder.build()
     }
 
     fun parse(path: Path, chromosome: Chromosome, sequence: NucleotideSequence,
               builder: MethylomeBuilder, progress: Progress.Incremental) {
-        getPiler(path, chromosome).use { piler ->
-            loop@ while (piler.hasNext()) {
-                val pc = piler.next()
-                // Reference position is 1-based in SAM.
-                val offset = pc.position - 1
-                // XXX: Workaround for [KT-10031] java.lang.VerifyError: Bad local variable type
-                //  > add 'strand' initialization before 'else -> error("...")'
-                var strand: Strand = Strand.PLUS
-                when (sequence.charAt(offset)) {
-                // Skip records corresponding to non-cytosines.
-                    'a', 't', 'n' -> continue@loop
-                    'c' -> strand = Strand.PLUS
-                    'g' -> strand = Strand.MINUS
-                    else -> error("unexpected character in sequence '${sequence.charAt(offset)}'.")
-                }
-
-                val context = CytosineContext.determine(sequence, offset, strand)
-                handleLocus(builder, chromosome, strand, offset, context, pc)
-                progress.report()
-            }
-        }
-    }
-
-    private fun getPiler(path: Path, chromosome: Chromosome): SamPiler {
-        // 'htsjdk' doesn't allow concurrent queries on 'BAMFileReader'
-        // thus we have to re-create 'SamReader' for each chromosome.
-        val samReader = SamReaderFactory.makeDefault()
-                .referenceSource(WrappedReferenceSource(chromosome.name,
-                                                        chromosome.sequence))
-                .open(path.toFile())
-        return SamPiler(samReader, chromosome)
+        parse(path, chromosome, sequence, 0, chromosome.length,
+              WrappedReferenceSource(chromosome.name, sequence), builder, progress)
     }
 
-    private fun handleLocus(builder: MethylomeBuilder,
-                            chromosome: Chromosome, strand: Strand,
-                            offset: Int, context: CytosineContext?,
-                            pc: PilerColumn) {
-        var countA = 0
-        var countT = 0
-        var countC = 0
-        var countG = 0
-        if (strand.isPlus()) {
-            for (i in 0..pc.size() - 1) {
-                // The strand of the record should match the reference strand,
-                // because otherwise we aren't looking at a cytosine.
-                if (pc.getStrand(i).isMinus()) {
-                    continue
-                }
+    /**
+     * Piles up the reads overlapping `[from, to)` and adds the counts
+     * for the cytosines in that range to the [builder].
+     *
+     * The reads crossing the range boundaries are fetched by both of the
+     * neighbouring shards, but each of them only counts its own bases.
+     */
+    private fun parse(path: Path, chromosome: Chromosome, sequence: NucleotideSequence,
+                      from: Int, to: Int, reference: WrappedReferenceSource,
+                      builder: MethylomeBuilder, progress: Progress.Incremental) {
+        openReader(path, reference).use { samReader ->
+            // Only the part of the reference around the pileup cursor
+            // is decoded at any time.
+            val window = ReferenceWindow(sequence)
+            val pileup = BisulfitePileup(chromosome, window, from, to, builder, progress)
+            // SAM coordinates are 1-based and inclusive.
+            samReader.query(chromosome.name, from + 1, to, false).use { records ->
+                for (record in records) {
+                    if (record.readUnmappedFlag
+                        || record.isSecondaryOrSupplementary
+                        || record.duplicateReadFlag
+                        || record.mappingQuality == 0) {  // BWA multi-alignment evidence
+                        continue
+                    }
 
-                when (pc.getReadBase(i).toChar()) {
-                    'A' -> countA++
-                    'T' -> countT++
-                    '=',  // fall-through.
-                    'C' -> countC++
-                    'G' -> countG++
+                    pileup.add(record)
                 }
             }
-        } else {
-            for (i in 0..pc.size() - 1) {
-                if (pc.getStrand(i).isPlus()) {
-                    continue
-                }
 
-                when (pc.getReadBase(i).toChar()) {
-                    'A' -> countT++
-                    'T' -> countA++
-                    'C' -> countG++
-                    '=',  // fall-through.
-                    'G' -> countC++
-                }
-            }
+            pileup.finish()
+        }
+    }
+
+    private fun openReader(path: Path, reference: WrappedReferenceSource?): SamReader {
+        // 'htsjdk' doesn't allow concurrent queries on 'BAMFileReader'
+        // thus we have to re-create 'SamReader' for each shard.
+        val factory = SamReaderFactory.makeDefault()
+        if (reference != null) {
+            factory.referenceSource(reference)
         }
 
-        val countATCG = countA + countT + countC + countG
-        // XXX for the minus strand we add up the counts using
-        // reverse-complementary nucleotides, so to get 'methylatedCount'
-        // we need to use 'countC' and NOT 'countG'.
-        builder.add(chromosome, strand, offset, context, countC, countATCG)
+        return factory.open(path.toFile())
     }
-}
 
-/**
- * Piler piles up SAM and BAM records.
- *
- * See http://thefreedictionary.com/piler if you don't believe the KDoc.
- *
- * @author Sergei Lebedev
- * @since 04/07/14
- */
-private class SamPiler(private val samReader: SamReader, chromosome: Chromosome) :
-        Iterator<PilerColumn>, Closeable, AutoCloseable {
-
-    /** An iterator for SAM records with the SAME reference index. */
-    private val samIterator = Iterators.peekingIterator<SAMRecord>(
-            samReader.query(chromosome.name, 0, 0, false))
-    /** A queue for loci waiting for more SAM records coming.  */
-    private val waitingQueue = ArrayList<PilerColumn>()
-    /** A queue for completed loci, which won't get any more SAM records.  */
-    private val completedQueue = ArrayDeque<PilerColumn>()
-
-    init {
+    private fun checkHeader(samReader: SamReader, chromosomes: List<Chromosome>) {
         val samHeader = samReader.fileHeader
-        if (samHeader.sequenceDictionary.getSequence(chromosome.name) == null) {
-            throw NoSuchElementException(chromosome.name)
+        for (chromosome in chromosomes) {
+            if (samHeader.sequenceDictionary.getSequence(chromosome.name) == null) {
+                throw NoSuchElementException(chromosome.name)
+            }
         }
 
         val sortOrder = samHeader.sortOrder
@@ -195,63 +166,77 @@ private class SamPiler(private val samReader: SamReader, chromosome: Chromosome)
                     "Cannot operate on a SAM file that is not coordinate sorted.")
         }
     }
+}
 
-    override fun hasNext(): Boolean {
-        prefetch()
-        return completedQueue.isNotEmpty()
-    }
-
-    override fun next(): PilerColumn {
-        check(completedQueue.isNotEmpty()) { "no data" }
-        return completedQueue.removeFirst()
-    }
+/**
+ * CRAM reference of a chromosome shared by all of its shards, so that
+ * the chromosome is decoded at most once. The reference is dropped once
+ * the last shard is done.
+ */
+private class SharedReference(chromosome: Chromosome, shards: Int) {
+    private val remaining = AtomicInteger(shards)
 
-    override fun close() = samReader.close()
-
-    private fun prefetch() {
-        while (completedQueue.isEmpty() && samIterator.hasNext()) {
-            val record = samIterator.peek()
-            if (record.readUnmappedFlag
-                || record.isSecondaryOrSupplementary
-                || record.duplicateReadFlag
-                || record.mappingQuality == 0) {  // BWA multi-alignment evidence
-                samIterator.next()
-                continue
-            }
+    @Volatile private var reference: WrappedReferenceSource? =
+            WrappedReferenceSource(chromosome.name, chromosome.sequence)
 
-            completeWaiting(record)
-            samIterator.next()
-            updateWaiting(record)
-        }
+    val source: WrappedReferenceSource get() = reference!!
 
-        if (completedQueue.isEmpty() && !samIterator.hasNext()) {
-            while (waitingQueue.isNotEmpty()) {
-                val pc = waitingQueue.removeAt(0)
-                if (pc.isNotEmpty()) {
-                    completedQueue.addLast(pc)
-                }
-            }
+    fun release() {
+        if (remaining.decrementAndGet() == 0) {
+            reference = null
         }
     }
+}
 
-    private fun completeWaiting(record: SAMRecord) {
-        // Complete piled up columns preceding alignment start.
-        val alignmentStart = record.alignmentStart
-        while (waitingQueue.isNotEmpty()
-               && waitingQueue.get(0).position < alignmentStart) {
-            val pc = waitingQueue.removeAt(0)
-            if (pc.isNotEmpty()) {
-                completedQueue.addLast(pc)
-            }
+/**
+ * Bisulfite pileup for a range of a single chromosome.
+ *
+ * Only the cytosine positions are piled up and the counts are kept
+ * in a ring buffer of primitive counters indexed by reference offset.
+ * Since the reads come sorted by start offset, every position before
+ * the start of the current read is complete and can be handed over to
+ * the [MethylomeBuilder]. The counts are batched, because the builder
+ * is shared by all the shards.
+ *
+ * Only the reads for the strand with a cytosine are counted, see
+ * [BisulfiteBamParser].
+ */
+private class BisulfitePileup(private val chromosome: Chromosome,
+                              private val sequence: NucleotideSequence,
+                              private val from: Int, private val to: Int,
+                              private val builder: MethylomeBuilder,
+                              private val progress: Progress.Incremental) {
+    private var capacity = 1 shl 12
+    private var methylated = IntArray(capacity)
+    private var total = IntArray(capacity)
+
+    /** The first position which isn't yet complete. */
+    private var head = from
+    /** The position past the last one touched by a read. */
+    private var tail = from
+    private var lastStart = 0
+
+    private val batchOffsets = IntArray(BATCH_SIZE)
+    private val batchMethylated = IntArray(BATCH_SIZE)
+    private val batchTotal = IntArray(BATCH_SIZE)
+    private val batchStrands = arrayOfNulls<Strand>(BATCH_SIZE)
+    private val batchContexts = arrayOfNulls<CytosineContext>(BATCH_SIZE)
+    private var batchSize = 0
+
+    fun add(record: SAMRecord) {
+        check(record.alignmentStart >= lastStart) {
+            "Cannot operate on a SAM file that is not coordinate sorted."
         }
-    }
 
-    private fun updateWaiting(record: SAMRecord) {
-        val cigar = record.cigar ?: return
+        lastStart = record.alignmentStart
+        // Complete piled up positions preceding alignment start.
+        complete(record.alignmentStart - 1)
 
-        val alignmentStart = record.alignmentStart
-        var readBase = 1
-        var refBase = alignmentStart
+        val cigar = record.cigar ?: return
+        val bases = record.readBases
+        val negative = record.readNegativeStrandFlag
+        var readBase = 0
+        var refBase = record.alignmentStart - 1
         for (c in 0..cigar.numCigarElements() - 1) {
             val e = cigar.getCigarElement(c)
             val length = e.length
@@ -262,23 +247,10 @@ private class SamPiler(private val samReader: SamReader, chromosome: Chromosome)
                 CigarOperator.D -> refBase += length
                 CigarOperator.I -> readBase += length
                 CigarOperator.M, CigarOperator.EQ, CigarOperator.X -> {
-                    for (i in 0..length - 1) {
-                        // 1-based reference position that the current base aligns to
-                        val refPos = refBase + i
-
-                        // 0-based offset from the aligned position of the first base in
-                        // the read to the aligned position of the current base.
-                        val refOffset = refPos - alignmentStart
-
-                        // Ensure there are columns up to and including this position.
-                        waitingQueue.ensureCapacity(refOffset - waitingQueue.size)
-                        for (j in waitingQueue.size..refOffset) {
-                            waitingQueue.add(PilerColumn(alignmentStart + j))
-                        }
-
-                        // 0-based offset into the read of the current base
-                        val readOffset = readBase + i - 1
-                        waitingQueue[refOffset].add(readOffset, record)
+                    val start = Math.max(refBase, from)
+                    val end = Math.min(refBase + length, to)
+                    for (offset in start..end - 1) {
+                        count(offset, bases[readBase + offset - refBase], negative)
                     }
 
                     readBase += length
@@ -288,37 +260,113 @@ private class SamPiler(private val samReader: SamReader, chromosome: Chromosome)
         }
     }
 
-    companion object {
-        private val LOG = Logger.getLogger(SamPiler::class.java)
+    fun finish() {
+        complete(to)
+        flush()
     }
-}
 
-/**
- * A single piled up column. We deliberately store _only_ the information
- * required for [BisulfiteBamParser] to reduce allocation rate.
- *
- * @author Sergei Lebedev
- * @since 07/07/14
- */
-private data class PilerColumn(val position: Int) {
-    private val bases = TByteArrayList()
+    private fun count(offset: Int, base: Byte, negative: Boolean) {
+        // The strand of the record should match the reference strand,
+        // because otherwise we aren't looking at a cytosine. For the
+        // minus strand the bases are reverse-complementary.
+        val isMethylated = when (sequence.byteAt(offset)) {
+            Nucleotide.C.byte -> if (negative) return else base == C || base == MATCH
+            Nucleotide.G.byte -> if (!negative) return else base == G || base == MATCH
+            else -> return
+        }
+
+        if (base != A && base != C && base != G && base != T && base != MATCH) {
+            return
+        }
+
+        if (offset >= head + capacity) {
+            grow(offset - head + 1)
+        }
+
+        val i = offset and (capacity - 1)
+        if (isMethylated) {
+            methylated[i]++
+        }
 
-    fun add(offset: Int, record: SAMRecord) {
-        val base = record.readBases[offset]
-        assert(base > 0) { "read base should be positive." }
-        bases.add(if (record.readNegativeStrandFlag) (-base).toByte() else base)
+        total[i]++
+        tail = Math.max(tail, offset + 1)
     }
 
-    fun getStrand(i: Int): Strand {
-        return if (bases[i] < 0) Strand.MINUS else Strand.PLUS
+    /** Completes the positions before a given offset. */
+    private fun complete(offset: Int) {
+        val end = Math.min(Math.min(offset, tail), to)
+        for (position in head..end - 1) {
+            val i = position and (capacity - 1)
+            if (total[i] > 0) {
+                emit(position, methylated[i], total[i])
+                methylated[i] = 0
+                total[i] = 0
+            }
+        }
+
+        head = Math.max(head, Math.min(offset, to))
+        tail = Math.max(tail, head)
     }
 
-    fun getReadBase(i: Int): Byte {
-        val base = bases[i]
-        return if (base < 0) (-base).toByte() else base
+    private fun grow(required: Int) {
+        var newCapacity = capacity
+        while (newCapacity < required) {
+            newCapacity = newCapacity shl 1
+        }
+
+        val newMethylated = IntArray(newCapacity)
+        val newTotal = IntArray(newCapacity)
+        for (position in head..tail - 1) {
+            val i = position and (capacity - 1)
+            val j = position and (newCapacity - 1)
+            newMethylated[j] = methylated[i]
+            newTotal[j] = total[i]
+        }
+
+        capacity = newCapacity
+        methylated = newMethylated
+        total = newTotal
     }
 
-    fun size(): Int = bases.size()
+    private fun emit(offset: Int, methylatedCount: Int, totalCount: Int) {
+        if (batchSize == BATCH_SIZE) {
+            flush()
+        }
+
+        // The context is determined right away, while the reference
+        // window is still around the offset.
+        val strand = if (sequence.byteAt(offset) == Nucleotide.C.byte) Strand.PLUS else Strand.MINUS
+        batchOffsets[batchSize] = offset
+        batchStrands[batchSize] = strand
+        batchContexts[batchSize] = CytosineContext.determine(sequence, offset, strand)
+        batchMethylated[batchSize] = methylatedCount
+        batchTotal[batchSize] = totalCount
+        batchSize++
+    }
 
-    fun isNotEmpty(): Boolean = !bases.isEmpty
+    private fun flush() {
+        if (batchSize == 0) {
+            return
+        }
+
+        synchronized(builder) {
+            for (i in 0..batchSize - 1) {
+                builder.add(chromosome, batchStrands[i]!!, batchOffsets[i], batchContexts[i],
+                            batchMethylated[i], batchTotal[i])
+            }
+        }
+
+        progress.report(batchSize.toLong())
+        batchSize = 0
+    }
+
+    companion object {
+        private const val BATCH_SIZE = 1 shl 14
+
+        private const val A = 'A'.toByte()
+        private const val C = 'C'.toByte()
+        private const val G = 'G'.toByte()
+        private const val T = 'T'.toByte()
+        private const val MATCH = '='.toByte()
+    }
 }
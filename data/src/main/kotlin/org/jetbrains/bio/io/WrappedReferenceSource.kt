@@ -2,6 +2,7 @@ package org.jetbrains.bio.io
 
 import htsjdk.samtools.SAMSequenceRecord
 import htsjdk.samtools.cram.ref.ReferenceSource
+import org.jetbrains.bio.genome.sequence.Nucleotide
 import org.jetbrains.bio.genome.sequence.NucleotideSequence
 import java.util.*
 
@@ -12,9 +13,18 @@ import java.util.*
 internal class WrappedReferenceSource(private val name: String,
                                       sequence: NucleotideSequence) : ReferenceSource() {
 
-    // XXX please keep lazy to reduce memory consumption.
-    private val bytes: ByteArray by lazy(LazyThreadSafetyMode.PUBLICATION) {
-        sequence.toString().toByteArray()
+    // XXX please keep lazy to reduce memory consumption. The source is
+    // shared by concurrent readers, so the bytes are decoded only once.
+    private val bytes: ByteArray by lazy {
+        // Decode straight into bytes, a string would take twice as much.
+        val length = sequence.length()
+        val bytes = ByteArray(length)
+        sequence.getBytes(0, length, bytes)
+        for (i in 0..length - 1) {
+            bytes[i] = Nucleotide.getChar(bytes[i]).toByte()
+        }
+
+        bytes
     }
 
     override fun getReferenceBases(record: SAMSequenceRecord,
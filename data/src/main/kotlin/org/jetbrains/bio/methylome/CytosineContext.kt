@@ -38,11 +38,29 @@ enum class CytosineContext private constructor(@JvmField val tag: Byte) {
 
         @JvmStatic fun determine(sequence: NucleotideSequence,
                                  offset: Int, strand: Strand): CytosineContext? {
-            val seqLength = sequence.length()
+            return determine(offset, sequence.length(), strand) { sequence.byteAt(it, strand) }
+        }
+
+        /**
+         * Same as above, but for a sequence decoded into [Nucleotide.byte]
+         * codes, e.g. with [NucleotideSequence.getBytes].
+         */
+        @JvmStatic fun determine(bytes: ByteArray,
+                                 offset: Int, strand: Strand): CytosineContext? {
+            return determine(offset, bytes.size, strand) {
+                if (strand.isPlus()) bytes[it] else Nucleotide.complement(bytes[it])
+            }
+        }
+
+        /**
+         * [byteAt] returns the nucleotide at a given offset on [strand].
+         */
+        private inline fun determine(offset: Int, seqLength: Int, strand: Strand,
+                                     byteAt: (Int) -> Byte): CytosineContext? {
             val direction = if (strand === Strand.PLUS) 1 else -1
 
             // 1-st nucleotide
-            val nucleotide1 = sequence.byteAt(offset, strand)
+            val nucleotide1 = byteAt(offset)
             if (nucleotide1 != Nucleotide.C.byte) {
                 return ANY
             }
@@ -52,7 +70,7 @@ enum class CytosineContext private constructor(@JvmField val tag: Byte) {
             if (nucleotide2Offset < 0 || nucleotide2Offset >= seqLength) {
                 return ANY
             }
-            val nucleotide2 = sequence.byteAt(nucleotide2Offset, strand)
+            val nucleotide2 = byteAt(nucleotide2Offset)
             if (nucleotide2 == Nucleotide.G.byte) {
                 return CG
             }
@@ -62,7 +80,7 @@ enum class CytosineContext private constructor(@JvmField val tag: Byte) {
             if (nucleotide3Offset < 0 || nucleotide3Offset >= seqLength) {
                 return ANY
             }
-            val nucleotide3 = sequence.byteAt(nucleotide3Offset, strand)
+            val nucleotide3 = byteAt(nucleotide3Offset)
             // CHG
             if (nucleotide3 == Nucleotide.G.byte) {
                 // H - unknown (N)
@@ -78,4 +96,4 @@ enum class CytosineContext private constructor(@JvmField val tag: Byte) {
             return CHH
         }
     }
-}
\ No newline at end of file
+}
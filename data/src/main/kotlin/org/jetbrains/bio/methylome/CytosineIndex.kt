@@ -0,0 +1,203 @@
+package org.jetbrains.bio.methylome
+
+import com.google.common.cache.Cache
+import com.google.common.cache.CacheBuilder
+import com.google.common.util.concurrent.UncheckedExecutionException
+import gnu.trove.list.array.TIntArrayList
+import org.jetbrains.bio.data.frame.DataFrame
+import org.jetbrains.bio.ext.checkOrRecalculate
+import org.jetbrains.bio.ext.div
+import org.jetbrains.bio.genome.Chromosome
+import org.jetbrains.bio.genome.Genome
+import org.jetbrains.bio.genome.Strand
+import org.jetbrains.bio.genome.sequence.Nucleotide
+import org.jetbrains.bio.genome.sequence.NucleotideSequence
+import org.jetbrains.bio.genome.sequence.ReferenceWindow
+import org.jetbrains.bio.npy.NpzFile
+import org.jetbrains.bio.util.Configuration
+import java.nio.file.Path
+import java.util.*
+import java.util.concurrent.ExecutionException
+
+/**
+ * Positions of the cytosines on a single chromosome strand, grouped
+ * by [CytosineContext].
+ *
+ * For each context the index stores sorted cytosine offsets, so the
+ * index of an offset in the array is the number of cytosines of that
+ * context preceding it. Counting cytosines in a range or determining
+ * the context of a position is thus a binary search, no matter how
+ * long the range is.
+ *
+ * The index is computed once per genome and cached in
+ * [Configuration.cachePath], see [CytosineIndex.of].
+ */
+class CytosineIndex internal constructor(
+        /** Sorted offsets indexed by [CytosineContext.ordinal]. */
+        private val offsets: Array<IntArray>) {
+
+    init {
+        require(offsets.size == CytosineContext.values().size)
+    }
+
+    /** Returns sorted offsets of the cytosines in a given context. */
+    operator fun get(context: CytosineContext): IntArray = offsets[context.ordinal]
+
+    /**
+     * Returns the number of cytosines in `[startOffset, endOffset)`.
+     *
+     * Unlike [CytosineContext.ANY] in [MethylomeStats.countCytosines],
+     * `null` here only counts cytosines with a defined context.
+     */
+    fun count(startOffset: Int, endOffset: Int, context: CytosineContext?): Int {
+        if (context == null) {
+            return offsets.sumBy { count(it, startOffset, endOffset) }
+        }
+
+        return count(offsets[context.ordinal], startOffset, endOffset)
+    }
+
+    /**
+     * Returns the context of a cytosine at a given offset or `null`
+     * if the offset isn't a cytosine or the context is undefined.
+     */
+    fun contextAt(offset: Int): CytosineContext? {
+        for (context in CytosineContext.values()) {
+            if (Arrays.binarySearch(offsets[context.ordinal], offset) >= 0) {
+                return context
+            }
+        }
+
+        return null
+    }
+
+    /**
+     * Returns a data frame with `"offset"` and `"tag"` columns for the
+     * cytosines in a given context or all of them if [context] is `null`.
+     */
+    fun peel(context: CytosineContext?): DataFrame {
+        val contexts = if (context == null) CytosineContext.values() else arrayOf(context)
+        val size = contexts.sumBy { offsets[it.ordinal].size }
+        val mergedOffsets = IntArray(size)
+        val tags = ByteArray(size)
+        val cursors = IntArray(contexts.size)
+        for (i in 0..size - 1) {
+            // A linear merge, there are at most three contexts.
+            var next = -1
+            for (j in contexts.indices) {
+                val data = offsets[contexts[j].ordinal]
+                if (cursors[j] < data.size &&
+                    (next == -1 || data[cursors[j]] < offsets[contexts[next].ordinal][cursors[next]])) {
+                    next = j
+                }
+            }
+
+            mergedOffsets[i] = offsets[contexts[next].ordinal][cursors[next]++]
+            tags[i] = contexts[next].tag
+        }
+
+        return DataFrame()
+                .with("offset", mergedOffsets)
+                .with("tag", tags)
+    }
+
+    internal fun save(key: String, writer: NpzFile.Writer) {
+        for (context in CytosineContext.values()) {
+            writer.write("$key/$context", offsets[context.ordinal])
+        }
+    }
+
+    companion object {
+        /** Binary format version. */
+        private const val VERSION = 1
+
+        private val CACHE: Cache<Pair<Chromosome, Strand>, CytosineIndex> =
+                CacheBuilder.newBuilder()
+                        .softValues()
+                        .build<Pair<Chromosome, Strand>, CytosineIndex>()
+
+        /**
+         * Returns the index for a given [chromosome] and [strand].
+         *
+         * The first call for a genome scans the whole of it and might
+         * take a while.
+         */
+        @JvmStatic fun of(chromosome: Chromosome, strand: Strand): CytosineIndex {
+            try {
+                return CACHE.get(chromosome to strand) {
+                    val path = getPath(chromosome.genome)
+                    path.checkOrRecalculate("Cytosine index") { output ->
+                        output.let { write(it, chromosome.genome.chromosomes) }
+                    }
+
+                    read(path, chromosome, strand)
+                }
+            } catch (e: UncheckedExecutionException) {
+                throw e.cause ?: e
+            } catch (e: ExecutionException) {
+                throw e.cause ?: e
+            }
+        }
+
+        internal fun getPath(genome: Genome): Path {
+            return Configuration.cachePath / "cytosines" / "${genome.build}.npz"
+        }
+
+        internal fun write(path: Path, chromosomes: List<Chromosome>) {
+            NpzFile.write(path).use { writer ->
+                writer.write("version", intArrayOf(VERSION))
+                for (chromosome in chromosomes) {
+                    for (strand in Strand.values()) {
+                        build(chromosome.sequence, strand)
+                                .save((chromosome to strand).toKey(), writer)
+                    }
+                }
+            }
+        }
+
+        internal fun read(path: Path, chromosome: Chromosome, strand: Strand): CytosineIndex {
+            NpzFile.read(path).use { reader ->
+                val version = (reader["version"] as IntArray).single()
+                require(version == VERSION) {
+                    "cytosine index version is $version instead of $VERSION"
+                }
+
+                val key = (chromosome to strand).toKey()
+                return CytosineIndex(Array(CytosineContext.values().size) {
+                    reader["$key/${CytosineContext.values()[it]}"] as IntArray
+                })
+            }
+        }
+
+        /** Scans a given sequence for cytosines on a given strand. */
+        internal fun build(sequence: NucleotideSequence, strand: Strand): CytosineIndex {
+            val acc = Array(CytosineContext.values().size) { TIntArrayList() }
+            // Cytosines on the minus strand are guanines on the plus strand.
+            val cytosine = if (strand.isPlus()) Nucleotide.C.byte else Nucleotide.G.byte
+            val window = ReferenceWindow(sequence)
+            for (offset in 0..window.length() - 1) {
+                if (window.byteAt(offset) == cytosine) {
+                    val context = CytosineContext.determine(window, offset, strand)
+                    if (context != null) {
+                        acc[context.ordinal].add(offset)
+                    }
+                }
+            }
+
+            return CytosineIndex(Array(acc.size) { acc[it].toArray() })
+        }
+
+        private fun count(offsets: IntArray, startOffset: Int, endOffset: Int): Int {
+            return lowerBound(offsets, endOffset) - lowerBound(offsets, startOffset)
+        }
+
+        /** Returns the index of the first offset not less than a given one. */
+        private fun lowerBound(offsets: IntArray, offset: Int): Int {
+            // Offsets are unique, so any match is the lower bound.
+            val i = Arrays.binarySearch(offsets, offset)
+            return if (i < 0) i.inv() else i
+        }
+
+        private fun Pair<Chromosome, Strand>.toKey() = "${first.name}/$second"
+    }
+}
@@ -1,7 +1,12 @@
 package org.jetbrains.bio.methylome
 
 import com.google.common.base.MoreObjects
+import com.google.common.cache.Cache
+import com.google.common.cache.CacheBuilder
+import com.google.common.cache.Weigher
+import com.google.common.primitives.Ints
 import com.google.common.primitives.Shorts
+import com.google.common.util.concurrent.UncheckedExecutionException
 import org.jetbrains.bio.genome.Chromosome
 import org.jetbrains.bio.genome.Strand
 import org.jetbrains.bio.genome.containers.GenomeMap
@@ -10,7 +15,8 @@ import org.jetbrains.bio.genome.query.GenomeQuery
 import org.jetbrains.bio.npy.NpzFile
 import java.io.IOException
 import java.nio.file.Path
-import java.util.*
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.atomic.AtomicLong
 
 /**
  * A container for WGBS data.
@@ -23,10 +29,7 @@ import java.util.*
  * @author Sergei Lebedev
  * @since 14/04/14
  */
-open class Methylome internal constructor(
-        val genomeQuery: GenomeQuery,
-        private val plusData: GenomeMap<MethylomeFrame>,
-        private val minusData: GenomeMap<MethylomeFrame>) {
+abstract class Methylome internal constructor(val genomeQuery: GenomeQuery) {
 
     operator fun get(chromosome: Chromosome, strand: Strand): StrandMethylomeView {
         return StrandMethylomeView(getInternal(chromosome, strand))
@@ -40,9 +43,7 @@ open class Methylome internal constructor(
     /**
      * Returns the frame corresponding to a given [chromosome] and [strand].
      */
-    internal open fun getInternal(chromosome: Chromosome, strand: Strand): MethylomeFrame {
-        return strand.choose(plusData, minusData)[chromosome]
-    }
+    internal abstract fun getInternal(chromosome: Chromosome, strand: Strand): MethylomeFrame
 
     fun size() = genomeQuery.get().map { getCombined(it).size() }.sum()
 
@@ -80,43 +81,95 @@ open class Methylome internal constructor(
     }
 }
 
+/** A methylome with all the data in memory. */
+private class EagerMethylome(genomeQuery: GenomeQuery,
+                             private val plusData: GenomeMap<MethylomeFrame>,
+                             private val minusData: GenomeMap<MethylomeFrame>)
+:
+        Methylome(genomeQuery) {
+
+    override fun getInternal(chromosome: Chromosome, strand: Strand): MethylomeFrame {
+        return strand.choose(plusData, minusData)[chromosome]
+    }
+}
+
 /**
  * A methylome which loads its data on demand.
  *
- * The current implementation *never* invalidates the loaded entries.
+ * Loaded frames of all the lazy methylomes share a single LRU cache,
+ * bounded by the `methylome.max.resident.bytes` system property, which
+ * defaults to a quarter of the maximum heap size. Evicted frames are
+ * re-read from [inputPath] on next access. Concurrent requests for the
+ * same frame wait for a single load.
  */
 private class LazyMethylome(genomeQuery: GenomeQuery,
                             private val inputPath: Path)
 :
-        Methylome(genomeQuery, frameMap(genomeQuery), frameMap(genomeQuery)) {
+        Methylome(genomeQuery) {
 
-    private val plusMask: BitSet
-    private val minusMask: BitSet
+    /**
+     * Identifies this methylome in [FRAMES]. Unlike the methylome itself
+     * the id doesn't keep it reachable while its frames are cached.
+     */
+    private val id = NEXT_ID.getAndIncrement()
 
-    init {
-        val numChromosomes = genomeQuery.genome.chromosomes.size
-        plusMask = BitSet(numChromosomes)
-        minusMask = BitSet(numChromosomes)
-    }
+    private data class FrameKey(val id: Long,
+                                val chromosome: Chromosome,
+                                val strand: Strand)
 
     override fun getInternal(chromosome: Chromosome, strand: Strand): MethylomeFrame {
-        val mask = strand.choose(plusMask, minusMask)
-        val frame = super.getInternal(chromosome, strand)
-        if (!mask[chromosome.id]) {
-            NpzFile.read(inputPath).use { reader ->
-                val version = (reader["version"] as IntArray).single()
-                require(version == Methylome.VERSION) {
-                    "methylome version is $version instead of ${Methylome.VERSION}"
-                }
+        return FRAMES.get(FrameKey(id, chromosome, strand)) { load(chromosome, strand) }
+    }
 
-                frame.load((chromosome to strand).toKey(), reader)
+    private fun load(chromosome: Chromosome, strand: Strand): MethylomeFrame {
+        val frame = MethylomeFrame()
+        NpzFile.read(inputPath).use { reader ->
+            val version = (reader["version"] as IntArray).single()
+            require(version == Methylome.VERSION) {
+                "methylome version is $version instead of ${Methylome.VERSION}"
             }
 
-            mask.set(chromosome.id)
+            frame.load((chromosome to strand).toKey(), reader)
         }
 
         return frame
     }
+
+    companion object {
+        private val NEXT_ID = AtomicLong()
+
+        private val MAX_RESIDENT_BYTES = java.lang.Long.getLong(
+                "methylome.max.resident.bytes", Runtime.getRuntime().maxMemory() / 4)
+
+        private val FRAMES = FrameCache<FrameKey>(MAX_RESIDENT_BYTES)
+    }
+}
+
+/**
+ * An LRU cache of frames bounded by their total size in bytes.
+ *
+ * The cache has a single segment: Guava splits the weight budget
+ * between the segments, so with several of them a frame larger than
+ * a segment's share would be evicted right after being loaded.
+ */
+internal class FrameCache<K : Any>(maxResidentBytes: Long) {
+    private val cache: Cache<K, MethylomeFrame> = CacheBuilder.newBuilder()
+            .concurrencyLevel(1)
+            .maximumWeight(maxResidentBytes)
+            .weigher(Weigher<K, MethylomeFrame> { key, frame ->
+                Ints.saturatedCast(frame.byteSize())
+            })
+            .build<K, MethylomeFrame>()
+
+    fun get(key: K, load: () -> MethylomeFrame): MethylomeFrame {
+        try {
+            return cache.get(key) { load() }
+        } catch (e: UncheckedExecutionException) {
+            throw e.cause ?: e
+        } catch (e: ExecutionException) {
+            throw e.cause ?: e
+        }
+    }
 }
 
 private fun frameMap(genomeQuery: GenomeQuery): GenomeMap<MethylomeFrame> {
@@ -159,6 +212,6 @@ class MethylomeBuilder(private val genomeQuery: GenomeQuery) {
             }
         }
 
-        return Methylome(genomeQuery, plusData, minusData)
+        return EagerMethylome(genomeQuery, plusData, minusData)
     }
 }
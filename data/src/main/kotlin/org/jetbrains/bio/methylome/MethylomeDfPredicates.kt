@@ -5,35 +5,31 @@ import org.jetbrains.bio.data.frame.*
 /**
  * @author Roman.Chernyatchik
  */
-fun byPatternOptional(ptn: CytosineContext?): RowPredicateFactory {
-    val all = predicate { true }
+fun byPatternOptional(ptn: CytosineContext?): ColumnPredicate {
+    val all = ColumnPredicate.constant(true)
     return when (ptn) {
         null -> all;
-        else -> RowPredicateFactory { df ->
-            when {
-                "tag" in df.labels -> byPattern(ptn)(df)
-                else -> all(df)
+        else -> {
+            val pattern = byPattern(ptn)
+            object : ColumnPredicate() {
+                override fun words(df: DataFrame, startRow: Int, endRow: Int) = when {
+                    "tag" in df.labels -> pattern.words(df, startRow, endRow)
+                    else -> all.words(df, startRow, endRow)
+                }
             }
         }
     }
 }
 
-fun byPattern(ptn: CytosineContext): RowPredicateFactory {
-    val tag = ptn.tag
-    return byByte("tag") { it == tag}
-}
+fun byPattern(ptn: CytosineContext) = ColumnPredicate.compare("tag", Comparison.EQ, ptn.tag.toLong())
 
-fun covered()
-        = byShort("n") { it != 0.toShort() }
+fun covered() = ColumnPredicate.compare("n", Comparison.NE, 0L)
 
-fun covered(replicateId: Int)
-        = byShort("n$replicateId".intern()) { it != 0.toShort() }
+fun covered(replicateId: Int) = ColumnPredicate.compare("n$replicateId".intern(), Comparison.NE, 0L)
 
-fun controlFdr(alpha: Double)
-        = byDouble("qvalue") { it <= alpha}
+fun controlFdr(alpha: Double) = ColumnPredicate.compare("qvalue", Comparison.LE, alpha)
 
-fun withMcReads()
-        = byShort("k") { it != 0.toShort()}
+fun withMcReads() = ColumnPredicate.compare("k", Comparison.NE, 0L)
 
 inline fun byOffset(crossinline offsetPredicate: (Int) -> Boolean)
         = byInt("offset", offsetPredicate)
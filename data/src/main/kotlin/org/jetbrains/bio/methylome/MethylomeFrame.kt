@@ -94,6 +94,9 @@ internal class MethylomeFrame {
 
     fun size() = size
 
+    /** Approximate heap footprint of the frame. */
+    fun byteSize(): Long = offsets.size.toLong() * (4 + 1 + 2 + 2)
+
     override fun equals(other: Any?): Boolean = when {
         this === other -> true
         other == null || other !is MethylomeFrame -> false
@@ -28,10 +28,11 @@ data class ChromosomeMethylomeView internal constructor(
         private val frameMinus: MethylomeFrame) : MethylomeView {
 
     override fun peel(): DataFrame {
-        val df = DataFrame.rowBind(
+        // Both frames are sorted, no need to reorder the result.
+        return DataFrame.mergeSorted(
+                "offset",
                 framePlus.peel().with("strand", "+"),
                 frameMinus.peel().with("strand", "-"))
-        return df.reorder("offset")
     }
 
     override fun size() = framePlus.size() + frameMinus.size()
@@ -2,6 +2,8 @@ package org.jetbrains.bio.methylome.strategies
 
 import org.jetbrains.bio.genome.Chromosome
 import org.jetbrains.bio.genome.Location
+import org.jetbrains.bio.genome.Range
+import org.jetbrains.bio.genome.Strand
 import org.jetbrains.bio.genome.StrandFilter
 import org.jetbrains.bio.methylome.CytosineContext
 import org.jetbrains.bio.methylome.MethylomeQuery
@@ -23,7 +25,6 @@ class CFreq(private val cContextFilter: CytosineContext?) : McStatStrategy<McSta
 
     override fun test(sampleId: Int, samplesData: McStatStrategy.Data, vararg locations: Location): Double {
         val locSize = locations.firstOrNull()?.length() ?: -1;
-        val sequence = samplesData.chromosome.sequence
 
         var cCount = 0L
         for (location in locations) {
@@ -32,10 +33,17 @@ class CFreq(private val cContextFilter: CytosineContext?) : McStatStrategy<McSta
 
             cCount += MethylomeStats.countCytosines(location.startOffset,
                                                     location.endOffset,
-                                                    sequence,
+                                                    samplesData.chromosome,
                                                     location.strand,
                                                     cContextFilter)
         }
         return cCount.toDouble() / (locSize.toDouble() * locations.size);
     }
+
+    override fun testAll(sampleId: Int, samplesData: McStatStrategy.Data,
+                         strand: Strand, ranges: Array<Range>): DoubleArray {
+        val cCounts = RangeSweep.countCytosines(samplesData.chromosome, strand,
+                                                cContextFilter, ranges)
+        return DoubleArray(ranges.size) { cCounts[it].toDouble() / ranges[it].length() }
+    }
 }
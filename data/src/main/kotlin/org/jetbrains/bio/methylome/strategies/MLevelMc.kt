@@ -3,6 +3,8 @@ package org.jetbrains.bio.methylome.strategies
 import org.jetbrains.bio.data.frame.all
 import org.jetbrains.bio.genome.Chromosome
 import org.jetbrains.bio.genome.Location
+import org.jetbrains.bio.genome.Range
+import org.jetbrains.bio.genome.Strand
 import org.jetbrains.bio.genome.StrandFilter
 import org.jetbrains.bio.methylome.*
 import java.util.stream.IntStream
@@ -46,4 +48,21 @@ class MLevelMc(private val mcContextFilter: CytosineContext? = null) : McStatStr
 
         return if (mcCount == 0L) Double.NaN else summaryMlevel / mcCount.toDouble();
     }
+
+    override fun testAll(sampleId: Int, samplesData: MethylomesData,
+                         strand: Strand, ranges: Array<Range>): DoubleArray {
+        val mcDf = samplesData[strand, sampleId]
+        val (startRows, endRows) = RangeSweep.rows(mcDf, ranges)
+        val coveredWithTag = all(byPatternOptional(mcContextFilter), covered())
+        val mcCounts = RangeSweep.prefixCounts(mcDf, coveredWithTag)
+        val mcLevels = RangeSweep.prefixSums(mcDf, "level", coveredWithTag)
+        return DoubleArray(ranges.size) {
+            val mcCount = mcCounts[endRows[it]] - mcCounts[startRows[it]]
+            if (mcCount == 0) {
+                Double.NaN
+            } else {
+                (mcLevels[endRows[it]] - mcLevels[startRows[it]]) / mcCount
+            }
+        }
+    }
 }
@@ -3,6 +3,8 @@ package org.jetbrains.bio.methylome.strategies
 import org.jetbrains.bio.data.frame.all
 import org.jetbrains.bio.genome.Chromosome
 import org.jetbrains.bio.genome.Location
+import org.jetbrains.bio.genome.Range
+import org.jetbrains.bio.genome.Strand
 import org.jetbrains.bio.genome.StrandFilter
 import org.jetbrains.bio.methylome.*
 
@@ -24,7 +26,6 @@ class McC(private val mcContextFilter: CytosineContext? = null) : McStatStrategy
         var cCount = 0
         var mcCount = 0L
 
-        val sequence = samplesData.chromosome.sequence
         for (location in locations) {
             require(location.chromosome == samplesData.chromosome)
 
@@ -34,7 +35,7 @@ class McC(private val mcContextFilter: CytosineContext? = null) : McStatStrategy
             val rows = MethylomeStats.binarySearch(mcDf, startOffset, endOffset)
             cCount += MethylomeStats.countCytosines(startOffset,
                                                     endOffset,
-                                                    sequence,
+                                                    samplesData.chromosome,
                                                     location.strand,
                                                     mcContextFilter)
 
@@ -44,4 +45,18 @@ class McC(private val mcContextFilter: CytosineContext? = null) : McStatStrategy
 
         return if (cCount == 0) Double.NaN else mcCount.toDouble() / cCount.toDouble();
     }
+
+    override fun testAll(sampleId: Int, samplesData: MethylomesData,
+                         strand: Strand, ranges: Array<Range>): DoubleArray {
+        val mcDf = samplesData[strand, sampleId]
+        val (startRows, endRows) = RangeSweep.rows(mcDf, ranges)
+        val mcCounts = RangeSweep.prefixCounts(
+                mcDf, all(byPatternOptional(mcContextFilter), withMcReads()))
+        val cCounts = RangeSweep.countCytosines(samplesData.chromosome, strand,
+                                                mcContextFilter, ranges)
+        return DoubleArray(ranges.size) {
+            val mcCount = mcCounts[endRows[it]] - mcCounts[startRows[it]]
+            if (cCounts[it] == 0) Double.NaN else mcCount.toDouble() / cCounts[it]
+        }
+    }
 }
@@ -3,6 +3,8 @@ package org.jetbrains.bio.methylome.strategies
 import org.jetbrains.bio.data.frame.all
 import org.jetbrains.bio.genome.Chromosome
 import org.jetbrains.bio.genome.Location
+import org.jetbrains.bio.genome.Range
+import org.jetbrains.bio.genome.Strand
 import org.jetbrains.bio.genome.StrandFilter
 import org.jetbrains.bio.methylome.*
 
@@ -35,4 +37,16 @@ class McFreq(private val mcContextFilter: CytosineContext?) : McStatStrategy<Met
         }
         return mcCount.toDouble() / (locSize.toDouble() * locations.size);
     }
+
+    override fun testAll(sampleId: Int, samplesData: MethylomesData,
+                         strand: Strand, ranges: Array<Range>): DoubleArray {
+        val mcDf = samplesData[strand, sampleId]
+        val (startRows, endRows) = RangeSweep.rows(mcDf, ranges)
+        val mcCounts = RangeSweep.prefixCounts(
+                mcDf, all(byPatternOptional(mcContextFilter), withMcReads()))
+        return DoubleArray(ranges.size) {
+            val mcCount = mcCounts[endRows[it]] - mcCounts[startRows[it]]
+            mcCount.toDouble() / ranges[it].length()
+        }
+    }
 }
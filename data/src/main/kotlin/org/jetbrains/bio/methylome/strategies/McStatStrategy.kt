@@ -2,6 +2,8 @@ package org.jetbrains.bio.methylome.strategies
 
 import org.jetbrains.bio.genome.Chromosome
 import org.jetbrains.bio.genome.Location
+import org.jetbrains.bio.genome.Range
+import org.jetbrains.bio.genome.Strand
 import org.jetbrains.bio.genome.StrandFilter
 import org.jetbrains.bio.methylome.MethylomeQuery
 
@@ -38,6 +40,26 @@ interface McStatStrategy<T : McStatStrategy.Data> {
              samplesData: T,
              vararg locations: Location): Double
 
+    /**
+     * Computes the statistic for each of the [ranges] on a given
+     * [strand] of [Data.chromosome]. The ranges must be sorted both
+     * by start and by end offset, e.g. bins.
+     *
+     * Equivalent to calling [test] for each range, but the
+     * implementations process all the ranges in a single pass.
+     */
+    fun testAll(sampleId: Int,
+                samplesData: T,
+                strand: Strand,
+                ranges: Array<Range>): DoubleArray {
+        val chromosome = samplesData.chromosome
+        return DoubleArray(ranges.size) {
+            val range = ranges[it]
+            test(sampleId, samplesData,
+                 Location(range.startOffset, range.endOffset, chromosome, strand))
+        }
+    }
+
     open class Data(val chromosome: Chromosome) {
     }
 }
@@ -0,0 +1,137 @@
+package org.jetbrains.bio.methylome.strategies
+
+import org.jetbrains.bio.data.frame.ColumnPredicate
+import org.jetbrains.bio.data.frame.DataFrame
+import org.jetbrains.bio.genome.Chromosome
+import org.jetbrains.bio.genome.Range
+import org.jetbrains.bio.genome.Strand
+import org.jetbrains.bio.genome.sequence.Nucleotide
+import org.jetbrains.bio.methylome.CytosineContext
+import org.jetbrains.bio.methylome.CytosineIndex
+import org.jetbrains.bio.methylome.MethylomeStats
+
+/**
+ * Kernels shared by the batch implementations of [McStatStrategy.testAll].
+ *
+ * Ranges are expected to be sorted both by start and by end offset,
+ * which is the case for bins or any other non-nested ranges. This
+ * allows to find the rows of all the ranges in a single merge pass
+ * over the sorted offsets.
+ */
+internal object RangeSweep {
+    /**
+     * Returns the row bounds of each range in a data frame sorted
+     * on `"offset"`, see [rows] below.
+     */
+    fun rows(df: DataFrame, ranges: Array<Range>) = rows(df.sliceAsInt("offset"), ranges)
+
+    /**
+     * Returns the bounds of each range in sorted [offsets]. The offsets
+     * within range `i` are `[startRows[i], endRows[i])`.
+     */
+    fun rows(offsets: IntArray, ranges: Array<Range>): Pair<IntArray, IntArray> {
+        val startRows = IntArray(ranges.size)
+        val endRows = IntArray(ranges.size)
+        var start = 0
+        var end = 0
+        for (i in ranges.indices) {
+            val range = ranges[i]
+            if (i > 0) {
+                require(range.startOffset >= ranges[i - 1].startOffset &&
+                        range.endOffset >= ranges[i - 1].endOffset) {
+                    "ranges must be sorted, got ${ranges[i - 1]} and $range"
+                }
+            }
+
+            while (start < offsets.size && offsets[start] < range.startOffset) {
+                start++
+            }
+
+            end = Math.max(end, start)
+            while (end < offsets.size && offsets[end] < range.endOffset) {
+                end++
+            }
+
+            startRows[i] = start
+            endRows[i] = end
+        }
+
+        return startRows to endRows
+    }
+
+    /**
+     * Returns the number of cytosines in each of the ranges, same as
+     * [MethylomeStats.countCytosines].
+     *
+     * Cytosines of a given context are counted in a single pass over
+     * the [CytosineIndex] offsets. Any cytosines, including the ones
+     * with undefined context, are counted from the composition of the
+     * sequence between consecutive range bounds, so the sequence is
+     * scanned at most twice no matter how much the ranges overlap.
+     */
+    fun countCytosines(chromosome: Chromosome, strand: Strand,
+                       context: CytosineContext?, ranges: Array<Range>): IntArray {
+        if (context != null) {
+            val (startRows, endRows) = rows(CytosineIndex.of(chromosome, strand)[context], ranges)
+            return IntArray(ranges.size) { endRows[it] - startRows[it] }
+        }
+
+        // Cytosines on the minus strand are guanines on the plus strand.
+        val cytosine = (if (strand.isPlus()) Nucleotide.C else Nucleotide.G).byte.toInt()
+        val sequence = chromosome.sequence
+        val counts = IntArray(ranges.size)
+        // Cytosines in '[origin, start)' and '[origin, end)' respectively.
+        var start = ranges.firstOrNull()?.startOffset ?: 0
+        var end = start
+        var startCount = 0
+        var endCount = 0
+        for (i in ranges.indices) {
+            val range = ranges[i]
+            require(range.startOffset >= start && range.endOffset >= end) {
+                "ranges must be sorted, got ${ranges[i - 1]} and $range"
+            }
+
+            startCount += sequence.composition(start, range.startOffset)[cytosine]
+            start = range.startOffset
+            endCount += sequence.composition(end, range.endOffset)[cytosine]
+            end = range.endOffset
+            counts[i] = endCount - startCount
+        }
+
+        return counts
+    }
+
+    /**
+     * Returns prefix counts of the rows matching [predicate], i.e.
+     * element `i` is the number of matching rows before row `i`.
+     */
+    fun prefixCounts(df: DataFrame, predicate: ColumnPredicate): IntArray {
+        val rowsNumber = df.rowsNumber
+        val words = predicate.words(df, 0, rowsNumber)
+        val acc = IntArray(rowsNumber + 1)
+        for (row in 0..rowsNumber - 1) {
+            acc[row + 1] = acc[row] + (words[row ushr 6] ushr row and 1L).toInt()
+        }
+
+        return acc
+    }
+
+    /**
+     * Returns prefix sums of a float column over the rows matching
+     * [predicate], see [prefixCounts].
+     */
+    fun prefixSums(df: DataFrame, label: String, predicate: ColumnPredicate): DoubleArray {
+        val rowsNumber = df.rowsNumber
+        val words = predicate.words(df, 0, rowsNumber)
+        val values = df.sliceAsFloat(label)
+        val acc = DoubleArray(rowsNumber + 1)
+        for (row in 0..rowsNumber - 1) {
+            acc[row + 1] = acc[row]
+            if (words[row ushr 6] ushr row and 1L != 0L) {
+                acc[row + 1] += values[row].toDouble()
+            }
+        }
+
+        return acc
+    }
+}
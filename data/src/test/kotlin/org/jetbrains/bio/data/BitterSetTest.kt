@@ -48,4 +48,66 @@ class BitterSetTest {
         assertTrue(bs[1] && bs[2])
         assertTrue(bs[11])
     }
+
+    @Test fun plusSameAsBitwise() {
+        val r = Random(42)
+        for (i in 0..99) {
+            val bs1 = BitterSet.of(r.nextInt(200)) { r.nextBoolean() }
+            val bs2 = BitterSet.of(r.nextInt(200)) { r.nextBoolean() }
+            val expected = BitterSet.of(bs1.size() + bs2.size()) {
+                if (it < bs1.size()) bs1[it] else bs2[it - bs1.size()]
+            }
+
+            assertEquals(expected, bs1 + bs2)
+        }
+    }
+
+    @Test fun orWithOffset() {
+        val bs = BitterSet(200)
+        bs.set(0)
+        bs.or(BitterSet.of(70) { it == 0 || it == 69 }, 63)
+        assertEquals(listOf(0, 63, 132), bs.indices().toList())
+    }
+
+    @Test fun concatenateAlternating() {
+        // Runs of a single bit and offsets off the word boundaries.
+        val sets = listOf(BitterSet.of(37) { it % 2 == 0 },
+                          BitterSet.of(130) { it % 2 == 1 },
+                          BitterSet(5),
+                          BitterSet.of(91) { it % 2 == 0 })
+        val expected = ArrayList<Int>()
+        var offset = 0
+        for (bs in sets) {
+            (0..bs.size() - 1).filter { bs[it] }.mapTo(expected) { offset + it }
+            offset += bs.size()
+        }
+
+        val concatenated = BitterSet.concatenate(sets)
+        assertEquals(offset, concatenated.size())
+        assertEquals(expected, concatenated.indices().toList())
+        assertEquals(concatenated, sets.reduce { a, b -> a + b })
+    }
+
+    @Test fun orShifted() {
+        val dst = LongArray(3)
+        BitterSet.orShifted(dst, longArrayOf(0x5555555555555555L), 37)
+        assertEquals(0x5555555555555555L shl 37, dst[0])
+        assertEquals(0x5555555555555555L ushr 27, dst[1])
+        assertEquals(0L, dst[2])
+    }
+
+    @Test fun indices() {
+        val bs = BitterSet.of(300) { it % 7 == 0 || it == 299 }
+        val expected = (0..299).filter { it % 7 == 0 || it == 299 }
+        assertEquals(expected, bs.indices().toList())
+
+        val visited = ArrayList<Int>()
+        bs.forEachSetBit { visited.add(it) }
+        assertEquals(expected, visited)
+    }
+
+    @Test fun valueOf() {
+        assertEquals(BitterSet.of(130) { it == 1 || it == 129 },
+                     BitterSet.valueOf(130, longArrayOf(2L, 0L, 2L)))
+    }
 }
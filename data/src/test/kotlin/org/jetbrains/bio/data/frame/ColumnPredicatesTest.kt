@@ -0,0 +1,70 @@
+package org.jetbrains.bio.data.frame
+
+import org.jetbrains.bio.data.BitterSet
+import org.junit.Test
+import java.util.*
+import kotlin.test.assertEquals
+
+class ColumnPredicatesTest {
+    private val r = Random(42)
+    private val rowsNumber = 1000
+    private val df = DataFrame()
+            .with("i", (0..rowsNumber - 1).map { r.nextInt(100) }.toIntArray())
+            .with("s", (0..rowsNumber - 1).map { r.nextInt(10).toShort() }.toShortArray())
+            .with("d", (0..rowsNumber - 1).map {
+                if (r.nextInt(10) == 0) Double.NaN else r.nextDouble()
+            }.toDoubleArray())
+            .with("flag", BitterSet.of(rowsNumber) { r.nextBoolean() })
+
+    @Test fun testComparisons() {
+        val ints = df.sliceAsInt("i")
+        assertSame(ColumnPredicate.compare("i", Comparison.LT, 50L)) { ints[it] < 50 }
+        assertSame(ColumnPredicate.compare("i", Comparison.LE, 50L)) { ints[it] <= 50 }
+        assertSame(ColumnPredicate.compare("i", Comparison.GT, 50L)) { ints[it] > 50 }
+        assertSame(ColumnPredicate.compare("i", Comparison.GE, 50L)) { ints[it] >= 50 }
+        assertSame(ColumnPredicate.compare("i", Comparison.EQ, 50L)) { ints[it] == 50 }
+        assertSame(ColumnPredicate.compare("i", Comparison.NE, 50L)) { ints[it] != 50 }
+        assertSame(ColumnPredicate.between("i", 10L, 20L)) { ints[it] >= 10 && ints[it] < 20 }
+
+        val doubles = df.sliceAsDouble("d")
+        assertSame(ColumnPredicate.compare("d", Comparison.LT, 0.5)) { doubles[it] < 0.5 }
+        assertSame(ColumnPredicate.compare("d", Comparison.NE, 0.5)) { doubles[it] != 0.5 }
+        assertSame(ColumnPredicate.compare("i", Comparison.GE, 49.5)) { ints[it] >= 49.5 }
+        assertSame(ColumnPredicate.between("d", 0.1, 0.2)) { doubles[it] >= 0.1 && doubles[it] < 0.2 }
+        assertSame(ColumnPredicate.isNaN("d")) { doubles[it].isNaN() }
+    }
+
+    @Test fun testCombinators() {
+        val ints = df.sliceAsInt("i")
+        val shorts = df.sliceAsShort("s")
+        val flags = df.sliceAsBool("flag")
+        val lt = ColumnPredicate.compare("i", Comparison.LT, 50L)
+        val eq = ColumnPredicate.compare("s", Comparison.EQ, 3L)
+        assertSame(lt and eq) { ints[it] < 50 && shorts[it] == 3.toShort() }
+        assertSame(lt or eq) { ints[it] < 50 || shorts[it] == 3.toShort() }
+        assertSame(!lt) { ints[it] >= 50 }
+        assertSame(ColumnPredicate.isTrue("flag")) { flags[it] }
+        assertSame(!ColumnPredicate.isTrue("flag") and lt) { !flags[it] && ints[it] < 50 }
+        assertSame(all(lt, eq, ColumnPredicate.isTrue("flag")) as ColumnPredicate) {
+            ints[it] < 50 && shorts[it] == 3.toShort() && flags[it]
+        }
+    }
+
+    @Test fun testSameAsRowPredicate() {
+        val kernel = ColumnPredicate.compare("i", Comparison.LT, 50L)
+        val predicate = byInt("i") { it < 50 }
+        assertEquals(df.test(predicate), df.test(kernel))
+        assertEquals(df.test(predicate, 100, 517), df.test(kernel, 100, 517))
+        assertEquals(df.count(predicate, 3, 999), df.count(kernel, 3, 999))
+        assertEquals(df.filter(predicate).sliceAsInt("i").toList(),
+                     df.filter(kernel).sliceAsInt("i").toList())
+    }
+
+    private fun assertSame(predicate: ColumnPredicate, expected: (Int) -> Boolean) {
+        for ((startRow, endRow) in listOf(0 to rowsNumber, 1 to 65, 64 to 128, 13 to 13, 100 to 999)) {
+            val mask = df.test(predicate, startRow, endRow)
+            assertEquals(BitterSet.of(endRow - startRow) { expected(startRow + it) }, mask)
+            assertEquals(mask.cardinality(), df.count(predicate, startRow, endRow))
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package org.jetbrains.bio.data.frame
+
+import org.jetbrains.bio.data.BitterSet
+import org.jetbrains.bio.ext.withTempFile
+import org.jetbrains.bio.genome.Strand
+import org.junit.Test
+import java.util.*
+import java.util.concurrent.Callable
+import java.util.concurrent.Executors
+import kotlin.test.assertEquals
+import kotlin.test.assertSame
+
+class ColumnarFileTest {
+    private val r = Random(42)
+    private val rowsNumber = 1000
+    private val df = DataFrame()
+            .with("offset", (0..rowsNumber - 1).map { it * 10 }.toIntArray())
+            .with("b", (0..rowsNumber - 1).map { r.nextInt().toByte() }.toByteArray())
+            .with("s", (0..rowsNumber - 1).map { r.nextInt().toShort() }.toShortArray())
+            .with("l", (0..rowsNumber - 1).map { r.nextLong() }.toLongArray())
+            .with("f", (0..rowsNumber - 1).map { r.nextFloat() }.toFloatArray())
+            .with("d", (0..rowsNumber - 1).map { r.nextGaussian() }.toDoubleArray())
+            .with("flag", BitterSet.of(rowsNumber) { r.nextBoolean() })
+            .with("name", (0..rowsNumber - 1).map { "n$it" }.toTypedArray())
+            .with("strand", Strand::class.java,
+                  (0..rowsNumber - 1).map { if (r.nextBoolean()) Strand.PLUS else Strand.MINUS }
+                          .toTypedArray())
+
+    @Test fun testWriteRead() {
+        for (compression in ColumnarFile.Compression.values()) {
+            withTempFile("df", ".dfc") { path ->
+                ColumnarFile.write(path, df, compression, 128)
+                ColumnarFile.open(path).use { file ->
+                    assertEquals(rowsNumber, file.rowsNumber)
+                    assertEquals(df.labels.toList(), file.labels)
+                    for (label in df.labels) {
+                        assertEquals(df[label], file[label], label)
+                    }
+                }
+            }
+        }
+    }
+
+    @Test fun testConcurrentAccess() {
+        withTempFile("df", ".dfc") { path ->
+            ColumnarFile.write(path, df, ColumnarFile.Compression.DEFLATE, 128)
+            ColumnarFile.open(path).use { file ->
+                val executor = Executors.newFixedThreadPool(4)
+                val columns = executor.invokeAll((0..15).map { i ->
+                    Callable { file[df.labels[i % df.labels.size]] }
+                }).map { it.get() }
+                executor.shutdown()
+
+                for ((i, column) in columns.withIndex()) {
+                    val label = df.labels[i % df.labels.size]
+                    assertEquals(df[label], column, label)
+                    assertSame(file[label], column)
+                }
+            }
+        }
+    }
+
+    @Test fun testSaveLoad() {
+        withTempFile("df", ".dfc") { path ->
+            df.save(path)
+            val loaded = DataFrame.load(path)
+            assertEquals(df.labels.toList(), loaded.labels.toList())
+            assertEquals(df.columns, loaded.columns)
+        }
+    }
+
+    @Test fun testFilter() {
+        withTempFile("df", ".dfc") { path ->
+            ColumnarFile.write(path, df, ColumnarFile.Compression.DEFLATE, 64)
+            ColumnarFile.open(path).use { file ->
+                val filtered = file.filter("offset", 995.0, 2005.0, "offset", "name")
+                val mask = BitSet()
+                for (row in 0..rowsNumber - 1) {
+                    val offset = df.sliceAsInt("offset")[row]
+                    if (offset >= 995 && offset <= 2005) {
+                        mask.set(row)
+                    }
+                }
+
+                assertEquals(listOf("offset", "name"), filtered.labels.toList())
+                assertEquals(df["offset"].filter(mask), filtered["offset"])
+                assertEquals(df["name"].filter(mask), filtered["name"])
+
+                assertEquals(0, file.filter("offset", -10.0, -1.0).rowsNumber)
+            }
+        }
+    }
+
+    @Test fun testEmpty() {
+        withTempFile("df", ".dfc") { path ->
+            ColumnarFile.write(path, DataFrame().with("offset", IntArray(0)))
+            ColumnarFile.open(path).use { file ->
+                assertEquals(0, file.peel().rowsNumber)
+                assertEquals(listOf("offset"), file.labels)
+            }
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package org.jetbrains.bio.data.frame
+
+import org.jetbrains.bio.data.BitterSet
+import org.junit.Test
+import java.util.*
+import kotlin.test.assertEquals
+
+class DataFrameBindTest {
+    @Test fun testRowBind() {
+        val df = DataFrame.rowBind(frame(1, 2), DataFrame().with("offset", IntArray(0))
+                .with("name", arrayOf<String>()).with("flag", BitterSet(0)),
+                                   frame(3), frame(4, 5))
+        assertEquals(5, df.rowsNumber)
+        assertEquals(listOf(1, 2, 3, 4, 5), df.sliceAsInt("offset").toList())
+        assertEquals(listOf("1", "2", "3", "4", "5"), df.sliceAsObj<String>("name").toList())
+        assertEquals(listOf(false, true, false, true, false),
+                     (0..4).map { df.sliceAsBool("flag")[it] })
+    }
+
+    @Test(expected = IllegalArgumentException::class) fun testRowBindDifferentColumns() {
+        DataFrame.rowBind(frame(1), DataFrame().with("offset", intArrayOf(2)))
+    }
+
+    @Test fun testMergeSorted() {
+        val df = DataFrame.mergeSorted("offset", frame(1, 4, 4, 9), frame(), frame(2, 4, 10))
+        assertEquals(listOf(1, 2, 4, 4, 4, 9, 10), df.sliceAsInt("offset").toList())
+    }
+
+    @Test fun testMergeSortedSameAsReorder() {
+        val r = Random(42)
+        val dfs = (0..4).map {
+            val offsets = (0..r.nextInt(100)).map { r.nextInt(50) }.sorted().toIntArray()
+            DataFrame().with("offset", offsets).with("frame", it)
+        }
+
+        val df = DataFrame.mergeSorted("offset", *dfs.toTypedArray())
+        val expected = DataFrame.rowBind(*dfs.toTypedArray()).reorder("offset")
+        assertEquals(expected.sliceAsInt("offset").toList(), df.sliceAsInt("offset").toList())
+        // The merge is stable, ties are ordered by frame.
+        val offsets = df.sliceAsInt("offset")
+        val frames = df.sliceAsInt("frame")
+        for (i in 1..df.rowsNumber - 1) {
+            if (offsets[i - 1] == offsets[i]) {
+                assertEquals(true, frames[i - 1] <= frames[i])
+            }
+        }
+    }
+
+    @Test(expected = IllegalArgumentException::class) fun testMergeUnsorted() {
+        DataFrame.mergeSorted("offset", frame(2, 1), frame(3))
+    }
+
+    private fun frame(vararg offsets: Int) = DataFrame()
+            .with("offset", offsets)
+            .with("name", offsets.map { it.toString() }.toTypedArray())
+            .with("flag", BitterSet.of(offsets.size) { offsets[it] % 2 == 0 })
+}
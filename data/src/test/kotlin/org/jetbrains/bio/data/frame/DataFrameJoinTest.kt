@@ -0,0 +1,105 @@
+package org.jetbrains.bio.data.frame
+
+import org.junit.Test
+import java.util.*
+import kotlin.test.assertEquals
+
+class DataFrameJoinTest {
+    private val left = DataFrame()
+            .with("offset", intArrayOf(1, 3, 5, 7))
+            .with("x", doubleArrayOf(1.0, 3.0, 5.0, 7.0))
+    private val right = DataFrame()
+            .with("offset", intArrayOf(3, 4, 7, 7))
+            .with("y", arrayOf("c", "d", "g", "G"))
+
+    @Test fun testInner() {
+        for (strategy in JoinStrategy.values()) {
+            val df = left.join(right, listOf("offset"), JoinType.INNER, strategy)
+            assertEquals(listOf(3, 7, 7), df.sliceAsInt("offset").toList())
+            assertEquals(listOf(3.0, 7.0, 7.0), df.sliceAsDouble("x").toList())
+            assertEquals(listOf("c", "g", "G"), df.sliceAsObj<String>("y").toList())
+        }
+    }
+
+    @Test fun testLeft() {
+        for (strategy in JoinStrategy.values()) {
+            val df = left.join(right, listOf("offset"), JoinType.LEFT, strategy)
+            assertEquals(listOf(1, 3, 5, 7, 7), df.sliceAsInt("offset").toList())
+            assertEquals(listOf(null, "c", null, "g", "G"), df.sliceAsObj<String>("y").toList())
+        }
+    }
+
+    @Test fun testOuter() {
+        for (strategy in JoinStrategy.values()) {
+            val df = left.join(right, listOf("offset"), JoinType.OUTER, strategy)
+                    .reorder("offset")
+            assertEquals(listOf(1, 3, 4, 5, 7, 7), df.sliceAsInt("offset").toList())
+            assertEquals(listOf(1.0, 3.0, 0.0, 5.0, 7.0, 7.0), df.sliceAsDouble("x").toList())
+        }
+    }
+
+    @Test fun testSemiAnti() {
+        for (strategy in JoinStrategy.values()) {
+            val semi = left.join(right, listOf("offset"), JoinType.SEMI, strategy)
+            assertEquals(listOf("offset", "x"), semi.labels.toList())
+            assertEquals(listOf(3, 7), semi.sliceAsInt("offset").toList())
+
+            val anti = left.join(right, listOf("offset"), JoinType.ANTI, strategy)
+            assertEquals(listOf(1, 5), anti.sliceAsInt("offset").toList())
+        }
+    }
+
+    @Test fun testMultipleKeys() {
+        val df1 = DataFrame()
+                .with("chr", arrayOf("chr1", "chr1", "chr2"))
+                .with("offset", intArrayOf(10, 20, 10))
+                .with("n", intArrayOf(1, 2, 3))
+        val df2 = DataFrame()
+                .with("chr", arrayOf("chr2", "chr1"))
+                .with("offset", intArrayOf(10, 10))
+                .with("n", intArrayOf(30, 10))
+        val df = df1.join(df2, listOf("chr", "offset"))
+        assertEquals(listOf("chr", "offset", "n1", "n2"), df.labels.toList())
+        assertEquals(listOf(1, 3), df.sliceAsInt("n1").toList())
+        assertEquals(listOf(10, 30), df.sliceAsInt("n2").toList())
+    }
+
+    @Test fun testHashSameAsMerge() {
+        val r = Random(42)
+        for (type in JoinType.values()) {
+            val df1 = DataFrame().with("offset", (0..999).map { r.nextInt(500) }.toIntArray())
+                    .with("i", (0..999).toList().toIntArray())
+            val df2 = DataFrame().with("offset", (0..799).map { r.nextInt(500) }.toIntArray())
+                    .with("j", (0..799).toList().toIntArray())
+            val hash = df1.join(df2, listOf("offset"), type, JoinStrategy.HASH)
+            val merge = df1.join(df2, listOf("offset"), type, JoinStrategy.MERGE)
+            assertEquals(rows(hash), rows(merge), type.toString())
+        }
+    }
+
+    @Test fun testMergeInner() {
+        val df1 = DataFrame().with("offset", intArrayOf(5, 1, 3)).with("tag", intArrayOf(50, 10, 30))
+        val df2 = DataFrame().with("offset", intArrayOf(3, 5, 4)).with("tag", intArrayOf(3, 5, 4))
+        val df3 = DataFrame().with("offset", intArrayOf(5, 3)).with("tag", intArrayOf(-5, -3))
+        val df = DataFrame.mergeInner("offset", df1, df2, df3)
+        assertEquals(listOf(3, 5), df.sliceAsInt("offset").toList())
+        assertEquals(listOf(30, 50), df.sliceAsInt("tag1").toList())
+        assertEquals(listOf(3, 5), df.sliceAsInt("tag2").toList())
+        assertEquals(listOf(-3, -5), df.sliceAsInt("tag3").toList())
+    }
+
+    @Test fun testMergeOuter() {
+        val df1 = DataFrame().with("offset", intArrayOf(5, 1)).with("tag", intArrayOf(50, 10))
+        val df2 = DataFrame().with("offset", intArrayOf(3, 5)).with("tag", intArrayOf(3, 5))
+        val df = DataFrame.mergeOuter("offset", df1, df2)
+        assertEquals(listOf(1, 3, 5), df.sliceAsInt("offset").toList())
+        assertEquals(listOf(10, 0, 50), df.sliceAsInt("tag1").toList())
+        assertEquals(listOf(0, 3, 5), df.sliceAsInt("tag2").toList())
+    }
+
+    private fun rows(df: DataFrame): List<List<Double>> {
+        return (0..df.rowsNumber - 1).map { df.rowAsDouble(it).toList() }.sortedWith(Comparator { a, b ->
+            a.zip(b).map { it.first.compareTo(it.second) }.firstOrNull { it != 0 } ?: 0
+        })
+    }
+}
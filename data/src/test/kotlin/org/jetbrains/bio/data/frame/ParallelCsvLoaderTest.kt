@@ -0,0 +1,90 @@
+package org.jetbrains.bio.data.frame
+
+import org.jetbrains.bio.data.BitterSet
+import org.jetbrains.bio.ext.withTempFile
+import org.jetbrains.bio.ext.write
+import org.junit.Test
+import java.util.*
+import kotlin.test.assertEquals
+import kotlin.test.assertNull
+
+class ParallelCsvLoaderTest {
+    @Test fun testSameAsSaved() {
+        val r = Random(42)
+        val rowsNumber = 10000
+        val df = DataFrame()
+                .with("i", (0..rowsNumber - 1).map { r.nextInt() }.toIntArray())
+                .with("l", (0..rowsNumber - 1).map { r.nextLong() }.toLongArray())
+                .with("s", (0..rowsNumber - 1).map { r.nextInt().toShort() }.toShortArray())
+                .with("d", (0..rowsNumber - 1).map {
+                    when (r.nextInt(4)) {
+                        0 -> r.nextGaussian() * 1e-10
+                        1 -> r.nextGaussian() * 1e30
+                        2 -> r.nextInt(1000) / 100.0
+                        else -> r.nextDouble()
+                    }
+                }.toDoubleArray())
+                .with("f", (0..rowsNumber - 1).map { r.nextFloat() }.toFloatArray())
+                .with("flag", BitterSet.of(rowsNumber) { r.nextBoolean() })
+                .with("name", (0..rowsNumber - 1).map { "n$it" }.toTypedArray())
+
+        withTempFile("df", ".tsv") { path ->
+            df.save(path)
+            assertEquals(df.columns, DataFrame.load(path).columns)
+
+            val spec = DataFrameMapper.CSV.guess(path)
+            assertEquals(df.columns, ParallelCsvLoader.load(path, spec, true)!!.columns)
+        }
+    }
+
+    @Test fun testParseDouble() {
+        withTempFile("df", ".tsv") { path ->
+            val values = listOf("0", "-0.5", "+3.25", "1e3", "1.5E-7", "123456789012345678",
+                                "0.1234567890123456789", "NaN", "-Infinity", "4.9e-324")
+            path.write("# Double\nx\n" + values.joinToString("\n"))
+            val df = DataFrame.load(path)
+            assertEquals(values.map { it.toDouble() }, df.sliceAsDouble("x").toList())
+        }
+    }
+
+    @Test fun testCommentsAndEmptyLines() {
+        withTempFile("df", ".tsv") { path ->
+            path.write("# Integer; String\nx\ty\n1\ta\textra\n# comment\n\n2 \t b\r\n")
+            val df = DataFrame.load(path)
+            assertEquals(listOf(1, 2), df.sliceAsInt("x").toList())
+            assertEquals(listOf("a", "b"), df.sliceAsObj<String>("y").toList())
+        }
+    }
+
+    @Test fun testCrlfEmptyLines() {
+        withTempFile("df", ".tsv") { path ->
+            path.write("# Integer; String\r\n\r\nx\ty\r\n1\ta\r\n\r\n2\tb\r\n")
+            val df = DataFrame.load(path)
+            assertEquals(listOf(1, 2), df.sliceAsInt("x").toList())
+            assertEquals(listOf("a", "b"), df.sliceAsObj<String>("y").toList())
+        }
+    }
+
+    @Test(expected = NumberFormatException::class) fun testIntOverflow() {
+        withTempFile("df", ".tsv") { path ->
+            path.write("# Integer\nx\n1\n2147483648\n")
+            ParallelCsvLoader.load(path, DataFrameMapper.CSV.guess(path), true)
+        }
+    }
+
+    @Test(expected = NumberFormatException::class) fun testShortOverflow() {
+        withTempFile("df", ".tsv") { path ->
+            path.write("# Short\nx\n-32769\n")
+            ParallelCsvLoader.load(path, DataFrameMapper.CSV.guess(path), true)
+        }
+    }
+
+    @Test fun testQuoted() {
+        withTempFile("df", ".tsv") { path ->
+            path.write("# String\nx\n\"a\tb\"\n")
+            val spec = DataFrameMapper.CSV.guess(path)
+            assertNull(ParallelCsvLoader.load(path, spec, true))
+            assertEquals(listOf("a\tb"), DataFrame.load(path).sliceAsObj<String>("x").toList())
+        }
+    }
+}
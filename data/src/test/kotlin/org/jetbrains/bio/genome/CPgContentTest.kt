@@ -28,4 +28,17 @@ class CpGContentTest {
         assertEquals(CpGContent.HCP, CpGContent.classify("CCCGCG".asNucleotideSequence(), 5))
         assertEquals(CpGContent.HCP, CpGContent.classify("CGCGCG".asNucleotideSequence(), 5))
     }
+
+    @Test fun testClassifyPastChunk() {
+        val prefix = "A".repeat(CpGContent.CHUNK_SIZE + 100)
+        val cpgs = "CG".repeat(CpGContent.MIN_LENGTH)
+        assertEquals(CpGContent.LCP, CpGContent.classify(prefix.asNucleotideSequence(),
+                                                         CpGContent.MIN_LENGTH))
+        assertEquals(CpGContent.HCP, CpGContent.classify((prefix + cpgs).asNucleotideSequence(),
+                                                         CpGContent.MIN_LENGTH))
+
+        val sequence = (cpgs + prefix).asNucleotideSequence()
+        assertEquals(CpGContent.LCP, CpGContent.classify(sequence, cpgs.length, sequence.length(),
+                                                         CpGContent.MIN_LENGTH))
+    }
 }
@@ -0,0 +1,45 @@
+package org.jetbrains.bio.genome.containers
+
+import org.jetbrains.bio.genome.Range
+import org.junit.Test
+import java.util.*
+import kotlin.test.assertEquals
+import kotlin.test.assertTrue
+
+class IntervalIndexTest {
+    @Test fun testEmpty() {
+        val index = IntervalIndex.of(emptyList<Range>()) { it }
+        assertEquals(0, index.size)
+        assertTrue(index.query(Range(0, 100)).isEmpty())
+    }
+
+    @Test fun testQuery() {
+        val index = IntervalIndex.of(listOf(Range(10, 20), Range(0, 5), Range(15, 100))) { it }
+        assertEquals(listOf(Range(0, 5)), index.query(Range(0, 10)))
+        assertEquals(listOf(Range(10, 20), Range(15, 100)), index.query(Range(15, 16)))
+        assertEquals(listOf(Range(15, 100)), index.query(Range(50, 60)))
+        assertTrue(index.query(Range(5, 10)).isEmpty())
+        assertTrue(index.query(Range(100, 200)).isEmpty())
+    }
+
+    @Test fun testSameAsLinearScan() {
+        val r = Random(42)
+        for (n in listOf(1, 2, 3, 7, 8, 9, 15, 16, 17, 100, 255, 256, 1000)) {
+            // A few very long intervals make sure the pruning is correct.
+            val ranges = (0..n - 1).map {
+                val start = r.nextInt(10000)
+                Range(start, start + 1 + (if (r.nextInt(20) == 0) r.nextInt(5000) else r.nextInt(50)))
+            }
+
+            val index = IntervalIndex.of(ranges) { it }
+            assertEquals(n, index.size)
+            for (i in 0..99) {
+                val start = r.nextInt(11000)
+                val query = Range(start, start + r.nextInt(200))
+                val expected = ranges.filter { it intersects query }.sorted()
+                assertEquals(expected, index.query(query), "n = $n, query = $query")
+                assertEquals(expected.size, index.count(query))
+            }
+        }
+    }
+}
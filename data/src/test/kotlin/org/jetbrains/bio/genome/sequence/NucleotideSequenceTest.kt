@@ -3,6 +3,7 @@ package org.jetbrains.bio.genome.sequence
 import org.jetbrains.bio.genome.Chromosome
 import org.jetbrains.bio.genome.Strand
 import org.junit.Test
+import java.util.*
 import kotlin.test.assertEquals
 
 class NucleotideSequenceTest {
@@ -22,6 +23,27 @@ class NucleotideSequenceTest {
         testSubstring(sequence, from, to, Strand.MINUS)
     }
 
+    @Test fun testReferenceWindow() {
+        val chromosome = Chromosome("to1", "chr1")
+        val sequence = chromosome.sequence
+        val window = ReferenceWindow(sequence, 4096)
+        assertEquals(sequence.length(), window.length())
+
+        // Sequential scan, moving back a little and random jumps.
+        for (offset in 0..sequence.length() - 1 step 7) {
+            assertEquals(sequence.byteAt(offset), window.byteAt(offset))
+            if (offset >= 100) {
+                assertEquals(sequence.charAt(offset - 100), window.charAt(offset - 100))
+            }
+        }
+
+        val r = Random(42)
+        for (i in 0..999) {
+            val offset = r.nextInt(sequence.length())
+            assertEquals(sequence.byteAt(offset, Strand.MINUS), window.byteAt(offset, Strand.MINUS))
+        }
+    }
+
     private fun testSubstring(sequence: NucleotideSequence, from: Int,
                               to: Int, strand: Strand) {
         val sub = sequence.substring(from, to, strand)
@@ -2,14 +2,17 @@ package org.jetbrains.bio.genome.sequence
 
 import com.google.common.base.Strings
 import htsjdk.samtools.util.SequenceUtil
+import org.jetbrains.bio.ext.delete
 import org.jetbrains.bio.ext.div
 import org.jetbrains.bio.ext.name
 import org.jetbrains.bio.ext.withTempDirectory
 import org.jetbrains.bio.genome.Strand
 import org.jetbrains.bio.genome.UCSC
 import org.jetbrains.bio.io.FastaReader
+import org.jetbrains.bio.io.FastaRecord
 import org.jetbrains.bio.sampling.Sampling
 import org.junit.Test
+import java.util.*
 import kotlin.test.assertEquals
 import kotlin.test.assertTrue
 
@@ -96,6 +99,30 @@ class TwoBitSequenceTest {
                      TwoBitReader.length(tbPath, fr.description))
     }
 
+    @Test fun testWriteRead() = withTempDirectory("2bit") { tempDir ->
+        // The last sequence doesn't fill its last pack, thus it ends
+        // before the end of an int.
+        val records = listOf(FastaRecord("chr1", "acgtnnnnacgtacgtac"),
+                             FastaRecord("chr2", "nnacg"),
+                             FastaRecord("chr3", Sampling.sampleString("acgt".toCharArray(), 1001)))
+        val tbPath = tempDir / "test.2bit"
+        TwoBitWriter.convert(records, tbPath)
+
+        assertEquals(records.map { it.description }.toSet(), TwoBitReader.names(tbPath))
+        for (record in records) {
+            val tbs = TwoBitReader.read(tbPath, record.description)
+            assertEquals(record.sequence, tbs.toString())
+            assertEquals(record.sequence.length, TwoBitReader.length(tbPath, record.description))
+            assertEquals(TwoBitSequence.encode(record.sequence), tbs)
+        }
+
+        // Re-opened once the file changes.
+        tbPath.delete()
+        TwoBitWriter.convert(listOf(FastaRecord("chr1", "acgt")), tbPath)
+        assertEquals(setOf("chr1"), TwoBitReader.names(tbPath))
+        assertEquals("acgt", TwoBitReader.read(tbPath, "chr1").toString())
+    }
+
     @Test fun testEncodeBasic() {
         val sequences = arrayOf("n", "nnn", "an", "annn", "na", "nnna",
                                 "acgtttgcacacagnnnnnnnnacagnnnnngagagnn")
@@ -114,6 +141,36 @@ class TwoBitSequenceTest {
         }
     }
 
+    @Test fun testBulkKernels() {
+        val r = Random(42)
+        for (i in 0..99) {
+            // Ns are frequent, so that N-blocks of various lengths occur.
+            val s = Sampling.sampleString("acgtcgnnnn".toCharArray(), 1 + r.nextInt(200))
+            val tbs = TwoBitSequence.encode(s)
+            val reference = s.asNucleotideSequence()
+            for (j in 0..9) {
+                val from = r.nextInt(s.length + 1)
+                val to = from + r.nextInt(s.length - from + 1)
+                val bytes = ByteArray(to - from)
+                tbs.getBytes(from, to, bytes)
+                assertEquals((from..to - 1).map { tbs.byteAt(it) }, bytes.toList())
+                assertEquals(reference.composition(from, to).toList(),
+                             tbs.composition(from, to).toList(), "$s [$from, $to)")
+                assertEquals(reference.countCpG(from, to), tbs.countCpG(from, to),
+                             "$s [$from, $to)")
+            }
+        }
+    }
+
+    @Test fun testCountCpG() {
+        val tbs = TwoBitSequence.encode("cgacgncgttcgaaaaaacgcg")
+        assertEquals(5, tbs.countCpG(0, tbs.length()))
+        assertEquals(0, tbs.countCpG(0, 1))
+        assertEquals(1, tbs.countCpG(0, 2))
+        assertEquals(0, tbs.countCpG(3, 7))
+        assertEquals(0.5, tbs.gcFraction(0, 4))
+    }
+
     companion object {
         val FULL = Integer.BYTES
 
@@ -109,6 +109,41 @@ class GenomeCoverageTest {
         assertArrayEquals(tags, coverage.getTags(Location(5, 50, chromosome1, Strand.PLUS)))
     }
 
+    @Test fun testCoverageAcrossIndexBins() {
+        val tags = intArrayOf(0, 1023, 1024, 1024, 2047, 2048, 5000, 5001)
+        val coverage = GenomeCoverage.Builder(genomeQuery)
+                .putAll(chromosome1, Strand.PLUS, *tags)
+                .build(unique = false)
+
+        for (start in listOf(0, 1, 1023, 1024, 1025, 2048, 4096)) {
+            for (end in listOf(start, start + 1, 1024, 2048, 2049, 5001, 10000)) {
+                if (end < start) {
+                    continue
+                }
+
+                val expected = tags.count { it >= start && it < end }
+                val location = Location(start, end, chromosome1, Strand.PLUS)
+                assertEquals(expected, coverage.getCoverage(location), location.toString())
+                assertEquals(expected, coverage.getTags(location).size)
+            }
+        }
+    }
+
+    @Test fun testAggregateBothStrands() {
+        val builder = GenomeCoverage.Builder(genomeQuery)
+        for (i in 0..999) {
+            builder.put(chromosome1, if (i % 3 == 0) Strand.MINUS else Strand.PLUS, i * 37)
+        }
+
+        val coverage = builder.build(unique = false)
+        for (binSize in listOf(100, 1024, 4096, 5000)) {
+            val expected = chromosome1.range.slice(binSize)
+                    .mapToInt { coverage.getBothStrandCoverage(it.on(chromosome1)) }
+                    .toArray()
+            assertArrayEquals(expected, coverage.aggregateBothStrands(binSize)[chromosome1])
+        }
+    }
+
     @Test fun testSerialization() {
         val builder = GenomeCoverage.Builder(genomeQuery)
         for (chromosome in genomeQuery.get()) {
@@ -124,6 +159,8 @@ class GenomeCoverageTest {
             val loaded = GenomeCoverage(genomeQuery)
             loaded.load(coveragePath)
             assertEquals(coverage, loaded)
+            assertEquals(coverage.getCoverage(Location(0, 50, chromosome1, Strand.PLUS)),
+                         loaded.getCoverage(Location(0, 50, chromosome1, Strand.PLUS)))
         }
     }
 
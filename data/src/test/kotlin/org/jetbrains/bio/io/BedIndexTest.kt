@@ -0,0 +1,85 @@
+package org.jetbrains.bio.io
+
+import org.jetbrains.bio.ext.withTempDirectory
+import org.jetbrains.bio.ext.write
+import org.jetbrains.bio.genome.ChromosomeRange
+import org.jetbrains.bio.genome.Strand
+import org.jetbrains.bio.genome.toStrand
+import org.jetbrains.bio.genome.query.GenomeQuery
+import org.junit.Test
+import java.util.*
+import kotlin.test.assertEquals
+import kotlin.test.assertTrue
+
+class BedIndexTest {
+    private val genomeQuery = GenomeQuery("to1")
+    private val chromosome1 = genomeQuery.get()[0]
+    private val chromosome2 = genomeQuery.get()[1]
+
+    @Test fun testQuery() {
+        val r = Random(42)
+        val entries = ArrayList<BedEntry>()
+        for (chromosome in listOf(chromosome1, chromosome2)) {
+            var start = 0
+            for (i in 0..999) {
+                start += r.nextInt(BedIndex.BIN_SIZE / 4)
+                val end = start + 1 + r.nextInt(BedIndex.BIN_SIZE * 2)
+                entries.add(BedEntry(chromosome.name, start, end, if (r.nextBoolean()) '+' else '-'))
+            }
+        }
+
+        withTempDirectory("index") { dir ->
+            val path = dir.resolve("sorted.bed")
+            path.write(entries.map { "${it.chromosome}\t${it.chromStart}\t${it.chromEnd}\t${it.strand}" }
+                               .joinToString("\n"))
+            val index = BedIndex.load(path, genomeQuery, BedFormat.SIMPLE)
+            for (i in 0..99) {
+                val chromosome = if (r.nextBoolean()) chromosome1 else chromosome2
+                val start = r.nextInt(BedIndex.BIN_SIZE * 64)
+                val range = ChromosomeRange(start, start + r.nextInt(BedIndex.BIN_SIZE * 2), chromosome)
+                val expected = entries.filter {
+                    it.chromosome == chromosome.name &&
+                    it.chromStart < range.endOffset && it.chromEnd > range.startOffset
+                }.map { Triple(it.chromStart, it.chromEnd, it.strand.toStrand()) }
+
+                assertEquals(expected, index.records(range), range.toString())
+            }
+        }
+    }
+
+    @Test fun testRebuildOnChange() {
+        withTempDirectory("index") { dir ->
+            val path = dir.resolve("sorted.bed")
+            path.write("${chromosome1.name}\t0\t100\t+\n")
+            val range = ChromosomeRange(0, 1000, chromosome1)
+            assertEquals(1, BedIndex.load(path, genomeQuery, BedFormat.SIMPLE).records(range).size)
+
+            path.write("${chromosome1.name}\t0\t100\t+\n${chromosome1.name}\t10\t200\t-\n")
+            assertEquals(2, BedIndex.load(path, genomeQuery, BedFormat.SIMPLE).records(range).size)
+        }
+    }
+
+    @Test(expected = IllegalArgumentException::class) fun testUnsorted() {
+        withTempDirectory("index") { dir ->
+            val path = dir.resolve("unsorted.bed")
+            path.write("${chromosome1.name}\t100\t200\t+\n${chromosome1.name}\t0\t100\t+\n")
+            BedIndex.load(path, genomeQuery, BedFormat.SIMPLE)
+        }
+    }
+
+    @Test fun testEmptyRegion() {
+        withTempDirectory("index") { dir ->
+            val path = dir.resolve("sorted.bed")
+            path.write("${chromosome1.name}\t0\t100\t+\n")
+            val index = BedIndex.load(path, genomeQuery, BedFormat.SIMPLE)
+            assertTrue(index.records(ChromosomeRange(0, 100, chromosome2)).isEmpty())
+            assertTrue(index.records(ChromosomeRange(100, 1000, chromosome1)).isEmpty())
+        }
+    }
+
+    private fun BedIndex.records(range: ChromosomeRange): List<Triple<Int, Int, Strand>> {
+        val records = ArrayList<Triple<Int, Int, Strand>>()
+        query(range) { start, end, strand, _score -> records.add(Triple(start, end, strand)) }
+        return records
+    }
+}
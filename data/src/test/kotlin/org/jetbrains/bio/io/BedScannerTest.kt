@@ -0,0 +1,71 @@
+package org.jetbrains.bio.io
+
+import org.jetbrains.bio.genome.ChromosomeNamesMap
+import org.jetbrains.bio.genome.Strand
+import org.jetbrains.bio.genome.query.GenomeQuery
+import org.jetbrains.bio.genome.toStrand
+import org.junit.Test
+import java.io.StringReader
+import kotlin.test.assertEquals
+
+class BedScannerTest {
+    private val genomeQuery = GenomeQuery("to1")
+
+    @Test fun testSameAsParser() {
+        val contents = "track name=foo\n" +
+                       "# comment\n" +
+                       "chr1 1000 5000 cloneA 960 + 1000 5000 0 2 567,488, 0,3512\n" +
+                       "chr2 2000 6000 cloneB 900 - 2000 6000 0 2 433,399, 0,3601\r\n" +
+                       "chr1  42  \t 100 cloneC 0 - 42 100"
+        val format = BedFormat.DEFAULT.splitter(' ')
+        val expected = format.parse(StringReader(contents)).map {
+            listOf(it.chromosome, it.chromStart, it.chromEnd, it.strand.toStrand(), it.score)
+        }
+
+        for (bufferSize in listOf(1, 7, BedScanner.DEFAULT_BUFFER_SIZE)) {
+            val actual = arrayListOf<List<Any>>()
+            scanner(contents, format, bufferSize).forEachRecord { chromosome, start, end, strand, score ->
+                actual.add(listOf(chromosome.name, start, end, strand, score))
+            }
+
+            assertEquals(expected, actual, "buffer size $bufferSize")
+        }
+    }
+
+    @Test fun testBatches() {
+        val contents = (0..9).map { "chr1\t$it\t${it + 1}" }.joinToString("\n")
+        val scanner = scanner(contents, BedFormat.SIMPLE)
+        val batch = BedBatch(4)
+        assertEquals(4, scanner.read(batch))
+        assertEquals(listOf(0, 1, 2, 3), batch.starts.toList())
+        assertEquals(Strand.PLUS, batch.strands[0])
+        assertEquals(4, scanner.read(batch))
+        assertEquals(2, scanner.read(batch))
+        assertEquals(listOf(8, 9), batch.starts.take(2))
+        assertEquals(0, scanner.read(batch))
+    }
+
+    @Test fun testSkipped() {
+        val contents = "chr1\t0\t100\t+\n" +
+                       "chrFoo\t0\t100\t+\n" +
+                       "chr1\tfoo\t100\t+\n" +
+                       "chr1\t0\t100\t?\n" +
+                       "chr1\t10\t100\t-\n" +
+                       "chrFoo\t0\t100\t-\n"
+        val scanner = scanner(contents, BedFormat.SIMPLE)
+        var count = 0
+        scanner.forEachRecord { chromosome, start, end, strand, score -> count++ }
+        assertEquals(2, count)
+        assertEquals(4, scanner.skipped)
+    }
+
+    @Test(expected = IllegalArgumentException::class) fun testTooFewColumns() {
+        scanner("chr1\t0\n", BedFormat.SIMPLE).read(BedBatch())
+    }
+
+    private fun scanner(contents: String, format: BedFormat,
+                        bufferSize: Int = BedScanner.DEFAULT_BUFFER_SIZE): BedScanner {
+        return BedScanner(contents.byteInputStream(), format,
+                          ChromosomeNamesMap.create(genomeQuery), bufferSize)
+    }
+}
@@ -0,0 +1,103 @@
+package org.jetbrains.bio.io
+
+import org.jetbrains.bio.big.BigWigFile
+import org.jetbrains.bio.big.VariableStepSection
+import org.jetbrains.bio.ext.withTempDirectory
+import org.junit.After
+import org.junit.Test
+import java.nio.file.Files
+import java.nio.file.Path
+import java.nio.file.attribute.FileTime
+import kotlin.test.assertEquals
+import kotlin.test.assertFailsWith
+import kotlin.test.assertFalse
+
+class BigFilePoolTest {
+    @After fun tearDown() {
+        BigFilePool.clear()
+        BigFilePool.maxOpenFiles = 64
+    }
+
+    @Test fun testReuse() {
+        withTempDirectory("pool") { dir ->
+            val path = createBigWig(dir.resolve("a.bw"), 42f)
+            val opens = BigFilePool.opens()
+            val hits = BigFilePool.hits()
+            repeat(3) {
+                assertEquals(42.0, BigFilePool.withBigWig(path) { sum(it) })
+            }
+
+            assertEquals(opens + 1, BigFilePool.opens())
+            assertEquals(hits + 2, BigFilePool.hits())
+        }
+    }
+
+    @Test fun testEviction() {
+        withTempDirectory("pool") { dir ->
+            BigFilePool.maxOpenFiles = 2
+            val paths = (0..2).map { createBigWig(dir.resolve("$it.bw"), it.toFloat()) }
+            val evictions = BigFilePool.evictions()
+            paths.forEachIndexed { i, path ->
+                assertEquals(i.toDouble(), BigFilePool.withBigWig(path) { sum(it) })
+            }
+
+            assertEquals(evictions + 1, BigFilePool.evictions())
+
+            // The first file was the least recently used one.
+            val opens = BigFilePool.opens()
+            BigFilePool.withBigWig(paths[2]) { sum(it) }
+            assertEquals(opens, BigFilePool.opens())
+            BigFilePool.withBigWig(paths[0]) { sum(it) }
+            assertEquals(opens + 1, BigFilePool.opens())
+        }
+    }
+
+    @Test fun testNestedLeaseIsNotEvicted() {
+        withTempDirectory("pool") { dir ->
+            BigFilePool.maxOpenFiles = 1
+            val a = createBigWig(dir.resolve("a.bw"), 1f)
+            val b = createBigWig(dir.resolve("b.bw"), 2f)
+            BigFilePool.withBigWig(a) { bwf ->
+                assertEquals(2.0, BigFilePool.withBigWig(b) { sum(it) })
+                assertEquals(1.0, sum(bwf))
+            }
+        }
+    }
+
+    @Test fun testModifiedFileIsReopened() {
+        withTempDirectory("pool") { dir ->
+            val path = createBigWig(dir.resolve("a.bw"), 1f)
+            assertEquals(1.0, BigFilePool.withBigWig(path) { sum(it) })
+
+            val lastModified = Files.getLastModifiedTime(path).toMillis()
+            createBigWig(path, 2f)
+            Files.setLastModifiedTime(path, FileTime.fromMillis(lastModified + 1000))
+            val opens = BigFilePool.opens()
+            assertEquals(2.0, BigFilePool.withBigWig(path) { sum(it) })
+            assertEquals(opens + 1, BigFilePool.opens())
+        }
+    }
+
+    @Test fun testFormatIsPartOfKey() {
+        withTempDirectory("pool") { dir ->
+            val path = createBigWig(dir.resolve("a.bw"), 1f)
+            assertEquals(1.0, BigFilePool.withBigWig(path) { sum(it) })
+            // Not a BigBED file, rejected by the reader rather than
+            // served from the cached BigWIG one.
+            val e = assertFailsWith<Exception> {
+                BigFilePool.withBigBed(path) { it.summarize("chr1", 0, 100, 1) }
+            }
+
+            assertFalse(e is ClassCastException, e.toString())
+        }
+    }
+
+    private fun sum(bwf: BigWigFile) = bwf.summarize("chr1", 0, 100, 1).single().sum
+
+    private fun createBigWig(path: Path, value: Float): Path {
+        val section = VariableStepSection("chr1", span = 1)
+        section[10] = value
+        BigWigFile.write(listOf(section), listOf("chr1" to 100), path)
+        return path
+    }
+}
@@ -0,0 +1,103 @@
+package org.jetbrains.bio.io
+
+import htsjdk.samtools.*
+import org.jetbrains.bio.ext.withTempDirectory
+import org.jetbrains.bio.genome.Strand
+import org.jetbrains.bio.genome.query.GenomeQuery
+import org.junit.Test
+import java.util.*
+import kotlin.test.assertEquals
+import kotlin.test.assertTrue
+
+class BisulfiteBamParserTest {
+    private val genomeQuery = GenomeQuery("to1", "chr1")
+    private val chromosome = genomeQuery.get().single()
+
+    @Test fun testPileup() {
+        val header = SAMFileHeader()
+        header.sortOrder = SAMFileHeader.SortOrder.coordinate
+        header.sequenceDictionary = SAMSequenceDictionary(
+                listOf(SAMSequenceRecord(chromosome.name, chromosome.length)))
+
+        // Shards are [0, 100), [100, 200), [200, 300) etc.
+        val records = listOf(
+                // Plus strand, crossing 100, methylated and unmethylated.
+                record(header, "r1", 60, "80M", bases(60, 140, unmethylated = false), false),
+                record(header, "r2", 60, "80M", bases(60, 140, unmethylated = true), false),
+                // Minus strand, crossing 200, with a deletion of [180, 190).
+                record(header, "r3", 150, "30M10D30M",
+                       bases(150, 180, unmethylated = false) + bases(190, 220, unmethylated = false), true),
+                // Plus strand, crossing 200, with an insertion after 204.
+                record(header, "r4", 185, "20M5I20M",
+                       bases(185, 205, unmethylated = true) + "CCCCC".toByteArray() +
+                       bases(205, 225, unmethylated = true), false))
+
+        val expected = HashMap<Pair<Strand, Int>, Pair<Int, Int>>()
+        for (offset in 60..139) {
+            if (ref(offset) == 'C') expected[Strand.PLUS to offset] = 1 to 2
+        }
+
+        for (offset in (150..179) + (190..219)) {
+            if (ref(offset) == 'G') expected[Strand.MINUS to offset] = 1 to 1
+        }
+
+        for (offset in 185..224) {
+            if (ref(offset) == 'C') expected[Strand.PLUS to offset] = 0 to 1
+        }
+
+        assertTrue(expected.keys.any { it.first == Strand.PLUS })
+        assertTrue(expected.keys.any { it.first == Strand.MINUS })
+
+        withTempDirectory("bisulfite") { dir ->
+            val path = dir.resolve("reads.bam")
+            val writer = SAMFileWriterFactory().setCreateIndex(true)
+                    .makeBAMWriter(header, true, path.toFile())
+            try {
+                records.forEach { writer.addAlignment(it) }
+            } finally {
+                writer.close()
+            }
+
+            val methylome = BisulfiteBamParser.parse(path, genomeQuery, 100)
+            val actual = HashMap<Pair<Strand, Int>, Pair<Int, Int>>()
+            for (strand in Strand.values()) {
+                val df = methylome[chromosome, strand].peel()
+                val offsets = df.sliceAsInt("offset")
+                val k = df.sliceAsInt("k")
+                val n = df.sliceAsInt("n")
+                for (r in 0..df.rowsNumber - 1) {
+                    actual[strand to offsets[r]] = k[r] to n[r]
+                }
+            }
+
+            assertEquals(expected, actual)
+        }
+    }
+
+    private fun ref(offset: Int) = Character.toUpperCase(chromosome.sequence.charAt(offset))
+
+    /**
+     * Returns the reference bases of `[from, to)`, with the cytosines
+     * converted to thymines if [unmethylated].
+     */
+    private fun bases(from: Int, to: Int, unmethylated: Boolean): ByteArray {
+        return (from..to - 1).map {
+            val base = ref(it)
+            (if (unmethylated && base == 'C') 'T' else base).toByte()
+        }.toByteArray()
+    }
+
+    private fun record(header: SAMFileHeader, name: String, start: Int, cigar: String,
+                       bases: ByteArray, negative: Boolean): SAMRecord {
+        val record = SAMRecord(header)
+        record.readName = name
+        record.referenceName = chromosome.name
+        record.alignmentStart = start + 1
+        record.cigarString = cigar
+        record.readBases = bases
+        record.baseQualities = SAMRecord.NULL_QUALS
+        record.mappingQuality = 60
+        record.readNegativeStrandFlag = negative
+        return record
+    }
+}
@@ -33,4 +33,16 @@ class CytosineContextTest {
         assertEquals(CytosineContext.CHH,
                      CytosineContext.determine("atgggta".asNucleotideSequence(), 3, Strand.MINUS))
     }
+
+    @Test fun testDetermineBytes() {
+        val sequence = "atcgtacagttcnctgccaggntcaa".asNucleotideSequence()
+        val bytes = ByteArray(sequence.length())
+        sequence.getBytes(0, sequence.length(), bytes)
+        for (strand in Strand.values()) {
+            for (offset in 0..sequence.length() - 1) {
+                assertEquals(CytosineContext.determine(sequence, offset, strand),
+                             CytosineContext.determine(bytes, offset, strand))
+            }
+        }
+    }
 }
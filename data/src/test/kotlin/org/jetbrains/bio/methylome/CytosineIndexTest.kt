@@ -0,0 +1,64 @@
+package org.jetbrains.bio.methylome
+
+import org.jetbrains.bio.ext.withTempFile
+import org.jetbrains.bio.genome.Chromosome
+import org.jetbrains.bio.genome.Strand
+import org.junit.Test
+import java.util.*
+import kotlin.test.assertEquals
+
+class CytosineIndexTest {
+    private val chromosome = Chromosome("to1", "chr1")
+
+    @Test fun testCount() {
+        val sequence = chromosome.sequence
+        val r = Random(42)
+        for (strand in Strand.values()) {
+            val index = CytosineIndex.build(sequence, strand)
+            for (i in 0..99) {
+                val startOffset = r.nextInt(sequence.length())
+                val endOffset = startOffset + r.nextInt(sequence.length() - startOffset)
+                for (context in CytosineContext.values()) {
+                    assertEquals(MethylomeStats.countCytosines(startOffset, endOffset,
+                                                               sequence, strand, context),
+                                 index.count(startOffset, endOffset, context))
+                }
+            }
+        }
+    }
+
+    @Test fun testContextAt() {
+        val sequence = chromosome.sequence
+        val index = CytosineIndex.build(sequence, Strand.MINUS)
+        for (offset in 0..Math.min(sequence.length(), 10000) - 1) {
+            assertEquals(CytosineContext.determine(sequence, offset, Strand.MINUS),
+                         index.contextAt(offset))
+        }
+    }
+
+    @Test fun testPeel() {
+        val sequence = chromosome.sequence
+        for (strand in Strand.values()) {
+            val index = CytosineIndex.build(sequence, strand)
+            for (context in CytosineContext.CONTEXTS) {
+                val expected = MethylomeStats.cytosinesDf(sequence, strand, context)
+                val actual = index.peel(context)
+                assertEquals(expected["offset"], actual["offset"])
+                assertEquals(expected["tag"], actual["tag"])
+            }
+        }
+    }
+
+    @Test fun testWriteRead() {
+        withTempFile("cytosines", ".npz") { path ->
+            CytosineIndex.write(path, listOf(chromosome))
+            for (strand in Strand.values()) {
+                val expected = CytosineIndex.build(chromosome.sequence, strand)
+                val actual = CytosineIndex.read(path, chromosome, strand)
+                for (context in CytosineContext.values()) {
+                    assertEquals(expected[context].toList(), actual[context].toList())
+                }
+            }
+        }
+    }
+}
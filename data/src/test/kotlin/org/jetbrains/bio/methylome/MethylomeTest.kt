@@ -7,6 +7,8 @@ import org.jetbrains.bio.genome.Strand
 import org.jetbrains.bio.genome.query.GenomeQuery
 import org.junit.Test
 import java.util.*
+import java.util.concurrent.Callable
+import java.util.concurrent.Executors
 import kotlin.test.assertEquals
 
 class MethylomeTest {
@@ -25,6 +27,50 @@ class MethylomeTest {
         }
     }
 
+    @Test fun testLazyConcurrent() {
+        val builder = Methylome.builder(genomeQuery)
+        for (chromosome in genomeQuery.get()) {
+            for (i in 0..99) {
+                builder.add(chromosome, Strand.PLUS, i * 2, CytosineContext.CG, i % 7, 10)
+            }
+        }
+
+        val methylome0 = builder.build()
+        withTempFile("methylome", ".npz") { path ->
+            methylome0.save(path)
+            val methylome1 = Methylome.lazy(genomeQuery, path)
+            val tasks = (0..15).map {
+                Callable { genomeQuery.get().map { methylome1.getCombined(it) } }
+            }
+
+            val executor = Executors.newFixedThreadPool(4)
+            val results = executor.invokeAll(tasks).map { it.get() }
+            executor.shutdown()
+            for (views in results) {
+                assertEquals(genomeQuery.get().map { methylome0.getCombined(it) }, views)
+            }
+        }
+    }
+
+    @Test fun testLargeFrameLoadedOnce() {
+        val cache = FrameCache<Int>(2000)
+        var loads = 0
+        for (i in 0..9) {
+            cache.get(42) {
+                loads++
+                // 900 bytes, i.e. more than a quarter of the budget.
+                val frame = MethylomeFrame()
+                for (offset in 0..99) {
+                    frame.add(offset, CytosineContext.CG.tag, 1, 2)
+                }
+
+                frame
+            }
+        }
+
+        assertEquals(1, loads)
+    }
+
     @Test fun testReadWriteEmpty() {
         assertSerializedCorrectly(Methylome.builder(genomeQuery).build())
     }
@@ -0,0 +1,77 @@
+package org.jetbrains.bio.methylome.strategies
+
+import org.jetbrains.bio.data.frame.DataFrame
+import org.jetbrains.bio.genome.Chromosome
+import org.jetbrains.bio.genome.Location
+import org.jetbrains.bio.genome.Range
+import org.jetbrains.bio.genome.Strand
+import org.jetbrains.bio.methylome.CytosineContext
+import org.junit.Assert.assertEquals
+import org.junit.Test
+import java.util.*
+
+class McStatStrategyTest {
+    private val chromosome = Chromosome("to1", "chr1")
+    private val samplesData: MethylomesData
+
+    init {
+        val r = Random(42)
+        val offsets = (0..chromosome.length - 1 step 7).filter { r.nextInt(3) == 0 }.toIntArray()
+        val n = offsets.size
+        val k = ShortArray(n)
+        val total = ShortArray(n)
+        val level = FloatArray(n)
+        for (i in 0..n - 1) {
+            total[i] = r.nextInt(10).toShort()
+            k[i] = if (total[i] == 0.toShort()) 0 else r.nextInt(total[i] + 1).toShort()
+            level[i] = if (total[i] == 0.toShort()) Float.NaN else k[i].toFloat() / total[i]
+        }
+
+        val df = DataFrame()
+                .with("offset", offsets)
+                .with("tag", ByteArray(n) { r.nextInt(3).toByte() })
+                .with("level", level)
+                .with("k", k)
+                .with("n", total)
+        samplesData = MethylomesData(chromosome, listOf(df), listOf(df))
+    }
+
+    @Test fun testAllBins() {
+        val binSize = 1000
+        val ranges = Array(chromosome.length / binSize) {
+            Range(it * binSize, (it + 1) * binSize)
+        }
+
+        for (context in CytosineContext.CONTEXTS) {
+            check(McFreq(context), ranges)
+            check(MLevelMc(context), ranges)
+            check(McC(context), ranges)
+            check(CFreq(context), ranges)
+        }
+    }
+
+    @Test fun testAllOverlapping() {
+        val ranges = Array(100) { Range(it * 500, it * 500 + 2000) }
+        check(McFreq(CytosineContext.CG), ranges)
+        check(MLevelMc(null), ranges)
+        check(McC(null), ranges)
+        check(McC(CytosineContext.CHG), ranges)
+        check(CFreq(null), ranges)
+        check(CFreq(CytosineContext.CHH), ranges)
+    }
+
+    @Test(expected = IllegalArgumentException::class) fun testAllUnsorted() {
+        McFreq(null).testAll(0, samplesData, Strand.PLUS,
+                             arrayOf(Range(100, 200), Range(0, 100)))
+    }
+
+    private fun check(strategy: McStatStrategy<in MethylomesData>, ranges: Array<Range>) {
+        for (strand in Strand.values()) {
+            val actual = strategy.testAll(0, samplesData, strand, ranges)
+            for ((i, range) in ranges.withIndex()) {
+                val location = Location(range.startOffset, range.endOffset, chromosome, strand)
+                assertEquals(strategy.test(0, samplesData, location), actual[i], 1e-6)
+            }
+        }
+    }
+}
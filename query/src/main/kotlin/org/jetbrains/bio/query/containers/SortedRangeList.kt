@@ -1,122 +1,198 @@
 package org.jetbrains.bio.query.containers
 
-import com.google.common.collect.Iterators
-import com.google.common.collect.Lists
-import com.google.common.collect.Ordering
 import org.jetbrains.bio.genome.Range
 import java.util.*
 
 /**
+ * An immutable list of sorted non-overlapping ranges.
+ *
+ * Ranges are packed into a single array of bounds `[s0, e0, s1, e1, ...]`.
+ * Adjacent ranges are always merged, thus `e_i < s_{i + 1}`. Set operations
+ * are linear merges, which never modify their operands, so a single list
+ * can be shared between threads.
+ *
  * @author Egor Gorbunov
  * @since 09.05.16
  */
-
-class SortedRangeList internal constructor(val bounds: ArrayList<Bound>): Iterable<Range> {
-    data class Bound(val v: Int, val isOpen: Boolean) {
-        var mark = 0
-    }
-
+class SortedRangeList internal constructor(private val bounds: IntArray) : Iterable<Range> {
     init {
         require(bounds.size % 2 == 0)
     }
 
-    companion object {
-        val OPEN_BOUND_FIRST = Comparator<Bound> { a, b ->
-            if (a.v != b.v) {
-                Integer.compare(a.v, b.v)
-            } else if (a.isOpen && b.isOpen) {
-                0
-            } else if (a.isOpen) {
-                -1
+    fun size(): Int {
+        return bounds.size / 2
+    }
+
+    fun startOffset(i: Int) = bounds[2 * i]
+
+    fun endOffset(i: Int) = bounds[2 * i + 1]
+
+    infix fun or(other: SortedRangeList): SortedRangeList {
+        val a = bounds
+        val b = other.bounds
+        val builder = Builder(a.size + b.size)
+        var i = 0
+        var j = 0
+        while (i < a.size || j < b.size) {
+            if (j == b.size || (i < a.size && a[i] <= b[j])) {
+                builder.add(a[i], a[i + 1])
+                i += 2
             } else {
-                1
+                builder.add(b[j], b[j + 1])
+                j += 2
             }
         }
 
-        val CLOSE_BOUND_FIRST = Comparator<Bound> { a, b ->
-            if (a.v != b.v) {
-                Integer.compare(a.v, b.v)
-            } else if (a.isOpen && b.isOpen) {
-                0
-            } else if (a.isOpen) {
-                1
-            } else {
-                -1
+        return builder.build()
+    }
+
+    infix fun and(other: SortedRangeList): SortedRangeList {
+        val a = bounds
+        val b = other.bounds
+        val builder = Builder(a.size + b.size)
+        var i = 0
+        var j = 0
+        while (i < a.size && j < b.size) {
+            val start = Math.max(a[i], b[j])
+            val end = Math.min(a[i + 1], b[j + 1])
+            if (start < end) {
+                builder.add(start, end)
             }
+
+            if (a[i + 1] < b[j + 1]) i += 2 else j += 2
         }
-    }
 
-    fun size(): Int {
-        return bounds.size / 2
+        return builder.build()
     }
 
-    infix fun or(other: SortedRangeList): SortedRangeList {
-        val it = Iterators.mergeSorted(listOf(bounds.iterator(), other.bounds.iterator()), OPEN_BOUND_FIRST)
-        return SortedRangeList(removeOverlaps(Lists.newArrayList<Bound>(it)))
+    /**
+     * Symmetric difference. Every bound toggles the state, bounds present
+     * in both lists cancel out.
+     */
+    infix fun xor(other: SortedRangeList): SortedRangeList {
+        val a = bounds
+        val b = other.bounds
+        val toggles = IntArray(a.size + b.size)
+        var size = 0
+        var i = 0
+        var j = 0
+        while (i < a.size || j < b.size) {
+            if (j == b.size || (i < a.size && a[i] < b[j])) {
+                toggles[size++] = a[i++]
+            } else if (i == a.size || b[j] < a[i]) {
+                toggles[size++] = b[j++]
+            } else {
+                i++
+                j++
+            }
+        }
+
+        val builder = Builder(size)
+        for (k in 0..size / 2 - 1) {
+            builder.add(toggles[2 * k], toggles[2 * k + 1])
+        }
+
+        return builder.build()
     }
 
-    infix fun and(other: SortedRangeList): SortedRangeList {
-        bounds.forEach { it.mark = 0 }
-        other.bounds.forEach { it.mark = 1 }
-        val it = Iterators.mergeSorted(listOf(bounds.iterator(), other.bounds.iterator()), CLOSE_BOUND_FIRST)
-        val bounds_ = Lists.newArrayList<Bound>(it)
-        val newBounds = ArrayList<Bound>()
-        var isLOpened = false
-        var isROpened = false
-        for (b in bounds_) {
-            // here we assume, that ranges in this and other lists are non-overlapping
-            if (b.mark == 0 && b.isOpen) isLOpened = true
-            if (b.mark == 1 && b.isOpen) isROpened = true
-            if (b.isOpen && isLOpened && isROpened) {
-                newBounds.add(Bound(b.v, b.isOpen))
+    /**
+     * Complement of this list within a given range.
+     */
+    fun not(within: Range): SortedRangeList {
+        val builder = Builder(bounds.size + 2)
+        var start = within.startOffset
+        for (i in 0..size() - 1) {
+            val s = startOffset(i)
+            val e = endOffset(i)
+            if (e <= start) {
+                continue
+            } else if (s >= within.endOffset) {
+                break
             }
-            if (!b.isOpen && isLOpened && isROpened) {
-                newBounds.add(Bound(b.v, b.isOpen))
+
+            if (start < s) {
+                builder.add(start, s)
             }
-            if (b.mark == 0 && !b.isOpen) isLOpened = false
-            if (b.mark == 1 && !b.isOpen) isROpened = false
+
+            start = e
         }
-        return SortedRangeList(newBounds)
+
+        if (start < within.endOffset) {
+            builder.add(start, within.endOffset)
+        }
+
+        return builder.build()
     }
 
     override fun iterator(): Iterator<Range> {
-        return object: Iterator<Range> {
+        return object : Iterator<Range> {
             var i = 0
-            override fun hasNext(): Boolean {
-                return i + 1 < bounds.size
-            }
+
+            override fun hasNext() = i < size()
 
             override fun next(): Range {
-                val a = i
-                val b = i + 1
-                assert(bounds[a].isOpen && (!bounds[b].isOpen))
-                i += 2
-                return Range(bounds[a].v, bounds[b].v)
+                val range = Range(startOffset(i), endOffset(i))
+                i++
+                return range
+            }
+        }
+    }
+
+    override fun toString() = "[${joinToString(", ")}]"
+
+    /**
+     * Accumulates ranges sorted by start offset, merging the overlapping
+     * and adjacent ones.
+     */
+    class Builder(capacity: Int = 16) {
+        private var bounds = IntArray(Math.max(capacity, 2))
+        private var size = 0
+
+        fun add(startOffset: Int, endOffset: Int): Builder {
+            require(startOffset <= endOffset) { "invalid range [$startOffset, $endOffset)" }
+            if (startOffset == endOffset) {
+                return this
+            }
+
+            if (size > 0) {
+                check(startOffset >= bounds[size - 2]) { "ranges must be sorted by start offset" }
+                if (startOffset <= bounds[size - 1]) {
+                    bounds[size - 1] = Math.max(bounds[size - 1], endOffset)
+                    return this
+                }
             }
 
+            if (size == bounds.size) {
+                bounds = Arrays.copyOf(bounds, 2 * size)
+            }
+
+            bounds[size++] = startOffset
+            bounds[size++] = endOffset
+            return this
         }
+
+        fun build() = SortedRangeList(Arrays.copyOf(bounds, size))
     }
-}
 
-private fun removeOverlaps(bounds_: Iterable<SortedRangeList.Bound>): ArrayList<SortedRangeList.Bound> {
-    val bounds = ArrayList<SortedRangeList.Bound>()
-    var openedCnt = 0
-    for (b in bounds_) {
-        if (openedCnt == 0) bounds.add(b)
-        if (b.isOpen) openedCnt += 1 else openedCnt -= 1
-        if (openedCnt == 0) bounds.add(SortedRangeList.Bound(b.v, b.isOpen))
+    companion object {
+        val EMPTY = SortedRangeList(IntArray(0))
     }
-    return bounds
 }
 
 fun Iterable<Range>.toSortedRangeList(): SortedRangeList {
-    val bounds_ = ArrayList<SortedRangeList.Bound>()
-    this.forEach {
-        bounds_.add(SortedRangeList.Bound(it.startOffset, true))
-        bounds_.add(SortedRangeList.Bound(it.endOffset, false))
-    }
-    if (!Ordering.from(SortedRangeList.OPEN_BOUND_FIRST).isOrdered(bounds_)) {
-        bounds_.sort(SortedRangeList.OPEN_BOUND_FIRST)
+    var sorted = true
+    var prev = Int.MIN_VALUE
+    for (range in this) {
+        if (range.startOffset < prev) {
+            sorted = false
+            break
+        }
+
+        prev = range.startOffset
     }
-    return SortedRangeList(removeOverlaps(bounds_))
+
+    val ranges = if (sorted) this else sortedBy { it.startOffset }
+    val builder = SortedRangeList.Builder()
+    ranges.forEach { builder.add(it.startOffset, it.endOffset) }
+    return builder.build()
 }
@@ -9,7 +9,23 @@ import java.util.*
  */
 
 abstract class ArithmeticTrack : GeneratedTrack() {
-    abstract fun eval(chRange: ChromosomeRange, binsNum: Int): List<Double>
+    /**
+     * Boxed evaluation, kept for compatibility. Adapts [evalInto].
+     */
+    open fun eval(chRange: ChromosomeRange, binsNum: Int): List<Double> {
+        return evalArray(chRange, binsNum).asList()
+    }
+
+    /**
+     * Evaluates track into the first `binsNum` cells of `out`.
+     */
+    abstract fun evalInto(chRange: ChromosomeRange, binsNum: Int, out: DoubleArray)
+
+    fun evalArray(chRange: ChromosomeRange, binsNum: Int): DoubleArray {
+        val out = DoubleArray(binsNum)
+        evalInto(chRange, binsNum, out)
+        return out
+    }
 }
 
 class NumericTrack(val value: Double) : ArithmeticTrack() {
@@ -17,8 +33,8 @@ class NumericTrack(val value: Double) : ArithmeticTrack() {
         return if (other is NumericTrack && value == other.value) 0 else 1
     }
 
-    override fun eval(chRange: ChromosomeRange, binsNum: Int): List<Double> {
-        return (1..binsNum).map { value }
+    override fun evalInto(chRange: ChromosomeRange, binsNum: Int, out: DoubleArray) {
+        Arrays.fill(out, 0, binsNum, value)
     }
 
     override fun <T> accept(visitor: TreeVisitor<T>): T {
@@ -41,13 +57,28 @@ class BinaryArithmeticTrack(val op: ArithmeticOp,
     }
 
 
-    override fun eval(chRange: ChromosomeRange, binsNum: Int): List<Double> {
-        return lhs.eval(chRange, binsNum).zip(rhs.eval(chRange, binsNum)).map {
+    /**
+     * Evaluates `lhs` in place and combines it with `rhs`, which is either
+     * a scalar or a single temporary buffer. The operation is dispatched
+     * once per node, not once per bin.
+     */
+    override fun evalInto(chRange: ChromosomeRange, binsNum: Int, out: DoubleArray) {
+        lhs.evalInto(chRange, binsNum, out)
+        if (rhs is NumericTrack) {
+            val v = rhs.value
             when (op) {
-                ArithmeticOp.PLUS -> it.first + it.second
-                ArithmeticOp.MINUS -> it.first - it.second
-                ArithmeticOp.MUL -> it.first * it.second
-                ArithmeticOp.DIV -> it.first / it.second
+                ArithmeticOp.PLUS -> for (i in 0..binsNum - 1) out[i] += v
+                ArithmeticOp.MINUS -> for (i in 0..binsNum - 1) out[i] -= v
+                ArithmeticOp.MUL -> for (i in 0..binsNum - 1) out[i] *= v
+                ArithmeticOp.DIV -> for (i in 0..binsNum - 1) out[i] /= v
+            }
+        } else {
+            val other = rhs.evalArray(chRange, binsNum)
+            when (op) {
+                ArithmeticOp.PLUS -> for (i in 0..binsNum - 1) out[i] += other[i]
+                ArithmeticOp.MINUS -> for (i in 0..binsNum - 1) out[i] -= other[i]
+                ArithmeticOp.MUL -> for (i in 0..binsNum - 1) out[i] *= other[i]
+                ArithmeticOp.DIV -> for (i in 0..binsNum - 1) out[i] /= other[i]
             }
         }
     }
@@ -63,19 +94,22 @@ class BinaryArithmeticTrack(val op: ArithmeticOp,
 class IfStatementTrack(val cond: PredicateTrack,
                        val ifTrue: ArithmeticTrack,
                        val ifFalse: ArithmeticTrack) : ArithmeticTrack() {
-    override fun eval(chRange: ChromosomeRange, binsNum: Int): List<Double> {
+    override fun evalInto(chRange: ChromosomeRange, binsNum: Int, out: DoubleArray) {
         val step = chRange.length() / binsNum
         val rangeList = cond.eval(chRange, binsNum)
-        val ans = ArrayList(ifFalse.eval(chRange, binsNum))
-        val trueRes = ifTrue.eval(chRange, binsNum)
-        rangeList.map { Pair(((it.startOffset - chRange.startOffset) / step).toInt(),
-                ((it.endOffset - chRange.startOffset) / step).toInt()) }.forEach {
+        ifFalse.evalInto(chRange, binsNum, out)
+        if (rangeList.size() == 0) {
+            return
+        }
 
-            for (i in it.first..it.second - 1) {
-                ans[i] = trueRes[i]
+        val trueRes = ifTrue.evalArray(chRange, binsNum)
+        for (i in 0..rangeList.size() - 1) {
+            val from = (rangeList.startOffset(i) - chRange.startOffset) / step
+            val to = Math.min(binsNum, (rangeList.endOffset(i) - chRange.startOffset) / step)
+            if (from < to) {
+                System.arraycopy(trueRes, from, out, from, to - from)
             }
         }
-        return ans;
     }
 
     override fun <T> accept(visitor: TreeVisitor<T>): T {
@@ -100,6 +134,10 @@ class NamedArithmeticTrack(val id: String,
         return ref.eval(chRange, binsNum)
     }
 
+    override fun evalInto(chRange: ChromosomeRange, binsNum: Int, out: DoubleArray) {
+        ref.evalInto(chRange, binsNum, out)
+    }
+
     override fun <T> accept(visitor: TreeVisitor<T>): T {
         return visitor.visit(this)
     }
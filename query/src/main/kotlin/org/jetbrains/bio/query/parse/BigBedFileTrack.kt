@@ -1,24 +1,27 @@
 package org.jetbrains.bio.query.parse
 
-import org.jetbrains.bio.big.BigBedFile
 import org.jetbrains.bio.genome.ChromosomeRange
+import org.jetbrains.bio.io.BigFilePool
+import java.nio.file.Path
 
 /**
  * @author Egor Gorbunov
  * @since 01.05.16
  */
 
-class BigBedFileTrack(val id: String, val bbf: BigBedFile): ArithmeticTrack() {
+class BigBedFileTrack(val id: String, val path: Path): ArithmeticTrack() {
     override fun compareTo(other: Statement): Int {
         return if (other is BigBedFileTrack && id == other.id) 0 else 1 // TODO: Is that enough?
     }
 
 
-    override fun eval(chRange: ChromosomeRange, binsNum: Int): List<Double> {
-        return bbf.summarize(chRange.chromosome.name,
-                chRange.startOffset,
-                chRange.endOffset,
-                binsNum).map { it.sum }
+    override fun evalInto(chRange: ChromosomeRange, binsNum: Int, out: DoubleArray) {
+        val summaries = BigFilePool.withBigBed(path) {
+            it.summarize(chRange.chromosome.name, chRange.startOffset, chRange.endOffset, binsNum)
+        }
+        for (i in 0..binsNum - 1) {
+            out[i] = summaries[i].sum
+        }
     }
 
     override fun <T> accept(visitor: TreeVisitor<T>): T {
@@ -1,13 +1,7 @@
 package org.jetbrains.bio.query.parse
 
-import gnu.trove.list.array.TIntArrayList
 import org.jetbrains.bio.genome.ChromosomeRange
-import org.jetbrains.bio.genome.Range
-import org.jetbrains.bio.genome.containers.RangeList
-import org.jetbrains.bio.genome.containers.minus
-import org.jetbrains.bio.genome.containers.toRangeList
 import org.jetbrains.bio.query.containers.SortedRangeList
-import org.jetbrains.bio.query.containers.toSortedRangeList
 import java.util.*
 
 /**
@@ -28,7 +22,7 @@ class NotPredicateTrack(val rhs: PredicateTrack): PredicateTrack() {
     }
 
     override fun eval(chRange: ChromosomeRange, binsNum: Int): SortedRangeList {
-        return (chRange.toRange() - rhs.eval(chRange, binsNum)).toSortedRangeList()
+        return rhs.eval(chRange, binsNum).not(chRange.toRange())
     }
 
     override fun <T> accept(visitor: TreeVisitor<T>): T {
@@ -76,7 +70,7 @@ class TruePredicateTrack(): PredicateTrack() {
     }
 
     override fun eval(chRange: ChromosomeRange, binsNum: Int): SortedRangeList {
-        return listOf(chRange.toRange()).toSortedRangeList()
+        return SortedRangeList.Builder(2).add(chRange.startOffset, chRange.endOffset).build()
     }
 
     override fun <T> accept(visitor: TreeVisitor<T>): T {
@@ -90,7 +84,7 @@ class FalsePredicateTrack(): PredicateTrack() {
     }
 
     override fun eval(chRange: ChromosomeRange, binsNum: Int): SortedRangeList {
-        return emptyList<Range>().toSortedRangeList()
+        return SortedRangeList.EMPTY
     }
 
     override fun <T> accept(visitor: TreeVisitor<T>): T {
@@ -120,27 +114,24 @@ class RelationPredicateTrack(val op: RelationOp,
     }
 
     override fun eval(chRange: ChromosomeRange, binsNum: Int): SortedRangeList {
-        val step = (chRange.length() / binsNum).toInt()
-        val ranges = ArrayList<Range>()
-
-        var s = chRange.startOffset
-        var e = chRange.startOffset
-        lhs.eval(chRange, binsNum).zip(rhs.eval(chRange, binsNum)).forEachIndexed { i, p ->
-            val res = when (op) {
-                RelationOp.EQ  -> p.first == p.second
-                RelationOp.LE  -> p.first < p.second
-                RelationOp.GE  -> p.first > p.second
-                RelationOp.LEQ -> p.first <= p.second
-                RelationOp.GEQ -> p.first >= p.second
-                RelationOp.NEQ -> p.first != p.second
-            }
+        val mask = test(lhs.evalArray(chRange, binsNum), rhs.evalArray(chRange, binsNum), binsNum)
+        return mask.toSortedRangeList(chRange, binsNum)
+    }
 
-            if (!res && s < e) ranges.add(Range(s, e))
-            e += step
-            if (i == binsNum && s < e) ranges.add(Range(s, e))
-            if (!res) s = e
+    /**
+     * Compares tracks bin by bin, the operation is dispatched once per call.
+     */
+    private fun test(a: DoubleArray, b: DoubleArray, binsNum: Int): BooleanArray {
+        val mask = BooleanArray(binsNum)
+        when (op) {
+            RelationOp.EQ  -> for (i in 0..binsNum - 1) mask[i] = a[i] == b[i]
+            RelationOp.LE  -> for (i in 0..binsNum - 1) mask[i] = a[i] < b[i]
+            RelationOp.GE  -> for (i in 0..binsNum - 1) mask[i] = a[i] > b[i]
+            RelationOp.LEQ -> for (i in 0..binsNum - 1) mask[i] = a[i] <= b[i]
+            RelationOp.GEQ -> for (i in 0..binsNum - 1) mask[i] = a[i] >= b[i]
+            RelationOp.NEQ -> for (i in 0..binsNum - 1) mask[i] = a[i] != b[i]
         }
-        return ranges.toSortedRangeList()
+        return mask
     }
 
     override fun <T> accept(visitor: TreeVisitor<T>): T {
@@ -161,4 +152,39 @@ class NamedPredicateTrack(val id: String,
     override fun <T> accept(visitor: TreeVisitor<T>): T {
         return visitor.visit(this)
     }
-}
\ No newline at end of file
+}
+
+/**
+ * Converts a per-bin mask into ranges, consecutive bins are merged.
+ */
+internal fun BooleanArray.toSortedRangeList(chRange: ChromosomeRange, binsNum: Int): SortedRangeList {
+    val step = chRange.length() / binsNum
+    val ranges = SortedRangeList.Builder()
+    var s = chRange.startOffset
+    var e = chRange.startOffset
+    for (i in 0..binsNum - 1) {
+        val res = this[i]
+        if (!res && s < e) ranges.add(s, e)
+        e += step
+        if (res && i == binsNum - 1) ranges.add(s, e)
+        if (!res) s = e
+    }
+    return ranges.build()
+}
+
+/**
+ * Converts ranges into a per-bin mask, a bin is set if it is covered by
+ * a range. Uses the same bin boundaries as [IfStatementTrack].
+ */
+internal fun SortedRangeList.toMask(chRange: ChromosomeRange, binsNum: Int): BooleanArray {
+    val step = chRange.length() / binsNum
+    val mask = BooleanArray(binsNum)
+    for (i in 0..size() - 1) {
+        val from = (startOffset(i) - chRange.startOffset) / step
+        val to = Math.min(binsNum, (endOffset(i) - chRange.startOffset) / step)
+        if (from < to) {
+            Arrays.fill(mask, from, to, true)
+        }
+    }
+    return mask
+}
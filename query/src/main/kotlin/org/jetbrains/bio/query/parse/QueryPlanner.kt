@@ -0,0 +1,198 @@
+package org.jetbrains.bio.query.parse
+
+import java.util.*
+
+/**
+ * Rewrites parsed statements, so that structurally identical subtrees
+ * are represented by a single node and evaluated once.
+ *
+ * Shared subtrees, named tracks and file backed tracks are wrapped into
+ * [CachedArithmeticTrack] or [CachedPredicateTrack], which store their
+ * results in a given [TrackResultCache].
+ */
+class QueryPlanner(val cache: TrackResultCache) {
+    /**
+     * Named tracks are keyed by the identity of the referenced tree, thus
+     * results computed before the name was redefined are never reused.
+     * Statements don't override [Object.equals], so weak keys are compared
+     * by identity.
+     */
+    private val generations = WeakHashMap<Statement, Int>()
+    private var nextGeneration = 0
+
+    fun plan(statement: Statement): Statement {
+        val keys = IdentityHashMap<Statement, String>()
+        val names = HashMap<String, Set<String>>()
+        val counts = HashMap<String, Int>()
+        statement.accept(KeyVisitor(keys, names))
+        keys.values.forEach { counts[it] = (counts[it] ?: 0) + 1 }
+        return statement.accept(Rewriter(keys, names, counts))
+    }
+
+    private fun generation(ref: Statement): Int {
+        return synchronized(generations) {
+            generations.getOrPut(ref) { nextGeneration++ }
+        }
+    }
+
+    /**
+     * Computes fully parenthesized canonical keys of all subtrees and the
+     * track names each of them refers to.
+     */
+    private inner class KeyVisitor(val keys: IdentityHashMap<Statement, String>,
+                                   val names: HashMap<String, Set<String>>) : TreeVisitor<String> {
+
+        private fun key(node: Statement, key: String, vararg children: String): String {
+            keys[node] = key
+            val deps = HashSet<String>()
+            children.forEach { deps.addAll(names[it]!!) }
+            if (node is NamedArithmeticTrack) deps.add(node.id)
+            if (node is NamedPredicateTrack) deps.add(node.id)
+            if (node is BigBedFileTrack) deps.add(node.id)
+            names[key] = deps
+            return key
+        }
+
+        override fun visit(node: BinaryArithmeticTrack): String {
+            val lhs = node.lhs.accept(this)
+            val rhs = node.rhs.accept(this)
+            return key(node, "($lhs${node.op.str}$rhs)", lhs, rhs)
+        }
+
+        override fun visit(node: NumericTrack) = key(node, node.value.toString())
+
+        override fun visit(node: AssignStatement): String {
+            val track = node.track.accept(this)
+            return key(node, "${node.id}:=$track", track)
+        }
+
+        override fun visit(node: ShowTrackStatement): String {
+            val track = node.track.accept(this)
+            return key(node, "show $track", track)
+        }
+
+        override fun visit(node: IfStatementTrack): String {
+            val cond = node.cond.accept(this)
+            val ifTrue = node.ifTrue.accept(this)
+            val ifFalse = node.ifFalse.accept(this)
+            return key(node, "(if $cond then $ifTrue else $ifFalse)", cond, ifTrue, ifFalse)
+        }
+
+        override fun visit(node: NotPredicateTrack): String {
+            val rhs = node.rhs.accept(this)
+            return key(node, "(NOT $rhs)", rhs)
+        }
+
+        override fun visit(node: OrPredicateTrack): String {
+            val lhs = node.lhs.accept(this)
+            val rhs = node.rhs.accept(this)
+            return key(node, "($lhs OR $rhs)", lhs, rhs)
+        }
+
+        override fun visit(node: AndPredicateTrack): String {
+            val lhs = node.lhs.accept(this)
+            val rhs = node.rhs.accept(this)
+            return key(node, "($lhs AND $rhs)", lhs, rhs)
+        }
+
+        override fun visit(node: FalsePredicateTrack) = key(node, "false")
+
+        override fun visit(node: TruePredicateTrack) = key(node, "true")
+
+        override fun visit(node: RelationPredicateTrack): String {
+            val lhs = node.lhs.accept(this)
+            val rhs = node.rhs.accept(this)
+            return key(node, "($lhs ${node.op.str} $rhs)", lhs, rhs)
+        }
+
+        override fun visit(node: BigBedFileTrack): String {
+            return key(node, "#${node.id}:${generation(node)}")
+        }
+
+        override fun visit(node: NamedArithmeticTrack): String {
+            return key(node, "@${node.id}:${generation(node.ref)}")
+        }
+
+        override fun visit(node: NamedPredicateTrack): String {
+            return key(node, "@${node.id}:${generation(node.ref)}")
+        }
+    }
+
+    /**
+     * Rebuilds the tree bottom-up, reusing a single planned node per key.
+     */
+    private inner class Rewriter(val keys: IdentityHashMap<Statement, String>,
+                                 val names: HashMap<String, Set<String>>,
+                                 val counts: HashMap<String, Int>) : TreeVisitor<Statement> {
+        private val planned = HashMap<String, Statement>()
+
+        private fun arithmetic(node: ArithmeticTrack): ArithmeticTrack = node.accept(this) as ArithmeticTrack
+
+        private fun predicate(node: PredicateTrack): PredicateTrack = node.accept(this) as PredicateTrack
+
+        private fun plan(node: Statement, cached: Boolean, build: () -> Statement): Statement {
+            val key = keys[node]!!
+            return planned.getOrPut(key) {
+                val result = build()
+                if (!cached && (counts[key] ?: 0) < 2) {
+                    result
+                } else {
+                    cache.register(key, names[key]!!)
+                    when (result) {
+                        is ArithmeticTrack -> CachedArithmeticTrack(key, result, cache)
+                        is PredicateTrack -> CachedPredicateTrack(key, result, cache)
+                        else -> result
+                    }
+                }
+            }
+        }
+
+        override fun visit(node: BinaryArithmeticTrack) = plan(node, false) {
+            BinaryArithmeticTrack(node.op, arithmetic(node.lhs), arithmetic(node.rhs))
+        }
+
+        override fun visit(node: NumericTrack): Statement = node
+
+        override fun visit(node: AssignStatement): Statement {
+            return AssignStatement(node.id, node.track.accept(this) as GeneratedTrack)
+        }
+
+        override fun visit(node: ShowTrackStatement): Statement {
+            return ShowTrackStatement(node.track.accept(this) as GeneratedTrack)
+        }
+
+        override fun visit(node: IfStatementTrack) = plan(node, false) {
+            IfStatementTrack(predicate(node.cond), arithmetic(node.ifTrue), arithmetic(node.ifFalse))
+        }
+
+        override fun visit(node: NotPredicateTrack) = plan(node, false) {
+            NotPredicateTrack(predicate(node.rhs))
+        }
+
+        override fun visit(node: OrPredicateTrack) = plan(node, false) {
+            OrPredicateTrack(predicate(node.lhs), predicate(node.rhs))
+        }
+
+        override fun visit(node: AndPredicateTrack) = plan(node, false) {
+            AndPredicateTrack(predicate(node.lhs), predicate(node.rhs))
+        }
+
+        override fun visit(node: FalsePredicateTrack): Statement = node
+
+        override fun visit(node: TruePredicateTrack): Statement = node
+
+        override fun visit(node: RelationPredicateTrack) = plan(node, false) {
+            RelationPredicateTrack(node.op, arithmetic(node.lhs), arithmetic(node.rhs))
+        }
+
+        override fun visit(node: BigBedFileTrack) = plan(node, true) { node }
+
+        /**
+         * Referenced trees were planned when they were assigned, so they
+         * are kept as is.
+         */
+        override fun visit(node: NamedArithmeticTrack) = plan(node, true) { node }
+
+        override fun visit(node: NamedPredicateTrack) = plan(node, true) { node }
+    }
+}
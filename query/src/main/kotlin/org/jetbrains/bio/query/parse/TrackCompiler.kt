@@ -0,0 +1,396 @@
+package org.jetbrains.bio.query.parse
+
+import org.jetbrains.bio.genome.ChromosomeRange
+import org.jetbrains.bio.query.containers.SortedRangeList
+import java.util.*
+
+enum class EvaluationMode {
+    /** Every AST node produces its own intermediate result. */
+    INTERPRETED,
+    /** Whole expressions are evaluated in a single per-bin loop. */
+    COMPILED
+}
+
+/**
+ * Compiles arithmetic and relational expressions into fused kernels.
+ *
+ * Leaves, i.e. file backed, named and cached tracks, are evaluated once
+ * into primitive buffers, even if shared by several nodes. All the inner
+ * arithmetic nodes, including `if` statements and comparisons, are
+ * turned into a tree of [Kernel]s, each running a single loop per
+ * evaluation. Leaf and constant operands are read in place, so unlike
+ * the interpreted mode they are neither copied nor re-evaluated.
+ *
+ * The result of a compiled track is always the same as the one of the
+ * source track. In particular, logical operations on predicates are
+ * only fused when their operands are aligned to the bins, otherwise
+ * they are done on ranges as in the interpreted mode.
+ */
+object TrackCompiler {
+    fun compile(track: GeneratedTrack, mode: EvaluationMode): GeneratedTrack {
+        if (mode == EvaluationMode.INTERPRETED) {
+            return track
+        }
+
+        return when (track) {
+            is ArithmeticTrack -> compile(track)
+            is PredicateTrack -> compile(track)
+            else -> track
+        }
+    }
+
+    /**
+     * Named and cached tracks are kept around the compiled expression,
+     * so that its results still go through the [TrackResultCache].
+     */
+    fun compile(track: ArithmeticTrack): ArithmeticTrack = when (track) {
+        is CachedArithmeticTrack -> CachedArithmeticTrack(track.expr, compile(track.track), track.cache)
+        is NamedArithmeticTrack -> NamedArithmeticTrack(track.id, compile(track.ref))
+        is CompiledArithmeticTrack -> track
+        else -> if (isLeaf(track)) track else CompiledArithmeticTrack(track)
+    }
+
+    fun compile(track: PredicateTrack): PredicateTrack = when (track) {
+        is CachedPredicateTrack -> CachedPredicateTrack(track.expr, compile(track.track), track.cache)
+        is NamedPredicateTrack -> NamedPredicateTrack(track.id, compile(track.ref))
+        is CompiledPredicateTrack -> track
+        else -> if (isLeaf(track)) track else CompiledPredicateTrack(track)
+    }
+
+    /**
+     * Returns the expression behind named and cached tracks, e.g. the
+     * planned tree of a track shown by name.
+     */
+    fun unwrap(track: ArithmeticTrack): ArithmeticTrack = when (track) {
+        is NamedArithmeticTrack -> unwrap(track.ref)
+        is CachedArithmeticTrack -> unwrap(track.track)
+        else -> track
+    }
+
+    fun unwrap(track: PredicateTrack): PredicateTrack = when (track) {
+        is NamedPredicateTrack -> unwrap(track.ref)
+        is CachedPredicateTrack -> unwrap(track.track)
+        else -> track
+    }
+
+    internal fun isLeaf(track: ArithmeticTrack): Boolean {
+        return track !is NumericTrack && track !is BinaryArithmeticTrack && track !is IfStatementTrack
+    }
+
+    internal fun isLeaf(track: PredicateTrack): Boolean {
+        return track !is RelationPredicateTrack && track !is AndPredicateTrack && track !is OrPredicateTrack
+               && track !is NotPredicateTrack && track !is TruePredicateTrack && track !is FalsePredicateTrack
+    }
+
+    /**
+     * Returns `true` if the predicate only consists of comparisons and
+     * constants, so that its ranges are unions of whole bins.
+     */
+    internal fun isBinAligned(track: PredicateTrack): Boolean = when (track) {
+        is RelationPredicateTrack, is TruePredicateTrack, is FalsePredicateTrack -> true
+        is NotPredicateTrack -> isBinAligned(track.rhs)
+        is AndPredicateTrack -> isBinAligned(track.lhs) && isBinAligned(track.rhs)
+        is OrPredicateTrack -> isBinAligned(track.lhs) && isBinAligned(track.rhs)
+        else -> false
+    }
+}
+
+/**
+ * Per-evaluation buffers of the kernel leaves.
+ */
+internal class Frame(val values: Array<DoubleArray>, val masks: Array<BooleanArray>)
+
+/**
+ * A node of a compiled expression evaluated a whole range at a time.
+ *
+ * Each node is called once per evaluation and runs a plain loop over
+ * primitive arrays, with the operation dispatched outside of the loop,
+ * so there is no virtual call per bin. Leaf and constant operands are
+ * read in place, thus the common shapes, e.g. `a + b`, `a * 2` or
+ * `a > b`, are single loops over the [Frame] without intermediate
+ * buffers.
+ */
+internal abstract class Kernel {
+    /** Writes the values of bins `[0, n)` into [out]. */
+    abstract fun fill(frame: Frame, out: DoubleArray, n: Int)
+
+    /**
+     * Returns the values of bins `[0, n)`, either as a leaf buffer or
+     * written into [buffer].
+     */
+    open fun values(frame: Frame, n: Int, buffer: DoubleArray): DoubleArray {
+        fill(frame, buffer, n)
+        return buffer
+    }
+}
+
+internal class ConstantKernel(val value: Double) : Kernel() {
+    override fun fill(frame: Frame, out: DoubleArray, n: Int) = Arrays.fill(out, 0, n, value)
+}
+
+internal class LeafKernel(private val slot: Int) : Kernel() {
+    override fun fill(frame: Frame, out: DoubleArray, n: Int) {
+        System.arraycopy(frame.values[slot], 0, out, 0, n)
+    }
+
+    override fun values(frame: Frame, n: Int, buffer: DoubleArray) = frame.values[slot]
+}
+
+internal class BinaryKernel(private val op: ArithmeticOp,
+                            private val a: Kernel, private val b: Kernel) : Kernel() {
+    override fun fill(frame: Frame, out: DoubleArray, n: Int) {
+        when {
+            b is ConstantKernel -> apply(op, a.values(frame, n, out), b.value, out, n)
+            a is ConstantKernel -> apply(op, a.value, b.values(frame, n, out), out, n)
+            else -> {
+                // The left operand is evaluated in place.
+                val x = a.values(frame, n, out)
+                val y = b.values(frame, n, scratch(b, n))
+                apply(op, x, y, out, n)
+            }
+        }
+    }
+
+    companion object {
+        fun apply(op: ArithmeticOp, x: DoubleArray, y: DoubleArray, out: DoubleArray, n: Int) {
+            when (op) {
+                ArithmeticOp.PLUS -> for (i in 0..n - 1) out[i] = x[i] + y[i]
+                ArithmeticOp.MINUS -> for (i in 0..n - 1) out[i] = x[i] - y[i]
+                ArithmeticOp.MUL -> for (i in 0..n - 1) out[i] = x[i] * y[i]
+                ArithmeticOp.DIV -> for (i in 0..n - 1) out[i] = x[i] / y[i]
+            }
+        }
+
+        fun apply(op: ArithmeticOp, x: DoubleArray, y: Double, out: DoubleArray, n: Int) {
+            when (op) {
+                ArithmeticOp.PLUS -> for (i in 0..n - 1) out[i] = x[i] + y
+                ArithmeticOp.MINUS -> for (i in 0..n - 1) out[i] = x[i] - y
+                ArithmeticOp.MUL -> for (i in 0..n - 1) out[i] = x[i] * y
+                ArithmeticOp.DIV -> for (i in 0..n - 1) out[i] = x[i] / y
+            }
+        }
+
+        fun apply(op: ArithmeticOp, x: Double, y: DoubleArray, out: DoubleArray, n: Int) {
+            when (op) {
+                ArithmeticOp.PLUS -> for (i in 0..n - 1) out[i] = x + y[i]
+                ArithmeticOp.MINUS -> for (i in 0..n - 1) out[i] = x - y[i]
+                ArithmeticOp.MUL -> for (i in 0..n - 1) out[i] = x * y[i]
+                ArithmeticOp.DIV -> for (i in 0..n - 1) out[i] = x / y[i]
+            }
+        }
+    }
+}
+
+internal class IfKernel(private val cond: PredicateKernel,
+                        private val ifTrue: Kernel, private val ifFalse: Kernel) : Kernel() {
+    override fun fill(frame: Frame, out: DoubleArray, n: Int) {
+        val mask = BooleanArray(n)
+        cond.fill(frame, mask, n)
+        val x = ifTrue.values(frame, n, out)
+        val y = ifFalse.values(frame, n, scratch(ifFalse, n))
+        for (i in 0..n - 1) {
+            out[i] = if (mask[i]) x[i] else y[i]
+        }
+    }
+}
+
+/** Leaves are read in place, so they need no buffer of their own. */
+private fun scratch(kernel: Kernel, n: Int) = if (kernel is LeafKernel) EMPTY else DoubleArray(n)
+
+private val EMPTY = DoubleArray(0)
+
+internal abstract class PredicateKernel {
+    /** Writes the values of bins `[0, n)` into [out]. */
+    abstract fun fill(frame: Frame, out: BooleanArray, n: Int)
+}
+
+internal class ConstantPredicateKernel(private val value: Boolean) : PredicateKernel() {
+    override fun fill(frame: Frame, out: BooleanArray, n: Int) = Arrays.fill(out, 0, n, value)
+}
+
+internal class MaskKernel(private val slot: Int) : PredicateKernel() {
+    override fun fill(frame: Frame, out: BooleanArray, n: Int) {
+        System.arraycopy(frame.masks[slot], 0, out, 0, n)
+    }
+}
+
+internal class NotKernel(private val a: PredicateKernel) : PredicateKernel() {
+    override fun fill(frame: Frame, out: BooleanArray, n: Int) {
+        a.fill(frame, out, n)
+        for (i in 0..n - 1) {
+            out[i] = !out[i]
+        }
+    }
+}
+
+internal class LogicalKernel(private val and: Boolean,
+                             private val a: PredicateKernel,
+                             private val b: PredicateKernel) : PredicateKernel() {
+    override fun fill(frame: Frame, out: BooleanArray, n: Int) {
+        a.fill(frame, out, n)
+        val other = BooleanArray(n)
+        b.fill(frame, other, n)
+        if (and) {
+            for (i in 0..n - 1) out[i] = out[i] && other[i]
+        } else {
+            for (i in 0..n - 1) out[i] = out[i] || other[i]
+        }
+    }
+}
+
+internal class RelationKernel(private val op: RelationOp,
+                              private val a: Kernel, private val b: Kernel) : PredicateKernel() {
+    override fun fill(frame: Frame, out: BooleanArray, n: Int) {
+        if (b is ConstantKernel) {
+            compare(op, a.values(frame, n, scratch(a, n)), b.value, out, n)
+        } else {
+            val x = if (a is ConstantKernel) {
+                // Rare enough to not deserve a loop of its own.
+                a.values(frame, n, DoubleArray(n))
+            } else {
+                a.values(frame, n, scratch(a, n))
+            }
+
+            compare(op, x, b.values(frame, n, scratch(b, n)), out, n)
+        }
+    }
+
+    companion object {
+        fun compare(op: RelationOp, x: DoubleArray, y: DoubleArray, out: BooleanArray, n: Int) {
+            when (op) {
+                RelationOp.EQ -> for (i in 0..n - 1) out[i] = x[i] == y[i]
+                RelationOp.NEQ -> for (i in 0..n - 1) out[i] = x[i] != y[i]
+                RelationOp.LE -> for (i in 0..n - 1) out[i] = x[i] < y[i]
+                RelationOp.GE -> for (i in 0..n - 1) out[i] = x[i] > y[i]
+                RelationOp.LEQ -> for (i in 0..n - 1) out[i] = x[i] <= y[i]
+                RelationOp.GEQ -> for (i in 0..n - 1) out[i] = x[i] >= y[i]
+            }
+        }
+
+        fun compare(op: RelationOp, x: DoubleArray, y: Double, out: BooleanArray, n: Int) {
+            when (op) {
+                RelationOp.EQ -> for (i in 0..n - 1) out[i] = x[i] == y
+                RelationOp.NEQ -> for (i in 0..n - 1) out[i] = x[i] != y
+                RelationOp.LE -> for (i in 0..n - 1) out[i] = x[i] < y
+                RelationOp.GE -> for (i in 0..n - 1) out[i] = x[i] > y
+                RelationOp.LEQ -> for (i in 0..n - 1) out[i] = x[i] <= y
+                RelationOp.GEQ -> for (i in 0..n - 1) out[i] = x[i] >= y
+            }
+        }
+    }
+}
+
+/**
+ * Builds a kernel tree, collecting the leaves it reads from. A leaf
+ * shared by several nodes, e.g. by the planner, is evaluated once.
+ */
+internal class KernelBuilder {
+    val arithmeticLeaves = ArrayList<ArithmeticTrack>()
+    val predicateLeaves = ArrayList<PredicateTrack>()
+    private val slots = IdentityHashMap<GeneratedTrack, Int>()
+
+    fun build(track: ArithmeticTrack): Kernel = when (track) {
+        is NumericTrack -> ConstantKernel(track.value)
+        is BinaryArithmeticTrack -> BinaryKernel(track.op, build(track.lhs), build(track.rhs))
+        is IfStatementTrack -> IfKernel(build(track.cond), build(track.ifTrue), build(track.ifFalse))
+        else -> LeafKernel(slots.getOrPut(track) {
+            arithmeticLeaves.add(track)
+            arithmeticLeaves.size - 1
+        })
+    }
+
+    /**
+     * Per-bin logic only matches range operations for bin aligned
+     * operands, anything else is evaluated on ranges and used as a mask.
+     */
+    fun build(track: PredicateTrack): PredicateKernel = when {
+        !TrackCompiler.isBinAligned(track) -> MaskKernel(slots.getOrPut(track) {
+            predicateLeaves.add(track)
+            predicateLeaves.size - 1
+        })
+        else -> buildAligned(track)
+    }
+
+    private fun buildAligned(track: PredicateTrack): PredicateKernel = when (track) {
+        is TruePredicateTrack -> ConstantPredicateKernel(true)
+        is FalsePredicateTrack -> ConstantPredicateKernel(false)
+        is NotPredicateTrack -> NotKernel(build(track.rhs))
+        is AndPredicateTrack -> LogicalKernel(true, build(track.lhs), build(track.rhs))
+        is OrPredicateTrack -> LogicalKernel(false, build(track.lhs), build(track.rhs))
+        is RelationPredicateTrack -> RelationKernel(track.op, build(track.lhs), build(track.rhs))
+        else -> throw IllegalArgumentException("unexpected predicate: ${track.javaClass.simpleName}")
+    }
+
+    fun frame(chRange: ChromosomeRange, binsNum: Int): Frame {
+        val values = Array(arithmeticLeaves.size) { arithmeticLeaves[it].evalArray(chRange, binsNum) }
+        val masks = Array(predicateLeaves.size) {
+            predicateLeaves[it].eval(chRange, binsNum).toMask(chRange, binsNum)
+        }
+        return Frame(values, masks)
+    }
+}
+
+class CompiledArithmeticTrack internal constructor(val source: ArithmeticTrack) : ArithmeticTrack() {
+    private val builder = KernelBuilder()
+    private val kernel = builder.build(source)
+
+    override fun evalInto(chRange: ChromosomeRange, binsNum: Int, out: DoubleArray) {
+        kernel.fill(builder.frame(chRange, binsNum), out, binsNum)
+    }
+
+    override fun compareTo(other: Statement): Int {
+        return source.compareTo(if (other is CompiledArithmeticTrack) other.source else other)
+    }
+
+    override fun <T> accept(visitor: TreeVisitor<T>): T {
+        return source.accept(visitor)
+    }
+}
+
+/**
+ * Comparisons are fused with their arithmetic operands, while logical
+ * operations are done on the resulting ranges, exactly as in the
+ * interpreted mode. Ranges of named or file backed predicates need not
+ * be aligned to the bins, so they can't be combined per bin.
+ */
+class CompiledPredicateTrack internal constructor(val source: PredicateTrack) : PredicateTrack() {
+    private val root = lower(source)
+
+    override fun eval(chRange: ChromosomeRange, binsNum: Int): SortedRangeList {
+        return root.eval(chRange, binsNum)
+    }
+
+    override fun compareTo(other: Statement): Int {
+        return source.compareTo(if (other is CompiledPredicateTrack) other.source else other)
+    }
+
+    override fun <T> accept(visitor: TreeVisitor<T>): T {
+        return source.accept(visitor)
+    }
+
+    private fun lower(track: PredicateTrack): PredicateTrack = when (track) {
+        is RelationPredicateTrack -> FusedRelationTrack(track)
+        is NotPredicateTrack -> NotPredicateTrack(lower(track.rhs))
+        is AndPredicateTrack -> AndPredicateTrack(lower(track.lhs), lower(track.rhs))
+        is OrPredicateTrack -> OrPredicateTrack(lower(track.lhs), lower(track.rhs))
+        else -> track
+    }
+}
+
+/**
+ * A comparison evaluated in a single per-bin loop over its operands.
+ */
+internal class FusedRelationTrack(val source: RelationPredicateTrack) : PredicateTrack() {
+    private val builder = KernelBuilder()
+    private val kernel = builder.build(source)
+
+    override fun eval(chRange: ChromosomeRange, binsNum: Int): SortedRangeList {
+        val mask = BooleanArray(binsNum)
+        kernel.fill(builder.frame(chRange, binsNum), mask, binsNum)
+        return mask.toSortedRangeList(chRange, binsNum)
+    }
+
+    override fun compareTo(other: Statement): Int = source.compareTo(other)
+
+    override fun <T> accept(visitor: TreeVisitor<T>): T = source.accept(visitor)
+}
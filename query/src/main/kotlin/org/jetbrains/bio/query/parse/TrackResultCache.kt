@@ -0,0 +1,116 @@
+package org.jetbrains.bio.query.parse
+
+import com.google.common.cache.Cache
+import com.google.common.cache.CacheBuilder
+import com.google.common.cache.CacheStats
+import com.google.common.cache.Weigher
+import org.jetbrains.bio.genome.ChromosomeRange
+import org.jetbrains.bio.query.containers.SortedRangeList
+import java.util.concurrent.ConcurrentHashMap
+
+/**
+ * Memory-bounded cache of evaluated subtrees.
+ *
+ * Results are keyed by (canonical subtree key, chromosome range, bins).
+ * Each subtree key remembers the track names it refers to, so that
+ * results can be dropped once one of those names is redefined.
+ */
+class TrackResultCache(maxBytes: Long = DEFAULT_MAX_BYTES) {
+    data class Key(val expr: String, val chRange: ChromosomeRange, val binsNum: Int)
+
+    private val dependencies = ConcurrentHashMap<String, Set<String>>()
+
+    private val cache: Cache<Key, Any> = CacheBuilder.newBuilder()
+            .maximumWeight(maxBytes)
+            .weigher(Weigher<Key, Any> { key, value ->
+                when (value) {
+                    is DoubleArray -> 8 * value.size
+                    is SortedRangeList -> 8 * value.size()
+                    else -> 0
+                }
+            })
+            .recordStats()
+            .build<Key, Any>()
+
+    internal fun register(expr: String, names: Set<String>) {
+        dependencies[expr] = names
+    }
+
+    internal fun getArithmetic(key: Key, loader: () -> DoubleArray): DoubleArray {
+        return cache.get(key) { loader() } as DoubleArray
+    }
+
+    internal fun getPredicate(key: Key, loader: () -> SortedRangeList): SortedRangeList {
+        return cache.get(key) { loader() } as SortedRangeList
+    }
+
+    /**
+     * Drops all results, which depend on a track with a given name.
+     *
+     * The dependencies themselves are kept, because planned trees
+     * referring to the dropped results might still be evaluated and
+     * should be invalidated on the next redefinition as well.
+     */
+    fun invalidate(name: String) {
+        val stale = dependencies.filter { name in it.value }.keys
+        if (stale.isNotEmpty()) {
+            cache.asMap().keys.removeAll { it.expr in stale }
+        }
+    }
+
+    fun invalidateAll() {
+        cache.invalidateAll()
+        dependencies.clear()
+    }
+
+    fun size() = cache.size()
+
+    fun stats(): CacheStats = cache.stats()
+
+    companion object {
+        const val DEFAULT_MAX_BYTES = 64L * 1024 * 1024
+    }
+}
+
+/**
+ * A transparent node, which evaluates its subtree at most once per
+ * (range, bins) pair. Visitors see the wrapped track.
+ */
+class CachedArithmeticTrack internal constructor(val expr: String,
+                                                 val track: ArithmeticTrack,
+                                                 internal val cache: TrackResultCache) : ArithmeticTrack() {
+    override fun evalInto(chRange: ChromosomeRange, binsNum: Int, out: DoubleArray) {
+        val values = cache.getArithmetic(TrackResultCache.Key(expr, chRange, binsNum)) {
+            track.evalArray(chRange, binsNum)
+        }
+
+        // Callers are free to modify 'out', so the cached array is never exposed.
+        System.arraycopy(values, 0, out, 0, binsNum)
+    }
+
+    override fun compareTo(other: Statement): Int {
+        return track.compareTo(if (other is CachedArithmeticTrack) other.track else other)
+    }
+
+    override fun <T> accept(visitor: TreeVisitor<T>): T {
+        return track.accept(visitor)
+    }
+}
+
+class CachedPredicateTrack internal constructor(val expr: String,
+                                                val track: PredicateTrack,
+                                                internal val cache: TrackResultCache) : PredicateTrack() {
+    override fun eval(chRange: ChromosomeRange, binsNum: Int): SortedRangeList {
+        return cache.getPredicate(TrackResultCache.Key(expr, chRange, binsNum)) {
+            track.eval(chRange, binsNum)
+        }
+    }
+
+    override fun compareTo(other: Statement): Int {
+        return track.compareTo(if (other is CachedPredicateTrack) other.track else other)
+    }
+
+    override fun <T> accept(visitor: TreeVisitor<T>): T {
+        return track.accept(visitor)
+    }
+}
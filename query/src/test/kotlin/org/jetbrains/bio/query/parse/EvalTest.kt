@@ -36,8 +36,11 @@ class EvalTest {
     }
 
     class TestArithmeticTrack(val supplier: (ChromosomeRange, Int) -> List<Double>): ArithmeticTrack() {
-        override fun eval(chRange: ChromosomeRange, binsNum: Int): List<Double> {
-            return supplier(chRange, binsNum)
+        override fun evalInto(chRange: ChromosomeRange, binsNum: Int, out: DoubleArray) {
+            val values = supplier(chRange, binsNum)
+            for (i in 0..binsNum - 1) {
+                out[i] = values[i]
+            }
         }
         override fun <T> accept(visitor: TreeVisitor<T>): T {
             throw UnsupportedOperationException()
@@ -145,4 +148,26 @@ class EvalTest {
             assertEquals(it.first, it.second)
         }
     }
-}
\ No newline at end of file
+
+    @Test fun testArithmeticEvalArray() {
+        val track = LangParser("(1 + 2) * 3 - 8 / 4", emptyMap(), emptyMap()).parse() as ArithmeticTrack
+        val values = track.evalArray(ChromosomeRange(0, 100, chromosome), 4)
+        assertEquals(listOf(7.0, 7.0, 7.0, 7.0), values.asList())
+        assertEquals(values.asList(), track.eval(ChromosomeRange(0, 100, chromosome), 4))
+    }
+
+    @Test fun testBoxedTrackInExpression() {
+        val track1 = TestArithmeticTrack { a, b -> listOf(1.0, 2.0, 3.0, 4.0) }
+        val track2 = TestArithmeticTrack { a, b -> listOf(4.0, 3.0, 2.0, 1.0) }
+        val values = BinaryArithmeticTrack(ArithmeticOp.MUL, track1, track2)
+                .evalArray(ChromosomeRange(0, 100, chromosome), 4)
+        assertEquals(listOf(4.0, 6.0, 6.0, 4.0), values.asList())
+    }
+
+    @Test fun testIfStatementEval() {
+        val cond = TestPredicateTrack { a, b -> listOf(Range(0, 20), Range(60, 80)) }
+        val track = IfStatementTrack(cond, NumericTrack(1.0), NumericTrack(0.0))
+        val values = track.evalArray(ChromosomeRange(0, 100, chromosome), 5)
+        assertEquals(listOf(1.0, 0.0, 0.0, 1.0, 0.0), values.asList())
+    }
+}
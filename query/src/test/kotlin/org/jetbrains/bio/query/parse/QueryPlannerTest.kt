@@ -0,0 +1,97 @@
+package org.jetbrains.bio.query.parse
+
+import org.jetbrains.bio.genome.Chromosome
+import org.jetbrains.bio.genome.ChromosomeRange
+import org.junit.Before
+import org.junit.Test
+import java.util.*
+import kotlin.test.assertEquals
+import kotlin.test.assertTrue
+
+class QueryPlannerTest {
+    companion object {
+        val chromosome = Chromosome.invoke("to1", "chr1")
+    }
+
+    class CountingTrack(val value: Double) : ArithmeticTrack() {
+        var evaluations = 0
+
+        override fun evalInto(chRange: ChromosomeRange, binsNum: Int, out: DoubleArray) {
+            evaluations++
+            Arrays.fill(out, 0, binsNum, value)
+        }
+
+        override fun <T> accept(visitor: TreeVisitor<T>): T {
+            throw UnsupportedOperationException()
+        }
+
+        override fun compareTo(other: Statement): Int {
+            return if (other === this) 0 else 1
+        }
+    }
+
+    private lateinit var track: CountingTrack
+    private lateinit var arithmeticTracks: Map<String, ArithmeticTrack>
+    private lateinit var cache: TrackResultCache
+    private lateinit var planner: QueryPlanner
+
+    @Before fun setUp() {
+        track = CountingTrack(2.0)
+        arithmeticTracks = mapOf("a" to track)
+        cache = TrackResultCache()
+        planner = QueryPlanner(cache)
+    }
+
+    private fun plan(query: String): ArithmeticTrack {
+        return planner.plan(LangParser(query, arithmeticTracks, emptyMap()).parse()) as ArithmeticTrack
+    }
+
+    @Test fun testNamedTrackEvaluatedOnce() {
+        val planned = plan("a * a + a / (a + a)")
+        val values = planned.evalArray(ChromosomeRange(0, 100, chromosome), 10)
+        assertEquals(1, track.evaluations)
+        assertTrue(values.all { it == 4.5 })
+    }
+
+    @Test fun testResultsReusedAcrossQueries() {
+        val range = ChromosomeRange(0, 100, chromosome)
+        plan("a + 1").evalArray(range, 10)
+        plan("a - 1").evalArray(range, 10)
+        assertEquals(1, track.evaluations)
+
+        plan("a + 1").evalArray(ChromosomeRange(0, 200, chromosome), 10)
+        assertEquals(2, track.evaluations)
+    }
+
+    @Test fun testPlannedTreeIsEquivalent() {
+        val query = "(a + 1) * (a + 1) - 3"
+        val parsed = LangParser(query, arithmeticTracks, emptyMap()).parse()
+        assertEquals(0, planner.plan(parsed).compareTo(parsed))
+    }
+
+    @Test fun testInvalidate() {
+        val range = ChromosomeRange(0, 100, chromosome)
+        plan("a + 1").evalArray(range, 10)
+        assertEquals(1L, cache.size())
+
+        cache.invalidate("b")
+        assertEquals(1L, cache.size())
+        cache.invalidate("a")
+        assertEquals(0L, cache.size())
+
+        plan("a + 1").evalArray(range, 10)
+        assertEquals(2, track.evaluations)
+    }
+
+    @Test fun testInvalidateTwice() {
+        val range = ChromosomeRange(0, 100, chromosome)
+        val planned = plan("a + 1")
+        planned.evalArray(range, 10)
+        cache.invalidate("a")
+        planned.evalArray(range, 10)
+        assertEquals(1L, cache.size())
+
+        cache.invalidate("a")
+        assertEquals(0L, cache.size())
+    }
+}
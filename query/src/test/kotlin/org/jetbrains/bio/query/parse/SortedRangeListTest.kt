@@ -121,5 +121,37 @@ class SortedRangeListTest() {
             }
         }
     }
-}
 
+    @Test fun testXor() {
+        val a = listOf(Range(0, 100), Range(200, 300), Range(400, 500)).toSortedRangeList()
+        val b = listOf(Range(50, 200), Range(300, 400), Range(450, 500)).toSortedRangeList()
+        val expected = listOf(Range(0, 50), Range(100, 450))
+        val ans = a xor b
+        assertEquals(expected.size, ans.size())
+        ans.zip(expected).forEach {
+            assertEquals(it.second, it.first)
+        }
+
+        assertEquals(0, (a xor a).size())
+    }
+
+    @Test fun testNot() {
+        val list = listOf(Range(10, 20), Range(100, 200), Range(500, 800)).toSortedRangeList()
+        val expected = listOf(Range(50, 100), Range(200, 500), Range(800, 900))
+        val ans = list.not(Range(50, 900))
+        assertEquals(expected.size, ans.size())
+        ans.zip(expected).forEach {
+            assertEquals(it.second, it.first)
+        }
+    }
+
+    @Test fun testOperandsUnchanged() {
+        val a = listOf(Range(0, 100), Range(200, 300)).toSortedRangeList()
+        val b = listOf(Range(50, 250)).toSortedRangeList()
+        a and b
+        a or b
+        a xor b
+        assertEquals(listOf(Range(0, 100), Range(200, 300)), a.toList())
+        assertEquals(listOf(Range(50, 250)), b.toList())
+    }
+}
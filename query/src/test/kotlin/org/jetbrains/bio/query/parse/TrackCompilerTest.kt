@@ -0,0 +1,126 @@
+package org.jetbrains.bio.query.parse
+
+import org.jetbrains.bio.genome.Chromosome
+import org.jetbrains.bio.genome.ChromosomeRange
+import org.jetbrains.bio.genome.Range
+import org.junit.Test
+import java.util.*
+import kotlin.system.measureNanoTime
+import kotlin.test.assertEquals
+import kotlin.test.assertTrue
+
+class TrackCompilerTest {
+    companion object {
+        val chromosome = Chromosome.invoke("to1", "chr1")
+        val range = ChromosomeRange(0, 160, chromosome)
+
+        val arithmeticTracks = mapOf<String, ArithmeticTrack>(
+                "a" to EvalTest.TestArithmeticTrack { r, b -> listOf(10.0, 20.0, 30.0, 0.0, 2.0, 3.0, 4.0, 0.0) },
+                "b" to EvalTest.TestArithmeticTrack { r, b -> listOf(2.0, 10.0, 15.0, 5.0, 2.0, 2.0, 2.0, 100.0) })
+        val predicateTracks = mapOf<String, PredicateTrack>(
+                "p" to EvalTest.TestPredicateTrack { r, b -> listOf(Range(0, 40), Range(100, 160)) },
+                "q" to EvalTest.TestPredicateTrack { r, b -> listOf(Range(5, 47), Range(97, 163)) })
+    }
+
+    private fun parse(query: String) = LangParser(query, arithmeticTracks, predicateTracks).parse()
+
+    @Test fun testArithmetic() {
+        listOf("a + b * 2 - 1",
+               "(a - b) / (b + 1)",
+               "if a >= b then a else b * 2",
+               "if (a > b AND p) OR NOT p then 1 else a - b").forEach { query ->
+            val track = parse(query) as ArithmeticTrack
+            val compiled = TrackCompiler.compile(track)
+            assertTrue(compiled is CompiledArithmeticTrack)
+            assertEquals(track.evalArray(range, 8).asList(), compiled.evalArray(range, 8).asList(), query)
+        }
+    }
+
+    @Test fun testPredicate() {
+        listOf("a >= b", "a < b OR b > 10", "NOT (a == b)", "p AND a > 5").forEach { query ->
+            val track = parse(query) as PredicateTrack
+            val compiled = TrackCompiler.compile(track)
+            assertTrue(compiled is CompiledPredicateTrack)
+            assertEquals(track.eval(range, 8).toList(), compiled.eval(range, 8).toList(), query)
+        }
+    }
+
+    @Test fun testUnalignedPredicate() {
+        // 165 isn't a multiple of 8 bins and 'q' doesn't follow the bins.
+        val unaligned = ChromosomeRange(0, 165, chromosome)
+        listOf("q AND a > 5", "NOT (a == b)", "NOT q OR a < b", "true AND (a >= b)").forEach { query ->
+            val track = parse(query) as PredicateTrack
+            val compiled = TrackCompiler.compile(track)
+            assertEquals(track.eval(unaligned, 8).toList(), compiled.eval(unaligned, 8).toList(), query)
+        }
+
+        listOf("if q AND a > b then a else b", "if NOT (a > b) then 1 else 0").forEach { query ->
+            val track = parse(query) as ArithmeticTrack
+            val compiled = TrackCompiler.compile(track)
+            assertEquals(track.evalArray(unaligned, 8).asList(), compiled.evalArray(unaligned, 8).asList(), query)
+        }
+    }
+
+    @Test fun testNamedAndCached() {
+        val cache = TrackResultCache()
+        val planner = QueryPlanner(cache)
+        val assigned = planner.plan(parse("x := a + b * 2")) as AssignStatement
+        val named = NamedArithmeticTrack("x", assigned.track as ArithmeticTrack)
+        val compiled = TrackCompiler.compile(planner.plan(named) as ArithmeticTrack)
+        assertTrue(compiled is CachedArithmeticTrack)
+        assertTrue(TrackCompiler.unwrap(compiled) is CompiledArithmeticTrack)
+        assertEquals(named.evalArray(range, 8).asList(), compiled.evalArray(range, 8).asList())
+
+        val hits = cache.stats().hitCount()
+        assertEquals(named.evalArray(range, 8).asList(), compiled.evalArray(range, 8).asList())
+        assertTrue(cache.stats().hitCount() > hits)
+    }
+
+    @Test fun testFusedShapes() {
+        listOf("a + b", "a * 2", "2 - a", "1 / (a + 1)", "a * a + a",
+               "a > 5", "2 < b", "if a > 5 then a else 1").forEach { query ->
+            val track = parse(query)
+            when (track) {
+                is ArithmeticTrack -> assertEquals(track.evalArray(range, 8).asList(),
+                                                   TrackCompiler.compile(track).evalArray(range, 8).asList(),
+                                                   query)
+                is PredicateTrack -> assertEquals(track.eval(range, 8).toList(),
+                                                  TrackCompiler.compile(track).eval(range, 8).toList(),
+                                                  query)
+            }
+        }
+    }
+
+    @Test fun testDeepExpressionNotSlower() {
+        val binsNum = 1 shl 16
+        val r = Random(42)
+        val xs = DoubleArray(binsNum) { r.nextDouble() }.asList()
+        val ys = DoubleArray(binsNum) { r.nextDouble() + 1 }.asList()
+        val tracks = mapOf<String, ArithmeticTrack>(
+                "a" to EvalTest.TestArithmeticTrack { chRange, bins -> xs },
+                "b" to EvalTest.TestArithmeticTrack { chRange, bins -> ys })
+        val track = LangParser(
+                "if a > b / 2 then ((a + b) * (a - b) + a * 2) / (b + 1) " +
+                "else ((a * 3 - b) * (b + 1) - a / (b + 2)) * ((a - 1) * (b - 1) + 0.5)",
+                tracks, predicateTracks).parse() as ArithmeticTrack
+        val compiled = TrackCompiler.compile(track)
+        assertEquals(track.evalArray(range, binsNum).asList(),
+                     compiled.evalArray(range, binsNum).asList())
+
+        val interpretedTime = bestTime { track.evalArray(range, binsNum) }
+        val compiledTime = bestTime { compiled.evalArray(range, binsNum) }
+        // Generous, so that a noisy machine doesn't fail the build.
+        assertTrue(compiledTime <= interpretedTime * 3 / 2,
+                   "compiled: $compiledTime ns, interpreted: $interpretedTime ns")
+    }
+
+    private inline fun bestTime(block: () -> Unit): Long {
+        repeat(20) { block() }  // Warm up.
+        return (0..9).map { measureNanoTime(block) }.min()!!
+    }
+
+    @Test fun testInterpretedMode() {
+        val track = parse("a + b") as GeneratedTrack
+        assertTrue(TrackCompiler.compile(track, EvaluationMode.INTERPRETED) === track)
+    }
+}
@@ -38,12 +38,59 @@ inline fun IntRange.forking(crossinline block: (Int) -> Unit) {
 
 fun <T> List<Callable<T>>.await(parallel: Boolean): Unit {
     if (parallel) {
-        val parallelism = Math.min(size, Runtime.getRuntime().availableProcessors())
-        val executor = Executors.newFixedThreadPool(parallelism)
-        executor.awaitAll(this)
-        executor.shutdown()
+        SharedPool.invokeAll(this)
     } else {
         forEach { it.call() }
     }
 }
 
+/**
+ * A process-wide ForkJoin pool for parallel computations.
+ *
+ * The parallelism defaults to the number of processors and can be
+ * overridden with the `parallelism` system property. A thread waiting
+ * for the tasks in [invokeAll] helps executing them, thus nested
+ * parallel sections neither deadlock nor create extra threads.
+ */
+object SharedPool {
+    val parallelism: Int = Integer.getInteger(
+            "parallelism", Runtime.getRuntime().availableProcessors())
+
+    val pool = ForkJoinPool(parallelism)
+
+    /**
+     * Executes tasks in the pool and returns their results in order,
+     * re-throwing the first exception occurred as is.
+     */
+    fun <T> invokeAll(tasks: List<Callable<T>>): List<T> {
+        val forkJoinTasks = tasks.map { CallableTask(it) }
+        try {
+            if (ForkJoinTask.getPool() === pool) {
+                ForkJoinTask.invokeAll(forkJoinTasks)
+            } else {
+                pool.submit(Runnable { ForkJoinTask.invokeAll(forkJoinTasks) }).get()
+            }
+
+            return forkJoinTasks.map { it.join() }
+        } catch (e: Throwable) {
+            // ForkJoin wraps checked exceptions and the ones crossing
+            // threads, thus the original exception is recorded by the
+            // task itself.
+            throw forkJoinTasks.mapNotNull { it.error }.firstOrNull()
+                  ?: (if (e is ExecutionException) e.cause ?: e else e)
+        }
+    }
+
+    private class CallableTask<T>(private val callable: Callable<T>) : RecursiveTask<T>() {
+        @Volatile var error: Throwable? = null
+
+        override fun compute(): T {
+            try {
+                return callable.call()
+            } catch (e: Throwable) {
+                error = e
+                throw e
+            }
+        }
+    }
+}
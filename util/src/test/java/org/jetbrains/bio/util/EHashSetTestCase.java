@@ -23,7 +23,7 @@ public class EHashSetTestCase extends TestCase {
     //assertEquals("[5, 4, 3]", Arrays.toString(data));
     if (Arrays.toString(data).equals("[5, 4, 3]")) {
       // https://bitbucket.org/robeden/trove/issue/53/_e_hashsettemplate-retainall-hidden-side
-      fail("Issue #53 already fixed, time to remove explicit array.clone in DataFrame Column.intersect()");
+      fail("Issue #53 already fixed");
     } else {
       // current side effect demo:
       assertEquals("[3, 4, 5]", Arrays.toString(data));